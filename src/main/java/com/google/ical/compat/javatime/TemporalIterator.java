@@ -0,0 +1,40 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.ical.compat.javatime;
+
+import java.time.Instant;
+import java.time.temporal.Temporal;
+import java.util.Iterator;
+
+/**
+ * an iterator over the occurrences of a recurrence as <code>java.time</code>
+ * values, in order.
+ *
+ * @param <T> the type of value, such as <code>Instant</code>,
+ *   <code>ZonedDateTime</code> or <code>LocalDateTime</code>.
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public interface TemporalIterator<T extends Temporal> extends Iterator<T> {
+
+  /**
+   * skips all occurrences in the series that start before the given instant.
+   *
+   * @param newStart non null.
+   */
+  void advanceTo(Instant newStart);
+
+}
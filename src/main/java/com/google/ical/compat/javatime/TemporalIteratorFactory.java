@@ -0,0 +1,238 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.ical.compat.javatime;
+
+import com.google.ical.iter.RecurrenceIterator;
+import com.google.ical.iter.RecurrenceIteratorFactory;
+import com.google.ical.util.PackedDate;
+import com.google.ical.values.DateTimeValueImpl;
+import com.google.ical.values.DateValueImpl;
+import java.text.ParseException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.Temporal;
+import java.time.zone.ZoneRules;
+import java.util.NoSuchElementException;
+import java.util.TimeZone;
+
+/**
+ * a factory for converting RRULEs and RDATEs into iterators over
+ * <code>Instant</code>s, <code>ZonedDateTime</code>s and
+ * <code>LocalDateTime</code>s.
+ *
+ * <p>Occurrences are taken from the recurrence iterator as packed UTC values
+ * and converted with the <code>ZoneRules</code> of the series' zone, which are
+ * looked up once per iterator, so no <code>Calendar</code> or
+ * <code>DateValue</code> is created for each occurrence.  An occurrence that
+ * is a date rather than a date-time starts at the start of that day in the
+ * series' zone.</p>
+ *
+ * @see RecurrenceIteratorFactory
+ * @see com.google.ical.compat.javautil.DateIteratorFactory
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public class TemporalIteratorFactory {
+
+  /**
+   * given a block of RRULE, EXRULE, RDATE, and EXDATE content lines, parse
+   * them into a single iterator over the instants at which they occur.
+   * @param rdata RRULE, EXRULE, RDATE, and EXDATE lines.
+   * @param start the first occurrence of the series.  Its zone is used to
+   *   interpret any dates in RDATE and EXDATE lines that don't have TZID
+   *   params.
+   * @param strict true if any failure to parse should result in a
+   *   ParseException.  false causes bad content lines to be logged and ignored.
+   */
+  public static TemporalIterator<Instant> createInstantIterator(
+      String rdata, ZonedDateTime start, boolean strict)
+      throws ParseException {
+    return createInstantIterator(
+        createRecurrenceIterator(rdata, start, strict), start.getZone());
+  }
+
+  /**
+   * like {@link #createInstantIterator(String,ZonedDateTime,boolean)} but
+   * yields the occurrences in the zone of start.
+   */
+  public static TemporalIterator<ZonedDateTime> createZonedDateTimeIterator(
+      String rdata, ZonedDateTime start, boolean strict)
+      throws ParseException {
+    return createZonedDateTimeIterator(
+        createRecurrenceIterator(rdata, start, strict), start.getZone());
+  }
+
+  /**
+   * like {@link #createInstantIterator(String,ZonedDateTime,boolean)} but
+   * yields the local times of the occurrences in the zone of start.
+   */
+  public static TemporalIterator<LocalDateTime> createLocalDateTimeIterator(
+      String rdata, ZonedDateTime start, boolean strict)
+      throws ParseException {
+    return createLocalDateTimeIterator(
+        createRecurrenceIterator(rdata, start, strict), start.getZone());
+  }
+
+  /**
+   * creates an instant iterator given a recurrence iterator from
+   * {@link RecurrenceIteratorFactory}.
+   * @param zone the zone that the recurrence iterator works in, which is
+   *   used to place occurrences that are dates.
+   */
+  public static TemporalIterator<Instant> createInstantIterator(
+      RecurrenceIterator rit, ZoneId zone) {
+    return new RecurrenceIteratorWrapper<Instant>(rit, zone) {
+        @Override
+        Instant convert(long epochSecs, ZoneOffset offset) {
+          return Instant.ofEpochSecond(epochSecs);
+        }
+      };
+  }
+
+  /**
+   * creates a zoned date-time iterator given a recurrence iterator from
+   * {@link RecurrenceIteratorFactory}.
+   * @param zone the zone that the recurrence iterator works in, and that the
+   *   occurrences are yielded in.
+   */
+  public static TemporalIterator<ZonedDateTime> createZonedDateTimeIterator(
+      RecurrenceIterator rit, final ZoneId zone) {
+    return new RecurrenceIteratorWrapper<ZonedDateTime>(rit, zone) {
+        @Override
+        ZonedDateTime convert(long epochSecs, ZoneOffset offset) {
+          return ZonedDateTime.ofInstant(
+              LocalDateTime.ofEpochSecond(epochSecs, 0, offset), offset, zone);
+        }
+      };
+  }
+
+  /**
+   * creates a local date-time iterator given a recurrence iterator from
+   * {@link RecurrenceIteratorFactory}.
+   * @param zone the zone that the recurrence iterator works in, and whose
+   *   local times are yielded.
+   */
+  public static TemporalIterator<LocalDateTime> createLocalDateTimeIterator(
+      RecurrenceIterator rit, ZoneId zone) {
+    return new RecurrenceIteratorWrapper<LocalDateTime>(rit, zone) {
+        @Override
+        LocalDateTime convert(long epochSecs, ZoneOffset offset) {
+          return LocalDateTime.ofEpochSecond(epochSecs, 0, offset);
+        }
+      };
+  }
+
+  private static RecurrenceIterator createRecurrenceIterator(
+      String rdata, ZonedDateTime start, boolean strict)
+      throws ParseException {
+    return RecurrenceIteratorFactory.createRecurrenceIterator(
+        rdata,
+        new DateTimeValueImpl(start.getYear(), start.getMonthValue(),
+                              start.getDayOfMonth(), start.getHour(),
+                              start.getMinute(), start.getSecond()),
+        TimeZone.getTimeZone(start.getZone()), strict);
+  }
+
+  /**
+   * adapts a recurrence iterator, converting each packed occurrence to a
+   * time since the epoch and the zone's offset at that time.
+   */
+  private abstract static class RecurrenceIteratorWrapper<T extends Temporal>
+      implements TemporalIterator<T> {
+    private final RecurrenceIterator it;
+    private final ZoneId zone;
+    private final ZoneRules rules;
+    /** the next occurrence as a packed UTC date-time or date, or NONE. */
+    private long pending = NONE;
+    /** the epoch second at which pending occurs. */
+    private long pendingSecs;
+    private final long[] buf = new long[1];
+
+    RecurrenceIteratorWrapper(RecurrenceIterator it, ZoneId zone) {
+      this.it = it;
+      this.zone = zone;
+      this.rules = zone.getRules();
+    }
+
+    /** converts an occurrence at the given time and offset. */
+    abstract T convert(long epochSecs, ZoneOffset offset);
+
+    public boolean hasNext() {
+      return fetch();
+    }
+
+    public T next() {
+      if (!fetch()) { throw new NoSuchElementException(); }
+      pending = NONE;
+      return convert(pendingSecs,
+                     rules.getOffset(Instant.ofEpochSecond(pendingSecs)));
+    }
+
+    public void remove() { throw new UnsupportedOperationException(); }
+
+    public void advanceTo(Instant newStart) {
+      // the pending occurrence tells whether the series is of dates or
+      // date-times, and may already be late enough.
+      if (!fetch() || pendingSecs >= ceilSecs(newStart)) { return; }
+      boolean timed = PackedDate.hasTime(pending);
+      pending = NONE;
+      if (timed) {
+        LocalDateTime utc = LocalDateTime.ofEpochSecond(
+            ceilSecs(newStart), 0, ZoneOffset.UTC);
+        it.advanceTo(new DateTimeValueImpl(
+            utc.getYear(), utc.getMonthValue(), utc.getDayOfMonth(),
+            utc.getHour(), utc.getMinute(), utc.getSecond()));
+      } else {
+        // the first day that starts on or after newStart
+        LocalDate day = LocalDate.ofInstant(newStart, zone);
+        if (day.atStartOfDay(zone).toInstant().isBefore(newStart)) {
+          day = day.plusDays(1);
+        }
+        it.advanceTo(new DateValueImpl(
+            day.getYear(), day.getMonthValue(), day.getDayOfMonth()));
+      }
+    }
+
+    /** makes sure there is a pending occurrence if there are any left. */
+    private boolean fetch() {
+      if (NONE == pending) {
+        if (0 == it.nextBatch(buf, 0, 1)) { return false; }
+        pending = buf[0];
+        pendingSecs = PackedDate.hasTime(pending)
+            ? PackedDate.timetSecs(pending)
+            : LocalDate.of(PackedDate.year(pending), PackedDate.month(pending),
+                           PackedDate.day(pending))
+              .atStartOfDay(zone).toEpochSecond();
+      }
+      return true;
+    }
+
+    private static long ceilSecs(Instant t) {
+      return 0 == t.getNano() ? t.getEpochSecond() : t.getEpochSecond() + 1;
+    }
+  }
+
+  /** a value that is not a valid packed date. */
+  private static final long NONE = Long.MIN_VALUE;
+
+  private TemporalIteratorFactory() {
+    // uninstantiable
+  }
+}
@@ -14,9 +14,12 @@
 
 package com.google.ical.iter;
 
+import com.google.ical.util.PackedDate;
 import com.google.ical.values.DateValue;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
 
@@ -37,6 +40,8 @@ final class CompoundIteratorImpl implements RecurrenceIterator {
    * exhausted.
    */
   private int nInclusionsRemaining;
+  /** all of the iterators, including those that are exhausted. */
+  private final RecurrenceIterator[] iterators;
 
   /**
    * A generator that will generate only dates that are generated by inclusions
@@ -52,6 +57,9 @@ final class CompoundIteratorImpl implements RecurrenceIterator {
       Collection<RecurrenceIterator> exclusions) {
     queue = new PriorityQueue<HeapElement>(
         inclusions.size() + exclusions.size(), HeapElement.CMP);
+    List<RecurrenceIterator> all = new ArrayList<RecurrenceIterator>(inclusions);
+    all.addAll(exclusions);
+    iterators = all.toArray(new RecurrenceIterator[all.size()]);
     for (RecurrenceIterator it : inclusions) {
       HeapElement el = new HeapElement(true, it);
       if (el.shift()) {
@@ -79,8 +87,33 @@ final class CompoundIteratorImpl implements RecurrenceIterator {
     return head;
   }
 
+  @Override
+  public int nextBatch(long[] destUtc, int off, int len) {
+    int n = 0;
+    while (n < len) {
+      requirePending();
+      if (null == pending) { break; }
+      destUtc[off + n++] = pending.comparable();
+      reattach(pending);
+      pending = null;
+    }
+    return n;
+  }
+
   public void remove() { throw new UnsupportedOperationException(); }
 
+  /**
+   * true if any inclusion or exclusion was truncated, since a truncated
+   * exclusion may let through dates that should have been excluded.
+   */
+  @Override
+  public boolean isTruncated() {
+    for (RecurrenceIterator it : iterators) {
+      if (it.isTruncated()) { return true; }
+    }
+    return false;
+  }
+
   public void advanceTo(DateValue newStart) {
     long newStartCmp = DateValueComparison.comparable(newStart);
     if (null != pending) {
@@ -171,11 +204,21 @@ final class HeapElement {
    * nullify any matched items included by other series.
    */
   final boolean inclusion;
-  /** the {@link DateValueComparison#comparable} for {@link #head}. */
+  /**
+   * the {@link DateValueComparison#comparable} for the last value removed
+   * from it.  In utc.
+   */
   private long comparable;
-  /** the last value removed from it.  In utc. */
-  private DateValue head;
   private RecurrenceIterator it;
+  /**
+   * dates fetched from it via {@link RecurrenceIterator#nextBatch} but not
+   * yet shifted onto the head.
+   */
+  private final long[] buffer = new long[BUFFER_SIZE];
+  private int bufferPos;
+  private int bufferLimit;
+
+  private static final int BUFFER_SIZE = 16;
 
   HeapElement(boolean inclusion, RecurrenceIterator it) {
     this.inclusion = inclusion;
@@ -183,7 +226,7 @@ final class HeapElement {
   }
 
   /** the last value removed from the iterator. */
-  DateValue head() { return head; }
+  DateValue head() { return PackedDate.toDateValue(comparable); }
   /**
    * A given HeapElement may be compared to many others as it bubbles towards
    * the heap's root, so we cache this for each HeapElement.
@@ -194,9 +237,12 @@ final class HeapElement {
    * replace it.
    */
   boolean shift() {
-    if (!it.hasNext()) { return false; }
-    head = it.next();
-    comparable = DateValueComparison.comparable(head);
+    if (bufferPos == bufferLimit) {
+      bufferPos = 0;
+      bufferLimit = it.nextBatch(buffer, 0, BUFFER_SIZE);
+      if (0 == bufferLimit) { return false; }
+    }
+    comparable = buffer[bufferPos++];
     return true;
   }
 
@@ -205,13 +251,19 @@ final class HeapElement {
    * {@link RecurrenceIterator#advanceTo}.
    */
   void advanceTo(DateValue dvUtc) {
-    it.advanceTo(dvUtc);
+    long dvCmp = DateValueComparison.comparable(dvUtc);
+    while (bufferPos < bufferLimit && buffer[bufferPos] < dvCmp) {
+      ++bufferPos;
+    }
+    if (bufferPos == bufferLimit) {
+      it.advanceTo(dvUtc);
+    }
   }
 
   @Override
   public String toString() {
-    return
-      "[" + head.toString() + (inclusion ? ", inclusion]" : ", exclusion]");
+    return "[" + PackedDate.toString(comparable)
+      + (inclusion ? ", inclusion]" : ", exclusion]");
   }
 
   /** compares to heap elements by comparing their heads. */
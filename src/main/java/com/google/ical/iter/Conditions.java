@@ -14,7 +14,7 @@
 
 package com.google.ical.iter;
 
-import com.google.ical.util.Predicate;
+import com.google.ical.util.PackedDate;
 import com.google.ical.values.DateValue;
 
 /**
@@ -25,10 +25,10 @@ import com.google.ical.values.DateValue;
 final class Conditions {
 
   /** constructs a condition that fails after passing count dates. */
-  static Predicate<DateValue> countCondition(final int count) {
-    return new Predicate<DateValue>() {
+  static DatePredicate countCondition(final int count) {
+    return new DatePredicate() {
       int count_ = count;
-      public boolean apply(DateValue _x) {
+      public boolean apply(long _x) {
         return --count_ >= 0;
       }
     };
@@ -38,10 +38,23 @@ final class Conditions {
    * constructs a condition that passes for every date on or before until.
    * @param until non null.
    */
-  static Predicate<DateValue> untilCondition(final DateValue until) {
-    return new Predicate<DateValue>() {
-      public boolean apply(DateValue date) {
-        return date.compareTo(until) <= 0;
+  static DatePredicate untilCondition(DateValue until) {
+    final long packedUntil = PackedDate.pack(until);
+    return new DatePredicate() {
+      public boolean apply(long date) {
+        return date <= packedUntil;
+      }
+    };
+  }
+
+  /**
+   * constructs a condition that fails once an instance is past the horizon
+   * or instance limit of the given budget.
+   */
+  static DatePredicate budgetCondition(final ExpansionBudget budget) {
+    return new DatePredicate() {
+      public boolean apply(long date) {
+        return budget.admit(date);
       }
     };
   }
@@ -0,0 +1,41 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+/**
+ * a {@link com.google.ical.util.Predicate} over
+ * {@link com.google.ical.util.PackedDate packed} dates, used for filters and
+ * conditions so that candidate dates need not be boxed into
+ * {@link com.google.ical.values.DateValue}s.
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+interface DatePredicate {
+
+  /** a predicate that accepts every date. */
+  DatePredicate ALWAYS_TRUE = new DatePredicate() {
+      public boolean apply(long date) { return true; }
+
+      @Override
+      public String toString() { return "alwaysTrue"; }
+    };
+
+  /**
+   * @param date a packed date or date-time.
+   * @return true iff the date passes.
+   */
+  boolean apply(long date);
+
+}
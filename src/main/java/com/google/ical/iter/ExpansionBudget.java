@@ -0,0 +1,76 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.util.PackedDate;
+
+/**
+ * the work remaining to one iterator under an {@link ExpansionPolicy}.
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+final class ExpansionBudget {
+  /** how many steps to take between checks of the clock. */
+  private static final int STEPS_PER_CLOCK_CHECK = 256;
+
+  private final long maxSteps;
+  private final long horizonUtc;
+  private final int maxInstances;
+  private final long startNanos;
+  private final long maxNanos;
+  private long steps;
+  private int instances;
+  /** true once a limit has stopped the iteration. */
+  private boolean truncated;
+
+  ExpansionBudget(ExpansionPolicy policy) {
+    this.maxSteps = policy.getMaxSteps();
+    this.horizonUtc = null != policy.getMaxHorizon()
+        ? PackedDate.pack(policy.getMaxHorizon()) : Long.MAX_VALUE;
+    this.maxInstances = policy.getMaxInstances();
+    this.maxNanos = policy.getMaxNanos();
+    this.startNanos = maxNanos != Long.MAX_VALUE ? System.nanoTime() : 0;
+  }
+
+  /**
+   * counts a candidate date.
+   * @throws Generator.IteratorShortCircuitingException once the step or time
+   *   limit is exceeded.
+   */
+  void step() throws Generator.IteratorShortCircuitingException {
+    ++steps;
+    if (steps > maxSteps
+        || (maxNanos != Long.MAX_VALUE && 0 == steps % STEPS_PER_CLOCK_CHECK
+            && System.nanoTime() - startNanos > maxNanos)) {
+      truncated = true;
+      throw Generator.IteratorShortCircuitingException.instance();
+    }
+  }
+
+  /**
+   * counts an instance that the rule would otherwise return.
+   * @return false if the instance is beyond the horizon or instance limit.
+   */
+  boolean admit(long dateUtc) {
+    if (dateUtc > horizonUtc || ++instances > maxInstances) {
+      truncated = true;
+      return false;
+    }
+    return true;
+  }
+
+  boolean isTruncated() { return truncated; }
+
+}
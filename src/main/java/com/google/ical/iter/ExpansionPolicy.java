@@ -0,0 +1,124 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.values.DateValue;
+
+/**
+ * limits on the work done to expand a recurrence rule, so that rules from
+ * untrusted sources cannot tie up a thread.
+ * A rule like <code>RRULE:FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=30;BYDAY=MO</code>
+ * may examine many candidate dates without producing any, and a rule without
+ * COUNT or UNTIL never ends.
+ *
+ * <p>When an iterator reaches one of the limits it stops, and
+ * {@link RecurrenceIterator#isTruncated} returns true so that callers can tell
+ * a series cut short from one that ended.</p>
+ *
+ * <p>Policies are immutable.  Each iterator created with a policy keeps its own
+ * count of instances, steps and time.</p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public final class ExpansionPolicy {
+
+  /** a policy with no limits. */
+  public static final ExpansionPolicy UNLIMITED = new ExpansionPolicy(
+      Integer.MAX_VALUE, null, Long.MAX_VALUE, Long.MAX_VALUE);
+
+  private final int maxInstances;
+  private final DateValue maxHorizonUtc;
+  private final long maxSteps;
+  private final long maxNanos;
+
+  private ExpansionPolicy(int maxInstances, DateValue maxHorizonUtc,
+                          long maxSteps, long maxNanos) {
+    this.maxInstances = maxInstances;
+    this.maxHorizonUtc = maxHorizonUtc;
+    this.maxSteps = maxSteps;
+    this.maxNanos = maxNanos;
+  }
+
+  /**
+   * a policy like this one that stops after the given number of instances.
+   * @param maxInstances positive.
+   */
+  public ExpansionPolicy withMaxInstances(int maxInstances) {
+    if (maxInstances <= 0) {
+      throw new IllegalArgumentException("maxInstances " + maxInstances);
+    }
+    return new ExpansionPolicy(maxInstances, maxHorizonUtc, maxSteps, maxNanos);
+  }
+
+  /**
+   * a policy like this one that stops before any instance after the given
+   * date.
+   * @param maxHorizonUtc the last date that may be returned, in UTC, or null
+   *   for no limit.
+   */
+  public ExpansionPolicy withMaxHorizon(DateValue maxHorizonUtc) {
+    return new ExpansionPolicy(maxInstances, maxHorizonUtc, maxSteps, maxNanos);
+  }
+
+  /**
+   * a policy like this one that stops after examining the given number of
+   * candidate days, whether or not they turn out to be instances.
+   * @param maxSteps positive.
+   */
+  public ExpansionPolicy withMaxSteps(long maxSteps) {
+    if (maxSteps <= 0) {
+      throw new IllegalArgumentException("maxSteps " + maxSteps);
+    }
+    return new ExpansionPolicy(maxInstances, maxHorizonUtc, maxSteps, maxNanos);
+  }
+
+  /**
+   * a policy like this one that stops once the given number of nanoseconds
+   * have elapsed since the iterator was created.
+   * @param maxNanos positive.
+   */
+  public ExpansionPolicy withMaxNanos(long maxNanos) {
+    if (maxNanos <= 0) {
+      throw new IllegalArgumentException("maxNanos " + maxNanos);
+    }
+    return new ExpansionPolicy(maxInstances, maxHorizonUtc, maxSteps, maxNanos);
+  }
+
+  /** the maximum number of instances, or Integer.MAX_VALUE. */
+  public int getMaxInstances() { return maxInstances; }
+
+  /** the last date that may be returned, in UTC, or null. */
+  public DateValue getMaxHorizon() { return maxHorizonUtc; }
+
+  /** the maximum number of candidate days examined, or Long.MAX_VALUE. */
+  public long getMaxSteps() { return maxSteps; }
+
+  /** the maximum time spent in nanoseconds, or Long.MAX_VALUE. */
+  public long getMaxNanos() { return maxNanos; }
+
+  /** true iff this policy imposes no limits. */
+  public boolean isUnlimited() {
+    return maxInstances == Integer.MAX_VALUE && null == maxHorizonUtc
+        && maxSteps == Long.MAX_VALUE && maxNanos == Long.MAX_VALUE;
+  }
+
+  @Override
+  public String toString() {
+    return "ExpansionPolicy[maxInstances=" + maxInstances
+        + ", maxHorizon=" + maxHorizonUtc + ", maxSteps=" + maxSteps
+        + ", maxNanos=" + maxNanos + "]";
+  }
+
+}
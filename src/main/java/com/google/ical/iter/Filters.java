@@ -17,9 +17,13 @@ package com.google.ical.iter;
 import com.google.ical.values.DateValue;
 import com.google.ical.values.Weekday;
 import com.google.ical.values.WeekdayNum;
-import com.google.ical.util.DTBuilder;
-import com.google.ical.util.Predicate;
+import com.google.ical.util.PackedDate;
 import com.google.ical.util.TimeUtils;
+import com.google.ical.util.YearTable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
 
 /**
@@ -43,81 +47,91 @@ class Filters {
    * @param weeksInYear are the week numbers meant to be weeks in the
    *   current year, or weeks in the current month.
    */
-  static Predicate<DateValue> byDayFilter(
+  static DatePredicate byDayFilter(
       final WeekdayNum[] days, final boolean weeksInYear, final Weekday wkst) {
-    return new Predicate<DateValue>() {
-        public boolean apply(DateValue date) {
-          Weekday dow = Weekday.valueOf(date);
-
-          int nDays;
-          // first day of the week in the given year or month
-          Weekday dow0;
-          // where does date appear in the year or month?
-          // in [0, lengthOfMonthOrYear - 1]
-          int instance;
+    return new YearMaskPredicate() {
+        @Override
+        void fillMask(int year, long[] mask) {
+          YearTable table = YearTable.forYear(year);
           if (weeksInYear) {
-            nDays = TimeUtils.yearLength(date.year());
-            dow0 = Weekday.firstDayOfWeekInMonth(date.year(), 1);
-            instance = TimeUtils.dayOfYear(
-                date.year(), date.month(), date.day());
+            fillByDay(days, wkst, table.firstDayOfWeekInMonth(1),
+                      table.yearLength(), 0, mask);
           } else {
-            nDays = TimeUtils.monthLength(date.year(), date.month());
-            dow0 = Weekday.firstDayOfWeekInMonth(date.year(), date.month());
-            instance = date.day() - 1;
-          }
-
-          // which week of the year or month does this date fall on?
-          // one-indexed
-          int dateWeekNo;
-          if (wkst.javaDayNum <= dow.javaDayNum) {
-            dateWeekNo = 1 + (instance / 7);
-          } else {
-            dateWeekNo = (instance / 7);
-          }
-
-          // TODO(msamuel): according to section 4.3.10
-          //     Week number one of the calendar year is the first week which
-          //     contains at least four (4) days in that calendar year. This
-          //     rule part is only valid for YEARLY rules.
-          // That's mentioned under the BYWEEKNO rule, and there's no mention
-          // of it in the earlier discussion of the BYDAY rule.
-          // Does it apply to yearly week numbers calculated for BYDAY rules in
-          // a FREQ=YEARLY rule?
-
-          for (int i = days.length; --i >= 0;) {
-            WeekdayNum day = days[i];
-
-            if (day.wday == dow) {
-              int weekNo = day.num;
-              if (0 == weekNo) { return true; }
-
-              if (weekNo < 0) {
-                weekNo = Util.invertWeekdayNum(day, dow0, nDays);
-              }
-
-              if (dateWeekNo == weekNo) { return true; }
+            for (int month = 1; month <= 12; ++month) {
+              fillByDay(days, wkst, table.firstDayOfWeekInMonth(month),
+                        table.monthLength(month), table.dayOfYear(month, 1),
+                        mask);
             }
           }
-          return false;
         }
+
+        @Override
+        public String toString() { return "byDayFilter"; }
       };
   }
 
+  /**
+   * sets the bits for the days in a year or month that match a BYDAY rule.
+   * @param dow0 the day of the week of the first day of the period.
+   * @param nDays the length of the period.
+   * @param doy0 the zero indexed day of the year of the first day of the
+   *   period.
+   */
+  private static void fillByDay(WeekdayNum[] days, Weekday wkst, Weekday dow0,
+                                int nDays, int doy0, long[] mask) {
+    for (WeekdayNum day : days) {
+      // where the first day with that day of week appears in the period, in
+      // [0, 6]
+      int first = (7 + day.wday.javaDayNum - dow0.javaDayNum) % 7;
+      if (0 == day.num) {
+        for (int i = first; i < nDays; i += 7) {
+          setBit(mask, doy0 + i);
+        }
+        continue;
+      }
+      int weekNo = day.num > 0
+          ? day.num : Util.invertWeekdayNum(day, dow0, nDays);
+      // Days of the week before wkst are counted as being in the week before
+      // the first week, so the kth instance of such a day is in week k - 1.
+      // TODO(msamuel): according to section 4.3.10
+      //     Week number one of the calendar year is the first week which
+      //     contains at least four (4) days in that calendar year. This
+      //     rule part is only valid for YEARLY rules.
+      // That's mentioned under the BYWEEKNO rule, and there's no mention
+      // of it in the earlier discussion of the BYDAY rule.
+      // Does it apply to yearly week numbers calculated for BYDAY rules in
+      // a FREQ=YEARLY rule?
+      int k = wkst.javaDayNum <= day.wday.javaDayNum ? weekNo - 1 : weekNo;
+      int i = first + 7 * k;
+      if (k >= 0 && i < nDays) {
+        setBit(mask, doy0 + i);
+      }
+    }
+  }
+
   /**
    * constructs a day filter based on a BYDAY rule.
    * @param monthDays days of the month in [-31, 31] != 0
    */
-  static Predicate<DateValue> byMonthDayFilter(final int[] monthDays) {
-    return new Predicate<DateValue>() {
-      public boolean apply(DateValue date) {
-        int nDays = TimeUtils.monthLength(date.year(), date.month());
-        for (int i = monthDays.length; --i >= 0;) {
-          int day = monthDays[i];
-          if (day < 0) { day += nDays + 1; }
-          if (day == date.day()) { return true; }
+  static DatePredicate byMonthDayFilter(final int[] monthDays) {
+    return new YearMaskPredicate() {
+      @Override
+      void fillMask(int year, long[] mask) {
+        YearTable table = YearTable.forYear(year);
+        for (int month = 1; month <= 12; ++month) {
+          int nDays = table.monthLength(month);
+          int doy0 = table.dayOfYear(month, 1);
+          for (int day : monthDays) {
+            if (day < 0) { day += nDays + 1; }
+            if (day >= 1 && day <= nDays) {
+              setBit(mask, doy0 + day - 1);
+            }
+          }
         }
-        return false;
       }
+
+      @Override
+      public String toString() { return "byMonthDayFilter"; }
     };
   }
 
@@ -128,20 +142,17 @@ class Filters {
    * @param wkst day of the week that the week starts on.
    * @param dtStart non null
    */
-  static Predicate<DateValue> weekIntervalFilter(
+  static DatePredicate weekIntervalFilter(
       final int interval, final Weekday wkst, final DateValue dtStart) {
-    return new Predicate<DateValue>() {
-      DateValue wkStart;
-      {
-        // the latest day with day of week wkst on or before dtStart
-        DTBuilder wkStartB = new DTBuilder(dtStart);
-        wkStartB.day -=
-          (7 + Weekday.valueOf(dtStart).javaDayNum - wkst.javaDayNum) % 7;
-        wkStart = wkStartB.toDate();
-      }
+    return new DatePredicate() {
+      /** fixed day of the latest day of week wkst on or before dtStart */
+      final int wkStart =
+        TimeUtils.fixedFromGregorian(
+            dtStart.year(), dtStart.month(), dtStart.day())
+        - (7 + Weekday.valueOf(dtStart).javaDayNum - wkst.javaDayNum) % 7;
 
-      public boolean apply(DateValue date) {
-        int daysBetween = TimeUtils.daysBetween(date, wkStart);
+      public boolean apply(long date) {
+        int daysBetween = PackedDate.fixedDay(date) - wkStart;
         if (daysBetween < 0) {
           // date must be before dtStart.  Shouldn't occur in practice.
           daysBetween += (interval * 7 * (1 + daysBetween / (-7 * interval)));
@@ -152,6 +163,137 @@ class Filters {
     };
   }
 
+  /**
+   * a filter that passes iff all of the given filters pass.
+   * Filters that are {@link YearMaskPredicate}s are combined into one whose
+   * mask is the intersection of theirs, so that they are tested together with
+   * a single bit test.
+   * @param filters non null.
+   */
+  static DatePredicate and(List<DatePredicate> filters) {
+    List<DatePredicate> others = new ArrayList<DatePredicate>(filters);
+    YearMaskPredicate mask = removeYearMasks(others);
+    if (null != mask) { others.add(0, mask); }
+
+    switch (others.size()) {
+      case 0:
+        return DatePredicate.ALWAYS_TRUE;
+      case 1:
+        return others.get(0);
+      default:
+        final DatePredicate[] components =
+          others.toArray(new DatePredicate[others.size()]);
+        return new DatePredicate() {
+          public boolean apply(long date) {
+            for (DatePredicate p : components) {
+              if (!p.apply(date)) { return false; }
+            }
+            return true;
+          }
+        };
+    }
+  }
+
+  /**
+   * removes the {@link YearMaskPredicate}s from the given list of filters and
+   * returns one whose mask is the intersection of theirs, so that they can be
+   * tested together with a single bit test.
+   * @param filters a mutable list of filters that must all pass.
+   * @return null if there were no YearMaskPredicates.
+   */
+  static YearMaskPredicate removeYearMasks(List<DatePredicate> filters) {
+    final List<YearMaskPredicate> masks = new ArrayList<YearMaskPredicate>();
+    for (Iterator<DatePredicate> it = filters.iterator(); it.hasNext();) {
+      DatePredicate filter = it.next();
+      if (filter instanceof YearMaskPredicate) {
+        masks.add((YearMaskPredicate) filter);
+        it.remove();
+      }
+    }
+    switch (masks.size()) {
+      case 0:
+        return null;
+      case 1:
+        return masks.get(0);
+      default:
+        return new YearMaskPredicate() {
+            private final long[] scratch = new long[MASK_LENGTH];
+
+            @Override
+            void fillMask(int year, long[] mask) {
+              masks.get(0).fillMask(year, mask);
+              for (int i = 1; i < masks.size(); ++i) {
+                Arrays.fill(scratch, 0L);
+                masks.get(i).fillMask(year, scratch);
+                for (int j = 0; j < MASK_LENGTH; ++j) { mask[j] &= scratch[j]; }
+              }
+            }
+
+            @Override
+            public String toString() { return "and" + masks; }
+          };
+    }
+  }
+
+  /** the number of longs in a mask with a bit for each day of a year. */
+  static final int MASK_LENGTH = (366 + 63) / 64;
+
+  /** sets the bit for the given zero indexed day of the year. */
+  private static void setBit(long[] mask, int doy) {
+    mask[doy >> 6] |= 1L << doy;
+  }
+
+  /**
+   * a filter that precomputes the days of a year that it passes as a mask with
+   * a bit for each day of the year, so that testing a date is a bit test.
+   * The mask for the year of the last date tested is kept, which suits
+   * iterators since they move through the years in order.
+   * <p>Like all the filters, instances are not thread safe.</p>
+   */
+  abstract static class YearMaskPredicate implements DatePredicate {
+    private final long[] mask = new long[MASK_LENGTH];
+    /** the table for the year whose days are in mask. */
+    private YearTable maskTable = null;
+
+    /**
+     * sets the bits in mask, which is initially clear, for the zero indexed
+     * days of the given year that pass.
+     */
+    abstract void fillMask(int year, long[] mask);
+
+    public final boolean apply(long date) {
+      YearTable table = checkYear(PackedDate.year(date));
+      int doy = table.dayOfYear(PackedDate.month(date), PackedDate.day(date));
+      return 0 != (mask[doy >> 6] & (1L << doy));
+    }
+
+    /**
+     * the dates in the given month that pass, as a set of dates where date d
+     * is present iff bit d is set, like those kept by the generators.
+     */
+    final int datesInMonth(int year, int month) {
+      YearTable table = checkYear(year);
+      int doy0 = table.dayOfYear(month, 1);
+      int word = doy0 >> 6, bit = doy0 & 63;
+      long bits = mask[word] >>> bit;
+      if (0 != bit && word + 1 < MASK_LENGTH) {
+        bits |= mask[word + 1] << (64 - bit);
+      }
+      int nDays = table.monthLength(month);
+      return ((int) (bits & ((1L << nDays) - 1))) << 1;
+    }
+
+    private YearTable checkYear(int year) {
+      YearTable table = maskTable;
+      if (null == table || year != table.year()) {
+        Arrays.fill(mask, 0L);
+        fillMask(year, mask);
+        maskTable = table = YearTable.forYear(year);
+      }
+      return table;
+    }
+  }
+
   private Filters() {
     // uninstantiable
   }
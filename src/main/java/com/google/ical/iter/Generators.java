@@ -16,8 +16,8 @@ package com.google.ical.iter;
 
 import com.google.ical.util.DTBuilder;
 import com.google.ical.util.TimeUtils;
+import com.google.ical.util.YearTable;
 import com.google.ical.values.DateValue;
-import com.google.ical.values.DateValueImpl;
 import com.google.ical.values.Weekday;
 import com.google.ical.values.WeekdayNum;
 import java.util.Arrays;
@@ -160,9 +160,9 @@ final class Generators {
               // Calculate the number of days between the first of the new
               // month andthe old date and extend it to make it an integer
               // multiple of interval
-              int daysBetween = TimeUtils.daysBetween(
-                  new DateValueImpl(builder.year, builder.month, 1),
-                  new DateValueImpl(year, month, date));
+              int daysBetween =
+                TimeUtils.fixedFromGregorian(builder.year, builder.month, 1)
+                - TimeUtils.fixedFromGregorian(year, month, date);
               ndate = ((interval - (daysBetween % interval)) % interval) + 1;
               if (ndate > nDays) {
                 // need to early out without updating year or month so that the
@@ -249,20 +249,10 @@ final class Generators {
   static Generator byMonthDayGenerator(int[] dates, final DateValue dtStart) {
     final int[] udates = Util.uniquify(dates);
 
-    return new Generator() {
-        int year = dtStart.year();
-        int month = dtStart.month();
-        /** list of generated dates for the current month */
-        int[] posDates;
-        /** index of next date to return */
-        int i = 0;
-
-        {
-          convertDatesToAbsolute();
-        }
-
-        private void convertDatesToAbsolute() {
-          IntSet posDates = new IntSet();
+    return new MonthDateSetGenerator() {
+        @Override
+        int datesInMonth(int year, int month) {
+          int posDates = 0;
           int nDays = TimeUtils.monthLength(year, month);
           for (int j = 0; j < udates.length; ++j) {
             int date = udates[j];
@@ -270,29 +260,31 @@ final class Generators {
               date += nDays + 1;
             }
             if (date >= 1 && date <= nDays) {
-              posDates.add(date);
+              posDates |= 1 << date;
             }
           }
-          this.posDates = posDates.toIntArray();
+          return posDates;
         }
 
         @Override
-        boolean generate(DTBuilder builder) {
-          if (year != builder.year || month != builder.month) {
-            year = builder.year;
-            month = builder.month;
-
-            convertDatesToAbsolute();
+        public String toString() { return "byMonthDayGenerator"; }
+      };
+  }
 
-            i = 0;
-          }
-          if (i >= posDates.length) { return false; }
-          builder.day = posDates[i++];
-          return true;
+  /**
+   * constructs a generator that yields every date in each month seen, for
+   * rules whose days are chosen only by filters.  Since it works out a whole
+   * month at once, filters that are year masks can be folded into it.
+   */
+  static Generator everyDayGenerator() {
+    return new MonthDateSetGenerator() {
+        @Override
+        int datesInMonth(int year, int month) {
+          return (int) ((1L << (TimeUtils.monthLength(year, month) + 1)) - 2);
         }
 
         @Override
-        public String toString() { return "byMonthDayGenerator"; }
+        public String toString() { return "everyDayGenerator"; }
       };
   }
 
@@ -309,30 +301,23 @@ final class Generators {
       WeekdayNum[] days, final boolean weeksInYear, final DateValue dtStart) {
     final WeekdayNum[] udays = days.clone();
 
-    return new Generator() {
-        int year = dtStart.year();
-        int month = dtStart.month();
-        /** list of generated dates for the current month */
-        int[] dates;
-        /** index of next date to return */
-        int i = 0;
-
-        { generateDates(); }
-
-        void generateDates() {
+    return new MonthDateSetGenerator() {
+        @Override
+        int datesInMonth(int year, int month) {
+          YearTable table = YearTable.forYear(year);
           int nDays;
           Weekday dow0;
-          int nDaysInMonth = TimeUtils.monthLength(year, month);
+          int nDaysInMonth = table.monthLength(month);
           // index of the first day of the month in the month or year
           int d0;
 
           if (weeksInYear) {
-            nDays = TimeUtils.yearLength(year);
-            dow0 = Weekday.firstDayOfWeekInMonth(year, 1);
-            d0 = TimeUtils.dayOfYear(year, month, 1);
+            nDays = table.yearLength();
+            dow0 = table.firstDayOfWeekInMonth(1);
+            d0 = table.dayOfYear(month, 1);
           } else {
             nDays = nDaysInMonth;
-            dow0 = Weekday.firstDayOfWeekInMonth(year, month);
+            dow0 = table.firstDayOfWeekInMonth(month);
             d0 = 0;
           }
 
@@ -342,38 +327,23 @@ final class Generators {
 
           // iterate through days and resolve each [week, day of week] pair to a
           // day of the month
-          IntSet udates = new IntSet();
+          int udates = 0;
           for (int j = 0; j < udays.length; ++j) {
             WeekdayNum day = udays[j];
             if (0 != day.num) {
               int date = Util.dayNumToDate(
                   dow0, nDays, day.num, day.wday, d0, nDaysInMonth);
-              if (0 != date) { udates.add(date); }
+              if (0 != date) { udates |= 1 << date; }
             } else {
               int wn = w0 + 6;
               for (int w = w0; w <= wn; ++w) {
                 int date = Util.dayNumToDate(
                     dow0, nDays, w, day.wday, d0, nDaysInMonth);
-                if (0 != date) { udates.add(date); }
+                if (0 != date) { udates |= 1 << date; }
               }
             }
           }
-          dates = udates.toIntArray();
-        }
-
-        @Override
-        boolean generate(DTBuilder builder) {
-          if (year != builder.year || month != builder.month) {
-            year = builder.year;
-            month = builder.month;
-
-            generateDates();
-            // start at the beginning of the month
-            i = 0;
-          }
-          if (i >= dates.length) { return false; }
-          builder.day = dates[i++];
-          return true;
+          return udates;
         }
 
         @Override
@@ -394,15 +364,11 @@ final class Generators {
       int[] weekNos, final Weekday wkst, final DateValue dtStart) {
     final int[] uWeekNos = Util.uniquify(weekNos);
 
-    return new Generator() {
-        int year = dtStart.year();
-        int month = dtStart.month();
+    return new MonthDateSetGenerator() {
+        /** the table for the last year seen */
+        YearTable table = null;
         /** number of weeks in the last year seen */
         int weeksInYear;
-        /** dates generated anew for each month seen */
-        int[] dates;
-        /** index into dates */
-        int i = 0;
 
         /**
          * day of the year of the start of week 1 of the current year.
@@ -410,45 +376,23 @@ final class Generators {
          */
         int doyOfStartOfWeek1;
 
-        {
-          checkYear();
-          checkMonth();
-        }
-
-        void checkYear() {
-          // if the first day of jan is wkst, then there are 7.
-          // if the first day of jan is wkst + 1, then there are 6
-          // if the first day of jan is wkst + 6, then there is 1
-          Weekday dowJan1 = Weekday.firstDayOfWeekInMonth(year, 1);
-          int nDaysInFirstWeek =
-            7 - ((7 + dowJan1.javaDayNum - wkst.javaDayNum) % 7);
-          // number of days not in any week
-          int nOrphanedDays = 0;
-          // according to RFC 2445
-          //     Week number one of the calendar year is the first week which
-          //     contains at least four (4) days in that calendar year.
-          if (nDaysInFirstWeek < 4) {
-            nOrphanedDays = nDaysInFirstWeek;
-            nDaysInFirstWeek = 7;
+        @Override
+        int datesInMonth(int year, int month) {
+          if (null == table || table.year() != year) {
+            table = YearTable.forYear(year);
+            doyOfStartOfWeek1 = table.week1Start(wkst);
+            weeksInYear = table.weeksInYear(wkst);
           }
 
-          // calculate the day of year (possibly negative) of the start of the
-          // first week in the year.  This day must be of wkst.
-          doyOfStartOfWeek1 = nDaysInFirstWeek - 7 + nOrphanedDays;
-
-          weeksInYear = (TimeUtils.yearLength(year) - nOrphanedDays + 6) / 7;
-        }
-
-        void checkMonth() {
           // the day of the year of the 1st day in the month
-          int doyOfMonth1 = TimeUtils.dayOfYear(year, month, 1);
+          int doyOfMonth1 = table.dayOfYear(month, 1);
           // the week of the year of the 1st day of the month.  approximate.
           int weekOfMonth = ((doyOfMonth1 - doyOfStartOfWeek1) / 7) + 1;
           // number of days in the month
-          int nDays = TimeUtils.monthLength(year, month);
+          int nDays = table.monthLength(month);
 
           // generate the dates in the month
-          IntSet udates = new IntSet();
+          int udates = 0;
           for (int j = 0; j < uWeekNos.length; j++) {
             int weekNo = uWeekNos[j];
             if (weekNo < 0) {
@@ -459,33 +403,12 @@ final class Generators {
                 int date =
                   ((weekNo - 1) * 7 + d + doyOfStartOfWeek1 - doyOfMonth1) + 1;
                 if (date >= 1 && date <= nDays) {
-                  udates.add(date);
+                  udates |= 1 << date;
                 }
               }
             }
           }
-          dates = udates.toIntArray();
-        }
-
-        @Override
-        boolean generate(DTBuilder builder) {
-
-          // this is a bit odd, since we're generating days within the given
-          // weeks of the year within the month/year from builder
-          if (year != builder.year || month != builder.month) {
-            if (year != builder.year) {
-              year = builder.year;
-              checkYear();
-            }
-            month = builder.month;
-            checkMonth();
-
-            i = 0;
-          }
-
-          if (i >= dates.length) { return false; }
-          builder.day = dates[i++];
-          return true;
+          return udates;
         }
 
         @Override
@@ -501,49 +424,118 @@ final class Generators {
   static Generator byYearDayGenerator(int[] yearDays, final DateValue dtStart) {
     final int[] uYearDays = Util.uniquify(yearDays);
 
-    return new Generator() {
-        int year = dtStart.year();
-        int month = dtStart.month();
-        int[] dates;
-        int i = 0;
-
-        { checkMonth(); }
-
-        void checkMonth() {
+    return new MonthDateSetGenerator() {
+        @Override
+        int datesInMonth(int year, int month) {
           // now, calculate the first week of the month
-          int doyOfMonth1 = TimeUtils.dayOfYear(year, month, 1);
-          int nDays = TimeUtils.monthLength(year, month);
-          int nYearDays = TimeUtils.yearLength(year);
-          IntSet udates = new IntSet();
+          YearTable table = YearTable.forYear(year);
+          int doyOfMonth1 = table.dayOfYear(month, 1);
+          int nDays = table.monthLength(month);
+          int nYearDays = table.yearLength();
+          int udates = 0;
           for (int j = 0; j < uYearDays.length; j++) {
             int yearDay = uYearDays[j];
             if (yearDay < 0) { yearDay += nYearDays + 1; }
             int date = yearDay - doyOfMonth1;
-            if (date >= 1 && date <= nDays) { udates.add(date); }
+            if (date >= 1 && date <= nDays) { udates |= 1 << date; }
           }
-          dates = udates.toIntArray();
+          return udates;
         }
 
         @Override
-        boolean generate(DTBuilder builder) {
-          if (year != builder.year || month != builder.month) {
-            year = builder.year;
-            month = builder.month;
+        public String toString() { return "byYearDayGenerator"; }
+      };
+  }
 
-            checkMonth();
+  /**
+   * a day generator that works out all the dates it will generate in a month
+   * when it moves to that month, as a set of dates.
+   * See {@link Generators#nextDate}.
+   * Since it has the whole month's dates at once, it can be restricted by a
+   * {@link Filters.YearMaskPredicate} at the cost of an AND per month, so that
+   * the dates the filter would reject are never generated.
+   */
+  abstract static class MonthDateSetGenerator extends Generator {
+    private int year = Integer.MIN_VALUE;
+    private int month;
+    /** set of dates for the current month not yet generated. */
+    private int dates;
+    private Filters.YearMaskPredicate filter;
+
+    /** the set of dates that this generates in the given month. */
+    abstract int datesInMonth(int year, int month);
+
+    /**
+     * restricts this generator to the dates that pass the given filter.
+     * Must be called before the generator is first used.
+     */
+    final void setFilter(Filters.YearMaskPredicate filter) {
+      this.filter = filter;
+    }
+
+    @Override
+    final boolean generate(DTBuilder builder) {
+      startMonth(builder);
+      if (0 == dates) { return false; }
+      builder.day = nextDate(dates);
+      dates &= dates - 1;
+      return true;
+    }
+
+    /**
+     * generates all the dates not yet generated in the builder's month at
+     * once, leaving the builder unchanged.
+     * @return a set of dates as for {@link Generators#nextDate}.
+     */
+    final int generateRest(DTBuilder builder) {
+      startMonth(builder);
+      int rest = dates;
+      dates = 0;
+      return rest;
+    }
+
+    private void startMonth(DTBuilder builder) {
+      if (year != builder.year || month != builder.month) {
+        year = builder.year;
+        month = builder.month;
+
+        // start at the beginning of the month
+        dates = datesInMonth(year, month);
+        if (null != filter) { dates &= filter.datesInMonth(year, month); }
+      }
+    }
+  }
 
-            i = 0;
-          }
-          if (i >= dates.length) { return false; }
-          builder.day = dates[i++];
-          return true;
+  /**
+   * wraps a day generator so that each candidate day it is asked for counts
+   * against an {@link ExpansionBudget}.
+   */
+  static Generator budgetedGenerator(
+      final Generator dayGenerator, final ExpansionBudget budget) {
+    return new Generator() {
+        @Override
+        boolean generate(DTBuilder builder)
+            throws IteratorShortCircuitingException {
+          budget.step();
+          return dayGenerator.generate(builder);
         }
 
         @Override
-        public String toString() { return "byYearDayGenerator"; }
+        public String toString() { return "budgeted:" + dayGenerator; }
       };
   }
 
+  /**
+   * the least date in a set of dates in a month.
+   * Generators keep the dates of the current month as a bit set, where date d
+   * is present iff bit d is set, so that they need not allocate anything as
+   * they move from month to month.
+   * @param dates a non empty set of dates in [1,31].
+   */
+  static int nextDate(int dates) {
+    return Integer.numberOfTrailingZeros(dates);
+  }
+
   private Generators() {
     // uninstantiable
   }
@@ -15,14 +15,11 @@
 package com.google.ical.iter;
 
 import com.google.ical.util.DTBuilder;
-import com.google.ical.util.Predicate;
+import com.google.ical.util.PackedDate;
 import com.google.ical.util.TimeUtils;
+import com.google.ical.values.DateTimeValue;
 import com.google.ical.values.Frequency;
 import com.google.ical.values.Weekday;
-import com.google.ical.values.DateValue;
-
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * factory for generators that operate on groups of generators to generate full
@@ -37,7 +34,7 @@ class InstanceGenerators {
    * collecting.
    */
   static Generator serialInstanceGenerator(
-      final Predicate<? super DateValue> filter,
+      final DatePredicate filter,
       final Generator yearGenerator, final Generator monthGenerator,
       final Generator dayGenerator) {
     return new Generator() {
@@ -58,7 +55,7 @@ class InstanceGenerators {
               }
             }
             // apply filters to generated dates
-          } while (!filter.apply(builder.toDate()));
+          } while (!filter.apply(PackedDate.packDate(builder)));
 
           return true;
         }
@@ -67,11 +64,19 @@ class InstanceGenerators {
 
   static Generator bySetPosInstanceGenerator(
       int[] setPos, final Frequency freq, final Weekday wkst,
-      final Predicate<? super DateValue> filter,
+      final DatePredicate filter,
       final Generator yearGenerator, final Generator monthGenerator,
       final Generator dayGenerator) {
     final int[] uSetPos = Util.uniquify(setPos);
 
+    // A monthly or yearly set can be collected a month at a time if the day
+    // generator works out whole months and there is nothing left to filter.
+    final Generators.MonthDateSetGenerator monthDateSetGenerator =
+      (Frequency.MONTHLY == freq || Frequency.YEARLY == freq)
+      && DatePredicate.ALWAYS_TRUE == filter
+      && dayGenerator instanceof Generators.MonthDateSetGenerator
+      ? (Generators.MonthDateSetGenerator) dayGenerator : null;
+
     final Generator serialInstanceGenerator =
       serialInstanceGenerator(
           filter, yearGenerator, monthGenerator, dayGenerator);
@@ -83,7 +88,8 @@ class InstanceGenerators {
     allPositive = uSetPos[0] > 0;
 
     return new Generator() {
-        DateValue pushback = null;
+        /** a packed date, or NONE. */
+        long pushback = NONE;
         /**
          * Is this the first instance we generate?
          * We need to know so that we don't clobber dtStart.
@@ -92,8 +98,27 @@ class InstanceGenerators {
         /** Do we need to halt iteration once the current set has been used? */
         boolean done = false;
 
-        /** The elements in the current set, filtered by set pos */
-        List<DateValue> candidates;
+        /**
+         * The dates in the current set, as a bit set of the dates in each
+         * month as for {@link Generators#nextDate}, starting with the month
+         * of the first date.  A set falls within a year, so this is all the
+         * space any set needs, however many dates it has.
+         */
+        final int[] monthDates = new int[12];
+        /** the first month of the current set, as year * 12 + month - 1. */
+        int month0;
+        int nMonths;
+        /** the number of dates in the current set. */
+        int nDates;
+        /**
+         * while resolving positions, the month that the last one fell in,
+         * and the number of dates in the set before that month.
+         */
+        int posMonth;
+        int nDatesBeforePosMonth;
+        /** The packed elements in the current set, filtered by set pos */
+        long[] candidates = new long[uSetPos.length];
+        int nCandidates;
         /**
          * index into candidates.  The number of elements in candidates already
          * consumed.
@@ -103,19 +128,19 @@ class InstanceGenerators {
         @Override
         public boolean generate(DTBuilder builder)
             throws IteratorShortCircuitingException {
-          while (null == candidates || i >= candidates.size()) {
+          while (i >= nCandidates) {
             if (done) { return false; }
 
             // (1) Make sure that builder is appropriately initialized so that
             // we only generate instances in the next set
 
-            DateValue d0 = null;
-            if (null != pushback) {
+            long d0 = NONE;
+            if (NONE != pushback) {
               d0 = pushback;
-              builder.year = d0.year();
-              builder.month = d0.month();
-              builder.day = d0.day();
-              pushback = null;
+              builder.year = PackedDate.year(d0);
+              builder.month = PackedDate.month(d0);
+              builder.day = PackedDate.day(d0);
+              pushback = NONE;
             } else if (!first) {
               // we need to skip ahead to the next item since we didn't exhaust
               // the last period
@@ -130,14 +155,15 @@ class InstanceGenerators {
                   break;
                 case WEEKLY:
                   // consume because just incrementing date doesn't do anything
-                  DateValue nextWeek =
-                    Util.nextWeekStart(builder.toDate(), wkst);
+                  builder.normalize();
+                  long nextWeek =
+                    Util.nextWeekStart(PackedDate.packDate(builder), wkst);
                   do {
                     if (!serialInstanceGenerator.generate(builder)) {
                       return false;
                     }
-                  } while (builder.compareTo(nextWeek) < 0);
-                  d0 = builder.toDate();
+                  } while (PackedDate.packDate(builder) < nextWeek);
+                  d0 = PackedDate.packDate(builder);
                   break;
                 default:
                   break;
@@ -148,8 +174,8 @@ class InstanceGenerators {
 
             // (2) Build a set of the dates in the year/month/week that match
             // the other rule.
-            List<DateValue> dates = new ArrayList<DateValue>();
-            if (null != d0) { dates.add(d0); }
+            nDates = 0;
+            if (NONE != d0) { addDate(d0); }
 
             // Optimization: if min(bySetPos) > 0 then we already have absolute
             // positions, so we don't need to generate all of the instances for
@@ -162,7 +188,27 @@ class InstanceGenerators {
             // distribution of set positions within the year.
             int limit = allPositive ? maxPos : Integer.MAX_VALUE;
 
-            while (limit > dates.size()) {
+            if (null != monthDateSetGenerator) {
+              if (NONE == d0) {
+                if (!serialInstanceGenerator.generate(builder)) {
+                  return false;
+                }
+                builder.normalize();
+                addDate(PackedDate.packDate(builder));
+              }
+              // the rest of the month, and for a yearly rule the rest of the
+              // months in the year, are all in the set.
+              addDates(builder, monthDateSetGenerator.generateRest(builder));
+              if (Frequency.YEARLY == freq) {
+                while (monthGenerator.generate(builder)) {
+                  addDates(builder,
+                           monthDateSetGenerator.generateRest(builder));
+                }
+              }
+              limit = nDates;
+            }
+
+            while (limit > nDates) {
               if (!serialInstanceGenerator.generate(builder)) {
                 // If we can't generate any, then make sure we return false
                 // once the instances we have generated are exhausted.
@@ -172,38 +218,40 @@ class InstanceGenerators {
                 // elements for some uSetPoses that contain negative elements.
                 done = true;
               }
-              DateValue d = builder.toDate();
+              builder.normalize();
+              long d = PackedDate.packDate(builder);
               boolean contained = false;
-              if (null == d0) {
+              if (NONE == d0) {
                 d0 = d;
                 contained = true;
               } else {
                 switch (freq) {
                   case WEEKLY:
-                    int nb = TimeUtils.daysBetween(d, d0);
+                    int nb = PackedDate.fixedDay(d) - PackedDate.fixedDay(d0);
                     // Two dates (d, d0) are in the same week
                     // if there isn't a whole week in between them and the
                     // later day is later in the week than the earlier day.
                     contained =
                       nb < 7
-                      && ((7 + Weekday.valueOf(d).javaDayNum
+                      && ((7 + Util.weekdayOf(d).javaDayNum
                            - wkst.javaDayNum) % 7)
-                      > ((7 + Weekday.valueOf(d0).javaDayNum
+                      > ((7 + Util.weekdayOf(d0).javaDayNum
                           - wkst.javaDayNum) % 7);
                     break;
                   case MONTHLY:
                     contained =
-                      d0.month() == d.month() && d0.year() == d.year();
+                      PackedDate.month(d0) == PackedDate.month(d)
+                      && PackedDate.year(d0) == PackedDate.year(d);
                     break;
                   case YEARLY:
-                    contained = d0.year() == d.year();
+                    contained = PackedDate.year(d0) == PackedDate.year(d);
                     break;
                   default:
                     break;
                 }
               }
               if (contained) {
-                dates.add(d);
+                addDate(d);
               } else {
                 // reached end of the set
                 pushback = d;  // save d so we can use it later
@@ -212,45 +260,292 @@ class InstanceGenerators {
             }
 
             // (3) Resolve the positions to absolute positions and order them
-            int[] absSetPos;
+            nCandidates = 0;
+            posMonth = 0;
+            nDatesBeforePosMonth = 0;
             if (allPositive) {
-              absSetPos = uSetPos;
-            } else {
-              IntSet uAbsSetPos = new IntSet();
               for (int j = 0; j < uSetPos.length; ++j) {
-                int p = uSetPos[j];
-                if (p < 0) { p = dates.size() + p + 1; }
-                uAbsSetPos.add(p);
+                addCandidate(uSetPos[j] - 1);
               }
-              absSetPos = uAbsSetPos.toIntArray();
-            }
-
-            candidates = new ArrayList<DateValue>();
-            for (int j = 0; j < absSetPos.length; ++j) {
-              int p = absSetPos[j] - 1;
-              if (p >= 0 && p < dates.size()) {
-                candidates.add(dates.get(p));
+            } else {
+              // positions counted from the end come after those counted from
+              // the start, so merge the two sorted runs while resolving them.
+              int neg = 0;
+              while (neg < uSetPos.length && uSetPos[neg] < 0) { ++neg; }
+              int a = neg, b = 0;
+              while (a < uSetPos.length || b < neg) {
+                int pa = a < uSetPos.length ? uSetPos[a] - 1 : Integer.MAX_VALUE;
+                int pb = b < neg ? nDates + uSetPos[b] : Integer.MAX_VALUE;
+                if (pa <= pb) {
+                  ++a;
+                  if (pa == pb) { ++b; }
+                  addCandidate(pa);
+                } else {
+                  ++b;
+                  addCandidate(pb);
+                }
               }
             }
             i = 0;
-            if (candidates.isEmpty()) {
-              // none in this region, so keep looking
-              candidates = null;
-              continue;
-            }
+            // if none in this region, keep looking
           }
           // (5) Emit a date.  It will be checked against the end condition and
           // dtStart elsewhere
-          DateValue d = candidates.get(i++);
-          builder.year = d.year();
-          builder.month = d.month();
-          builder.day = d.day();
+          long d = candidates[i++];
+          builder.year = PackedDate.year(d);
+          builder.month = PackedDate.month(d);
+          builder.day = PackedDate.day(d);
           return true;
         }
+
+        private void addDate(long d) {
+          int month = PackedDate.year(d) * 12 + PackedDate.month(d) - 1;
+          if (0 == nDates) {
+            month0 = month;
+            nMonths = 0;
+          }
+          int m = month - month0;
+          while (nMonths <= m) { monthDates[nMonths++] = 0; }
+          int date = 1 << PackedDate.day(d);
+          if (0 == (monthDates[m] & date)) {
+            monthDates[m] |= date;
+            ++nDates;
+          }
+        }
+
+        /** adds a set of dates in the builder's month. */
+        private void addDates(DTBuilder builder, int dates) {
+          int m = builder.year * 12 + builder.month - 1 - month0;
+          while (nMonths <= m) { monthDates[nMonths++] = 0; }
+          nDates += Integer.bitCount(dates & ~monthDates[m]);
+          monthDates[m] |= dates;
+        }
+
+        /**
+         * adds the date at the zero-indexed position p if there is one.
+         * Positions must be added in increasing order, so that each is found
+         * by counting on from the month of the last.
+         */
+        private void addCandidate(int p) {
+          if (p < 0 || p >= nDates) { return; }
+          int n;
+          while (p - nDatesBeforePosMonth
+                 >= (n = Integer.bitCount(monthDates[posMonth]))) {
+            nDatesBeforePosMonth += n;
+            ++posMonth;
+          }
+          int dates = monthDates[posMonth];
+          for (int k = p - nDatesBeforePosMonth; k > 0; --k) {
+            dates &= dates - 1;
+          }
+          int month = month0 + posMonth;
+          candidates[nCandidates++] = PackedDate.pack(
+              Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1,
+              Generators.nextDate(dates));
+        }
       };
 
   }
 
+  /**
+   * a generator for HOURLY, MINUTELY, and SECONDLY rules that yields the times
+   * of day in the rule on each day produced by a day instance generator.
+   * @param dayGenerator an instance generator, such as a
+   *   {@link #serialInstanceGenerator}, for the days that may contain times.
+   * @param freq one of HOURLY, MINUTELY, or SECONDLY.
+   * @param interval the INTERVAL of the rule, in periods of freq.
+   * @param byHour the BYHOUR values, or empty for every hour.
+   * @param byMinute the BYMINUTE values.  If empty, every minute for a
+   *   MINUTELY or SECONDLY rule, and the minute of dtStart for an HOURLY rule.
+   * @param bySecond the BYSECOND values.  If empty, every second for a
+   *   SECONDLY rule, and the second of dtStart otherwise.
+   * @param dtStart the start of the series, in local time.
+   */
+  static TimeSlotGenerator timeSlotGenerator(
+      Generator dayGenerator, Frequency freq, int interval,
+      int[] byHour, int[] byMinute, int[] bySecond, DateTimeValue dtStart) {
+    int unit;
+    switch (freq) {
+      case HOURLY: unit = 60 * 60; break;
+      case MINUTELY: unit = 60; break;
+      case SECONDLY: unit = 1; break;
+      default: throw new IllegalArgumentException(freq.toString());
+    }
+    long hours = 0 != byHour.length ? mask(byHour, 24) : (1L << 24) - 1;
+    long minutes = 0 != byMinute.length ? mask(byMinute, 60)
+        : Frequency.HOURLY == freq ? 1L << dtStart.minute() : (1L << 60) - 1;
+    long seconds = 0 != bySecond.length ? mask(bySecond, 60)
+        : Frequency.SECONDLY != freq ? 1L << dtStart.second() : (1L << 60) - 1;
+    return new TimeSlotGenerator(
+        dayGenerator, unit, interval, (int) hours, minutes, seconds, dtStart);
+  }
+
+  /** the set of values in [0, limit) as a bit set. */
+  private static long mask(int[] values, int limit) {
+    long mask = 0;
+    for (int v : values) {
+      if (v >= 0 && v < limit) { mask |= 1L << v; }
+    }
+    return mask;
+  }
+
+  /**
+   * yields successive times within each day of a sub-daily rule.
+   *
+   * <p>A time of day is in the rule iff its hour, minute, and second are in
+   * the rule's sets, and it falls in a period that is a whole number of
+   * intervals from the period of dtStart.  Rather than stepping through every
+   * period, the next time is found by jumping straight past each hour, minute,
+   * or second that is not in its set, and past periods that are not on an
+   * interval boundary, so a rule like
+   * <code>FREQ=MINUTELY;INTERVAL=15;BYHOUR=9,10,11</code> visits only the
+   * twelve times it yields on each day, and days are skipped by the day
+   * generator and its filters without looking at their times at all.</p>
+   *
+   * <p>BYSETPOS is not applied to sub-daily rules.</p>
+   */
+  static final class TimeSlotGenerator extends Generator {
+    private final Generator dayGenerator;
+    /** the length of a period of the rule's frequency in seconds. */
+    private final int unit;
+    private final int interval;
+    /** the period that contains dtStart, in units since the epoch. */
+    private final long period0;
+    /** bit sets of the hours, minutes, and seconds in the rule. */
+    private final int hours;
+    private final long minutes;
+    private final long seconds;
+
+    /** the day whose times are being generated. */
+    private int year = Integer.MIN_VALUE, month, day;
+    /** seconds since the epoch at the start of the current day. */
+    private long dayStartSecs;
+    /** the least time of the current day, in seconds, not yet generated. */
+    private int nextTime;
+    /**
+     * the fixed day and time of day before which no times are generated,
+     * initially those of dtStart.
+     */
+    private int floorDay;
+    private int floorTime;
+
+    TimeSlotGenerator(
+        Generator dayGenerator, int unit, int interval,
+        int hours, long minutes, long seconds, DateTimeValue dtStart) {
+      this.dayGenerator = dayGenerator;
+      this.unit = unit;
+      this.interval = interval;
+      this.hours = hours;
+      this.minutes = minutes;
+      this.seconds = seconds;
+      this.period0 = TimeUtils.secsSinceEpoch(dtStart) / unit;
+      this.floorDay = TimeUtils.fixedFromGregorian(
+          dtStart.year(), dtStart.month(), dtStart.day());
+      this.floorTime = timeOfDay(
+          dtStart.hour(), dtStart.minute(), dtStart.second());
+    }
+
+    @Override
+    boolean generate(DTBuilder builder)
+        throws IteratorShortCircuitingException {
+      while (true) {
+        if (year == builder.year && month == builder.month
+            && day == builder.day) {
+          int t = nextTime(nextTime);
+          if (t >= 0) {
+            builder.hour = t / 3600;
+            builder.minute = t / 60 % 60;
+            builder.second = t % 60;
+            nextTime = t + 1;
+            return true;
+          }
+        }
+        if (!dayGenerator.generate(builder)) { return false; }
+        builder.normalize();
+        year = builder.year;
+        month = builder.month;
+        day = builder.day;
+        int fixedDay = TimeUtils.fixedFromGregorian(year, month, day);
+        dayStartSecs = (long) fixedDay * SECS_PER_DAY;
+        nextTime = fixedDay > floorDay ? 0
+            : fixedDay == floorDay ? floorTime : SECS_PER_DAY;
+      }
+    }
+
+    /**
+     * skip over the times before the given local date-time, so that they are
+     * not generated even if the day generator yields their day.
+     * @param local a packed date-time in local time.
+     */
+    void skipTo(long local) {
+      int d = PackedDate.fixedDay(local);
+      int t = timeOfDay(PackedDate.hour(local), PackedDate.minute(local),
+                        PackedDate.second(local));
+      if (d < floorDay || (d == floorDay && t <= floorTime)) { return; }
+      floorDay = d;
+      floorTime = t;
+      if (Integer.MIN_VALUE != year
+          && TimeUtils.fixedFromGregorian(year, month, day) == d) {
+        nextTime = Math.max(nextTime, t);
+      }
+    }
+
+    /**
+     * the least time of the current day at or after t that is in the rule, or
+     * -1 if there is none.
+     */
+    private int nextTime(int t) {
+      while (t < SECS_PER_DAY) {
+        int hour = t / 3600;
+        int laterHours = hours & (-1 << hour);
+        if (0 == laterHours) { return -1; }
+        if (0 == (laterHours & (1 << hour))) {
+          t = Integer.numberOfTrailingZeros(laterHours) * 3600;
+          continue;
+        }
+        int minute = t / 60 % 60;
+        long laterMinutes = minutes & (-1L << minute);
+        if (0 == laterMinutes) {
+          t = (hour + 1) * 3600;
+          continue;
+        }
+        if (0 == (laterMinutes & (1L << minute))) {
+          t = hour * 3600 + Long.numberOfTrailingZeros(laterMinutes) * 60;
+          continue;
+        }
+        int second = t % 60;
+        long laterSeconds = seconds & (-1L << second);
+        if (0 == laterSeconds) {
+          t = (t / 60 + 1) * 60;
+          continue;
+        }
+        if (0 == (laterSeconds & (1L << second))) {
+          t += Long.numberOfTrailingZeros(laterSeconds) - second;
+          continue;
+        }
+        long period = (dayStartSecs + t) / unit;
+        long offset = Math.floorMod(period - period0, (long) interval);
+        if (0 == offset) { return t; }
+        long next = (period + interval - offset) * unit - dayStartSecs;
+        if (next >= SECS_PER_DAY) { return -1; }
+        t = (int) next;
+      }
+      return -1;
+    }
+
+    private static int timeOfDay(int hour, int minute, int second) {
+      return (hour * 60 + minute) * 60 + second;
+    }
+
+    @Override
+    public String toString() { return "timeSlotGenerator:" + unit; }
+  }
+
+  private static final int SECS_PER_DAY = 24 * 60 * 60;
+
+  /** a value that is not a valid packed date. */
+  private static final long NONE = Long.MIN_VALUE;
+
   private InstanceGenerators() {
     // uninstantiable
   }
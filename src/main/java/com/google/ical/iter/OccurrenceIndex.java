@@ -0,0 +1,386 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.util.PackedDate;
+import com.google.ical.util.TimeUtils;
+import com.google.ical.values.DateTimeValueImpl;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.DateValueImpl;
+import com.google.ical.values.Frequency;
+import com.google.ical.values.RRule;
+import com.google.ical.values.TimeValue;
+import com.google.ical.values.Weekday;
+import com.google.ical.values.WeekdayNum;
+import java.util.TimeZone;
+
+/**
+ * answers counting and indexing questions about the instances of a single
+ * RRULE without necessarily enumerating them.
+ *
+ * <p>Rules whose instances repeat with a fixed period and a fixed set of
+ * offsets within that period are indexed arithmetically.  This covers
+ * <ul>
+ * <li><tt>FREQ=DAILY;INTERVAL=n</tt></li>
+ * <li><tt>FREQ=WEEKLY;INTERVAL=n</tt> with an optional BYDAY rule with no
+ *   week numbers</li>
+ * <li><tt>FREQ=MONTHLY;INTERVAL=n</tt> with an optional BYMONTHDAY rule whose
+ *   days occur in every month</li>
+ * <li><tt>FREQ=YEARLY;INTERVAL=n</tt> with no BYxxx rules unless dtStart falls
+ *   on the 29th of February</li>
+ * </ul>
+ * Counting, and finding the n-th instance, of such rules is O(1) modulo a
+ * small correction at the edges of the range for daylight savings shifts.
+ * All other rules are answered by iterating over the output of
+ * {@link RecurrenceIteratorFactory#createRecurrenceIterator(RRule, DateValue,
+ * TimeZone)}, so the answers are the same either way.
+ *
+ * <p>Instances are indexed from zero, and like the iterator, all dates passed
+ * in and returned are in UTC.</p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public final class OccurrenceIndex {
+
+  /**
+   * periods longer than this trip the {@link ThrottledGenerator} used by the
+   * iterator, so they are left to the iterator to get exactly the same answer.
+   */
+  private static final int MAX_PERIOD_DAYS = 365 * 99;
+  private static final int MAX_PERIOD_MONTHS = 12 * 99;
+
+  /** number of instances in an unbounded recurrence. */
+  private static final long UNBOUNDED = Long.MAX_VALUE;
+
+  private final RRule rrule_;
+  private final DateValue dtStart_;
+  private final TimeZone tzid_;
+
+  /** true iff the instances can be computed arithmetically. */
+  private final boolean closedForm_;
+  /** true iff the period is measured in months instead of days. */
+  private boolean monthly_;
+  /**
+   * the length of the period in days or months.
+   */
+  private int period_;
+  /**
+   * sorted offsets of instances within a period.  When monthly_ these are
+   * days of the month, otherwise days from the start of the period.
+   */
+  private int[] offsets_;
+  /**
+   * the start of the period containing dtStart as a
+   * {@link TimeUtils#fixedFromGregorian fixed day}, or, when monthly_, as
+   * months since the start of year zero.
+   */
+  private int periodStart_;
+  /**
+   * the number of slots in the first period that fall before dtStart, and so
+   * are not instances.
+   */
+  private int skip_;
+  /**
+   * the number of instances, or {@link #UNBOUNDED}.
+   * Computed lazily since it may require iteration.
+   */
+  private long size_ = -1;
+
+  private OccurrenceIndex(RRule rrule, DateValue dtStart, TimeZone tzid) {
+    this.rrule_ = rrule;
+    this.dtStart_ = dtStart;
+    this.tzid_ = tzid;
+    this.closedForm_ = analyze();
+  }
+
+  /**
+   * an index over the instances of the given rule.
+   * @param rrule the recurrence rule to index.
+   * @param dtStart the start of the series, in tzid.
+   * @param tzid the timezone to iterate in.
+   */
+  public static OccurrenceIndex forRule(
+      RRule rrule, DateValue dtStart, TimeZone tzid) {
+    assert null != tzid;
+    assert null != dtStart;
+    return new OccurrenceIndex(rrule, dtStart, tzid);
+  }
+
+  /**
+   * true if queries are answered arithmetically, false if they are answered
+   * by iterating.
+   */
+  public boolean isClosedForm() {
+    return closedForm_;
+  }
+
+  /**
+   * the number of instances on or after fromUtc and strictly before toUtc.
+   * @param fromUtc non null.
+   * @param toUtc non null.
+   */
+  public long countOccurrences(DateValue fromUtc, DateValue toUtc) {
+    if (fromUtc.compareTo(toUtc) >= 0) { return 0; }
+    if (closedForm_) {
+      long size = size();
+      long lo = Math.min(firstIndex(fromUtc, true) - skip_, size);
+      long hi = Math.min(firstIndex(toUtc, true) - skip_, size);
+      return Math.max(0, hi - Math.max(0, lo));
+    }
+    RecurrenceIterator it = iterator();
+    it.advanceTo(fromUtc);
+    long n = 0;
+    while (it.hasNext() && it.next().compareTo(toUtc) < 0) { ++n; }
+    return n;
+  }
+
+  /**
+   * the n-th instance, counting from zero, or null if the recurrence has no
+   * more than n instances.
+   */
+  public DateValue nthOccurrence(long n) {
+    if (n < 0) { throw new IllegalArgumentException(String.valueOf(n)); }
+    if (closedForm_) {
+      return n < size() ? instanceUtc(skip_ + n) : null;
+    }
+    RecurrenceIterator it = iterator();
+    DateValue d = null;
+    for (long i = 0; i <= n; ++i) {
+      if (!it.hasNext()) { return null; }
+      d = it.next();
+    }
+    return d;
+  }
+
+  /**
+   * the last instance as determined by the rule's COUNT or UNTIL, or null if
+   * the rule has neither or has no instances.
+   */
+  public DateValue lastOccurrence() {
+    if (0 == rrule_.getCount() && null == rrule_.getUntil()) { return null; }
+    if (closedForm_) {
+      long size = size();
+      return 0 != size ? instanceUtc(skip_ + size - 1) : null;
+    }
+    RecurrenceIterator it = iterator();
+    DateValue last = null;
+    while (it.hasNext()) { last = it.next(); }
+    return last;
+  }
+
+  /**
+   * like {@link #lastOccurrence()}, but gives up and returns null if finding
+   * the last instance needs iteration that reaches a limit of the given
+   * policy.  Rules answered arithmetically are not limited.
+   */
+  public DateValue lastOccurrence(ExpansionPolicy policy) {
+    if (closedForm_) { return lastOccurrence(); }
+    if (0 == rrule_.getCount() && null == rrule_.getUntil()) { return null; }
+    RecurrenceIterator it = RecurrenceIteratorFactory.createRecurrenceIterator(
+        rrule_, dtStart_, tzid_, policy);
+    DateValue last = null;
+    while (it.hasNext()) { last = it.next(); }
+    return it.isTruncated() ? null : last;
+  }
+
+  private RecurrenceIterator iterator() {
+    return RecurrenceIteratorFactory.createRecurrenceIterator(
+        rrule_, dtStart_, tzid_);
+  }
+
+  /**
+   * decides whether the rule's instances are periodic, and if so, computes
+   * the period and offsets.
+   */
+  private boolean analyze() {
+    RRule r = rrule_;
+    if (0 != (r.getByMonth().length | r.getByWeekNo().length
+              | r.getByYearDay().length | r.getBySetPos().length
+              | r.getByHour().length | r.getByMinute().length
+              | r.getBySecond().length)) {
+      return false;
+    }
+    int interval = Math.max(1, r.getInterval());
+    int[] byMonthDay = r.getByMonthDay();
+    WeekdayNum[] byDay = r.getByDay().toArray(new WeekdayNum[0]);
+    int dtStartDay = TimeUtils.fixedFromGregorian(
+        dtStart_.year(), dtStart_.month(), dtStart_.day());
+
+    if (null == r.getFreq()) { return false; }
+    switch (r.getFreq()) {
+      case DAILY:
+        if (0 != (byDay.length | byMonthDay.length)) { return false; }
+        return daily(interval, dtStartDay, new int[] { 0 });
+      case WEEKLY: {
+        if (0 != byMonthDay.length) { return false; }
+        if (0 == byDay.length) {
+          return daily(interval * 7, dtStartDay, new int[] { 0 });
+        }
+        Weekday wkst = null != r.getWkSt() ? r.getWkSt() : Weekday.MO;
+        // the latest day with day of week wkst on or before dtStart
+        int wkStart = dtStartDay
+            - (7 + Util.weekdayOf(dtStartDay).javaDayNum - wkst.javaDayNum) % 7;
+        IntSet days = new IntSet();
+        for (WeekdayNum wdn : byDay) {
+          if (0 != wdn.num) { return false; }
+          days.add((7 + wdn.wday.javaDayNum - wkst.javaDayNum) % 7);
+        }
+        return daily(interval * 7, wkStart, days.toIntArray());
+      }
+      case MONTHLY:
+        if (0 != byDay.length) { return false; }
+        if (0 == byMonthDay.length) {
+          byMonthDay = new int[] { dtStart_.day() };
+        }
+        for (int d : byMonthDay) {
+          // only days that occur in every month have a fixed offset
+          if (d < 1 || d > 28) { return false; }
+        }
+        return monthly(interval, Util.uniquify(byMonthDay));
+      case YEARLY:
+        if (0 != (byDay.length | byMonthDay.length)) { return false; }
+        if (2 == dtStart_.month() && dtStart_.day() > 28) { return false; }
+        if (interval > MAX_PERIOD_MONTHS / 12) { return false; }
+        return monthly(interval * 12, new int[] { dtStart_.day() });
+      default:
+        return false;
+    }
+  }
+
+  private boolean daily(int period, int periodStart, int[] offsets) {
+    if (period > MAX_PERIOD_DAYS) { return false; }
+    int dtStartDay = TimeUtils.fixedFromGregorian(
+        dtStart_.year(), dtStart_.month(), dtStart_.day());
+    this.period_ = period;
+    this.periodStart_ = periodStart;
+    this.offsets_ = offsets;
+    this.skip_ = countBelow(offsets, dtStartDay - periodStart);
+    return true;
+  }
+
+  private boolean monthly(int period, int[] monthDays) {
+    if (period > MAX_PERIOD_MONTHS) { return false; }
+    this.monthly_ = true;
+    this.period_ = period;
+    this.periodStart_ = dtStart_.year() * 12 + dtStart_.month() - 1;
+    this.offsets_ = monthDays;
+    this.skip_ = countBelow(monthDays, dtStart_.day());
+    return true;
+  }
+
+  /** number of instances, or {@link #UNBOUNDED}. */
+  private long size() {
+    if (size_ < 0) {
+      DateValue untilUtc = rrule_.getUntil();
+      if (0 != rrule_.getCount()) {
+        size_ = Math.max(0, rrule_.getCount());
+      } else if (null != untilUtc) {
+        // same coercion as RecurrenceIteratorFactory
+        if ((untilUtc instanceof TimeValue) != (dtStart_ instanceof TimeValue)) {
+          if (dtStart_ instanceof TimeValue) {
+            untilUtc = TimeUtils.dayStart(untilUtc);
+          } else {
+            untilUtc = TimeUtils.toDateValue(untilUtc);
+          }
+        }
+        size_ = Math.max(0, firstIndex(untilUtc, false) - skip_);
+      } else {
+        size_ = UNBOUNDED;
+      }
+    }
+    return size_;
+  }
+
+  /**
+   * the index of the first slot whose instance is on or after (inclusive) or
+   * strictly after (!inclusive) dUtc, counting slots from the start of the
+   * first period.
+   */
+  private long firstIndex(DateValue dUtc, boolean inclusive) {
+    DateValue local = TimeUtils.fromUtc(dUtc, tzid_);
+    int m = offsets_.length;
+    long est;
+    if (monthly_) {
+      int months = local.year() * 12 + local.month() - 1 - periodStart_;
+      if (months < 0) {
+        est = 0;
+      } else if (0 != months % period_) {
+        est = (months / period_ + 1) * (long) m;
+      } else {
+        est = (months / period_) * (long) m + countBelow(offsets_, local.day());
+      }
+    } else {
+      int days = TimeUtils.fixedFromGregorian(
+          local.year(), local.month(), local.day()) - periodStart_;
+      if (days < 0) {
+        est = 0;
+      } else {
+        est = (days / period_) * (long) m
+            + countBelow(offsets_, days % period_);
+      }
+    }
+    // The estimate compares dates only, and in local time, so nudge it to
+    // account for the time of day and daylight savings shifts.
+    est = Math.max(est, skip_);
+    while (est > skip_ && !before(instanceUtc(est - 1), dUtc, inclusive)) {
+      --est;
+    }
+    while (before(instanceUtc(est), dUtc, inclusive)) { ++est; }
+    return est;
+  }
+
+  /** true if instance falls before the range starting with dUtc. */
+  private static boolean before(
+      DateValue instance, DateValue dUtc, boolean inclusive) {
+    int delta = instance.compareTo(dUtc);
+    return inclusive ? delta < 0 : delta <= 0;
+  }
+
+  /** the instance in the given slot counting from the first period. */
+  private DateValue instanceUtc(long slot) {
+    int m = offsets_.length;
+    long p = slot / m;
+    int offset = offsets_[(int) (slot % m)];
+    int year, month, day;
+    if (monthly_) {
+      long months = periodStart_ + p * period_;
+      year = (int) (months / 12);
+      month = (int) (months % 12) + 1;
+      day = offset;
+    } else {
+      long date =
+        PackedDate.fromFixedDay((int) (periodStart_ + p * period_ + offset));
+      year = PackedDate.year(date);
+      month = PackedDate.month(date);
+      day = PackedDate.day(date);
+    }
+    if (!(dtStart_ instanceof TimeValue)) {
+      return new DateValueImpl(year, month, day);
+    }
+    TimeValue tv = (TimeValue) dtStart_;
+    return TimeUtils.toUtc(
+        new DateTimeValueImpl(
+            year, month, day, tv.hour(), tv.minute(), tv.second()),
+        tzid_);
+  }
+
+  /** the number of elements of the sorted array ints less than n. */
+  private static int countBelow(int[] ints, int n) {
+    int k = 0;
+    while (k < ints.length && ints[k] < n) { ++k; }
+    return k;
+  }
+
+}
@@ -24,10 +24,16 @@ import com.google.ical.values.DateValue;
 final class RDateIteratorImpl implements RecurrenceIterator {
   private int i;
   private DateValue[] datesUtc;
+  /** the {@link DateValueComparison#comparable} for each of datesUtc. */
+  private long[] comparables;
 
   RDateIteratorImpl(DateValue[] datesUtc) {
     this.datesUtc = datesUtc.clone();  // defensive copy
     assert increasing(datesUtc);  // indirectly checks that not-null.
+    this.comparables = new long[datesUtc.length];
+    for (int j = 0; j < datesUtc.length; ++j) {
+      comparables[j] = DateValueComparison.comparable(datesUtc[j]);
+    }
   }
 
   public boolean hasNext() { return i < datesUtc.length; }
@@ -36,10 +42,17 @@ final class RDateIteratorImpl implements RecurrenceIterator {
 
   public void remove() { throw new UnsupportedOperationException(); }
 
+  @Override
+  public int nextBatch(long[] destUtc, int off, int len) {
+    int n = Math.min(len, comparables.length - i);
+    System.arraycopy(comparables, i, destUtc, off, n);
+    i += n;
+    return n;
+  }
+
   public void advanceTo(DateValue newStartUtc) {
     long startCmp = DateValueComparison.comparable(newStartUtc);
-    while (i < datesUtc.length
-           && startCmp > DateValueComparison.comparable(datesUtc[i])) {
+    while (i < comparables.length && startCmp > comparables[i]) {
       ++i;
     }
   }
@@ -15,16 +15,18 @@
 package com.google.ical.iter;
 
 import com.google.ical.util.DTBuilder;
-import com.google.ical.util.Predicate;
+import com.google.ical.util.PackedDate;
 import com.google.ical.util.TimeUtils;
 import com.google.ical.values.DateValue;
-import com.google.ical.values.DateValueImpl;
 import com.google.ical.values.TimeValue;
 import java.util.TimeZone;
 
 /**
  * an iterator over dates in an RRULE or EXRULE series.
  *
+ * <p>Dates are kept in {@link PackedDate packed} form internally, and only
+ * converted to {@link DateValue}s as they are returned by {@link #next}.</p>
+ *
  * @author mikesamuel+svn@gmail.com (Mike Samuel)
  */
 final class RRuleIteratorImpl implements RecurrenceIterator {
@@ -33,7 +35,7 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
    * Takes a date builder and yields shouldContinue:boolean.
    * The condition is applied <b>after</b> the date is converted to utc.
    */
-  private final Predicate<? super DateValue> condition_;
+  private final DatePredicate condition_;
   /**
    * a function that applies the various period generators to generate an entire
    * date.
@@ -52,9 +54,10 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
    */
   private final Generator monthGenerator_;
   /**
-   * a date that has been computed but not yet yielded to the user.
+   * a packed date that has been computed but not yet yielded to the user,
+   * or {@link #NONE}.
    */
-  private DateValue pendingUtc_;
+  private long pendingUtc_ = NONE;
   /**
    * used to build successive dates.
    * At the start of the building process, contains the last date generated.
@@ -63,8 +66,8 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
   private DTBuilder builder_;
   /** true iff the recurrence has been exhausted. */
   private boolean done_;
-  /** the start date of the recurrence */
-  private final DateValue dtStart_;
+  /** true iff the recurrence produces date-times rather than dates. */
+  private final boolean timed_;
   /**
    * false iff shorcutting advance would break the semantics of the iteration.
    * This may happen when, for example, the end condition requires that it see
@@ -77,20 +80,23 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
    * the tzid_ timezone, unless they carry the Utc suffix.
    */
   private final TimeZone tzid_;
+  /** the limits on this iteration, or null if there are none. */
+  private final ExpansionBudget budget_;
 
   /** An iterator that generates dates from an RFC2445 Recurrence Rule */
   RRuleIteratorImpl(
-    DateValue dtStart, TimeZone tzid, Predicate<? super DateValue> condition,
-    Predicate<? super DateValue> filter,
+    DateValue dtStart, TimeZone tzid, DatePredicate condition,
+    DatePredicate filter,
     Generator instanceGenerator, ThrottledGenerator yearGenerator,
     Generator monthGenerator, Generator dayGenerator,
-    boolean canShortcutAdvance, TimeValue startTime) {
+    boolean canShortcutAdvance, TimeValue startTime, ExpansionBudget budget) {
 
     this.condition_ = condition;
+    this.budget_ = budget;
     this.instanceGenerator_ = instanceGenerator;
     this.yearGenerator_ = yearGenerator;
     this.monthGenerator_ = monthGenerator;
-    this.dtStart_ = dtStart;
+    this.timed_ = dtStart instanceof TimeValue;
     this.tzid_ = tzid;
     this.canShortcutAdvance_ = canShortcutAdvance;
 
@@ -110,18 +116,18 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
       this.done_ = true;
     }
 
+    long dtStartUtc = PackedDate.pack(TimeUtils.toUtc(dtStart, tzid));
     while (!this.done_) {
       this.pendingUtc_ = this.generateInstance();
-      if (null == this.pendingUtc_) {
+      if (NONE == this.pendingUtc_) {
         this.done_ = true;
         break;
-      } else if (this.pendingUtc_.compareTo(
-                     TimeUtils.toUtc(dtStart, tzid)) >= 0) {
+      } else if (this.pendingUtc_ >= dtStartUtc) {
         // We only apply the condition to the ones past dtStart to avoid
         // counting useless instances
         if (!this.condition_.apply(this.pendingUtc_)) {
           this.done_ = true;
-          this.pendingUtc_ = null;
+          this.pendingUtc_ = NONE;
         }
         break;
       }
@@ -130,44 +136,77 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
 
   /** are there more dates in this recurrence? */
   public boolean hasNext() {
-    if (null == this.pendingUtc_) { this.fetchNext(); }
-    return null != this.pendingUtc_;
+    if (NONE == this.pendingUtc_) { this.fetchNext(); }
+    return NONE != this.pendingUtc_;
   }
 
   /** fetch and return the next date in this recurrence. */
   public DateValue next() {
-    if (null == this.pendingUtc_) {
+    if (NONE == this.pendingUtc_) {
       this.fetchNext();
     }
-    DateValue next = this.pendingUtc_;
-    this.pendingUtc_ = null;
-    return next;
+    long next = this.pendingUtc_;
+    this.pendingUtc_ = NONE;
+    return NONE != next ? PackedDate.toDateValue(next) : null;
   }
 
   public void remove() { throw new UnsupportedOperationException(); }
 
+  @Override
+  public boolean isTruncated() {
+    return null != this.budget_ && this.budget_.isTruncated();
+  }
+
+  @Override
+  public int nextBatch(long[] destUtc, int off, int len) {
+    int n = 0;
+    while (n < len) {
+      if (NONE == this.pendingUtc_) {
+        this.fetchNext();
+        if (NONE == this.pendingUtc_) { break; }
+      }
+      destUtc[off + n++] = this.pendingUtc_;
+      this.pendingUtc_ = NONE;
+    }
+    return n;
+  }
+
   /**
    * skip over all instances of the recurrence before the given date, so that
    * the next call to {@link #next} will return a date on or after the given
    * date, assuming the recurrence includes such a date.
    */
   public void advanceTo(DateValue dateUtc) {
-    DateValue dateLocal = TimeUtils.fromUtc(dateUtc, tzid_);
-    if (dateLocal.compareTo(this.builder_.toDate()) < 0) {
+    long packedUtc = PackedDate.pack(dateUtc);
+    long dateLocal = TimeUtils.fromUtc(packedUtc, tzid_);
+    this.builder_.normalize();
+    if (dateLocal < PackedDate.packDate(this.builder_)) {
+      return;
+    }
+    // the builder is in local time, so the pending instance may be on or after
+    // dateUtc even though the builder is before dateLocal.
+    if (NONE != this.pendingUtc_ && this.pendingUtc_ >= packedUtc) {
       return;
     }
-    this.pendingUtc_ = null;
+    this.pendingUtc_ = NONE;
+    // Only skip periods that end at least a day before dateLocal, since an
+    // instance late on the previous local day may still be on or after
+    // dateUtc once converted, e.g. when dateUtc is a date rather than a
+    // date-time.
+    long skipTo = PackedDate.fromFixedDay(PackedDate.fixedDay(dateLocal) - 1);
+    int localYear = PackedDate.year(skipTo);
+    int localMonth = PackedDate.month(skipTo);
 
     try {
       if (this.canShortcutAdvance_) {
         // skip years before date.year
-        if (this.builder_.year < dateLocal.year()) {
+        if (this.builder_.year < localYear) {
           do {
             if (!this.yearGenerator_.generate(this.builder_)) {
               this.done_ = true;
               return;
             }
-          } while (this.builder_.year < dateLocal.year());
+          } while (this.builder_.year < localYear);
           while (!this.monthGenerator_.generate(this.builder_)) {
             if (!this.yearGenerator_.generate(this.builder_)) {
               this.done_ = true;
@@ -176,8 +215,8 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
           }
         }
         // skip months before date.year/date.month
-        while (this.builder_.year == dateLocal.year()
-               && this.builder_.month < dateLocal.month()) {
+        while (this.builder_.year == localYear
+               && this.builder_.month < localMonth) {
           while (!this.monthGenerator_.generate(this.builder_)) {
             // if there are more years available fetch one
             if (!this.yearGenerator_.generate(this.builder_)) {
@@ -189,15 +228,25 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
         }
       }
 
+      // a sub-daily rule can also skip the times on the days left, less a
+      // margin for instances that a daylight savings shift moves later.
+      if (this.canShortcutAdvance_
+          && this.instanceGenerator_
+             instanceof InstanceGenerators.TimeSlotGenerator) {
+        long margin = tzid_.getDSTSavings() / 1000 + 60 * 60;
+        ((InstanceGenerators.TimeSlotGenerator) this.instanceGenerator_)
+            .skipTo(PackedDate.addSeconds(dateLocal, -margin));
+      }
+
       // consume any remaining instances
       while (!this.done_) {
-        DateValue dUtc = this.generateInstance();
-        if (null == dUtc) {
+        long dUtc = this.generateInstance();
+        if (NONE == dUtc) {
           this.done_ = true;
         } else {
           if (!this.condition_.apply(dUtc)) {
             this.done_ = true;
-          } else if (dUtc.compareTo(dateUtc) >= 0) {
+          } else if (dUtc >= packedUtc) {
             this.pendingUtc_ = dUtc;
             break;
           }
@@ -210,12 +259,12 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
 
   /** calculates and stored the next date in this recurrence. */
   private void fetchNext() {
-    if (null != this.pendingUtc_ || this.done_) { return; }
+    if (NONE != this.pendingUtc_ || this.done_) { return; }
 
-    DateValue dUtc = this.generateInstance();
+    long dUtc = this.generateInstance();
 
     // check the exit condition
-    if (null != dUtc && this.condition_.apply(dUtc)) {
+    if (NONE != dUtc && this.condition_.apply(dUtc)) {
       this.pendingUtc_ = dUtc;
       this.yearGenerator_.workDone();
     } else {
@@ -223,31 +272,34 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
     }
   }
 
-  private static final DateValue MIN_DATE =
-    new DateValueImpl(Integer.MIN_VALUE, 1, 1);
+  /** a value that is not a valid packed date. */
+  private static final long NONE = Long.MIN_VALUE;
   /**
    * make sure the iterator is monotonically increasing.
    * The local time is guaranteed to be monotonic, but because of daylight
    * savings shifts, the time in UTC may not be.
    */
-  private DateValue lastUtc_ = MIN_DATE;
+  private long lastUtc_ = NONE;
   /**
-   * @return a date value in UTC.
+   * @return a packed date value in UTC, or {@link #NONE}.
    */
-  private DateValue generateInstance() {
+  private long generateInstance() {
     try {
       do {
-        if (!this.instanceGenerator_.generate(this.builder_)) { return null; }
+        if (!this.instanceGenerator_.generate(this.builder_)) { return NONE; }
         // TODO(msamuel): apply byhour, byminute, bysecond rules here
-        DateValue dUtc = this.dtStart_ instanceof TimeValue
-            ? TimeUtils.toUtc(this.builder_.toDateTime(), this.tzid_)
-            : this.builder_.toDate();
-        if (dUtc.compareTo(this.lastUtc_) > 0) {
+        this.builder_.normalize();
+        long dUtc = this.timed_
+            ? TimeUtils.toUtc(PackedDate.packDateTime(this.builder_),
+                              this.tzid_)
+            : PackedDate.packDate(this.builder_);
+        if (dUtc > this.lastUtc_) {
+          this.lastUtc_ = dUtc;
           return dUtc;
         }
       } while (true);
     } catch (Generator.IteratorShortCircuitingException ex) {
-      return null;
+      return NONE;
     }
   }
 
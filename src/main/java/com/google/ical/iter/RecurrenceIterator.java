@@ -44,6 +44,33 @@ public interface RecurrenceIterator extends Iterator<DateValue> {
    */
   void advanceTo(DateValue newStartUtc);
 
+  /**
+   * fills dest with up to len of the following dates in the series, as
+   * {@link com.google.ical.util.PackedDate packed} dates in UTC, so that bulk
+   * consumers need not allocate an object per date.
+   * The default implementation packs the results of {@link #next}.
+   *
+   * @param destUtc receives the dates starting at index off.
+   * @return the number of dates written, which is less than len only if the
+   *   series is exhausted.
+   */
+  default int nextBatch(long[] destUtc, int off, int len) {
+    int n = 0;
+    while (n < len && hasNext()) {
+      destUtc[off + n++] = DateValueComparison.comparable(next());
+    }
+    return n;
+  }
+
+  /**
+   * true iff the series was cut short by an {@link ExpansionPolicy}, so that
+   * it may have more dates than were returned.
+   * The default implementation returns false.
+   */
+  default boolean isTruncated() {
+    return false;
+  }
+
   /**
    * unsupported.
    * @throws UnsupportedOperationException always
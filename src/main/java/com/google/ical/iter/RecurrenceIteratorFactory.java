@@ -18,14 +18,13 @@ import com.google.ical.values.DateTimeValue;
 import com.google.ical.values.DateTimeValueImpl;
 import com.google.ical.values.DateValue;
 import com.google.ical.values.Frequency;
+import com.google.ical.values.IcalParseUtil;
 import com.google.ical.values.IcalObject;
 import com.google.ical.values.RDateList;
 import com.google.ical.values.RRule;
 import com.google.ical.values.TimeValue;
 import com.google.ical.values.Weekday;
 import com.google.ical.values.WeekdayNum;
-import com.google.ical.util.Predicate;
-import com.google.ical.util.Predicates;
 import com.google.ical.util.TimeUtils;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -35,7 +34,6 @@ import java.util.List;
 import java.util.TimeZone;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 /**
  * for calculating the occurrences of an individual RFC 2445 RRULE or groups of
@@ -86,10 +84,34 @@ public class RecurrenceIteratorFactory {
     return createRecurrenceIterable(rdata, dtStart, tzid, strict).iterator();
   }
 
+  /**
+   * like {@link #createRecurrenceIterator(String,DateValue,TimeZone,boolean)}
+   * but each RRULE and EXRULE is limited by the given policy.
+   */
+  public static RecurrenceIterator createRecurrenceIterator(
+      String rdata, DateValue dtStart, TimeZone tzid, boolean strict,
+      ExpansionPolicy policy)
+      throws ParseException {
+    return createRecurrenceIterable(rdata, dtStart, tzid, strict, policy)
+        .iterator();
+  }
+
   public static RecurrenceIterable createRecurrenceIterable(
       String rdata, final DateValue dtStart, final TimeZone tzid,
       final boolean strict)
       throws ParseException {
+    return createRecurrenceIterable(
+        rdata, dtStart, tzid, strict, ExpansionPolicy.UNLIMITED);
+  }
+
+  /**
+   * like {@link #createRecurrenceIterable(String,DateValue,TimeZone,boolean)}
+   * but each RRULE and EXRULE is limited by the given policy.
+   */
+  public static RecurrenceIterable createRecurrenceIterable(
+      String rdata, final DateValue dtStart, final TimeZone tzid,
+      final boolean strict, final ExpansionPolicy policy)
+      throws ParseException {
     final IcalObject[] contentLines = parseContentLines(rdata, tzid, strict);
 
     return new RecurrenceIterable() {
@@ -106,13 +128,13 @@ public class RecurrenceIteratorFactory {
               String name = contentLine.getName();
               if ("rrule".equalsIgnoreCase(name)) {
                 inclusions.add(createRecurrenceIterator(
-                                   (RRule) contentLine, dtStart, tzid));
+                                   (RRule) contentLine, dtStart, tzid, policy));
               } else if ("rdate".equalsIgnoreCase(name)) {
                 inclusions.add(
                     createRecurrenceIterator((RDateList) contentLine));
               } else if ("exrule".equalsIgnoreCase(name)) {
                 exclusions.add(createRecurrenceIterator(
-                                   (RRule) contentLine, dtStart, tzid));
+                                   (RRule) contentLine, dtStart, tzid, policy));
               } else if ("exdate".equalsIgnoreCase(name)) {
                 exclusions.add(
                     createRecurrenceIterator((RDateList) contentLine));
@@ -167,8 +189,25 @@ public class RecurrenceIteratorFactory {
    */
   public static RecurrenceIterator createRecurrenceIterator(
       RRule rrule, DateValue dtStart, TimeZone tzid) {
+    return createRecurrenceIterator(
+        rrule, dtStart, tzid, ExpansionPolicy.UNLIMITED);
+  }
+
+  /**
+   * create a recurrence iterator from an rrule that stops, and reports that it
+   * was {@link RecurrenceIterator#isTruncated truncated}, once it reaches a
+   * limit of the given policy.
+   * @param rrule the recurrence rule to iterate.
+   * @param dtStart the start of the series, in tzid.
+   * @param tzid the timezone to iterate in.
+   * @param policy the limits on the iteration.  non null.
+   */
+  public static RecurrenceIterator createRecurrenceIterator(
+      RRule rrule, DateValue dtStart, TimeZone tzid, ExpansionPolicy policy) {
     assert null != tzid;
     assert null != dtStart;
+    ExpansionBudget budget =
+      policy.isUnlimited() ? null : new ExpansionBudget(policy);
 
     Frequency freq = rrule.getFreq();
     Weekday wkst = rrule.getWkSt();
@@ -187,9 +226,11 @@ public class RecurrenceIteratorFactory {
 
     // Make sure that BYMINUTE, BYHOUR, and BYSECOND rules are respected if they
     // have exactly one iteration, so not causing frequency to exceed daily.
+    boolean subDaily = Frequency.HOURLY == freq
+        || Frequency.MINUTELY == freq || Frequency.SECONDLY == freq;
     TimeValue startTime = null;
     if (1 == (byHour.length | byMinute.length | bySecond.length)
-        && dtStart instanceof TimeValue) {
+        && dtStart instanceof TimeValue && !subDaily) {
       TimeValue tv = (TimeValue) dtStart;
       startTime = new DateTimeValueImpl(
           0, 0, 0,
@@ -218,8 +259,7 @@ public class RecurrenceIteratorFactory {
     // 1 for RRULE:FREQ=YEARLY;BYDAY=TU;BYWEEKNO=1, we reimplement some of the
     // more prolific generators as filters.
     // TODO(msamuel): don't need a list here
-    List<Predicate<? super DateValue>> filters =
-      new ArrayList<Predicate<? super DateValue>>();
+    List<DatePredicate> filters = new ArrayList<DatePredicate>();
 
     // choose the appropriate generators and filters
     switch (freq) {
@@ -309,11 +349,51 @@ public class RecurrenceIteratorFactory {
               new int[] { dtStart.day() }, dtStart);
         }
         break;
+      case HOURLY:
+      case MINUTELY:
+      case SECONDLY:
+        // The days are chosen as for a DAILY rule, and a time slot generator
+        // works out the times on each day.
+        if (!(dtStart instanceof DateTimeValue)) {
+          throw new IllegalArgumentException(
+              "Can't iterate more frequently than daily from a date");
+        }
+        if (0 != byYearDay.length) {
+          dayGenerator = Generators.byYearDayGenerator(byYearDay, dtStart);
+          if (0 != byMonthDay.length) {
+            filters.add(Filters.byMonthDayFilter(byMonthDay));
+          }
+        } else if (0 != byMonthDay.length) {
+          dayGenerator = Generators.byMonthDayGenerator(byMonthDay, dtStart);
+        } else {
+          dayGenerator = Generators.everyDayGenerator();
+        }
+        if (0 != byDay.length) {
+          filters.add(Filters.byDayFilter(byDay, true, wkst));
+        }
+        break;
       default:
         throw new IllegalArgumentException(
             "Can't iterate more frequently than daily");
     }
 
+    // a generator that works out a month's dates at once can apply the filters
+    // that are masks over the days of the year to all of them with one AND, so
+    // that FREQ=MONTHLY;BYDAY=FR;BYMONTHDAY=13 generates only the friday the
+    // 13ths instead of generating every 13th and filtering out the rest.
+    if (dayGenerator instanceof Generators.MonthDateSetGenerator) {
+      Filters.YearMaskPredicate mask = Filters.removeYearMasks(filters);
+      if (null != mask) {
+        ((Generators.MonthDateSetGenerator) dayGenerator).setFilter(mask);
+      }
+    }
+
+    // count each candidate day against the budget, since it is the day
+    // generator that is called repeatedly by a rule that rarely matches.
+    if (null != budget) {
+      dayGenerator = Generators.budgetedGenerator(dayGenerator, budget);
+    }
+
     // generator inference common to all periods
     if (0 != byMonth.length) {
       monthGenerator = Generators.byMonthGenerator(byMonth, dtStart);
@@ -325,7 +405,7 @@ public class RecurrenceIteratorFactory {
     // the condition tells the iterator when to halt.
     // The condition is exclusive, so the date that triggers it will not be
     // included.
-    Predicate<DateValue> condition;
+    DatePredicate condition;
     boolean canShortcutAdvance = true;
     if (0 != count) {
       condition = Conditions.countCondition(count);
@@ -345,26 +425,17 @@ public class RecurrenceIteratorFactory {
       }
       condition = Conditions.untilCondition(untilUtc);
     } else {
-      condition = Predicates.<DateValue>alwaysTrue();
+      condition = DatePredicate.ALWAYS_TRUE;
     }
 
-    // combine filters into a single function
-    Predicate<? super DateValue> filter;
-    switch (filters.size()) {
-      case 0:
-        filter = Predicates.<DateValue>alwaysTrue();
-        break;
-      case 1:
-        filter = filters.get(0);
-        break;
-      default:
-        @SuppressWarnings({"unchecked", "rawtypes"})
-        Predicate<? super DateValue> andResult =
-            Predicates.and(filters.toArray(new Predicate[0]));
-        filter = andResult;
-        break;
+    if (null != budget) {
+      condition = Filters.and(Arrays.asList(
+          condition, Conditions.budgetCondition(budget)));
     }
 
+    // combine filters into a single function
+    DatePredicate filter = Filters.and(filters);
+
     Generator instanceGenerator;
     if (0 != bySetPos.length) {
       switch (freq) {
@@ -374,6 +445,10 @@ public class RecurrenceIteratorFactory {
           instanceGenerator = InstanceGenerators.bySetPosInstanceGenerator(
               bySetPos, freq, wkst, filter,
               yearGenerator, monthGenerator, dayGenerator);
+          // The set position generator advances the year and month itself
+          // when it starts a new set, so skipping periods in advanceTo would
+          // cause it to skip the first set on or after the target date.
+          canShortcutAdvance = false;
           break;
         default:
           // TODO(msamuel): if we allow iteration more frequently than daily
@@ -398,10 +473,16 @@ public class RecurrenceIteratorFactory {
           filter, yearGenerator, monthGenerator, dayGenerator);
     }
 
+    if (subDaily) {
+      instanceGenerator = InstanceGenerators.timeSlotGenerator(
+          instanceGenerator, freq, interval, byHour, byMinute, bySecond,
+          (DateTimeValue) dtStart);
+    }
+
     return new RRuleIteratorImpl(
         dtStart, tzid, condition, filter, instanceGenerator,
         yearGenerator, monthGenerator, dayGenerator, canShortcutAdvance,
-        startTime);
+        startTime, budget);
   }
 
   /**
@@ -433,26 +514,29 @@ public class RecurrenceIteratorFactory {
         Collections.<RecurrenceIterator>singleton(excluded));
   }
 
-  private static final Pattern FOLD = Pattern.compile("(?:\\r\\n?|\\n)[ \t]");
-  private static final Pattern NEWLINE = Pattern.compile("[\\r\\n]+");
-  private static final Pattern RULE = Pattern.compile(
-      "^(?:R|EX)RULE[:;]", Pattern.CASE_INSENSITIVE);
-  private static final Pattern DATE = Pattern.compile(
-      "^(?:R|EX)DATE[:;]", Pattern.CASE_INSENSITIVE);
   private static IcalObject[] parseContentLines(
       String rdata, TimeZone tzid, boolean strict)
       throws ParseException {
-    String unfolded = FOLD.matcher(rdata).replaceAll("").trim();
+    String unfolded = IcalParseUtil.unfoldIcal(rdata).trim();
     if ("".equals(unfolded)) { return new IcalObject[0]; }
-    String[] lines = NEWLINE.split(unfolded);
+    List<String> lineList = new ArrayList<String>();
+    for (int i = 0, n = unfolded.length(); i < n;) {
+      int lineEnd = i;
+      while (lineEnd < n && !isNewline(unfolded.charAt(lineEnd))) { ++lineEnd; }
+      lineList.add(unfolded.substring(i, lineEnd));
+      i = lineEnd;
+      while (i < n && isNewline(unfolded.charAt(i))) { ++i; }
+    }
+    String[] lines = lineList.toArray(new String[lineList.size()]);
     IcalObject[] out = new IcalObject[lines.length];
     int nbad = 0;
     for (int i = 0; i < lines.length; ++i) {
       String line = lines[i].trim();
       try {
-        if (RULE.matcher(line).find()) {
+        if (startsWithName(line, "RRULE") || startsWithName(line, "EXRULE")) {
           out[i] = new RRule(line);
-        } else if (DATE.matcher(line).find()) {
+        } else if (startsWithName(line, "RDATE")
+                   || startsWithName(line, "EXDATE")) {
           out[i] = new RDateList(line, tzid);
         } else {
           throw new ParseException(lines[i], i);
@@ -483,6 +567,23 @@ public class RecurrenceIteratorFactory {
     return out;
   }
 
+  private static boolean isNewline(char ch) {
+    return ch == '\r' || ch == '\n';
+  }
+
+  /**
+   * true iff line is a content line with the given name, ignoring case,
+   * followed by its parameters or value.
+   */
+  private static boolean startsWithName(String line, String name) {
+    int n = name.length();
+    if (line.length() <= n || !line.regionMatches(true, 0, name, 0, n)) {
+      return false;
+    }
+    char ch = line.charAt(n);
+    return ch == ':' || ch == ';';
+  }
+
   private RecurrenceIteratorFactory() {
     // uninstantiable
   }
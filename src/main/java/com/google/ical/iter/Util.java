@@ -15,6 +15,7 @@
 package com.google.ical.iter;
 
 import com.google.ical.util.DTBuilder;
+import com.google.ical.util.PackedDate;
 import com.google.ical.values.Weekday;
 import com.google.ical.values.WeekdayNum;
 import com.google.ical.values.DateValue;
@@ -42,14 +43,33 @@ class Util {
 
   /**
    * the earliest day on or after d that falls on wkst.
+   * @param d a packed date.
    * @param wkst the day of the week that the week starts on
+   * @return a packed date.
    */
-  static DateValue nextWeekStart(DateValue d, Weekday wkst) {
-    DTBuilder builder = new DTBuilder(d);
-    builder.day += (7 - ((7 + (Weekday.valueOf(d).javaDayNum
+  static long nextWeekStart(long d, Weekday wkst) {
+    int fixedDay = PackedDate.fixedDay(d);
+    return PackedDate.fromFixedDay(
+        fixedDay + (7 - ((7 + (weekdayOf(fixedDay).javaDayNum
                                - wkst.javaDayNum)) % 7))
-                   % 7;
-    return builder.toDate();
+                   % 7);
+  }
+
+  /** the day of the week of a packed date. */
+  static Weekday weekdayOf(long d) {
+    return weekdayOf(PackedDate.fixedDay(d));
+  }
+
+  private static final Weekday[] WEEKDAYS = Weekday.values();
+
+  /**
+   * the day of the week of a day as returned by
+   * {@link com.google.ical.util.TimeUtils#fixedFromGregorian}.
+   */
+  static Weekday weekdayOf(int fixedDay) {
+    int dayIndex = fixedDay % 7;
+    if (dayIndex < 0) { dayIndex += 7; }
+    return WEEKDAYS[dayIndex];
   }
 
   /** returns a sorted unique copy of ints. */
@@ -0,0 +1,207 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.util;
+
+import com.google.ical.values.DateTimeValueImpl;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.DateValueImpl;
+import com.google.ical.values.TimeValue;
+
+/**
+ * static methods for working with dates and date-times packed into a single
+ * <code>long</code>, so that the recurrence engine can pass candidate dates
+ * around without allocating a {@link DateValue} for each one.
+ *
+ * <p>The layout, from most significant to least significant bits, is
+ * <pre>
+ *   year (remaining bits, signed) | month (4) | day (5) | time (17)
+ * </pre>
+ * where the time field is zero for a date, and for a date-time is
+ * <code>((hour &lt;&lt; 12) | (minute &lt;&lt; 6) | second) + 1</code>.
+ * Packed values therefore compare in the same order as
+ * {@link DateValue#compareTo}, with a date sorting before midnight of the same
+ * day.</p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public final class PackedDate {
+
+  private static final int TIME_BITS = 17;
+  private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+
+  /** packs a date with no time. */
+  public static long pack(int year, int month, int day) {
+    return ((((((long) year) << 4) + month) << 5) + day) << TIME_BITS;
+  }
+
+  /** packs a date-time. */
+  public static long pack(int year, int month, int day,
+                          int hour, int minute, int second) {
+    return pack(year, month, day)
+        + ((hour << 12) | (minute << 6) | second) + 1;
+  }
+
+  /** packs a date or date-time depending on whether dv is a TimeValue. */
+  public static long pack(DateValue dv) {
+    if (dv instanceof TimeValue) {
+      TimeValue tv = (TimeValue) dv;
+      return pack(dv.year(), dv.month(), dv.day(),
+                  tv.hour(), tv.minute(), tv.second());
+    }
+    return pack(dv.year(), dv.month(), dv.day());
+  }
+
+  /**
+   * packs the date portion of a builder.  The builder should be normalized.
+   */
+  public static long packDate(DTBuilder b) {
+    return pack(b.year, b.month, b.day);
+  }
+
+  /**
+   * packs the date and time of a builder.  The builder should be normalized.
+   */
+  public static long packDateTime(DTBuilder b) {
+    return pack(b.year, b.month, b.day, b.hour, b.minute, b.second);
+  }
+
+  public static int year(long packed) {
+    return (int) (packed >> (TIME_BITS + 9));
+  }
+
+  /** one indexed. */
+  public static int month(long packed) {
+    return (int) (packed >> (TIME_BITS + 5)) & 0xf;
+  }
+
+  /** one indexed. */
+  public static int day(long packed) {
+    return (int) (packed >> TIME_BITS) & 0x1f;
+  }
+
+  /** zero for dates. */
+  public static int hour(long packed) {
+    return hasTime(packed) ? (int) ((packed & TIME_MASK) - 1) >> 12 : 0;
+  }
+
+  /** zero for dates. */
+  public static int minute(long packed) {
+    return hasTime(packed) ? (int) ((packed & TIME_MASK) - 1) >> 6 & 0x3f : 0;
+  }
+
+  /** zero for dates. */
+  public static int second(long packed) {
+    return hasTime(packed) ? (int) ((packed & TIME_MASK) - 1) & 0x3f : 0;
+  }
+
+  /** true for a date-time, false for a date. */
+  public static boolean hasTime(long packed) {
+    return 0 != (packed & TIME_MASK);
+  }
+
+  /** the date portion of the given date or date-time. */
+  public static long date(long packed) {
+    return packed & ~TIME_MASK;
+  }
+
+  /** the {@link TimeUtils#fixedFromGregorian fixed day} of packed. */
+  public static int fixedDay(long packed) {
+    return TimeUtils.fixedFromGregorian(
+        year(packed), month(packed), day(packed));
+  }
+
+  /**
+   * seconds since the proleptic gregorian epoch as per
+   * {@link TimeUtils#secsSinceEpoch}.
+   */
+  public static long secsSinceEpoch(long packed) {
+    long secs = fixedDay(packed) * SECS_PER_DAY;
+    if (hasTime(packed)) {
+      int time = (int) ((packed & TIME_MASK) - 1);
+      secs += (time >> 12) * 3600 + (time >> 6 & 0x3f) * 60 + (time & 0x3f);
+    }
+    return secs;
+  }
+
+  /**
+   * seconds since 1 Jan 1970, as for a time_t, of a packed value taken to be
+   * in UTC.
+   */
+  public static long timetSecs(long packed) {
+    return secsSinceEpoch(packed) - TIME_T_EPOCH_SECS;
+  }
+
+  /**
+   * the packed date-time the given number of seconds since the proleptic
+   * gregorian epoch as per {@link TimeUtils#timeFromSecsSinceEpoch}.
+   */
+  public static long fromSecsSinceEpoch(long secsSinceEpoch) {
+    int secsInDay = (int) (secsSinceEpoch % SECS_PER_DAY);
+    int daysSinceEpoch = (int) (secsSinceEpoch / SECS_PER_DAY);
+    if (secsInDay < 0) {
+      secsInDay += SECS_PER_DAY;
+      --daysSinceEpoch;
+    }
+    return fromFixedDay(daysSinceEpoch)
+        + ((secsInDay / 3600) << 12 | (secsInDay / 60 % 60) << 6
+           | secsInDay % 60) + 1;
+  }
+
+  /**
+   * the packed date for the given {@link TimeUtils#fixedFromGregorian fixed
+   * day}.
+   */
+  public static long fromFixedDay(int fixedDay) {
+    int approx = (int) ((fixedDay + 10) * 400L / 146097);
+    int year = (fixedDay >= TimeUtils.fixedFromGregorian(approx + 1, 1, 1))
+               ? approx + 1 : approx;
+    int priorDays = fixedDay - TimeUtils.fixedFromGregorian(year, 1, 1);
+    int correction = (fixedDay < TimeUtils.fixedFromGregorian(year, 3, 1)) ? 0
+        : TimeUtils.isLeapYear(year) ? 1 : 2;
+    int month = (12 * (priorDays + correction) + 373) / 367;
+    int day = fixedDay - TimeUtils.fixedFromGregorian(year, month, 1) + 1;
+    return pack(year, month, day);
+  }
+
+  /** the packed value adjusted by the given number of seconds. */
+  public static long addSeconds(long packed, long seconds) {
+    return fromSecsSinceEpoch(secsSinceEpoch(packed) + seconds);
+  }
+
+  /** unpacks a value created by one of the pack methods. */
+  public static DateValue toDateValue(long packed) {
+    if (hasTime(packed)) {
+      return new DateTimeValueImpl(
+          year(packed), month(packed), day(packed),
+          hour(packed), minute(packed), second(packed));
+    }
+    return new DateValueImpl(year(packed), month(packed), day(packed));
+  }
+
+  /** a human readable form, for debugging. */
+  public static String toString(long packed) {
+    return toDateValue(packed).toString();
+  }
+
+  private static final long SECS_PER_DAY = 24L * 60 * 60;
+  /** secsSinceEpoch for 1 Jan 1970, the start of time_t. */
+  private static final long TIME_T_EPOCH_SECS =
+    TimeUtils.fixedFromGregorian(1970, 1, 1) * SECS_PER_DAY;
+
+  private PackedDate() {
+    // uninstantiable
+  }
+
+}
@@ -51,15 +51,20 @@ public class TimeUtils {
    */
   private static long timetMillisFromEpochSecs(long epochSecs,
                                                TimeZone zone) {
-    DateTimeValue date = timeFromSecsSinceEpoch(epochSecs);
+    long date = PackedDate.fromSecsSinceEpoch(epochSecs);
     Calendar cal = new GregorianCalendar(zone);
     cal.clear(); // clear millis
     cal.setTimeZone(zone);
-    cal.set(date.year(), date.month() - 1, date.day(),
-            date.hour(), date.minute(), date.second());
+    cal.set(PackedDate.year(date), PackedDate.month(date) - 1,
+            PackedDate.day(date), PackedDate.hour(date),
+            PackedDate.minute(date), PackedDate.second(date));
     return cal.getTimeInMillis();
   }
 
+  /** secsSinceEpoch for 1 Jan 1970, the start of time_t. */
+  private static final long TIME_T_EPOCH_SECS =
+    fixedFromGregorian(1970, 1, 1) * 86400L;
+
   private static DateTimeValue convert(DateTimeValue time,
                                        TimeZone zone,
                                        int sense) {
@@ -68,22 +73,50 @@ public class TimeUtils {
         time.year() == 0) {
       return time;
     }
+    return (DateTimeValue) PackedDate.toDateValue(
+        convert(PackedDate.pack(time), zone, sense));
+  }
+
+  private static long convert(long packed, TimeZone zone, int sense) {
+    if (!PackedDate.hasTime(packed) ||
+        zone == null ||
+        zone.hasSameRules(ZULU) ||
+        PackedDate.year(packed) == 0) {
+      return packed;
+    }
+
+    long epochSecs = PackedDate.secsSinceEpoch(packed);
+    long timetSecs = epochSecs - TIME_T_EPOCH_SECS;
+
+    // Use the zone's transition table if it has one, since building a
+    // GregorianCalendar for every conversion is slow.
+    ZoneOffsetTable table;
+    if (null != (table = ZoneOffsetTable.forZone(zone))
+        && table.covers(timetSecs)) {
+      if (sense < 0) {
+        timetSecs -= table.offsetAtLocal(timetSecs);
+      }
+      return PackedDate.addSeconds(packed, sense * table.offsetAtUtc(timetSecs));
+    }
 
     long timetMillis = 0;
 
     if (sense > 0) {
-      // time is in UTC
-      timetMillis = timetMillisFromEpochSecs(secsSinceEpoch(time), ZULU);
+      // time is in UTC.  GregorianCalendar switches to the Julian calendar
+      // before 1583, so only do the arithmetic ourselves after that.
+      timetMillis = PackedDate.year(packed) > 1582
+        ? timetSecs * 1000
+        : timetMillisFromEpochSecs(epochSecs, ZULU);
     } else {
       // time is in local time; since zone.getOffset() expects millis
       // in UTC, need to convert before we can get the offset (ironic)
-      timetMillis = timetMillisFromEpochSecs(secsSinceEpoch(time), zone);
+      timetMillis = timetMillisFromEpochSecs(epochSecs, zone);
     }
 
     int millisecondOffset = zone.getOffset(timetMillis);
     int millisecondRound = millisecondOffset < 0 ? -500 : 500;
     int secondOffset = (millisecondOffset + millisecondRound) / 1000;
-    return addSeconds(time, sense * secondOffset);
+    return PackedDate.addSeconds(packed, sense * secondOffset);
   }
 
   public static DateValue fromUtc(DateValue date, TimeZone zone) {
@@ -102,11 +135,20 @@ public class TimeUtils {
       : date;
   }
 
-  private static DateTimeValue addSeconds(DateTimeValue dtime, int seconds) {
-    return new DTBuilder(dtime.year(), dtime.month(),
-                         dtime.day(), dtime.hour(),
-                         dtime.minute(),
-                         dtime.second() + seconds).toDateTime();
+  /**
+   * like {@link #fromUtc(DateValue, TimeZone)} but for a
+   * {@link PackedDate packed} date or date-time.
+   */
+  public static long fromUtc(long packed, TimeZone zone) {
+    return convert(packed, zone, +1);
+  }
+
+  /**
+   * like {@link #toUtc(DateValue, TimeZone)} but for a
+   * {@link PackedDate packed} date or date-time.
+   */
+  public static long toUtc(long packed, TimeZone zone) {
+    return convert(packed, zone, -1);
   }
 
   public static DateValue add(DateValue d, DateValue dur) {
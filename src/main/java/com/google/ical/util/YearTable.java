@@ -0,0 +1,166 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.ical.util;
+
+import com.google.ical.values.Weekday;
+
+/**
+ * precomputed calendar facts about one year of the proleptic Gregorian
+ * calendar, so that the recurrence generators can look up month starts,
+ * weekdays and week numbering rather than recompute them for every month they
+ * visit.
+ *
+ * <p>Tables are immutable.  Those for the years between {@link #MIN_YEAR} and
+ * {@link #MAX_YEAR} are cached and shared by all threads via
+ * {@link #forYear}, while tables for other years are built on demand.</p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public final class YearTable {
+
+  /** the first year cached. */
+  public static final int MIN_YEAR = 1900;
+  /** the year after the last year cached. */
+  public static final int MAX_YEAR = 2200;
+
+  /**
+   * tables by year - MIN_YEAR.  Races when filling a slot are benign since
+   * tables only have final fields, so at worst a table is built twice.
+   */
+  private static final YearTable[] CACHE = new YearTable[MAX_YEAR - MIN_YEAR];
+
+  private static final Weekday[] WEEKDAYS = Weekday.values();
+
+  private final int year;
+  private final boolean leapYear;
+  /** fixed day, as per {@link TimeUtils#fixedFromGregorian}, of 1 Jan. */
+  private final int jan1Fixed;
+  /** zero indexed day of year of the first of each month, month0 0-11. */
+  private final int[] monthStartDoy = new int[12];
+  /** the weekday of the first of each month, month0 0-11. */
+  private final Weekday[] monthStartWeekday = new Weekday[12];
+  /**
+   * day of year, by the jsDayNum of the week start, of the first day of week
+   * 1, which may be negative when week 1 starts in the previous year.
+   */
+  private final int[] week1StartDoy = new int[7];
+  /** count of weeks in the year by the jsDayNum of the week start. */
+  private final int[] weeksInYear = new int[7];
+
+  private YearTable(int year) {
+    this.year = year;
+    this.leapYear = TimeUtils.isLeapYear(year);
+    this.jan1Fixed = TimeUtils.fixedFromGregorian(year, 1, 1);
+
+    int doy = 0;
+    for (int month0 = 0; month0 < 12; ++month0) {
+      monthStartDoy[month0] = doy;
+      monthStartWeekday[month0] = weekday(jan1Fixed + doy);
+      doy += TimeUtils.monthLength(year, month0 + 1);
+    }
+
+    int dowJan1 = monthStartWeekday[0].jsDayNum;
+    int nDaysInYear = leapYear ? 366 : 365;
+    for (int wkst = 0; wkst < 7; ++wkst) {
+      // if the first day of jan is wkst, then there are 7.
+      // if the first day of jan is wkst + 1, then there are 6
+      // if the first day of jan is wkst + 6, then there is 1
+      int nDaysInFirstWeek = 7 - ((7 + dowJan1 - wkst) % 7);
+      // number of days not in any week
+      int nOrphanedDays = 0;
+      // according to RFC 2445
+      //     Week number one of the calendar year is the first week which
+      //     contains at least four (4) days in that calendar year.
+      if (nDaysInFirstWeek < 4) {
+        nOrphanedDays = nDaysInFirstWeek;
+        nDaysInFirstWeek = 7;
+      }
+      week1StartDoy[wkst] = nDaysInFirstWeek - 7 + nOrphanedDays;
+      weeksInYear[wkst] = (nDaysInYear - nOrphanedDays + 6) / 7;
+    }
+  }
+
+  /** the table for the given year. */
+  public static YearTable forYear(int year) {
+    if (year < MIN_YEAR || year >= MAX_YEAR) {
+      return new YearTable(year);
+    }
+    YearTable table = CACHE[year - MIN_YEAR];
+    if (null == table) {
+      table = CACHE[year - MIN_YEAR] = new YearTable(year);
+    }
+    return table;
+  }
+
+  private static Weekday weekday(int fixed) {
+    int dayIndex = fixed % 7;
+    return WEEKDAYS[dayIndex >= 0 ? dayIndex : dayIndex + 7];
+  }
+
+  public int year() { return year; }
+
+  public boolean isLeapYear() { return leapYear; }
+
+  /** count of days in the year. */
+  public int yearLength() { return leapYear ? 366 : 365; }
+
+  /** count of days in the given month (one indexed). */
+  public int monthLength(int month) {
+    return (month == 12 ? yearLength() : monthStartDoy[month])
+        - monthStartDoy[month - 1];
+  }
+
+  /** the day of the year in [0-365] of the given month and date. */
+  public int dayOfYear(int month, int date) {
+    return monthStartDoy[month - 1] + date - 1;
+  }
+
+  /**
+   * the number of days since the epoch of the given month and date.
+   * See {@link TimeUtils#fixedFromGregorian}.
+   */
+  public int fixedDay(int month, int date) {
+    return jan1Fixed + monthStartDoy[month - 1] + date - 1;
+  }
+
+  /** the weekday of the first of the given month (one indexed). */
+  public Weekday firstDayOfWeekInMonth(int month) {
+    return monthStartWeekday[month - 1];
+  }
+
+  /** the weekday of the given month and date. */
+  public Weekday dayOfWeek(int month, int date) {
+    return weekday(fixedDay(month, date));
+  }
+
+  /**
+   * the day of the year of the first day of week 1 when weeks start on wkst.
+   * This is negative when week 1 starts in the previous year.
+   */
+  public int week1Start(Weekday wkst) {
+    return week1StartDoy[wkst.jsDayNum];
+  }
+
+  /** the count of weeks in the year when weeks start on wkst. */
+  public int weeksInYear(Weekday wkst) {
+    return weeksInYear[wkst.jsDayNum];
+  }
+
+  @Override
+  public String toString() {
+    return "[YearTable " + year + "]";
+  }
+}
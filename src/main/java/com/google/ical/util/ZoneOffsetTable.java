@@ -0,0 +1,241 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.util;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * a precomputed table of the UTC offsets in effect in a timezone, so that
+ * conversions between UTC and local time need only a binary search rather than
+ * a {@link java.util.GregorianCalendar}.
+ *
+ * <p>Tables are immutable, and those for the system timezones are cached and
+ * shared by all threads via {@link #forZone}.  Those cover only the range
+ * between {@link #MIN_SECS} and {@link #MAX_SECS}, while a table built from
+ * explicit transitions, such as one compiled from a VTIMEZONE, covers all
+ * times and can be used as a {@link TimeZone} via {@link #toTimeZone}.</p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public final class ZoneOffsetTable {
+
+  /** the start of the range covered by tables, 1 Jan 1900, in time_t secs. */
+  public static final long MIN_SECS = -2208988800L;
+  /** the end of the range covered by tables, 1 Jan 2200, in time_t secs. */
+  public static final long MAX_SECS = 7258118400L;
+
+  /** the instants, in time_t secs, at which the offset changes. */
+  private final long[] transitions;
+  /**
+   * the local time, in time_t secs as if local were UTC, of each transition
+   * as seen after it.
+   */
+  private final long[] localTransitions;
+  /**
+   * offsets[i] is the offset in seconds before transitions[i], and
+   * offsets[transitions.length] the offset after the last transition.
+   */
+  private final int[] offsets;
+  /** the range of time_t secs, [minSecs, maxSecs), that this table covers. */
+  private final long minSecs, maxSecs;
+
+  /**
+   * @param transitions the instants, in time_t secs, at which the offset
+   *   changes, in increasing order.
+   * @param offsets offsets in seconds with one more element than transitions.
+   *   offsets[i] is in effect before transitions[i] and offsets[i + 1] after.
+   */
+  public ZoneOffsetTable(long[] transitions, int[] offsets) {
+    this(transitions, offsets, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  private ZoneOffsetTable(
+      long[] transitions, int[] offsets, long minSecs, long maxSecs) {
+    if (offsets.length != transitions.length + 1) {
+      throw new IllegalArgumentException(
+          "need " + (transitions.length + 1) + " offsets");
+    }
+    this.transitions = transitions.clone();
+    this.offsets = offsets.clone();
+    this.localTransitions = new long[transitions.length];
+    for (int i = 0; i < transitions.length; ++i) {
+      if (i > 0 && transitions[i] <= transitions[i - 1]) {
+        throw new IllegalArgumentException("transitions out of order");
+      }
+      localTransitions[i] = transitions[i] + offsets[i + 1];
+    }
+    this.minSecs = minSecs;
+    this.maxSecs = maxSecs;
+  }
+
+  /** a table for the given rules between {@link #MIN_SECS} and MAX_SECS. */
+  public static ZoneOffsetTable forRules(ZoneRules rules) {
+    List<ZoneOffsetTransition> found = new ArrayList<ZoneOffsetTransition>();
+    Instant min = Instant.ofEpochSecond(MIN_SECS);
+    ZoneOffsetTransition t = rules.nextTransition(min);
+    while (null != t && t.toEpochSecond() < MAX_SECS) {
+      found.add(t);
+      t = rules.nextTransition(t.getInstant());
+    }
+    long[] transitions = new long[found.size()];
+    int[] offsets = new int[found.size() + 1];
+    offsets[0] = rules.getOffset(min).getTotalSeconds();
+    for (int i = 0; i < transitions.length; ++i) {
+      transitions[i] = found.get(i).toEpochSecond();
+      offsets[i + 1] = found.get(i).getOffsetAfter().getTotalSeconds();
+    }
+    return new ZoneOffsetTable(transitions, offsets, MIN_SECS, MAX_SECS);
+  }
+
+  /**
+   * the shared table for the given timezone, or null if the zone's rules are
+   * not those of a system timezone with the same ID, such as a
+   * {@link java.util.SimpleTimeZone} with custom rules.
+   */
+  public static ZoneOffsetTable forZone(TimeZone zone) {
+    if (zone instanceof TableTimeZone) {
+      return ((TableTimeZone) zone).table;
+    }
+    ZoneOffsetTable table = CACHE.get(zone);
+    if (null == table) {
+      table = NONE;
+      try {
+        String id = zone.getID();
+        if (TimeZone.getTimeZone(id).hasSameRules(zone)) {
+          table = forRules(ZoneId.of(id).getRules());
+        }
+      } catch (DateTimeException ex) {
+        // not an ID that java.time recognizes
+      }
+      if (CACHE.size() >= MAX_CACHE_SIZE) { CACHE.clear(); }
+      // TimeZones are mutable, so key on a copy.
+      CACHE.put((TimeZone) zone.clone(), table);
+    }
+    return table != NONE ? table : null;
+  }
+
+  /** true iff the given time_t secs are within the range of this table. */
+  public boolean covers(long timetSecs) {
+    return timetSecs >= minSecs && timetSecs < maxSecs;
+  }
+
+  /** the offset in seconds in effect at the given instant in time_t secs. */
+  public int offsetAtUtc(long timetSecs) {
+    int i = Arrays.binarySearch(transitions, timetSecs);
+    return offsets[i >= 0 ? i + 1 : -(i + 1)];
+  }
+
+  /**
+   * the offset in seconds in effect at the given local time, in time_t secs
+   * as if local were UTC.
+   * A local time skipped by a transition is treated as being before it, and a
+   * local time repeated by a transition as being after it, as
+   * {@link java.util.GregorianCalendar} does.
+   */
+  public int offsetAtLocal(long localSecs) {
+    int i = Arrays.binarySearch(localTransitions, localSecs);
+    return offsets[i >= 0 ? i + 1 : -(i + 1)];
+  }
+
+  /** the number of transitions in the table. */
+  public int size() {
+    return transitions.length;
+  }
+
+  /**
+   * a timezone whose offsets are those of this table.
+   * @param id the ID of the timezone.
+   * @param rawOffsetSecs the standard offset of the zone in seconds.  Times
+   *   at which the table's offset differs from this are daylight time.
+   */
+  public TimeZone toTimeZone(String id, int rawOffsetSecs) {
+    return new TableTimeZone(this, id, rawOffsetSecs * 1000);
+  }
+
+  /** a TimeZone backed by a table so that TimeUtils can use it directly. */
+  private static final class TableTimeZone extends TimeZone {
+    private static final long serialVersionUID = 1L;
+    final ZoneOffsetTable table;
+    private final int rawOffset;
+
+    TableTimeZone(ZoneOffsetTable table, String id, int rawOffset) {
+      this.table = table;
+      this.rawOffset = rawOffset;
+      setID(id);
+    }
+
+    @Override
+    public int getOffset(long date) {
+      return table.offsetAtUtc(Math.floorDiv(date, 1000L)) * 1000;
+    }
+
+    @Override
+    public int getOffset(int era, int year, int month, int day, int dayOfWeek,
+                         int millis) {
+      if (era == java.util.GregorianCalendar.BC) { year = 1 - year; }
+      long localSecs = PackedDate.timetSecs(
+          PackedDate.pack(year, month + 1, day)) + millis / 1000;
+      return table.offsetAtLocal(localSecs) * 1000;
+    }
+
+    @Override
+    public void setRawOffset(int offsetMillis) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getRawOffset() {
+      return rawOffset;
+    }
+
+    @Override
+    public boolean useDaylightTime() {
+      for (int offset : table.offsets) {
+        if (offset * 1000 != rawOffset) { return true; }
+      }
+      return false;
+    }
+
+    @Override
+    public boolean inDaylightTime(java.util.Date date) {
+      return getOffset(date.getTime()) != rawOffset;
+    }
+
+    @Override
+    public boolean hasSameRules(TimeZone other) {
+      if (!(other instanceof TableTimeZone)) { return false; }
+      TableTimeZone that = (TableTimeZone) other;
+      return rawOffset == that.rawOffset
+          && Arrays.equals(table.transitions, that.table.transitions)
+          && Arrays.equals(table.offsets, that.table.offsets);
+    }
+  }
+
+  private static final ZoneOffsetTable NONE =
+    new ZoneOffsetTable(new long[0], new int[1]);
+  private static final int MAX_CACHE_SIZE = 256;
+  private static final ConcurrentHashMap<TimeZone, ZoneOffsetTable> CACHE =
+    new ConcurrentHashMap<TimeZone, ZoneOffsetTable>();
+
+}
@@ -19,7 +19,6 @@ import java.text.ParseException;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -28,10 +27,6 @@ import java.util.regex.Pattern;
  * @author mikesamuel+svn@gmail.com (Mike Samuel)
  */
 abstract class AbstractIcalObject implements IcalObject {
-  private static final Pattern CONTENT_LINE_RE = Pattern.compile(
-      "^((?:[^:;\"]|\"[^\"]*\")+)(;(?:[^:\"]|\"[^\"]*\")+)?:(.*)$");
-  private static final Pattern PARAM_RE = Pattern.compile(
-      "^;([^=]+)=(?:\"([^\"]*)\"|([^\";:]*))");
   static final Pattern ICAL_SPECIALS = Pattern.compile("[:;]");
 
   private String name;
@@ -50,29 +45,52 @@ abstract class AbstractIcalObject implements IcalObject {
   protected void parse(String icalString, IcalSchema schema)
       throws ParseException {
 
-    String paramText;
-    String content;
-    {
-      String unfolded = IcalParseUtil.unfoldIcal(icalString);
-      Matcher m = CONTENT_LINE_RE.matcher(unfolded);
-      if (!m.matches()) { schema.badContent(icalString); }
-
-      setName(m.group(1).toUpperCase());
-      paramText = m.group(2);
-      if (null == paramText) { paramText = ""; }
-      content = m.group(3);
+    // content line = name *(";" param) ":" content, where the name and params
+    // may contain quoted strings.
+    String unfolded = IcalParseUtil.unfoldIcal(icalString);
+    int n = unfolded.length();
+    int nameEnd = skipQuotable(unfolded, 0, true);
+    if (nameEnd <= 0) { schema.badContent(icalString); }
+    int paramsEnd = nameEnd;
+    if (paramsEnd < n && unfolded.charAt(paramsEnd) == ';') {
+      paramsEnd = skipQuotable(unfolded, nameEnd + 1, false);
+      if (paramsEnd <= nameEnd + 1) { schema.badContent(icalString); }
+    }
+    if (paramsEnd >= n || unfolded.charAt(paramsEnd) != ':') {
+      schema.badContent(icalString);
+    }
+    for (int i = paramsEnd + 1; i < n; ++i) {
+      if (isLineTerminator(unfolded.charAt(i))) {
+        schema.badContent(icalString);
+      }
     }
+    setName(unfolded.substring(0, nameEnd).toUpperCase());
+    String content = unfolded.substring(paramsEnd + 1);
 
-    // parse parameters
+    // parse parameters, each of the form ;name=value or ;name="value"
     Map<String, String> params = new HashMap<String, String>();
-    String rest = paramText;
-    while (!"".equals(rest)) {
-      Matcher m = PARAM_RE.matcher(rest);
-      if (!m.find()) { schema.badPart(rest, null); }
-      rest = rest.substring(m.end(0));
-      String k = m.group(1).toUpperCase();
-      String v = m.group(2);
-      if (null == v) { v = m.group(3); }
+    String paramText = unfolded.substring(nameEnd, paramsEnd);
+    int pos = 0;
+    while (pos < paramText.length()) {
+      int eq = paramText.indexOf('=', pos + 1);
+      if (paramText.charAt(pos) != ';' || eq <= pos + 1) {
+        schema.badPart(paramText.substring(pos), null);
+      }
+      String k = paramText.substring(pos + 1, eq).toUpperCase();
+      String v;
+      int close;
+      if (eq + 1 < paramText.length() && paramText.charAt(eq + 1) == '"'
+          && (close = paramText.indexOf('"', eq + 2)) >= 0) {
+        v = paramText.substring(eq + 2, close);
+        pos = close + 1;
+      } else {
+        pos = eq + 1;
+        while (pos < paramText.length()
+               && "\";:".indexOf(paramText.charAt(pos)) < 0) {
+          ++pos;
+        }
+        v = paramText.substring(eq + 1, pos);
+      }
       if (params.containsKey(k)) {
         schema.dupePart(k);
       }
@@ -82,6 +100,30 @@ abstract class AbstractIcalObject implements IcalObject {
     schema.applyObjectSchema(this.name, params, content, this);
   }
 
+  /**
+   * the index of the first ':', or ';' if stopAtSemi, at or after start that
+   * is not in a quoted string, or -1 if a quoted string is not closed.
+   */
+  private static int skipQuotable(String s, int start, boolean stopAtSemi) {
+    int i = start;
+    for (int n = s.length(); i < n; ++i) {
+      char ch = s.charAt(i);
+      if (ch == '"') {
+        i = s.indexOf('"', i + 1);
+        if (i < 0) { return -1; }
+      } else if (ch == ':' || (stopAtSemi && ch == ';')) {
+        break;
+      }
+    }
+    return i;
+  }
+
+  /** true iff ch ends a line, so may not appear in content. */
+  private static boolean isLineTerminator(char ch) {
+    return ch == '\n' || ch == '\r' || ch == '\u0085' || ch == '\u2028'
+        || ch == '\u2029';
+  }
+
   /** the object name such as RRULE, EXRULE, VEVENT.  @see #setName */
   public String getName() { return name; }
   /** @see #getName */
@@ -18,8 +18,6 @@ import com.google.ical.util.DTBuilder;
 import com.google.ical.util.TimeUtils;
 import java.text.ParseException;
 import java.util.TimeZone;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * static functions for parsing ical values.
@@ -28,10 +26,6 @@ import java.util.regex.Pattern;
  */
 public final class IcalParseUtil {
 
-  private static final Pattern DATE_VALUE = Pattern.compile(
-      "(\\d{4,})(\\d\\d)(\\d\\d)" +
-      "(?:T([0-1]\\d|2[0-3])([0-5]\\d)([0-5]\\d)(Z)?)?");
-
   /** parses a date of the form yyyymmdd or yyyymmdd'T'hhMMss */
   public static DateValue parseDateValue(String s) throws ParseException {
     return parseDateValue(s, null);
@@ -43,17 +37,36 @@ public final class IcalParseUtil {
    */
   public static DateValue parseDateValue(String s, TimeZone tzid)
       throws ParseException {
-    Matcher m = DATE_VALUE.matcher(s);
-    if (!m.matches()) { throw new ParseException(s, 0); }
-    int year = Integer.parseInt(m.group(1)),
-      month = Integer.parseInt(m.group(2)),
-      day = Integer.parseInt(m.group(3));
-    if (null != m.group(4)) {
-      int hour = Integer.parseInt(m.group(4)),
-        minute = Integer.parseInt(m.group(5)),
-        second = Integer.parseInt(m.group(6));
-      boolean utc = null != m.group(7);
-
+    // scanned by hand, since this is called for every RDATE and EXDATE value.
+    // Accepts (\d{4,})(\d\d)(\d\d)(?:T([0-1]\d|2[0-3])([0-5]\d)([0-5]\d)(Z)?)?
+    int n = s.length();
+    int dateEnd = 0;
+    while (dateEnd < n && isDigit(s.charAt(dateEnd))) { ++dateEnd; }
+    if (dateEnd < 8) { throw new ParseException(s, 0); }
+    boolean hasTime = dateEnd < n;
+    boolean utc = false;
+    int hour = 0, minute = 0, second = 0;
+    if (hasTime) {
+      int timeEnd = dateEnd + 7;
+      if (s.charAt(dateEnd) != 'T' || n < timeEnd || n > timeEnd + 1
+          || (n == timeEnd + 1 && s.charAt(timeEnd) != 'Z')) {
+        throw new ParseException(s, 0);
+      }
+      for (int i = dateEnd + 1; i < timeEnd; ++i) {
+        if (!isDigit(s.charAt(i))) { throw new ParseException(s, 0); }
+      }
+      utc = n == timeEnd + 1;
+      hour = twoDigits(s, dateEnd + 1);
+      minute = twoDigits(s, dateEnd + 3);
+      second = twoDigits(s, dateEnd + 5);
+      if (hour > 23 || minute > 59 || second > 59) {
+        throw new ParseException(s, 0);
+      }
+    }
+    int year = Integer.parseInt(s, 0, dateEnd - 4, 10),
+      month = twoDigits(s, dateEnd - 4),
+      day = twoDigits(s, dateEnd - 2);
+    if (hasTime) {
       DateValue dv = new DTBuilder(
           year, month, day, hour, minute, second).toDateTime();
       if (!utc && null != tzid) {
@@ -65,6 +78,15 @@ public final class IcalParseUtil {
     }
   }
 
+  private static boolean isDigit(char ch) {
+    return ch >= '0' && ch <= '9';
+  }
+
+  /** the value of the two decimal digits at the given index. */
+  private static int twoDigits(String s, int i) {
+    return (s.charAt(i) - '0') * 10 + (s.charAt(i + 1) - '0');
+  }
+
   /**
    * parse a period value of the form &lt;start&gt;/&lt;end&gt;.
    * This does not yet recognize the &lt;start&gt;/&lt;duration&gt; form.
@@ -113,10 +135,26 @@ public final class IcalParseUtil {
    * removed) when processing the content type.
    */
   public static String unfoldIcal(String foldedContentLines) {
-    return IGNORABLE_ICAL_WHITESPACE.matcher(foldedContentLines).replaceAll("");
+    String s = foldedContentLines;
+    int n = s.length();
+    StringBuilder sb = null;
+    int copied = 0;
+    for (int i = 0; i < n; ++i) {
+      char ch = s.charAt(i);
+      if (ch != '\r' && ch != '\n') { continue; }
+      // a CR, LF or CRLF followed by a space or tab is removed
+      int ws = (ch == '\r' && i + 1 < n && s.charAt(i + 1) == '\n')
+          ? i + 2 : i + 1;
+      if (ws < n && (s.charAt(ws) == ' ' || s.charAt(ws) == '\t')) {
+        if (null == sb) { sb = new StringBuilder(n); }
+        sb.append(s, copied, i);
+        copied = ws + 1;
+        i = ws;
+      }
+    }
+    if (null == sb) { return s; }
+    return sb.append(s, copied, n).toString();
   }
-  private static final Pattern IGNORABLE_ICAL_WHITESPACE =
-    Pattern.compile("(?:\\r\\n?|\\n)[ \t]");
 
   private IcalParseUtil() { }
 }
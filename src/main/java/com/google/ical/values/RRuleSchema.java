@@ -21,8 +21,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * ical schema for parsing RRULE and EXRULE content lines.
@@ -31,16 +29,42 @@ import java.util.regex.Pattern;
  */
 class RRuleSchema extends IcalSchema{
 
-  private static final Pattern COMMA = Pattern.compile(",");
-  private static final Pattern SEMI = Pattern.compile(";");
-  private static final Pattern X_NAME_RE = Pattern.compile(
-      "^X-", Pattern.CASE_INSENSITIVE);
-  private static final Pattern RRULE_PARTS = Pattern.compile(
-      "^(FREQ|UNTIL|COUNT|INTERVAL|BYSECOND|BYMINUTE|BYHOUR|BYDAY|BYMONTHDAY|"
-      + "BYYEARDAY|BYWEEKDAY|BYWEEKNO|BYMONTH|BYSETPOS|WKST|X-[A-Z0-9\\-]+)="
-      + "(.*)", Pattern.CASE_INSENSITIVE);
-  private static final Pattern NUM_DAY = Pattern.compile(
-      "^([+\\-]?\\d\\d?)?(SU|MO|TU|WE|TH|FR|SA)$", Pattern.CASE_INSENSITIVE);
+  /**
+   * the names of the recur parts, and the Strings used to look up their
+   * content rules, indexed by the bit used to track which have been seen.
+   */
+  private static final String[] RRULE_PARTS = {
+    "FREQ", "UNTIL", "COUNT", "INTERVAL", "BYSECOND", "BYMINUTE", "BYHOUR",
+    "BYDAY", "BYMONTHDAY", "BYYEARDAY", "BYWEEKDAY", "BYWEEKNO", "BYMONTH",
+    "BYSETPOS", "WKST",
+  };
+  private static final int FREQ_BIT = 1 << 0, UNTIL_BIT = 1 << 1,
+      COUNT_BIT = 1 << 2;
+
+  /** true iff name is an upper case x-name such as X-FOO. */
+  private static boolean isXName(String name) {
+    if (name.length() < 3 || !name.startsWith("X-")) { return false; }
+    for (int i = 2; i < name.length(); ++i) {
+      char ch = name.charAt(i);
+      if (!((ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')
+            || ch == '-')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * the index into {@link #RRULE_PARTS} of the current part's name, or -1 if
+   * it is not one of them.
+   */
+  private static int partIndex(RRuleTokenizer parts) {
+    for (int i = 0; i < RRULE_PARTS.length; ++i) {
+      if (parts.nameIs(RRULE_PARTS[i])) { return i; }
+    }
+    return -1;
+  }
+
   /////////////////////////////////
   // ICAL Object Schema
   /////////////////////////////////
@@ -133,29 +157,36 @@ class RRuleSchema extends IcalSchema{
     CONTENT_RULES.put("recur", new ContentRule() {
         public void apply(IcalSchema schema, String content, IcalObject target)
             throws ParseException {
-          String[] parts = SEMI.split(content);
-          Map<String, String> partMap = new HashMap<String, String>();
-          for (int i = 0; i < parts.length; ++i) {
-            String p = parts[i];
-            Matcher m = RRULE_PARTS.matcher(p);
-            if (!m.matches()) { schema.badPart(p, null); }
-            String k = m.group(1).toUpperCase(),
-                   v = m.group(2);
-            if (partMap.containsKey(k)) { schema.dupePart(p); }
-            partMap.put(k, v);
+          // check the parts before applying any of them
+          RRuleTokenizer parts = new RRuleTokenizer(content);
+          int seen = 0;
+          List<String> extensions = null;
+          while (parts.nextPart()) {
+            if (!parts.hasValue()) { schema.badPart(parts.part(), null); }
+            int index = partIndex(parts);
+            if (index < 0) {
+              String name = parts.name();
+              if (!isXName(name)) { schema.badPart(parts.part(), null); }
+              if (null == extensions) { extensions = new ArrayList<String>(); }
+              if (extensions.contains(name)) { schema.dupePart(parts.part()); }
+              extensions.add(name);
+              continue;
+            }
+            if (0 != (seen & (1 << index))) { schema.dupePart(parts.part()); }
+            seen |= 1 << index;
           }
-          if (!partMap.containsKey("FREQ")) {
+          if (0 == (seen & FREQ_BIT)) {
             schema.missingPart("FREQ", content);
           }
-          if (partMap.containsKey("UNTIL") && partMap.containsKey("COUNT")) {
+          if (UNTIL_BIT == (seen & UNTIL_BIT) && COUNT_BIT == (seen & COUNT_BIT)) {
             schema.badPart(content, "UNTIL & COUNT are exclusive");
           }
-          for (Map.Entry<String, String> part : partMap.entrySet()) {
-            if (X_NAME_RE.matcher(part.getKey()).matches()) {
-              // ignore x-name content parts
-              continue;
-            }
-            schema.applyContentSchema(part.getKey(), part.getValue(), target);
+          parts = new RRuleTokenizer(content);
+          while (parts.nextPart()) {
+            int index = partIndex(parts);
+            // ignore x-name content parts
+            if (index < 0) { continue; }
+            schema.applyContentSchema(RRULE_PARTS[index], parts.value(), target);
           }
         }
       });
@@ -167,8 +198,9 @@ class RRuleSchema extends IcalSchema{
             IcalObject target)
             throws ParseException {
           schema.applyParamsSchema("exdtparam", params, target);
-          for (String part : COMMA.split(content)) {
-            schema.applyContentSchema("exdtval", part, target);
+          RRuleTokenizer items = RRuleTokenizer.forList(content);
+          while (items.nextItem()) {
+            schema.applyContentSchema("exdtval", items.item(), target);
           }
         }
       });
@@ -355,22 +387,13 @@ class RRuleSchema extends IcalSchema{
     XFORM_RULES.put("bywdaylist", new XformRule() {
         public List<WeekdayNum> apply(IcalSchema schema, String value)
             throws ParseException {
-          String[] parts = COMMA.split(value);
-          List<WeekdayNum> weekdays = new ArrayList<WeekdayNum>(parts.length);
-          for (String p : parts) {
-            Matcher m = NUM_DAY.matcher(p);
-            if (!m.matches()) { schema.badPart(p, null); }
-            Weekday wday = Weekday.valueOf(m.group(2).toUpperCase());
-            int n;
-            String numText = m.group(1);
-            if (null == numText || "".equals(numText)) {
-              n = 0;
-            } else {
-              n = Integer.parseInt(numText);
-              int absn = n < 0 ? -n : n;
-              if (!(1 <= absn && 53 >= absn)) { schema.badPart(p, null); }
-            }
-            weekdays.add(new WeekdayNum(n, wday));
+          RRuleTokenizer items = RRuleTokenizer.forList(value);
+          List<WeekdayNum> weekdays =
+            new ArrayList<WeekdayNum>(items.itemCount());
+          while (items.nextItem()) {
+            WeekdayNum wdnum = items.itemWeekdayNum(53);
+            if (null == wdnum) { schema.badPart(items.item(), null); }
+            weekdays.add(wdnum);
           }
           return weekdays;
         }
@@ -509,12 +532,12 @@ class RRuleSchema extends IcalSchema{
         public void apply(IcalSchema schema, String content, IcalObject target)
             throws ParseException {
           RDateList rdates = (RDateList) target;
-          String[] parts = COMMA.split(content);
-          DateValue[] datesUtc = new DateValue[parts.length];
-          for (int i = 0; i < parts.length; ++i) {
-            String part = parts[i];
+          RRuleTokenizer items = RRuleTokenizer.forList(content);
+          DateValue[] datesUtc = new DateValue[items.itemCount()];
+          for (int i = 0; items.nextItem(); ++i) {
             // TODO(msamuel): figure out what to do with periods.
-            datesUtc[i] = IcalParseUtil.parseDateValue(part, rdates.getTzid());
+            datesUtc[i] = IcalParseUtil.parseDateValue(
+                items.item(), rdates.getTzid());
           }
           rdates.setDatesUtc(datesUtc);
         }
@@ -531,11 +554,11 @@ class RRuleSchema extends IcalSchema{
       String commaSeparatedString, int absmin, int absmax, IcalSchema schema)
       throws ParseException {
 
-    String[] parts = COMMA.split(commaSeparatedString);
-    int[] out = new int[parts.length];
-    for (int i = parts.length; --i >= 0;) {
+    RRuleTokenizer items = RRuleTokenizer.forList(commaSeparatedString);
+    int[] out = new int[items.itemCount()];
+    for (int i = 0; items.nextItem(); ++i) {
       try {
-        int n = Integer.parseInt(parts[i]);
+        int n = items.itemInt();
         int absn = Math.abs(n);
         if (!(absmin <= absn && absmax >= absn)) {
           schema.badPart(commaSeparatedString, null);
@@ -552,11 +575,11 @@ class RRuleSchema extends IcalSchema{
       String commaSeparatedString, int min, int max, IcalSchema schema)
       throws ParseException {
 
-    String[] parts = COMMA.split(commaSeparatedString);
-    int[] out = new int[parts.length];
-    for (int i = parts.length; --i >= 0;) {
+    RRuleTokenizer items = RRuleTokenizer.forList(commaSeparatedString);
+    int[] out = new int[items.itemCount()];
+    for (int i = 0; items.nextItem(); ++i) {
       try {
-        int n = Integer.parseInt(parts[i]);
+        int n = items.itemInt();
         if (!(min <= n && max >= n)) {
           schema.badPart(commaSeparatedString, null);
         }
@@ -0,0 +1,255 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.values;
+
+/**
+ * a single pass tokenizer for the parts of a recurrence rule, such as the
+ * <code>FREQ=MONTHLY;BYDAY=1MO,-1FR</code> of an RRULE, and for comma
+ * separated lists of values, such as the dates of an RDATE or EXDATE.
+ *
+ * <p>The tokenizer keeps offsets into the string rather than splitting it, so
+ * that names can be compared and numbers and weekdays parsed without
+ * allocating.  {@link #nextPart} moves to each <code>NAME=VALUE</code> part in
+ * turn, and {@link #nextItem} to each comma separated item of the current
+ * part's value.  Empty parts and items are reported, except at the end, as
+ * {@link String#split} does.</p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public final class RRuleTokenizer {
+
+  private final String s;
+  private final int end;
+  /** the start of the next part. */
+  private int pos;
+  private int partStart, nameEnd, partEnd;
+  /** the start of the current part's value, or -1 if it has no '='. */
+  private int valueStart = -1;
+  /** the start of the next item. */
+  private int itemPos = -1;
+  private int itemStart, itemEnd;
+
+  /** a tokenizer over the parts of a rule such as FREQ=DAILY;COUNT=3. */
+  public RRuleTokenizer(String s) {
+    this.s = s;
+    this.end = s.length();
+  }
+
+  /**
+   * a tokenizer whose only part is a value, the given comma separated list,
+   * so that it is ready for {@link #nextItem}.
+   */
+  public static RRuleTokenizer forList(String list) {
+    RRuleTokenizer t = new RRuleTokenizer(list);
+    t.partStart = t.nameEnd = t.valueStart = t.itemPos = 0;
+    t.partEnd = t.end;
+    t.pos = t.end + 1;
+    return t;
+  }
+
+  /**
+   * moves to the next <code>;</code> separated part.
+   * @return false if there are no more parts.
+   */
+  public boolean nextPart() {
+    if (pos > end || (pos == end && pos != 0)
+        || onlySeparators(pos, end, ';')) {
+      pos = end + 1;
+      return false;
+    }
+    partStart = pos;
+    partEnd = indexOf(';', pos, end);
+    int eq = indexOf('=', partStart, partEnd);
+    if (eq < partEnd) {
+      nameEnd = eq;
+      valueStart = eq + 1;
+    } else {
+      nameEnd = partEnd;
+      valueStart = -1;
+    }
+    itemPos = valueStart;
+    pos = partEnd + 1;
+    return true;
+  }
+
+  /** true iff the current part has a value, i.e. contains an '='. */
+  public boolean hasValue() {
+    return valueStart >= 0;
+  }
+
+  /** true iff the current part's name is the given name ignoring case. */
+  public boolean nameIs(String name) {
+    return nameEnd - partStart == name.length()
+        && s.regionMatches(true, partStart, name, 0, name.length());
+  }
+
+  /** true iff the current part's value is the given value ignoring case. */
+  public boolean valueIs(String value) {
+    return valueStart >= 0 && partEnd - valueStart == value.length()
+        && s.regionMatches(true, valueStart, value, 0, value.length());
+  }
+
+  /** true iff the current part's name starts with X-, ignoring case. */
+  public boolean isExtension() {
+    return nameEnd - partStart >= 2
+        && s.regionMatches(true, partStart, "X-", 0, 2);
+  }
+
+  /** the current part's name, upper cased. */
+  public String name() {
+    return s.substring(partStart, nameEnd).toUpperCase();
+  }
+
+  /** the current part's value, or null if it has none. */
+  public String value() {
+    return valueStart >= 0 ? s.substring(valueStart, partEnd) : null;
+  }
+
+  /** the text of the current part. */
+  public String part() {
+    return s.substring(partStart, partEnd);
+  }
+
+  /**
+   * moves to the next <code>,</code> separated item of the current part's
+   * value.
+   * @return false if there are no more items.
+   */
+  public boolean nextItem() {
+    if (itemPos < 0 || itemPos > partEnd
+        || (itemPos == partEnd && itemPos != valueStart)
+        || onlySeparators(itemPos, partEnd, ',')) {
+      itemPos = -1;
+      return false;
+    }
+    itemStart = itemPos;
+    itemEnd = indexOf(',', itemPos, partEnd);
+    itemPos = itemEnd + 1;
+    return true;
+  }
+
+  /** the number of items in the current part's value, without moving. */
+  public int itemCount() {
+    int savedPos = itemPos, savedStart = itemStart, savedEnd = itemEnd;
+    itemPos = valueStart;
+    int n = 0;
+    while (nextItem()) { ++n; }
+    itemPos = savedPos;
+    itemStart = savedStart;
+    itemEnd = savedEnd;
+    return n;
+  }
+
+  /** the text of the current item. */
+  public String item() {
+    return s.substring(itemStart, itemEnd);
+  }
+
+  /**
+   * true iff the current item is a decimal number with an optional sign when
+   * allowSign.  A sign alone is accepted, as by earlier versions of this
+   * check, and is rejected by {@link #itemInt}.
+   */
+  public boolean itemIsNumber(boolean allowSign) {
+    int i = itemStart;
+    if (i == itemEnd) { return false; }
+    char ch = s.charAt(i);
+    if (allowSign && (ch == '+' || ch == '-')) { ++i; }
+    for (; i < itemEnd; ++i) {
+      ch = s.charAt(i);
+      if (ch < '0' || ch > '9') { return false; }
+    }
+    return true;
+  }
+
+  /**
+   * the current item as a decimal integer.
+   * @throws NumberFormatException if it is not one, as by
+   *   {@link Integer#parseInt(String)}.
+   */
+  public int itemInt() {
+    return Integer.parseInt(s, itemStart, itemEnd, 10);
+  }
+
+  /**
+   * the current item as a weekday with an optional ordinal, such as MO, 2TU
+   * or -1FR, ignoring case.
+   * @param maxOrdinal the largest absolute value allowed for an ordinal.
+   * @return null if the item is not of that form or its ordinal is 0 or out
+   *   of range.
+   */
+  public WeekdayNum itemWeekdayNum(int maxOrdinal) {
+    int len = itemEnd - itemStart;
+    if (len < 2 || len > 5) { return null; }
+    Weekday wday = weekday(
+        s.charAt(itemEnd - 2), s.charAt(itemEnd - 1));
+    if (null == wday) { return null; }
+    int num = 0;
+    if (len > 2) {
+      int i = itemStart;
+      char sign = s.charAt(i);
+      if (sign == '+' || sign == '-') { ++i; }
+      int nDigits = itemEnd - 2 - i;
+      if (nDigits < 1 || nDigits > 2) { return null; }
+      for (int j = i; j < itemEnd - 2; ++j) {
+        char ch = s.charAt(j);
+        if (ch < '0' || ch > '9') { return null; }
+        num = num * 10 + (ch - '0');
+      }
+      if (num < 1 || num > maxOrdinal) { return null; }
+      if (sign == '-') { num = -num; }
+    }
+    return new WeekdayNum(num, wday);
+  }
+
+  /** the weekday whose two letter abbreviation is a b, ignoring case. */
+  private static Weekday weekday(char a, char b) {
+    a = Character.toUpperCase(a);
+    b = Character.toUpperCase(b);
+    switch (a) {
+      case 'S':
+        return b == 'U' ? Weekday.SU : b == 'A' ? Weekday.SA : null;
+      case 'M':
+        return b == 'O' ? Weekday.MO : null;
+      case 'T':
+        return b == 'U' ? Weekday.TU : b == 'H' ? Weekday.TH : null;
+      case 'W':
+        return b == 'E' ? Weekday.WE : null;
+      case 'F':
+        return b == 'R' ? Weekday.FR : null;
+      default:
+        return null;
+    }
+  }
+
+  /** the index of ch in s between start and end, or end if there is none. */
+  private int indexOf(char ch, int start, int end) {
+    int i = s.indexOf(ch, start);
+    return i >= 0 && i < end ? i : end;
+  }
+
+  /**
+   * true iff there is at least one character between start and end and all
+   * of them are the separator, so that only empty trailing tokens remain.
+   */
+  private boolean onlySeparators(int start, int end, char sep) {
+    if (start == end) { return false; }
+    for (int i = start; i < end; ++i) {
+      if (s.charAt(i) != sep) { return false; }
+    }
+    return true;
+  }
+
+}
@@ -165,6 +165,13 @@ final class VcalRewriter {
    * http://www.shuchow.com/vCalAddendum.html
    */
   static String rewriteRule(String vcalText) {
+    // the frequency of a vcal rule follows the last colon, which saves
+    // matching the pattern against every ical rule.
+    int colon = vcalText.lastIndexOf(':');
+    if (colon < 0 || colon + 1 == vcalText.length()
+        || "DWMYdwmy".indexOf(vcalText.charAt(colon + 1)) < 0) {
+      return vcalText;
+    }
     Matcher m = VCAL_RRULE.matcher(vcalText.trim());
     if (!m.matches()) { return vcalText; }
     StringBuilder sb = new StringBuilder();
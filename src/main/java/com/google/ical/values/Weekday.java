@@ -15,6 +15,7 @@
 package com.google.ical.values;
 
 import com.google.ical.util.TimeUtils;
+import com.google.ical.util.YearTable;
 
 /**
  * days of the week enum.  Names correspond to RFC2445 literals.
@@ -61,8 +62,7 @@ public enum Weekday {
   }
 
   public static Weekday firstDayOfWeekInMonth(int year, int month) {
-    int result = TimeUtils.fixedFromGregorian(year, month, 1) % 7;
-    return VALUES[(result >= 0) ? result : result + 7];
+    return YearTable.forYear(year).firstDayOfWeekInMonth(month);
   }
 
   public Weekday successor() {
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Iterates over the occurrences of all the events, todos and journals in a
+ * DataStore in order of start time. Each series is expanded lazily and kept in
+ * a heap ordered by its next occurrence, so memory use depends on the number of
+ * series rather than the number of occurrences, and each occurrence takes
+ * O(log n) time for n series. Occurrences with the same start time are ordered
+ * as in an OccurrenceTable.
+ * <br>
+ * Example:
+ *
+ * <pre>
+ * AgendaIterator it = new OccurrenceExpander().agenda(dataStore, now);
+ * for (int i = 0; i &lt; 10 &amp;&amp; it.hasNext(); i++) {
+ * 	Occurrence occurrence = it.next();
+ * 	...
+ * }
+ * </pre>
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see OccurrenceExpander#agenda(DataStore, Date)
+ */
+public class AgendaIterator implements Iterator<Occurrence> {
+	/** Size of the buffer each series fetches recurrences into */
+	static final int BUFFER_SIZE = 8;
+	private static final Comparator<OccurrenceExpander.Series> ORDER = new Comparator<OccurrenceExpander.Series>() {
+		public int compare(OccurrenceExpander.Series a, OccurrenceExpander.Series b) {
+			if (a.start != b.start)
+				return a.start < b.start ? -1 : 1;
+			return Integer.compare(a.index, b.index);
+		}
+	};
+	private OccurrenceExpander expander;
+	/** The series with more occurrences, earliest next occurrence first */
+	private PriorityQueue<OccurrenceExpander.Series> queue;
+	/** Was any series that has run out cut short by the ExpansionPolicy? */
+	private boolean truncated = false;
+
+	AgendaIterator(OccurrenceExpander expander, List<Object> components,
+			RecurrenceOverrides overrides, long fromUtc) {
+		this.expander = expander;
+		this.queue = new PriorityQueue<OccurrenceExpander.Series>(Math.max(1,
+				components.size()), ORDER);
+		for (int i = 0; i < components.size(); i++) {
+			OccurrenceExpander.Series series = expander.newSeries(components,
+					overrides, i, new long[BUFFER_SIZE]);
+			if (series == null)
+				continue;
+			series.advanceTo(fromUtc);
+			reattach(series, series.next());
+		}
+	}
+
+	public boolean hasNext() {
+		return !queue.isEmpty();
+	}
+
+	public Occurrence next() {
+		OccurrenceExpander.Series series = queue.poll();
+		if (series == null)
+			throw new NoSuchElementException();
+		Occurrence ret = new Occurrence(series.component, series.start,
+				series.end);
+		reattach(series, series.next());
+		return ret;
+	}
+
+	/**
+	 * Skip the occurrences that neither start at or after the given time nor
+	 * overlap it. This has no effect on occurrences that have already been
+	 * returned, so it cannot be used to go back in time.
+	 */
+	public void advanceTo(Date from) {
+		long fromUtc = expander.toPackedUtc(from);
+		// Only the series whose next occurrence starts before the time need to
+		// be advanced, and they are at the head of the queue.
+		List<OccurrenceExpander.Series> behind = new ArrayList<OccurrenceExpander.Series>();
+		while (!queue.isEmpty() && queue.peek().start < fromUtc)
+			behind.add(queue.poll());
+		for (OccurrenceExpander.Series series : behind)
+			reattach(series, series.skipTo(fromUtc));
+	}
+
+	/**
+	 * Was any series cut short by the OccurrenceExpander's ExpansionPolicy, so
+	 * that some of its occurrences will be missing?
+	 */
+	public boolean isTruncated() {
+		if (truncated)
+			return true;
+		for (OccurrenceExpander.Series series : queue) {
+			if (series.isTruncated())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Put a series back on the queue if it has more occurrences.
+	 */
+	private void reattach(OccurrenceExpander.Series series, boolean hasNext) {
+		if (hasNext)
+			queue.add(series);
+		else if (series.isTruncated())
+			truncated = true;
+	}
+
+}
@@ -0,0 +1,805 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reads and writes the contents of a DataStore in a compact binary form that
+ * loads faster than iCalendar text.
+ * <br>
+ * A snapshot starts with a magic number and a schema version, followed by one
+ * record per component and an end record with the number of components. Each
+ * record holds the component's content lines, as written by toICalendar(),
+ * split into a name, parameters and a value:
+ * <ul>
+ * <li>Names, parameters and short values are kept in a string table that is
+ * built as the snapshot is written: the first use of a string writes it, and
+ * later uses write its index.</li>
+ * <li>DATE and DATE-TIME values are written as variable-length integers of the
+ * day and the second of the day.</li>
+ * <li>Other values are written as UTF-8 text.</li>
+ * </ul>
+ * When read, the lines are passed to the component constructors, skipping the
+ * line unfolding and component matching done by ICalendarParser. A component
+ * read back from a snapshot returns the same text from toICalendar() as the
+ * one written.
+ * <br>
+ * Snapshots are streamed, so a whole DataStore can be written or read without
+ * holding the encoded form in memory:
+ * 
+ * <pre>
+ * try (OutputStream out = new FileOutputStream(file)) {
+ * 	CalendarSnapshot.write(dataStore, out);
+ * }
+ * DataStore copy = new DefaultDataStore();
+ * try (InputStream in = new FileInputStream(file)) {
+ * 	CalendarSnapshot.read(in, copy);
+ * }
+ * </pre>
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see DataStore
+ */
+public class CalendarSnapshot {
+	/** The version of the snapshot format written */
+	public static final int SCHEMA_VERSION = 1;
+	/** "JCTSNP01" */
+	private static final long MAGIC = 0x4a4354534e503031L;
+	// Record kinds
+	private static final int END = 0;
+	private static final int CALENDAR = 1;
+	private static final int TIMEZONE = 2;
+	private static final int EVENT = 3;
+	private static final int TODO = 4;
+	private static final int JOURNAL = 5;
+	private static final int FREEBUSY = 6;
+	private static final int VLOCATION = 7;
+	private static final int VRESOURCE = 8;
+	private static final int VAVAILABILITY = 9;
+	private static final int PARTICIPANT = 10;
+	// Value types
+	private static final int VALUE_NONE = 0;
+	private static final int VALUE_STRING = 1;
+	private static final int VALUE_TEXT = 2;
+	private static final int VALUE_DATE = 3;
+	private static final int VALUE_DATE_TIME = 4;
+	private static final int VALUE_DATE_TIME_UTC = 5;
+	/** Longer values are written as text rather than added to the table */
+	private static final int MAX_TABLE_VALUE = 64;
+	private static final int BUFFER_SIZE = 65536;
+	/** Components read before they are built and stored */
+	private static final int BATCH_SIZE = 1024;
+	/** Components built by each task */
+	private static final int MIN_TASK_SIZE = 64;
+
+	private CalendarSnapshot() {
+	}
+
+	/**
+	 * Write the components of a DataStore. The Freebusy, VLocation, VResource
+	 * and VAvailability components, METHOD and other VCALENDAR properties are
+	 * only available from DefaultDataStore and its subclasses,
+	 * ConcurrentDataStore and PersistentDataStore, and are written for those.
+	 * A ConcurrentDataStore is written from a single snapshot.
+	 *
+	 * @param dataStore
+	 *                  The DataStore to write
+	 * @param out
+	 *                  The stream to write to, which is flushed but not closed
+	 * @return the number of components written
+	 */
+	public static int write(DataStore dataStore, OutputStream out)
+			throws IOException {
+		if (dataStore instanceof ConcurrentDataStore)
+			dataStore = ((ConcurrentDataStore) dataStore).snapshot();
+		Writer w = new Writer(out);
+		w.writeCalendar(dataStore);
+		for (Timezone timezone : dataStore.getAllTimezones())
+			w.writeComponent(TIMEZONE, timezone.toICalendar());
+		for (Event event : dataStore.getAllEvents())
+			w.writeComponent(EVENT, event.toICalendar());
+		for (Todo todo : dataStore.getAllTodos())
+			w.writeComponent(TODO, todo.toICalendar());
+		for (Journal journal : dataStore.getAllJournals())
+			w.writeComponent(JOURNAL, journal.toICalendar());
+		for (Freebusy freebusy : freebusys(dataStore))
+			w.writeComponent(FREEBUSY, freebusy.toICalendar());
+		for (VLocation vlocation : vlocations(dataStore))
+			w.writeComponent(VLOCATION, vlocation.toICalendar());
+		for (VResource vresource : vresources(dataStore))
+			w.writeComponent(VRESOURCE, vresource.toICalendar());
+		for (VAvailability vavailability : vavailabilities(dataStore))
+			w.writeComponent(VAVAILABILITY, vavailability.toICalendar());
+		for (Participant participant : dataStore.getAllParticipants())
+			w.writeComponent(PARTICIPANT, participant.toICalendar());
+		w.finish();
+		return w.components;
+	}
+
+	/**
+	 * Read a snapshot, storing its components in a DataStore in the order
+	 * they were written. VCALENDAR properties other than METHOD are only set
+	 * on a DefaultDataStore.
+	 *
+	 * @param in
+	 *                  The stream to read, which is not closed
+	 * @param dataStore
+	 *                  The DataStore to store the components in
+	 * @return the number of components read
+	 * @throws IOException
+	 *                     if the stream is not a snapshot, has a newer schema
+	 *                     version, ends early or holds a component that
+	 *                     cannot be read
+	 */
+	public static int read(InputStream in, DataStore dataStore)
+			throws IOException {
+		Reader r = new Reader(in);
+		ICalendarParser parser = new SnapshotParser();
+		int[] kinds = new int[BATCH_SIZE];
+		List<List<String>> lines = new ArrayList<List<String>>(BATCH_SIZE);
+		int components = 0;
+		for (;;) {
+			int kind = r.read();
+			if (kind < 0)
+				throw new EOFException("Snapshot ends before its last record");
+			if (kind == END) {
+				components += store(parser, kinds, lines, dataStore);
+				long written = r.readVarLong();
+				if (written != components)
+					throw new IOException("Snapshot has " + components
+							+ " components but recorded " + written);
+				return components;
+			}
+			if (kind > PARTICIPANT)
+				throw new IOException("Unknown snapshot record kind " + kind);
+			kinds[lines.size()] = kind;
+			lines.add(r.readLines());
+			if (lines.size() == BATCH_SIZE) {
+				components += store(parser, kinds, lines, dataStore);
+				lines.clear();
+			}
+		}
+	}
+
+	/**
+	 * Build a batch of components, in parallel if there are enough of them,
+	 * and store them in order.
+	 *
+	 * @return the number of components stored
+	 */
+	private static int store(ICalendarParser parser, int[] kinds,
+			List<List<String>> lines, DataStore dataStore) throws IOException {
+		int n = lines.size();
+		Object[] built = new Object[n];
+		BuildTask task = new BuildTask(parser, kinds, lines, built, 0, n);
+		if (n > MIN_TASK_SIZE)
+			ForkJoinPool.commonPool().invoke(task);
+		else
+			task.compute();
+		int components = 0;
+		for (int i = 0; i < n; i++) {
+			Object component = built[i];
+			if (component instanceof IOException)
+				throw (IOException) component;
+			switch (kinds[i]) {
+				case CALENDAR:
+					try {
+						readCalendar(lines.get(i), dataStore);
+					} catch (ParseException | BogusDataException e) {
+						throw new IOException(
+								"Cannot read snapshot VCALENDAR properties: " + e.getMessage());
+					}
+					continue;
+				case TIMEZONE:
+					dataStore.storeTimezone((Timezone) component);
+					break;
+				case EVENT:
+					dataStore.storeEvent((Event) component);
+					break;
+				case TODO:
+					dataStore.storeTodo((Todo) component);
+					break;
+				case JOURNAL:
+					dataStore.storeJournal((Journal) component);
+					break;
+				case FREEBUSY:
+					dataStore.storeFreebusy((Freebusy) component);
+					break;
+				case VLOCATION:
+					dataStore.storeVLocation((VLocation) component);
+					break;
+				case VRESOURCE:
+					dataStore.storeVResource((VResource) component);
+					break;
+				case VAVAILABILITY:
+					dataStore.storeVAvailability((VAvailability) component);
+					break;
+				default:
+					dataStore.storeParticipant((Participant) component);
+					break;
+			}
+			components++;
+		}
+		return components;
+	}
+
+	/**
+	 * Build a component from its lines.
+	 *
+	 * @return the component, or null for the VCALENDAR properties
+	 */
+	private static Object build(ICalendarParser parser, int kind,
+			List<String> lines) throws ParseException, BogusDataException {
+		switch (kind) {
+			case TIMEZONE:
+				return timezone(parser, lines);
+			case EVENT:
+				return new Event(parser, 0, lines);
+			case TODO:
+				return new Todo(parser, 0, lines);
+			case JOURNAL:
+				return new Journal(parser, 0, lines);
+			case FREEBUSY:
+				return new Freebusy(parser, 0, lines);
+			case VLOCATION:
+				return new VLocation(parser, 0, lines);
+			case VRESOURCE:
+				return new VResource(parser, 0, lines);
+			case VAVAILABILITY:
+				return new VAvailability(parser, 0, lines);
+			case PARTICIPANT:
+				return new Participant(parser, 0, lines);
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Builds a range of a batch of components, leaving an IOException in
+	 * place of any that cannot be read.
+	 */
+	private static final class BuildTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final ICalendarParser parser;
+		final int[] kinds;
+		final List<List<String>> lines;
+		final Object[] built;
+		final int from, to;
+
+		BuildTask(ICalendarParser parser, int[] kinds, List<List<String>> lines,
+				Object[] built, int from, int to) {
+			this.parser = parser;
+			this.kinds = kinds;
+			this.lines = lines;
+			this.built = built;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > MIN_TASK_SIZE) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new BuildTask(parser, kinds, lines, built, from, mid),
+						new BuildTask(parser, kinds, lines, built, mid, to));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				try {
+					built[i] = build(parser, kinds[i], lines.get(i));
+				} catch (ParseException | BogusDataException e) {
+					List<String> l = lines.get(i);
+					built[i] = new IOException("Cannot read snapshot component "
+							+ (l.isEmpty() ? "" : l.get(0)) + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * The parser passed to component constructors, which may be called from
+	 * several threads at once. The lines were written by toICalendar(), so
+	 * errors are ignored, as in PersistentDataStore.
+	 */
+	private static final class SnapshotParser extends ICalendarParser {
+		SnapshotParser() {
+			super(Constants.PARSE_LOOSE);
+		}
+
+		@Override
+		public void reportParseError(ParseError error) {
+		}
+	}
+
+	/**
+	 * Build a Timezone as ICalendarParser does, with its STANDARD and DAYLIGHT
+	 * components parsed separately.
+	 */
+	private static Timezone timezone(CalendarParser parser, List<String> lines) {
+		List<String> outer = new ArrayList<String>();
+		List<String> sub = null;
+		List<TimezoneStandard> standards = new ArrayList<TimezoneStandard>();
+		List<TimezoneDaylight> daylight = new ArrayList<TimezoneDaylight>();
+		for (String line : lines) {
+			String up = line.toUpperCase();
+			if (up.startsWith("BEGIN:STANDARD") || up.startsWith("BEGIN:DAYLIGHT")) {
+				sub = new ArrayList<String>();
+				sub.add(line);
+			} else if (sub != null) {
+				sub.add(line);
+				if (up.startsWith("END:STANDARD")) {
+					standards.add(new TimezoneStandard(parser, 0, sub));
+					sub = null;
+				} else if (up.startsWith("END:DAYLIGHT")) {
+					daylight.add(new TimezoneDaylight(parser, 0, sub));
+					sub = null;
+				}
+			} else {
+				outer.add(line);
+			}
+		}
+		Timezone timezone = new Timezone(parser, 0, outer);
+		for (TimezoneStandard standard : standards)
+			timezone.addStandard(standard);
+		for (TimezoneDaylight day : daylight)
+			timezone.addDaylight(day);
+		return timezone;
+	}
+
+	private static void readCalendar(List<String> lines, DataStore dataStore)
+			throws ParseException, BogusDataException {
+		DefaultDataStore ds = dataStore instanceof DefaultDataStore
+				? (DefaultDataStore) dataStore : null;
+		for (String line : lines) {
+			String up = line.toUpperCase();
+			String value = line.substring(line.indexOf(':') + 1);
+			if (up.startsWith("METHOD")) {
+				dataStore.setMethod(new Property(line));
+				continue;
+			}
+			if (ds == null)
+				continue;
+			if (up.startsWith("NAME:")) {
+				ds.setName(value);
+			} else if (up.startsWith("CALENDAR-ADDRESS:")) {
+				ds.setCalendarAddress(value);
+			} else if (up.startsWith("DESCRIPTION:")) {
+				ds.setDescription(value);
+			} else if (up.startsWith("UID:")) {
+				ds.setUid(value);
+			} else if (up.startsWith("URL:")) {
+				ds.setUrl(value);
+			} else if (up.startsWith("LAST-MODIFIED")) {
+				ds.setLastModified(new Date(line));
+			}
+		}
+	}
+
+	private static Property method(DataStore dataStore) {
+		if (dataStore instanceof DefaultDataStore)
+			return ((DefaultDataStore) dataStore).getMethod();
+		if (dataStore instanceof ConcurrentDataStore.Snapshot)
+			return ((ConcurrentDataStore.Snapshot) dataStore).getMethod();
+		if (dataStore instanceof PersistentDataStore)
+			return ((PersistentDataStore) dataStore).getMethod();
+		return null;
+	}
+
+	private static List<Freebusy> freebusys(DataStore dataStore) {
+		if (dataStore instanceof DefaultDataStore)
+			return ((DefaultDataStore) dataStore).getAllFreebusys();
+		if (dataStore instanceof ConcurrentDataStore.Snapshot)
+			return ((ConcurrentDataStore.Snapshot) dataStore).getAllFreebusys();
+		if (dataStore instanceof PersistentDataStore)
+			return ((PersistentDataStore) dataStore).getAllFreebusys();
+		return new ArrayList<Freebusy>();
+	}
+
+	private static List<VLocation> vlocations(DataStore dataStore) {
+		if (dataStore instanceof DefaultDataStore)
+			return ((DefaultDataStore) dataStore).getAllVLocations();
+		if (dataStore instanceof ConcurrentDataStore.Snapshot)
+			return ((ConcurrentDataStore.Snapshot) dataStore).getAllVLocations();
+		if (dataStore instanceof PersistentDataStore)
+			return ((PersistentDataStore) dataStore).getAllVLocations();
+		return new ArrayList<VLocation>();
+	}
+
+	private static List<VResource> vresources(DataStore dataStore) {
+		if (dataStore instanceof DefaultDataStore)
+			return ((DefaultDataStore) dataStore).getAllVResources();
+		if (dataStore instanceof ConcurrentDataStore.Snapshot)
+			return ((ConcurrentDataStore.Snapshot) dataStore).getAllVResources();
+		if (dataStore instanceof PersistentDataStore)
+			return ((PersistentDataStore) dataStore).getAllVResources();
+		return new ArrayList<VResource>();
+	}
+
+	private static List<VAvailability> vavailabilities(DataStore dataStore) {
+		if (dataStore instanceof DefaultDataStore)
+			return ((DefaultDataStore) dataStore).getAllVAvailabilities();
+		if (dataStore instanceof ConcurrentDataStore.Snapshot)
+			return ((ConcurrentDataStore.Snapshot) dataStore)
+					.getAllVAvailabilities();
+		if (dataStore instanceof PersistentDataStore)
+			return ((PersistentDataStore) dataStore).getAllVAvailabilities();
+		return new ArrayList<VAvailability>();
+	}
+
+	/**
+	 * Writes records, adding strings to the table as they are first used.
+	 */
+	private static final class Writer {
+		private final OutputStream out;
+		private final Map<String, Integer> table = new HashMap<String, Integer>();
+		private final char[] digits = new char[16];
+		/** The day and seconds of the last value passed to dateType() */
+		private long day;
+		private int seconds;
+		int components = 0;
+
+		Writer(OutputStream out) throws IOException {
+			this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+			writeLong(MAGIC);
+			writeVarLong(SCHEMA_VERSION);
+		}
+
+		void writeCalendar(DataStore dataStore) throws IOException {
+			StringBuilder sb = new StringBuilder();
+			Property method = method(dataStore);
+			if (method != null)
+				sb.append(method.toICalendar());
+			if (dataStore instanceof DefaultDataStore) {
+				DefaultDataStore ds = (DefaultDataStore) dataStore;
+				if (ds.getName() != null)
+					sb.append("NAME:").append(ds.getName()).append(Constants.CRLF);
+				if (ds.getCalendarAddress() != null)
+					sb.append("CALENDAR-ADDRESS:").append(ds.getCalendarAddress())
+							.append(Constants.CRLF);
+				if (ds.getDescription() != null)
+					sb.append("DESCRIPTION:").append(ds.getDescription())
+							.append(Constants.CRLF);
+				if (ds.getUid() != null)
+					sb.append("UID:").append(ds.getUid()).append(Constants.CRLF);
+				if (ds.getUrl() != null)
+					sb.append("URL:").append(ds.getUrl()).append(Constants.CRLF);
+				if (ds.getLastModified() != null)
+					sb.append(ds.getLastModified().toICalendar());
+			}
+			if (sb.length() > 0)
+				writeRecord(CALENDAR, sb.toString());
+		}
+
+		void writeComponent(int kind, String ical) throws IOException {
+			writeRecord(kind, ical);
+			components++;
+		}
+
+		void finish() throws IOException {
+			out.write(END);
+			writeVarLong(components);
+			out.flush();
+		}
+
+		private void writeRecord(int kind, String ical) throws IOException {
+			List<String> lines = StringUtils.splitLines(ical);
+			out.write(kind);
+			writeVarLong(lines.size());
+			for (String line : lines)
+				writeLine(line);
+		}
+
+		/**
+		 * Write a content line as its name, its parameters (with the leading
+		 * semicolon) and its value.
+		 */
+		private void writeLine(String line) throws IOException {
+			int nameEnd = 0;
+			while (nameEnd < line.length() && line.charAt(nameEnd) != ';'
+					&& line.charAt(nameEnd) != ':')
+				nameEnd++;
+			int colon = nameEnd;
+			boolean quoted = false;
+			while (colon < line.length()
+					&& (quoted || line.charAt(colon) != ':')) {
+				if (line.charAt(colon) == '"')
+					quoted = !quoted;
+				colon++;
+			}
+			writeString(line.substring(0, nameEnd));
+			writeString(line.substring(nameEnd, colon));
+			if (colon == line.length()) {
+				out.write(VALUE_NONE);
+				return;
+			}
+			String value = line.substring(colon + 1);
+			int type = dateType(value);
+			if (type != VALUE_NONE) {
+				out.write(type);
+				writeVarLong((day << 1) ^ (day >> 63));
+				if (type != VALUE_DATE)
+					writeVarLong(seconds);
+			} else if (value.length() <= MAX_TABLE_VALUE) {
+				out.write(VALUE_STRING);
+				writeString(value);
+			} else {
+				out.write(VALUE_TEXT);
+				writeText(value);
+			}
+		}
+
+		/**
+		 * Get the type of a value of the form YYYYMMDD, YYYYMMDDTHHMMSS or
+		 * YYYYMMDDTHHMMSSZ that is a valid date and time, setting day to the
+		 * days since 1970 and seconds to the seconds of the day.
+		 * 
+		 * @return the value type, or VALUE_NONE for any other value
+		 */
+		private int dateType(String value) {
+			int length = value.length();
+			if (length != 8 && length != 15 && length != 16)
+				return VALUE_NONE;
+			if (length > 8 && value.charAt(8) != 'T')
+				return VALUE_NONE;
+			if (length == 16 && value.charAt(15) != 'Z')
+				return VALUE_NONE;
+			int n = length == 8 ? 8 : 14;
+			for (int i = 0, j = 0; j < n; i++) {
+				if (i == 8)
+					continue;
+				char c = value.charAt(i);
+				if (c < '0' || c > '9')
+					return VALUE_NONE;
+				digits[j++] = c;
+			}
+			try {
+				day = LocalDate.of(number(0, 4), number(4, 2), number(6, 2))
+						.toEpochDay();
+			} catch (DateTimeException e) {
+				return VALUE_NONE;
+			}
+			if (length == 8)
+				return VALUE_DATE;
+			int hour = number(8, 2), minute = number(10, 2), second = number(12, 2);
+			if (hour > 23 || minute > 59 || second > 59)
+				return VALUE_NONE;
+			seconds = hour * 3600 + minute * 60 + second;
+			return length == 15 ? VALUE_DATE_TIME : VALUE_DATE_TIME_UTC;
+		}
+
+		private int number(int from, int count) {
+			int n = 0;
+			for (int i = from; i < from + count; i++)
+				n = n * 10 + (digits[i] - '0');
+			return n;
+		}
+
+		/**
+		 * Write a string as its index in the table, or as 0 and its text if it
+		 * is not in the table yet.
+		 */
+		private void writeString(String s) throws IOException {
+			Integer index = table.get(s);
+			if (index != null) {
+				writeVarLong(index.intValue() + 1);
+			} else {
+				table.put(s, Integer.valueOf(table.size()));
+				writeVarLong(0);
+				writeText(s);
+			}
+		}
+
+		private void writeText(String s) throws IOException {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writeVarLong(bytes.length);
+			out.write(bytes);
+		}
+
+		private void writeLong(long value) throws IOException {
+			for (int shift = 56; shift >= 0; shift -= 8)
+				out.write((int) (value >>> shift));
+		}
+
+		private void writeVarLong(long value) throws IOException {
+			while ((value & ~0x7fL) != 0) {
+				out.write((int) ((value & 0x7f) | 0x80));
+				value >>>= 7;
+			}
+			out.write((int) value);
+		}
+	}
+
+	/**
+	 * Reads records, adding strings to the table in the order the writer did.
+	 */
+	private static final class Reader {
+		private final InputStream in;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private int position = 0, limit = 0;
+		private String[] table = new String[256];
+		private int tableSize = 0;
+		private final StringBuilder sb = new StringBuilder(256);
+		private final char[] chars = new char[16];
+		private byte[] bytes = new byte[256];
+
+		Reader(InputStream in) throws IOException {
+			this.in = in;
+			long magic = 0;
+			for (int i = 0; i < 8; i++)
+				magic = (magic << 8) | readByte();
+			if (magic != MAGIC)
+				throw new IOException("Not a calendar snapshot");
+			long version = readVarLong();
+			if (version < 1 || version > SCHEMA_VERSION)
+				throw new IOException("Unsupported snapshot schema version "
+						+ version);
+		}
+
+		List<String> readLines() throws IOException {
+			int count = (int) readVarLong();
+			List<String> lines = new ArrayList<String>(count);
+			for (int i = 0; i < count; i++)
+				lines.add(readLine());
+			return lines;
+		}
+
+		private String readLine() throws IOException {
+			String name = readString();
+			String params = readString();
+			int type = readByte();
+			sb.setLength(0);
+			sb.append(name).append(params);
+			switch (type) {
+				case VALUE_NONE:
+					return sb.toString();
+				case VALUE_STRING:
+					sb.append(':').append(readString());
+					break;
+				case VALUE_TEXT:
+					sb.append(':').append(readText());
+					break;
+				case VALUE_DATE:
+				case VALUE_DATE_TIME:
+				case VALUE_DATE_TIME_UTC:
+					long zigzag = readVarLong();
+					LocalDate date = LocalDate.ofEpochDay((zigzag >>> 1)
+							^ -(zigzag & 1));
+					int n = digits(date.getYear(), 0, 4);
+					n = digits(date.getMonthValue(), n, 2);
+					n = digits(date.getDayOfMonth(), n, 2);
+					if (type != VALUE_DATE) {
+						int seconds = (int) readVarLong();
+						chars[n++] = 'T';
+						n = digits(seconds / 3600, n, 2);
+						n = digits(seconds / 60 % 60, n, 2);
+						n = digits(seconds % 60, n, 2);
+						if (type == VALUE_DATE_TIME_UTC)
+							chars[n++] = 'Z';
+					}
+					sb.append(':').append(chars, 0, n);
+					break;
+				default:
+					throw new IOException("Unknown snapshot value type " + type);
+			}
+			return sb.toString();
+		}
+
+		/**
+		 * Write a number to chars as digits, padded with zeros to a width.
+		 *
+		 * @return the index in chars after the digits
+		 */
+		private int digits(int n, int at, int width) {
+			for (int i = at + width - 1; i >= at; i--) {
+				chars[i] = (char) ('0' + n % 10);
+				n /= 10;
+			}
+			return at + width;
+		}
+
+		private String readString() throws IOException {
+			int index = (int) readVarLong();
+			if (index > 0) {
+				if (index > tableSize)
+					throw new IOException("Bad snapshot string index " + index);
+				return table[index - 1];
+			}
+			String s = readText();
+			if (tableSize == table.length)
+				table = Arrays.copyOf(table, tableSize * 2);
+			table[tableSize++] = s;
+			return s;
+		}
+
+		private String readText() throws IOException {
+			int length = (int) readVarLong();
+			if (length <= limit - position) {
+				String s = new String(buffer, position, length, StandardCharsets.UTF_8);
+				position += length;
+				return s;
+			}
+			if (length > bytes.length)
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			for (int n = 0; n < length;) {
+				if (position == limit && !fill())
+					throw new EOFException("Snapshot ends in a string");
+				int count = Math.min(length - n, limit - position);
+				System.arraycopy(buffer, position, bytes, n, count);
+				position += count;
+				n += count;
+			}
+			return new String(bytes, 0, length, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Read the next byte.
+		 *
+		 * @return the byte, or -1 at the end of the stream
+		 */
+		int read() throws IOException {
+			if (position == limit && !fill())
+				return -1;
+			return buffer[position++] & 0xff;
+		}
+
+		private int readByte() throws IOException {
+			if (position == limit && !fill())
+				throw new EOFException("Snapshot ends in a record");
+			return buffer[position++] & 0xff;
+		}
+
+		private boolean fill() throws IOException {
+			int n = in.read(buffer);
+			if (n <= 0)
+				return false;
+			position = 0;
+			limit = n;
+			return true;
+		}
+
+		long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = readByte();
+				value |= (long) (b & 0x7f) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+			throw new IOException("Bad variable-length number in snapshot");
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+/**
+ * Defines an interface for being told of each change to the events, todos
+ * and journals of an IndexedDataStore.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see IndexedDataStore#addChangeListener(ChangeListener)
+ */
+public interface ChangeListener {
+
+	/**
+	 * This method will be called after a component has been added, replaced
+	 * or removed, on the thread that changed the store.
+	 *
+	 * @param change
+	 *                  the change, as it is recorded in the change log
+	 * @param component
+	 *                  the Event, Todo or Journal stored, or the one removed
+	 */
+	public void componentChanged(ComponentChange change, Object component);
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A bounded log of the changes made to an IndexedDataStore, numbered by a
+ * modification sequence that increases with each change. The most recent
+ * changes are kept in a ring buffer, so asking for the changes since a sync
+ * token takes time in proportion to the number of changes rather than the
+ * size of the calendar.
+ * <br>
+ * Sync tokens and ETags hold an id chosen at random for each log along with
+ * a modification sequence, so those given out by another store, or by an
+ * earlier instance of this one, are never mistaken for its own.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see IndexedDataStore#changesSince(String)
+ */
+class ChangeLog {
+	private final String logId = Integer.toHexString(ThreadLocalRandom.current()
+			.nextInt());
+	private ComponentChange[] changes;
+	/** The position in changes of the oldest change kept */
+	private int first = 0;
+	private int size = 0;
+	private long sequence = 0;
+	/** The sequence of the last change dropped from the log */
+	private long dropped = 0;
+
+	ChangeLog(int capacity) {
+		changes = new ComponentChange[capacity];
+	}
+
+	/**
+	 * Get the sequence of the last change.
+	 */
+	long getSequence() {
+		return sequence;
+	}
+
+	int getCapacity() {
+		return changes.length;
+	}
+
+	/**
+	 * Change the number of changes kept, dropping the oldest if there are
+	 * more.
+	 */
+	void setCapacity(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be at least 1");
+		ComponentChange[] resized = new ComponentChange[capacity];
+		int keep = Math.min(size, capacity);
+		for (int i = 0; i < keep; i++)
+			resized[i] = get(size - keep + i);
+		if (keep < size)
+			dropped = get(size - keep - 1).getSequence();
+		changes = resized;
+		first = 0;
+		size = keep;
+	}
+
+	private ComponentChange get(int i) {
+		return changes[(first + i) % changes.length];
+	}
+
+	/**
+	 * Record a change.
+	 *
+	 * @param key
+	 *            the key of the component in the UID index of the store, or
+	 *            null if it has no UID
+	 * @return the change, with the next sequence
+	 */
+	ComponentChange record(int type, String componentType, String uid,
+			Date recurrenceId, String key) {
+		long seq = ++sequence;
+		ComponentChange change = new ComponentChange(type, componentType, uid,
+				recurrenceId, key, seq, type == ComponentChange.REMOVED ? null : etag(seq));
+		if (size == changes.length) {
+			dropped = changes[first].getSequence();
+			changes[first] = change;
+			first = (first + 1) % changes.length;
+		} else {
+			changes[(first + size) % changes.length] = change;
+			size++;
+		}
+		return change;
+	}
+
+	/**
+	 * Get the ETag of a component stored by the change with a sequence.
+	 */
+	String etag(long seq) {
+		return "\"" + logId + "-" + seq + "\"";
+	}
+
+	/**
+	 * Get the sync token for the changes so far.
+	 */
+	String token() {
+		return logId + "-" + sequence;
+	}
+
+	/**
+	 * Get the net changes since a sync token.
+	 *
+	 * @param token
+	 *              a token from token() or an earlier ChangeSet, or null for a
+	 *              full sync
+	 */
+	ChangeSet since(String token) {
+		long from = parse(token);
+		if (from < dropped || from > sequence)
+			return new ChangeSet(new ArrayList<ComponentChange>(), token(), true);
+		// Skip the changes the client has already seen
+		int start = (int) Math.max(0, size - (sequence - from));
+		Map<Object, ComponentChange[]> net = new LinkedHashMap<Object, ComponentChange[]>();
+		for (int i = start; i < size; i++) {
+			ComponentChange change = get(i);
+			Object key = change.key();
+			if (key == null)
+				key = change;
+			// the first and last change to each component, in order of the last
+			ComponentChange[] firstLast = net.remove(key);
+			if (firstLast == null)
+				firstLast = new ComponentChange[] { change, change };
+			else
+				firstLast[1] = change;
+			net.put(key, firstLast);
+		}
+		List<ComponentChange> ret = new ArrayList<ComponentChange>(net.size());
+		for (ComponentChange[] firstLast : net.values()) {
+			int before = firstLast[0].getType(), after = firstLast[1].getType();
+			if (before == ComponentChange.ADDED) {
+				// the client never saw it
+				if (after != ComponentChange.REMOVED)
+					ret.add(firstLast[1].withType(ComponentChange.ADDED));
+			} else if (before == ComponentChange.REMOVED
+					&& after != ComponentChange.REMOVED) {
+				// the client still has the version before it was removed
+				ret.add(firstLast[1].withType(ComponentChange.MODIFIED));
+			} else {
+				ret.add(firstLast[1]);
+			}
+		}
+		return new ChangeSet(ret, token(), false);
+	}
+
+	/**
+	 * Get the sequence of a sync token, or -1 if it is not one of this log's.
+	 */
+	private long parse(String token) {
+		if (token == null || !token.startsWith(logId)
+				|| token.length() < logId.length() + 2
+				|| token.charAt(logId.length()) != '-')
+			return -1;
+		try {
+			return Long.parseLong(token.substring(logId.length() + 1));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes made to an IndexedDataStore since a sync token, with the token
+ * to pass next time. Each component changed appears once, with the net
+ * change: a component added and then modified is ADDED, and one added and
+ * then removed is left out.
+ * <br>
+ * When the token is not from this store, or is so old that the changes after
+ * it have been dropped from the bounded change log, the client must fetch the
+ * whole calendar again. isFullSync() is then true and there are no changes.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see IndexedDataStore#changesSince(String)
+ */
+public class ChangeSet {
+	private final List<ComponentChange> changes;
+	private final String token;
+	private final boolean fullSync;
+
+	ChangeSet(List<ComponentChange> changes, String token, boolean fullSync) {
+		this.changes = Collections.unmodifiableList(changes);
+		this.token = token;
+		this.fullSync = fullSync;
+	}
+
+	/**
+	 * Get the changes, in the order they were last changed.
+	 */
+	public List<ComponentChange> getChanges() {
+		return changes;
+	}
+
+	/**
+	 * Get the sync token to ask for the changes after these.
+	 */
+	public String getToken() {
+		return token;
+	}
+
+	/**
+	 * Must the client fetch the whole calendar, because the changes since its
+	 * token are no longer known?
+	 */
+	public boolean isFullSync() {
+		return fullSync;
+	}
+}
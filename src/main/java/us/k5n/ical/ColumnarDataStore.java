@@ -0,0 +1,580 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.google.ical.util.PackedDate;
+
+/**
+ * A read-optimized DataStore for calendars with millions of events. Rather
+ * than keeping each Event object, with its Property, Attribute and Date
+ * objects, the store keeps its events in columns: an array for each of the
+ * start and end times, the flags and the recurrence rule of every event, and
+ * the rest of the event as UTF-8 iCalendar text. SUMMARY, LOCATION, ORGANIZER,
+ * CATEGORIES and RRULE values are dictionary encoded, so an event only holds a
+ * number for each and every distinct value is kept once.
+ * <br>
+ * An Event is materialized from its columns each time it is requested, by
+ * getEvent() or the list returned by getAllEvents(), so it is a new copy that
+ * can be modified without changing the store. Since it is parsed from the
+ * iCalendar text of the stored Event, it is the Event that toICalendar() of
+ * the stored Event would read back as. The time, flag and text columns can be
+ * read without materializing the Event, which is how a scan over millions of
+ * events should be written:
+ *
+ * <pre>
+ * for (int i = 0; i &lt; store.getEventCount(); i++) {
+ * 	if (store.getStartSeconds(i) &lt; to &amp;&amp; store.getEndSeconds(i) &gt; from)
+ * 		matches.add(store.getEvent(i));
+ * }
+ * </pre>
+ *
+ * The text of the events can be kept outside the Java heap, in direct
+ * ByteBuffers, so that a large calendar neither needs a large heap nor adds
+ * to garbage collection. The columns and dictionaries are always on the heap.
+ * getMemoryUsage() and getBytesPerEvent() report the space used.
+ * <br>
+ * Todos, journals and the other components are stored as in
+ * DefaultDataStore. Events cannot be removed or replaced. Reading from any
+ * number of threads is safe once the events have been stored, but storing is
+ * not safe while other threads read.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see DefaultDataStore
+ */
+public class ColumnarDataStore extends DefaultDataStore {
+	/** Start and end value of an event without a DTSTART */
+	public static final long NO_TIME = Long.MIN_VALUE;
+	private static final byte DATE_ONLY = 1;
+	private static final byte RECURRING = 2;
+	private static final byte OVERRIDE = 4;
+	private static final byte CANCELLED = 8;
+	/** Bytes of column data for each event */
+	private static final int COLUMN_BYTES = 8 + 4 + 8 + 4 + 8 + 8 + 1 + 5 * 4;
+	/** Parser for materializing events, which ignores their parse errors */
+	private static final CalendarParser VIEW_PARSER = new ViewParser();
+	private static final String CRLF = "\r\n";
+
+	private int count;
+	private long[] uidRefs = new long[0];
+	private int[] uidLengths = new int[0];
+	private long[] textRefs = new long[0];
+	private int[] textLengths = new int[0];
+	private long[] starts = new long[0];
+	private long[] ends = new long[0];
+	private byte[] flags = new byte[0];
+	private int[] summaries = new int[0];
+	private int[] locations = new int[0];
+	private int[] organizers = new int[0];
+	private int[] categories = new int[0];
+	private int[] rules = new int[0];
+	private final Dictionary summaryDictionary = new Dictionary();
+	private final Dictionary locationDictionary = new Dictionary();
+	private final Dictionary organizerDictionary = new Dictionary();
+	private final Dictionary categoryDictionary = new Dictionary();
+	private final Dictionary ruleDictionary = new Dictionary();
+	private final TextBuffer text;
+	private final OccurrenceExpander expander = new OccurrenceExpander()
+			.setTimezoneRegistry(timezoneRegistry);
+	private final List<Event> eventView = new EventList();
+
+	/**
+	 * Create a store that keeps the text of its events on the heap.
+	 */
+	public ColumnarDataStore() {
+		this(false);
+	}
+
+	/**
+	 * Create a store.
+	 *
+	 * @param offHeap
+	 *                  true to keep the text of events in direct ByteBuffers
+	 *                  outside the Java heap
+	 */
+	public ColumnarDataStore(boolean offHeap) {
+		super();
+		text = new TextBuffer(offHeap);
+	}
+
+	/**
+	 * Is the text of the events kept outside the Java heap?
+	 */
+	public boolean isOffHeap() {
+		return text.direct;
+	}
+
+	/**
+	 * Store a Timezone, registering it for converting the dates of the events
+	 * stored after it.
+	 */
+	@Override
+	public void storeTimezone(Timezone timezone) {
+		super.storeTimezone(timezone);
+		expander.setTimezoneRegistry(timezoneRegistry);
+	}
+
+	/**
+	 * Store an Event by adding it to the columns. The Event itself is not
+	 * kept.
+	 */
+	@Override
+	public void storeEvent(Event event) {
+		if (count == starts.length)
+			grow(Math.max(16, count * 2));
+		int i = count;
+		long start = NO_TIME, end = NO_TIME;
+		byte flag = 0;
+		Date startDate = event.getStartDate();
+		if (startDate != null) {
+			long packed = expander.toPackedUtc(startDate);
+			start = PackedDate.timetSecs(packed);
+			end = PackedDate.timetSecs(OccurrenceExpander.endOf(packed,
+					expander.durationSecs(event)));
+			if (startDate.isDateOnly())
+				flag |= DATE_ONLY;
+		}
+		if (event.getRrule() != null
+				|| (event.getRdates() != null && !event.getRdates().isEmpty()))
+			flag |= RECURRING;
+		if (event.getRecurrenceId() != null)
+			flag |= OVERRIDE;
+		if (event.getStatus() == Constants.STATUS_CANCELLED)
+			flag |= CANCELLED;
+		starts[i] = start;
+		ends[i] = end;
+		flags[i] = flag;
+
+		// Split the text into the columns, leaving the rest, including any
+		// VALARMs, as text
+		StringBuilder summary = new StringBuilder(), location = new StringBuilder(),
+				organizer = new StringBuilder(), category = new StringBuilder(),
+				rule = new StringBuilder(), rest = new StringBuilder();
+		String uid = null;
+		int depth = 0;
+		for (String line : StringUtils.splitLines(event.toICalendar())) {
+			String name = propertyName(line);
+			if (name.equals("BEGIN")) {
+				if (depth++ == 0)
+					continue;
+			} else if (name.equals("END")) {
+				depth--;
+			} else if (depth == 1) {
+				if (name.equals("UID") && uid == null && line.startsWith("UID:")) {
+					uid = line.substring(4);
+					continue;
+				}
+				StringBuilder column = name.equals("SUMMARY") ? summary
+						: name.equals("LOCATION") ? location
+								: name.equals("ORGANIZER") ? organizer
+										: name.equals("CATEGORIES") ? category
+												: name.equals("RRULE") ? rule : null;
+				if (column != null) {
+					column.append(line).append(CRLF);
+					continue;
+				}
+			}
+			rest.append(line).append(CRLF);
+		}
+		summaries[i] = summaryDictionary.encode(summary);
+		locations[i] = locationDictionary.encode(location);
+		organizers[i] = organizerDictionary.encode(organizer);
+		categories[i] = categoryDictionary.encode(category);
+		rules[i] = ruleDictionary.encode(rule);
+		if (uid == null) {
+			uidRefs[i] = -1;
+		} else {
+			byte[] bytes = uid.getBytes(StandardCharsets.UTF_8);
+			uidRefs[i] = text.append(bytes);
+			uidLengths[i] = bytes.length;
+		}
+		byte[] bytes = rest.toString().getBytes(StandardCharsets.UTF_8);
+		textRefs[i] = text.append(bytes);
+		textLengths[i] = bytes.length;
+		count++;
+	}
+
+	private void grow(int capacity) {
+		uidRefs = Arrays.copyOf(uidRefs, capacity);
+		uidLengths = Arrays.copyOf(uidLengths, capacity);
+		textRefs = Arrays.copyOf(textRefs, capacity);
+		textLengths = Arrays.copyOf(textLengths, capacity);
+		starts = Arrays.copyOf(starts, capacity);
+		ends = Arrays.copyOf(ends, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		summaries = Arrays.copyOf(summaries, capacity);
+		locations = Arrays.copyOf(locations, capacity);
+		organizers = Arrays.copyOf(organizers, capacity);
+		categories = Arrays.copyOf(categories, capacity);
+		rules = Arrays.copyOf(rules, capacity);
+	}
+
+	/**
+	 * Get all events, as a list that materializes each Event when it is read.
+	 * The list cannot be modified.
+	 */
+	@Override
+	public List<Event> getAllEvents() {
+		return eventView;
+	}
+
+	/**
+	 * Get the number of events stored.
+	 */
+	public int getEventCount() {
+		return count;
+	}
+
+	/**
+	 * Materialize an Event.
+	 *
+	 * @param index
+	 *                The position of the event, in the order stored
+	 * @return a new Event
+	 */
+	public Event getEvent(int index) {
+		checkIndex(index);
+		StringBuilder sb = new StringBuilder(textLengths[index] + 128);
+		sb.append("BEGIN:VEVENT").append(CRLF);
+		if (uidRefs[index] >= 0)
+			sb.append("UID:").append(getUid(index)).append(CRLF);
+		sb.append(summaryDictionary.decode(summaries[index]));
+		sb.append(locationDictionary.decode(locations[index]));
+		sb.append(organizerDictionary.decode(organizers[index]));
+		sb.append(categoryDictionary.decode(categories[index]));
+		sb.append(ruleDictionary.decode(rules[index]));
+		sb.append(text.read(textRefs[index], textLengths[index]));
+		return new Event(VIEW_PARSER, 0, StringUtils.splitLines(sb.toString()));
+	}
+
+	/**
+	 * Get the UID of an event.
+	 *
+	 * @return the UID, or null if the UID has parameters and is only in the
+	 *         text of the event
+	 */
+	public String getUid(int index) {
+		checkIndex(index);
+		return uidRefs[index] < 0 ? null : text.read(uidRefs[index],
+				uidLengths[index]);
+	}
+
+	/**
+	 * Get the start of an event in seconds since 1 Jan 1970 UTC. A date is
+	 * taken to start at midnight UTC.
+	 *
+	 * @return the start, or NO_TIME if the event has no DTSTART
+	 */
+	public long getStartSeconds(int index) {
+		checkIndex(index);
+		return starts[index];
+	}
+
+	/**
+	 * Get the end of an event in seconds since 1 Jan 1970 UTC, which is its
+	 * start if it has no DTEND or DURATION. For a recurring event this is the
+	 * end of the first occurrence.
+	 *
+	 * @return the end, or NO_TIME if the event has no DTSTART
+	 */
+	public long getEndSeconds(int index) {
+		checkIndex(index);
+		return ends[index];
+	}
+
+	/**
+	 * Does an event start on a date rather than a date-time?
+	 */
+	public boolean isDateOnly(int index) {
+		checkIndex(index);
+		return (flags[index] & DATE_ONLY) != 0;
+	}
+
+	/**
+	 * Does an event have an RRULE or RDATE?
+	 */
+	public boolean isRecurring(int index) {
+		checkIndex(index);
+		return (flags[index] & RECURRING) != 0;
+	}
+
+	/**
+	 * Does an event override an occurrence of a recurring event with a
+	 * RECURRENCE-ID?
+	 */
+	public boolean isOverride(int index) {
+		checkIndex(index);
+		return (flags[index] & OVERRIDE) != 0;
+	}
+
+	/**
+	 * Is an event's STATUS CANCELLED?
+	 */
+	public boolean isCancelled(int index) {
+		checkIndex(index);
+		return (flags[index] & CANCELLED) != 0;
+	}
+
+	/**
+	 * Get the SUMMARY of an event.
+	 *
+	 * @return the summary, or null if there is none
+	 */
+	public String getSummary(int index) {
+		checkIndex(index);
+		String line = firstLine(summaryDictionary.decode(summaries[index]));
+		if (line == null)
+			return null;
+		try {
+			return new Summary(line, Constants.PARSE_LOOSE).getValue();
+		} catch (ParseException e) {
+			// it was read from the Event's own text, so this should not happen
+			return null;
+		}
+	}
+
+	/**
+	 * Get the LOCATION of an event.
+	 *
+	 * @return the location, or null if there is none
+	 */
+	public String getLocation(int index) {
+		checkIndex(index);
+		String line = firstLine(locationDictionary.decode(locations[index]));
+		if (line == null)
+			return null;
+		try {
+			return new Location(line, Constants.PARSE_LOOSE).getValue();
+		} catch (ParseException e) {
+			// it was read from the Event's own text, so this should not happen
+			return null;
+		}
+	}
+
+	/**
+	 * Get the ORGANIZER of an event.
+	 *
+	 * @return the calendar address of the organizer, or null if there is none
+	 */
+	public String getOrganizer(int index) {
+		checkIndex(index);
+		String line = firstLine(organizerDictionary.decode(organizers[index]));
+		if (line == null)
+			return null;
+		try {
+			return new Organizer(line, Constants.PARSE_LOOSE).getValue();
+		} catch (ParseException e) {
+			// it was read from the Event's own text, so this should not happen
+			return null;
+		}
+	}
+
+	/**
+	 * Get the CATEGORIES of an event.
+	 *
+	 * @return the categories, which is empty if there are none
+	 */
+	public List<String> getCategories(int index) {
+		checkIndex(index);
+		String line = firstLine(categoryDictionary.decode(categories[index]));
+		if (line == null)
+			return Collections.emptyList();
+		try {
+			return new Categories(line, Constants.PARSE_LOOSE).getCategoryList();
+		} catch (ParseException e) {
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Get the RRULE of an event as iCalendar text.
+	 *
+	 * @return the RRULE line, or null if there is none
+	 */
+	public String getRrule(int index) {
+		checkIndex(index);
+		return firstLine(ruleDictionary.decode(rules[index]));
+	}
+
+	/**
+	 * Get an estimate of the bytes used by the events: the columns, the text
+	 * (on or off the heap) and the dictionaries.
+	 */
+	public long getMemoryUsage() {
+		return (long) starts.length * COLUMN_BYTES + text.capacity()
+				+ summaryDictionary.bytes + locationDictionary.bytes
+				+ organizerDictionary.bytes + categoryDictionary.bytes
+				+ ruleDictionary.bytes;
+	}
+
+	/**
+	 * Get the estimate of getMemoryUsage() divided by the number of events.
+	 *
+	 * @return the bytes used for each event, or 0 if there are none
+	 */
+	public double getBytesPerEvent() {
+		return count == 0 ? 0 : (double) getMemoryUsage() / count;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ count);
+	}
+
+	/**
+	 * Get the property name of a line, in upper case.
+	 */
+	private static String propertyName(String line) {
+		int end = 0;
+		while (end < line.length() && line.charAt(end) != ':'
+				&& line.charAt(end) != ';')
+			end++;
+		return line.substring(0, end).trim().toUpperCase();
+	}
+
+	/**
+	 * Get the first line, unfolded, of a dictionary value.
+	 */
+	private static String firstLine(String value) {
+		if (value.length() == 0)
+			return null;
+		return StringUtils.splitLines(value).get(0);
+	}
+
+	/**
+	 * The distinct values of a column. An empty value is stored as -1.
+	 */
+	private static final class Dictionary {
+		private final Map<String, Integer> codes = new HashMap<String, Integer>();
+		private final List<String> values = new ArrayList<String>();
+		/** Estimate of the bytes used by the values and the map */
+		long bytes;
+
+		int encode(CharSequence value) {
+			if (value.length() == 0)
+				return -1;
+			String s = value.toString();
+			Integer code = codes.get(s);
+			if (code == null) {
+				code = values.size();
+				codes.put(s, code);
+				values.add(s);
+				// the String and its array, a map entry and a list reference
+				bytes += 40 + s.length() + 48 + 4;
+			}
+			return code;
+		}
+
+		String decode(int code) {
+			return code < 0 ? "" : values.get(code);
+		}
+	}
+
+	/**
+	 * UTF-8 text in ByteBuffers, which are allocated as needed and never
+	 * moved, so the reference returned when text is added (the buffer number
+	 * in the high 32 bits and the offset in the low 32) stays valid. Reads use
+	 * absolute positions, so any number of threads can read at once.
+	 */
+	private static final class TextBuffer {
+		private static final int MIN_CHUNK = 64 * 1024;
+		private static final int MAX_CHUNK = 1024 * 1024;
+		final boolean direct;
+		private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+		private ByteBuffer current;
+		private long capacity;
+
+		TextBuffer(boolean direct) {
+			this.direct = direct;
+		}
+
+		long append(byte[] bytes) {
+			if (current == null || current.remaining() < bytes.length) {
+				int size = current == null ? MIN_CHUNK : Math.min(MAX_CHUNK,
+						current.capacity() * 2);
+				size = Math.max(size, bytes.length);
+				current = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer
+						.allocate(size);
+				chunks.add(current);
+				capacity += size;
+			}
+			long ref = ((long) (chunks.size() - 1) << 32) | current.position();
+			current.put(bytes);
+			return ref;
+		}
+
+		String read(long ref, int length) {
+			byte[] bytes = new byte[length];
+			chunks.get((int) (ref >>> 32)).get((int) ref, bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		long capacity() {
+			return capacity;
+		}
+	}
+
+	/**
+	 * The CalendarParser given to materialized events. Their text was already
+	 * parsed, and any errors reported, when they were stored, so errors are
+	 * not reported again.
+	 */
+	private static final class ViewParser extends CalendarParser {
+		ViewParser() {
+			super(Constants.PARSE_LOOSE);
+		}
+
+		@Override
+		public void reportParseError(ParseError error) {
+		}
+
+		@Override
+		public boolean parse(Reader reader) {
+			return false;
+		}
+	}
+
+	private final class EventList extends AbstractList<Event> implements
+			RandomAccess {
+		@Override
+		public Event get(int index) {
+			return getEvent(index);
+		}
+
+		@Override
+		public int size() {
+			return count;
+		}
+	}
+}
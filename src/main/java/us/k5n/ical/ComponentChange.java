@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+/**
+ * A change to an Event, Todo or Journal in an IndexedDataStore: the
+ * component it identifies by type, UID and RECURRENCE-ID, whether it was
+ * added, modified or removed, and the modification sequence of the change.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see IndexedDataStore#changesSince(String)
+ */
+public class ComponentChange {
+	/** The component was added */
+	public static final int ADDED = 1;
+	/** The component replaced one with the same UID and RECURRENCE-ID */
+	public static final int MODIFIED = 2;
+	/** The component was removed */
+	public static final int REMOVED = 3;
+
+	private final int type;
+	private final String componentType;
+	private final String uid;
+	private final Date recurrenceId;
+	private final String key;
+	private final long sequence;
+	private final String etag;
+
+	ComponentChange(int type, String componentType, String uid,
+			Date recurrenceId, String key, long sequence, String etag) {
+		this.type = type;
+		this.componentType = componentType;
+		this.uid = uid;
+		this.recurrenceId = recurrenceId;
+		this.key = key;
+		this.sequence = sequence;
+		this.etag = etag;
+	}
+
+	/**
+	 * Get the same change with another type.
+	 */
+	ComponentChange withType(int newType) {
+		return newType == type ? this : new ComponentChange(newType,
+				componentType, uid, recurrenceId, key, sequence, etag);
+	}
+
+	/**
+	 * Get the kind of change: ADDED, MODIFIED or REMOVED.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Get the type of component: "VEVENT", "VTODO" or "VJOURNAL".
+	 */
+	public String getComponentType() {
+		return componentType;
+	}
+
+	/**
+	 * Get the UID of the component, or null if it has none.
+	 */
+	public String getUid() {
+		return uid;
+	}
+
+	/**
+	 * Get the RECURRENCE-ID of an Event that overrides an instance of a
+	 * recurring Event, or null.
+	 */
+	public Date getRecurrenceId() {
+		return recurrenceId;
+	}
+
+	/**
+	 * Get the modification sequence of the change.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Get the ETag the component was given by the change, or null if it was
+	 * removed.
+	 */
+	public String getETag() {
+		return etag;
+	}
+
+	/**
+	 * Get a key that is the same for changes to the same component, or null if
+	 * the component has no UID.
+	 */
+	String key() {
+		return key == null ? null : componentType + '\0' + key;
+	}
+
+	@Override
+	public String toString() {
+		return (type == ADDED ? "ADDED" : type == MODIFIED ? "MODIFIED"
+				: "REMOVED") + " " + componentType + " " + uid
+				+ (recurrenceId == null ? "" : " " + recurrenceId.toISO8601String())
+				+ " @" + sequence;
+	}
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A DataStore that can be shared by threads that store components, such as a
+ * parser reading a feed, and any number of threads that read them, without a
+ * lock around the readers.
+ * <br>
+ * Readers see the store through a Snapshot: an immutable view of everything
+ * stored up to a point in time, numbered by a version that increases with
+ * each change. Taking a Snapshot is a single volatile read, and a Snapshot
+ * stays the same however long it is used, so a long agenda scan or a
+ * recurrence expansion sees a consistent calendar while components continue to
+ * be stored. Snapshots are DataStores themselves, so they can be passed to
+ * OccurrenceExpander.
+ * <br>
+ * Writers are serialized by a lock but never block readers. Components are
+ * appended to arrays shared by the Snapshots, as each Snapshot only reads the
+ * elements that were stored before it was taken, so storing a component takes
+ * amortized constant time rather than copying the lists.
+ * <br>
+ * The getAll methods of the store return the lists of the current Snapshot,
+ * which cannot be modified.
+ *
+ * <pre>
+ * ConcurrentDataStore store = new ConcurrentDataStore();
+ * parser.addDataStore(store);
+ * // on any thread
+ * ConcurrentDataStore.Snapshot snapshot = store.snapshot();
+ * OccurrenceTable table = new OccurrenceExpander().expand(snapshot, from, to);
+ * </pre>
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see DefaultDataStore
+ */
+public class ConcurrentDataStore implements DataStore {
+	private final Object writeLock = new Object();
+	private volatile Snapshot current = new Snapshot();
+
+	/**
+	 * Constructor
+	 */
+	public ConcurrentDataStore() {
+	}
+
+	/**
+	 * Get a Snapshot of everything stored so far.
+	 *
+	 * @return the current Snapshot
+	 */
+	public Snapshot snapshot() {
+		return current;
+	}
+
+	/**
+	 * Get the version of the current Snapshot.
+	 *
+	 * @return the number of changes made to the store
+	 */
+	public long getVersion() {
+		return current.version;
+	}
+
+	public void storeTimezone(Timezone timezone) {
+		synchronized (writeLock) {
+			Snapshot next = current.next();
+			next.timezones = next.timezones.append(timezone);
+			current = next;
+		}
+	}
+
+	public void storeEvent(Event event) {
+		synchronized (writeLock) {
+			Snapshot next = current.next();
+			next.events = next.events.append(event);
+			current = next;
+		}
+	}
+
+	public void storeTodo(Todo todo) {
+		synchronized (writeLock) {
+			Snapshot next = current.next();
+			next.todos = next.todos.append(todo);
+			current = next;
+		}
+	}
+
+	public void storeJournal(Journal journal) {
+		synchronized (writeLock) {
+			Snapshot next = current.next();
+			next.journals = next.journals.append(journal);
+			current = next;
+		}
+	}
+
+	public void storeFreebusy(Freebusy freebusy) {
+		synchronized (writeLock) {
+			Snapshot next = current.next();
+			next.freebusys = next.freebusys.append(freebusy);
+			current = next;
+		}
+	}
+
+	public void storeVLocation(VLocation vlocation) {
+		synchronized (writeLock) {
+			Snapshot next = current.next();
+			next.vlocations = next.vlocations.append(vlocation);
+			current = next;
+		}
+	}
+
+	public void storeVResource(VResource vresource) {
+		synchronized (writeLock) {
+			Snapshot next = current.next();
+			next.vresources = next.vresources.append(vresource);
+			current = next;
+		}
+	}
+
+	public void storeVAvailability(VAvailability vavailability) {
+		synchronized (writeLock) {
+			Snapshot next = current.next();
+			next.vavailabilities = next.vavailabilities.append(vavailability);
+			current = next;
+		}
+	}
+
+	public void storeParticipant(Participant participant) {
+		synchronized (writeLock) {
+			Snapshot next = current.next();
+			next.participants = next.participants.append(participant);
+			current = next;
+		}
+	}
+
+	public void setMethod(Property method) {
+		synchronized (writeLock) {
+			Snapshot next = current.next();
+			next.method = method;
+			current = next;
+		}
+	}
+
+	public List<Event> getAllEvents() {
+		return current.getAllEvents();
+	}
+
+	public List<Journal> getAllJournals() {
+		return current.getAllJournals();
+	}
+
+	public List<Todo> getAllTodos() {
+		return current.getAllTodos();
+	}
+
+	public List<Participant> getAllParticipants() {
+		return current.getAllParticipants();
+	}
+
+	public List<Timezone> getAllTimezones() {
+		return current.getAllTimezones();
+	}
+
+	/**
+	 * An immutable view of a ConcurrentDataStore at one version. The store
+	 * methods throw UnsupportedOperationException.
+	 */
+	public static final class Snapshot implements DataStore {
+		private long version = 0;
+		private AppendList<Timezone> timezones = AppendList.empty();
+		private AppendList<Event> events = AppendList.empty();
+		private AppendList<Todo> todos = AppendList.empty();
+		private AppendList<Journal> journals = AppendList.empty();
+		private AppendList<Freebusy> freebusys = AppendList.empty();
+		private AppendList<VLocation> vlocations = AppendList.empty();
+		private AppendList<VResource> vresources = AppendList.empty();
+		private AppendList<VAvailability> vavailabilities = AppendList.empty();
+		private AppendList<Participant> participants = AppendList.empty();
+		private Property method = null;
+
+		private Snapshot() {
+		}
+
+		/**
+		 * Copy this Snapshot as the next version, to be changed by the writer
+		 * before it is published.
+		 */
+		private Snapshot next() {
+			Snapshot ret = new Snapshot();
+			ret.version = version + 1;
+			ret.timezones = timezones;
+			ret.events = events;
+			ret.todos = todos;
+			ret.journals = journals;
+			ret.freebusys = freebusys;
+			ret.vlocations = vlocations;
+			ret.vresources = vresources;
+			ret.vavailabilities = vavailabilities;
+			ret.participants = participants;
+			ret.method = method;
+			return ret;
+		}
+
+		/**
+		 * Get the version of the store this Snapshot shows.
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		public List<Event> getAllEvents() {
+			return events;
+		}
+
+		public List<Journal> getAllJournals() {
+			return journals;
+		}
+
+		public List<Todo> getAllTodos() {
+			return todos;
+		}
+
+		public List<Participant> getAllParticipants() {
+			return participants;
+		}
+
+		public List<Timezone> getAllTimezones() {
+			return timezones;
+		}
+
+		public List<Freebusy> getAllFreebusys() {
+			return freebusys;
+		}
+
+		public List<VLocation> getAllVLocations() {
+			return vlocations;
+		}
+
+		public List<VResource> getAllVResources() {
+			return vresources;
+		}
+
+		public List<VAvailability> getAllVAvailabilities() {
+			return vavailabilities;
+		}
+
+		/**
+		 * Get the METHOD property.
+		 *
+		 * @return The METHOD property, or null if not set
+		 */
+		public Property getMethod() {
+			return method;
+		}
+
+		public void storeTimezone(Timezone timezone) {
+			throw new UnsupportedOperationException("Snapshot is read-only");
+		}
+
+		public void storeEvent(Event event) {
+			throw new UnsupportedOperationException("Snapshot is read-only");
+		}
+
+		public void storeTodo(Todo todo) {
+			throw new UnsupportedOperationException("Snapshot is read-only");
+		}
+
+		public void storeJournal(Journal journal) {
+			throw new UnsupportedOperationException("Snapshot is read-only");
+		}
+
+		public void storeFreebusy(Freebusy freebusy) {
+			throw new UnsupportedOperationException("Snapshot is read-only");
+		}
+
+		public void storeVLocation(VLocation vlocation) {
+			throw new UnsupportedOperationException("Snapshot is read-only");
+		}
+
+		public void storeVResource(VResource vresource) {
+			throw new UnsupportedOperationException("Snapshot is read-only");
+		}
+
+		public void storeVAvailability(VAvailability vavailability) {
+			throw new UnsupportedOperationException("Snapshot is read-only");
+		}
+
+		public void storeParticipant(Participant participant) {
+			throw new UnsupportedOperationException("Snapshot is read-only");
+		}
+
+		public void setMethod(Property method) {
+			throw new UnsupportedOperationException("Snapshot is read-only");
+		}
+	}
+
+	/**
+	 * An unmodifiable list of the first size elements of an array. Appending
+	 * writes the next element of the array, or of a larger copy when it is
+	 * full, and returns a new list, leaving this one unchanged. This is safe as
+	 * long as only the longest list sharing an array is appended to, which the
+	 * write lock ensures.
+	 */
+	private static final class AppendList<T> extends AbstractList<T> implements
+			RandomAccess {
+		private static final AppendList<Object> EMPTY = new AppendList<Object>(
+				new Object[0], 0);
+		private final Object[] items;
+		private final int size;
+
+		private AppendList(Object[] items, int size) {
+			this.items = items;
+			this.size = size;
+		}
+
+		@SuppressWarnings("unchecked")
+		static <T> AppendList<T> empty() {
+			return (AppendList<T>) EMPTY;
+		}
+
+		AppendList<T> append(T item) {
+			Object[] array = items;
+			if (size == array.length)
+				array = Arrays.copyOf(array, Math.max(8, size * 2));
+			array[size] = item;
+			return new AppendList<T>(array, size + 1);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public T get(int index) {
+			if (index < 0 || index >= size)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+						+ size);
+			return (T) items[index];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -20,11 +20,14 @@
 
 package us.k5n.ical;
 
+import java.time.DateTimeException;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.Calendar;
 
+import com.google.ical.util.YearTable;
+
 /**
  * iCalendar Date/Date-Time class that corresponds to date-related iCalendar properties.
  *
@@ -249,9 +252,13 @@ public class Date extends Property implements Comparable<Date> {
 								+ "' in Date " + this.getName());
 					}
 				} catch (Exception e1) {
-					System.err.println("Ignoring unrecognized timezone '" + tzid
-							+ "' in Date " + this.getName());
+					TimezoneRegistry registry = TimezoneRegistry.getCurrent();
+					if (registry == null || registry.getTimeZone(tzid) == null)
+						System.err.println("Ignoring unrecognized timezone '" + tzid
+								+ "' in Date " + this.getName());
 				}
+			} else if (aname.equals("RANGE")) {
+				// RECURRENCE-ID only; see Event.isThisAndFuture()
 			} else {
 				System.out.println("Ignoring unknown date attribute " + a.name
 						+ " in Date " + this.getName());
@@ -341,8 +348,11 @@ public class Date extends Property implements Comparable<Date> {
 			ZoneId tz = null;
 			try {
 				tz = ZoneId.of(this.tzid);
-			} catch (IllegalArgumentException e1) {
-				if (parseMode == PARSE_STRICT)
+			} catch (DateTimeException e1) {
+				// Not an IANA timezone, but it may be defined by a VTIMEZONE
+				tz = TimezoneRegistry.currentOffsetAt(this.tzid, year, month, day,
+						hour, minute, second);
+				if (tz == null && parseMode == PARSE_STRICT)
 					throw new BogusDataException(
 							"Invalid timezone '" + this.tzid + "'", icalStr);
 			}
@@ -522,7 +532,8 @@ public class Date extends Property implements Comparable<Date> {
 		} catch (Exception e1) {
 			// Invalid timezone
 		}
-		if (tz != null) {
+		// A floating time is written as the same local time for every timezone
+		if (tz != null && !(floating && this.tzid == null)) {
 			ZonedDateTime dt = ZonedDateTime.of(year, month, day, hour, minute, second, 0,
 					tz);
 			ZonedDateTime utc = dt.withZoneSameInstant(ZoneOffset.UTC);
@@ -644,16 +655,13 @@ public class Date extends Property implements Comparable<Date> {
 		return Utils.getDayOfWeek(year, month, day);
 	}
 
+	/**
+	 * Get the day of the year, where 1 is January 1.
+	 * 
+	 * @return
+	 */
 	public int getDayOfYear() {
-		int[] days = { -1, 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
-		int[] ldays = { -1, 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
-
-		int ret = 0;
-		for (int i = 1; i < this.month; i++) {
-			ret += (this.year % 4 == 0 ? ldays[i] : days[i]);
-		}
-		ret += this.day;
-		return ret;
+		return YearTable.forYear(this.year).dayOfYear(this.month, this.day) + 1;
 	}
 
 	/**
@@ -664,8 +672,11 @@ public class Date extends Property implements Comparable<Date> {
 	 * @return
 	 */
 	public int getWeekOfYear() {
-		int dayOfYear = getDayOfYear();
-		int jan1DayOfWeek = Utils.getDayOfWeek(getYear(), 1, 1);
+		return getWeekOfYear(YearTable.forYear(this.year), getDayOfYear());
+	}
+
+	private static int getWeekOfYear(YearTable table, int dayOfYear) {
+		int jan1DayOfWeek = table.firstDayOfWeekInMonth(1).jsDayNum;
 
 		// Calculate the offset of the first week according to ISO 8601
 		int firstWeekOffset = (jan1DayOfWeek <= 4) ? jan1DayOfWeek - 1 : jan1DayOfWeek - 8;
@@ -677,16 +688,14 @@ public class Date extends Property implements Comparable<Date> {
 		// Handle the case where adjustedDayOfYear results in 0 or negative, indicating
 		// that it belongs to the last week of the previous year
 		if (adjustedDayOfYear <= 0) {
-			try {
-				return (new Date("DTSTART", getYear() - 1, 12, 31)).getWeekOfYear();
-			} catch (BogusDataException e) {
-				e.printStackTrace();
-			}
+			YearTable previous = YearTable.forYear(table.year() - 1);
+			return getWeekOfYear(previous, previous.yearLength());
 		}
 
 		// Handle the case where the week number should actually belong to the next year
 		if (weekNumber > 52) {
-			int nextYearJan1DayOfWeek = Utils.getDayOfWeek(getYear() + 1, 1, 1);
+			int nextYearJan1DayOfWeek = YearTable.forYear(table.year() + 1)
+					.firstDayOfWeekInMonth(1).jsDayNum;
 			if (nextYearJan1DayOfWeek <= 3) {
 				return 1;
 			}
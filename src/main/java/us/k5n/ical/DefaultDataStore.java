@@ -51,6 +51,8 @@ public class DefaultDataStore implements DataStore {
 	String url;
 	/** VCALENDAR-level LAST-MODIFIED (RFC 7986) */
 	Date lastModified;
+	/** The VTIMEZONEs stored, compiled for converting dates with their TZIDs */
+	final TimezoneRegistry timezoneRegistry = new TimezoneRegistry();
 
 	/**
 	 * Constructor
@@ -72,6 +74,7 @@ public class DefaultDataStore implements DataStore {
 	 */
 	public void storeTimezone(Timezone timezone) {
 		timezones.add(timezone);
+		timezoneRegistry.register(timezone);
 	}
 
 	/**
@@ -173,6 +176,17 @@ public class DefaultDataStore implements DataStore {
 		return timezones;
 	}
 
+	/**
+	 * Get the VTIMEZONEs stored, compiled so that dates with their TZIDs can be
+	 * converted after parsing and from any thread. OccurrenceExpander uses this
+	 * when no other TimezoneRegistry has been set.
+	 * 
+	 * @return the TimezoneRegistry of this store
+	 */
+	public TimezoneRegistry getTimezoneRegistry() {
+		return timezoneRegistry;
+	}
+
 	/**
 	 * Get all Freebusy objects.
 	 *
@@ -382,7 +396,7 @@ public class DefaultDataStore implements DataStore {
 		for (Timezone tz : timezones) {
 			sb.append(tz.toICalendar());
 		}
-		for (Event event : events) {
+		for (Event event : getAllEvents()) {
 			sb.append(event.toICalendar());
 		}
 		for (Todo todo : todos) {
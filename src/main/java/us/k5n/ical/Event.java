@@ -145,6 +145,11 @@ public class Event implements Constants {
 	protected RelatedTo relatedTo = null;
 	/** Exception rule (RFC 2445, deprecated in RFC 5545) */
 	protected Rrule exrule = null;
+	/**
+	 * Instance of a recurring event that this event overrides (RFC 5545 Section
+	 * 3.8.4.4)
+	 */
+	protected Date recurrenceId = null;
 
 	// TODO: multiple summaries, descriptions with different LANGUAGE values
 	// TODO: auto-change transp if either all-day or no duration
@@ -376,6 +381,8 @@ public class Event implements Constants {
 			exrule = new Rrule(icalStr, parseMethod);
 		} else if (up.startsWith("RRULE")) {
 			rrule = new Rrule(icalStr, parseMethod);
+		} else if (up.startsWith("RECURRENCE-ID")) {
+			recurrenceId = new Date(icalStr);
 		} else if (up.startsWith("EXDATE")) {
 			// We could implement a class for EXDATE, but it's really just a Date
 			// modified to have mulitple date values.
@@ -915,15 +922,52 @@ public class Event implements Constants {
 		this.relatedTo = relatedTo;
 	}
 
+	/**
+	 * Get the RECURRENCE-ID of the instance of a recurring event that this event
+	 * overrides (RFC 5545, Section 3.8.4.4). The recurring event is the Event
+	 * with the same UID and no RECURRENCE-ID.
+	 *
+	 * @return the RECURRENCE-ID, or null if this event is not an override
+	 */
+	public Date getRecurrenceId() {
+		return recurrenceId;
+	}
+
+	/**
+	 * Set the RECURRENCE-ID of the instance of a recurring event that this event
+	 * overrides (RFC 5545, Section 3.8.4.4). Add a RANGE=THISANDFUTURE attribute
+	 * to override that instance and all later ones.
+	 *
+	 * @param recurrenceId
+	 *                     the RECURRENCE-ID, or null
+	 */
+	public void setRecurrenceId(Date recurrenceId) {
+		this.recurrenceId = recurrenceId;
+	}
+
+	/**
+	 * Does this event override all instances of the recurring event from its
+	 * RECURRENCE-ID on (RANGE=THISANDFUTURE), rather than just that one?
+	 */
+	public boolean isThisAndFuture() {
+		if (recurrenceId == null)
+			return false;
+		Attribute range = recurrenceId.getNamedAttribute("RANGE");
+		return range != null && range.value.equalsIgnoreCase("THISANDFUTURE");
+	}
+
 	/**
 	 * Get a List of Date objects that contain the recurrance dates (or null if
-	 * there are none).
+	 * there are none). The EXDATEs and RDATEs of this Event are applied, but
+	 * not the Events with its UID and a RECURRENCE-ID that move or cancel
+	 * single instances, since an Event does not know about them. Use
+	 * {@link OccurrenceExpander} or {@link AgendaIterator} to expand a
+	 * DataStore with its overrides applied.
 	 * 
-	 * @return
+	 * @return the recurrance dates, not including DTSTART
 	 */
 	public List<Date> getRecurranceDates() {
 		String tzid = null;
-		// TODO: add support for exceptions
 		if (this.rrule == null)
 			return null;
 		if (this.startDate == null)
@@ -961,8 +1005,14 @@ public class Event implements Constants {
 			ret.append(createdDate.toICalendar());
 		if (startDate != null)
 			ret.append(startDate.toICalendar());
+		if (recurrenceId != null)
+			ret.append(recurrenceId.toICalendar());
 		if (endDate != null)
 			ret.append(endDate.toICalendar());
+		// a Duration created from a number of seconds has no text to write
+		if (duration != null && duration.value != null
+				&& duration.value.length() > 0)
+			ret.append(duration.toICalendar());
 		if (dtstamp != null)
 			ret.append(dtstamp.toICalendar());
 		if (lastModified != null)
@@ -974,16 +1024,6 @@ public class Event implements Constants {
 			String exruleStr = exrule.toICalendar().replace("RRULE:", "EXRULE:");
 			ret.append(exruleStr);
 		}
-		if (rdates != null && rdates.size() > 0) {
-			ret.append("RDATE:");
-			for ( int i = 0; i < rdates.size(); i++ ) {
-				if ( i > 0 ) {
-					ret.append(',');
-				}
-				ret.append(Utils.DateToYYYYMMDD(rdates.get(i)));
-			}
-			ret.append(CRLF);
-		}
 		if (classification != null)
 			ret.append(classification.toICalendar());
 		if (this.exdates != null && this.exdates.size() > 0) {
@@ -1015,6 +1055,7 @@ public class Event implements Constants {
 					sb.append(args[1]);
 				}
 				sb.append(CRLF);
+				ret.append(sb.toString());
 			}
 		}
 		if (categories != null)
@@ -1032,6 +1073,8 @@ public class Event implements Constants {
 		ret.append(transp == TRANSP_OPAQUE ? "TRANSP:OPAQUE"
 				: "TRANSP:TRANSPARENT");
 		ret.append(CRLF);
+		if (organizer != null)
+			ret.append(organizer.toICalendar());
 		if (this.attendees != null) {
 			for (int i = 0; i < this.attendees.size(); i++) {
 				Attendee attendee = (Attendee) this.attendees.get(i);
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+/**
+ * Defines an interface for following the progress of an
+ * OccurrenceExpander and for cancelling it.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see OccurrenceExpander
+ */
+public interface ExpansionListener {
+
+	/**
+	 * This method will be called each time a group of components has been
+	 * expanded. It may be called from several threads at once.
+	 *
+	 * @param completed
+	 *                  the number of components expanded so far
+	 * @param total
+	 *                  the total number of components to expand
+	 * @return false to cancel the expansion
+	 */
+	public boolean expansionProgress(int completed, int total);
+
+}
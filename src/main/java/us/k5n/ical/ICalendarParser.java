@@ -57,10 +57,14 @@ public class ICalendarParser extends CalendarParser {
 	Property calscale = null;
 	String language = "EN"; // default language setting
 	Timezone currentTimezone = null; // current timezone being parsed
+	/** Timezones defined by the VTIMEZONE components parsed so far */
+	protected TimezoneRegistry timezoneRegistry = new TimezoneRegistry();
 	VLocation currentVLocation = null; // current vlocation being parsed
 	VResource currentVResource = null; // current vresource being parsed
 	Participant currentParticipant = null; // current participant being parsed
 	VAvailability currentVAvailability = null; // current vavailability being parsed
+	/** Shares repeated strings between the properties parsed, if not null */
+	protected StringInterner stringInterner = null;
 	/** Enable streaming parsing for large files */
 	protected boolean streamingMode = false;
 	/** Maximum component size for streaming mode (lines) */
@@ -212,6 +216,49 @@ public class ICalendarParser extends CalendarParser {
 		return performanceMonitoring ? System.currentTimeMillis() - parseStartTime : 0;
 	}
 
+	/**
+	 * Get the timezones defined by the VTIMEZONE components that have been
+	 * parsed. These are used when converting dates with a TZID that is not an
+	 * IANA timezone ID.
+	 *
+	 * @return the TimezoneRegistry
+	 */
+	public TimezoneRegistry getTimezoneRegistry() {
+		return timezoneRegistry;
+	}
+
+	/**
+	 * Set the TimezoneRegistry to use, so that several parsers can share the
+	 * timezones they find.
+	 *
+	 * @param timezoneRegistry the TimezoneRegistry
+	 */
+	public void setTimezoneRegistry(TimezoneRegistry timezoneRegistry) {
+		this.timezoneRegistry = timezoneRegistry;
+	}
+
+	/**
+	 * Get the StringInterner used to share repeated strings between the
+	 * properties parsed.
+	 *
+	 * @return the StringInterner, or null if strings are not shared
+	 */
+	public StringInterner getStringInterner() {
+		return stringInterner;
+	}
+
+	/**
+	 * Set a StringInterner to share repeated parameter names and values and
+	 * property values between the properties parsed, which reduces the memory
+	 * used by large calendars. Several parsers can share one. By default
+	 * strings are not shared.
+	 *
+	 * @param stringInterner the StringInterner, or null to stop sharing
+	 */
+	public void setStringInterner(StringInterner stringInterner) {
+		this.stringInterner = stringInterner;
+	}
+
 	/**
 	 * Parse a File.
 	 * 
@@ -221,6 +268,19 @@ public class ICalendarParser extends CalendarParser {
 	 * @return true if no parse errors encountered
 	 */
 	public boolean parse(java.io.Reader reader) throws IOException {
+		TimezoneRegistry previousRegistry = TimezoneRegistry
+				.setCurrent(timezoneRegistry);
+		StringInterner previousInterner = StringInterner
+				.setCurrent(stringInterner);
+		try {
+			return parseWithRegistry(reader);
+		} finally {
+			StringInterner.setCurrent(previousInterner);
+			TimezoneRegistry.setCurrent(previousRegistry);
+		}
+	}
+
+	private boolean parseWithRegistry(java.io.Reader reader) throws IOException {
 		if (performanceMonitoring) {
 			parseStartTime = System.currentTimeMillis();
 			linesProcessed = 0;
@@ -237,6 +297,10 @@ public class ICalendarParser extends CalendarParser {
 		List<String> textLines;
 		List<String> standardTextLines = null;
 		List<String> daylightTextLines = null;
+		int subStartLineNo = 0; // start of STANDARD or DAYLIGHT
+		// STANDARD and DAYLIGHT components are parsed before their VTIMEZONE
+		List<TimezoneStandard> pendingStandards = new ArrayList<TimezoneStandard>();
+		List<TimezoneDaylight> pendingDaylight = new ArrayList<TimezoneDaylight>();
 		boolean done = false;
 
 		try (BufferedReader r = new BufferedReader(reader, 16384)) { // Use try-with-resources for proper resource management
@@ -429,8 +493,8 @@ public class ICalendarParser extends CalendarParser {
 							try {
 								Property nameProp = new Property(line, getParseMethod());
 								for (int i = 0; i < dataStores.size(); i++) {
-									DefaultDataStore ds = (DefaultDataStore) dataStores.get(i);
-									ds.setName(nameProp.value);
+									if (dataStores.get(i) instanceof DefaultDataStore)
+										((DefaultDataStore) dataStores.get(i)).setName(nameProp.value);
 								}
 							} catch (ParseException e) {
 								reportParseError(new ParseError(ln,
@@ -440,8 +504,8 @@ public class ICalendarParser extends CalendarParser {
 							try {
 								Property calAddr = new Property(line, getParseMethod());
 								for (int i = 0; i < dataStores.size(); i++) {
-									DefaultDataStore ds = (DefaultDataStore) dataStores.get(i);
-									ds.setCalendarAddress(calAddr.value);
+									if (dataStores.get(i) instanceof DefaultDataStore)
+										((DefaultDataStore) dataStores.get(i)).setCalendarAddress(calAddr.value);
 								}
 							} catch (ParseException e) {
 								reportParseError(new ParseError(ln,
@@ -452,8 +516,8 @@ public class ICalendarParser extends CalendarParser {
 							try {
 								Property descProp = new Property(line, getParseMethod());
 								for (int i = 0; i < dataStores.size(); i++) {
-									DefaultDataStore ds = (DefaultDataStore) dataStores.get(i);
-									ds.setDescription(descProp.value);
+									if (dataStores.get(i) instanceof DefaultDataStore)
+										((DefaultDataStore) dataStores.get(i)).setDescription(descProp.value);
 								}
 							} catch (ParseException e) {
 								reportParseError(new ParseError(ln,
@@ -464,8 +528,8 @@ public class ICalendarParser extends CalendarParser {
 							try {
 								Property uidProp = new Property(line, getParseMethod());
 								for (int i = 0; i < dataStores.size(); i++) {
-									DefaultDataStore ds = (DefaultDataStore) dataStores.get(i);
-									ds.setUid(uidProp.value);
+									if (dataStores.get(i) instanceof DefaultDataStore)
+										((DefaultDataStore) dataStores.get(i)).setUid(uidProp.value);
 								}
 							} catch (ParseException e) {
 								reportParseError(new ParseError(ln,
@@ -476,8 +540,8 @@ public class ICalendarParser extends CalendarParser {
 							try {
 								Property urlProp = new Property(line, getParseMethod());
 								for (int i = 0; i < dataStores.size(); i++) {
-									DefaultDataStore ds = (DefaultDataStore) dataStores.get(i);
-									ds.setUrl(urlProp.value);
+									if (dataStores.get(i) instanceof DefaultDataStore)
+										((DefaultDataStore) dataStores.get(i)).setUrl(urlProp.value);
 								}
 							} catch (ParseException e) {
 								reportParseError(new ParseError(ln,
@@ -488,8 +552,8 @@ public class ICalendarParser extends CalendarParser {
 							try {
 								Date lastMod = new Date(line);
 								for (int i = 0; i < dataStores.size(); i++) {
-									DefaultDataStore ds = (DefaultDataStore) dataStores.get(i);
-									ds.setLastModified(lastMod);
+									if (dataStores.get(i) instanceof DefaultDataStore)
+										((DefaultDataStore) dataStores.get(i)).setLastModified(lastMod);
 								}
 							} catch (ParseException | BogusDataException e) {
 								reportParseError(new ParseError(ln,
@@ -522,6 +586,13 @@ public class ICalendarParser extends CalendarParser {
 							state = STATE_VCALENDAR;
 							try {
 								currentTimezone = new Timezone(this, startLineNo, textLines);
+								for (TimezoneStandard standard : pendingStandards)
+									currentTimezone.addStandard(standard);
+								for (TimezoneDaylight daylight : pendingDaylight)
+									currentTimezone.addDaylight(daylight);
+								// Register even if the TZID is not valid (e.g. contains
+								// spaces) so dates that use it can still be converted.
+								timezoneRegistry.register(currentTimezone);
 								if (currentTimezone.isValid()) {
 									for (int i = 0; i < dataStores.size(); i++) {
 										DataStore ds = (DataStore) dataStores.get(i);
@@ -530,20 +601,28 @@ public class ICalendarParser extends CalendarParser {
 									if (performanceMonitoring) {
 										componentsParsed++;
 									}
+								} else {
+									// Not stored, but the stores can still expand dates
+									// that use it after parsing
+									for (int i = 0; i < dataStores.size(); i++) {
+										if (dataStores.get(i) instanceof DefaultDataStore)
+											((DefaultDataStore) dataStores.get(i)).timezoneRegistry
+													.register(currentTimezone);
+									}
 								}
 							} catch (Exception e) {
 								reportParseError(new ParseError(startLineNo, "Error parsing VTIMEZONE: " + e.getMessage(), line));
 							}
 							currentTimezone = null;
+							pendingStandards.clear();
+							pendingDaylight.clear();
 							textLines.clear(); // truncate List
 						} else if (lineUp.startsWith("BEGIN:STANDARD")) {
 							state = STATE_VTIMEZONE_STANDARD;
-							startLineNo = ln; // mark starting line number
+							subStartLineNo = ln; // mark starting line number
 						} else if (lineUp.startsWith("BEGIN:DAYLIGHT")) {
 							state = STATE_VTIMEZONE_DAYLIGHT;
-							startLineNo = ln; // mark starting line number
-						} else if (lineUp.startsWith("BEGIN:VTIMEZONE")) {
-							currentTimezone = new Timezone(this, ln, textLines);
+							subStartLineNo = ln; // mark starting line number
 						}
 						break;
 
@@ -632,9 +711,9 @@ public class ICalendarParser extends CalendarParser {
 						standardTextLines.add(line);
 						if (lineUp.startsWith("END:STANDARD")) {
 							state = STATE_VTIMEZONE;
-							TimezoneStandard standard = new TimezoneStandard(this, startLineNo, standardTextLines);
-							if (standard.isValid() && currentTimezone != null) {
-								currentTimezone.addStandard(standard);
+							TimezoneStandard standard = new TimezoneStandard(this, subStartLineNo, standardTextLines);
+							if (standard.isValid()) {
+								pendingStandards.add(standard);
 							}
 							standardTextLines = null;
 						}
@@ -648,9 +727,9 @@ public class ICalendarParser extends CalendarParser {
 						daylightTextLines.add(line);
 						if (lineUp.startsWith("END:DAYLIGHT")) {
 							state = STATE_VTIMEZONE;
-							TimezoneDaylight daylight = new TimezoneDaylight(this, startLineNo, daylightTextLines);
-							if (daylight.isValid() && currentTimezone != null) {
-								currentTimezone.addDaylight(daylight);
+							TimezoneDaylight daylight = new TimezoneDaylight(this, subStartLineNo, daylightTextLines);
+							if (daylight.isValid()) {
+								pendingDaylight.add(daylight);
 							}
 							daylightTextLines = null;
 						}
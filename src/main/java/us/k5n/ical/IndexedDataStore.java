@@ -0,0 +1,712 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A DataStore that indexes Event, Todo and Journal objects by UID, so that
+ * they can be found without scanning and a newer version of a component
+ * replaces the one already stored rather than being added alongside it. This
+ * makes re-importing an updated calendar, or applying iTIP updates, keep a
+ * single copy of each component.
+ * <br>
+ * When a component with the same UID (and, for an Event, the same
+ * RECURRENCE-ID) is stored again, the one with the higher SEQUENCE is kept. If
+ * they have the same SEQUENCE, the one with the later DTSTAMP is kept, and
+ * then the one with the later LAST-MODIFIED. If none of these differ, the one
+ * stored last is kept. A replacement takes the place of the old component in
+ * the list returned by getAllEvents(), getAllTodos() or getAllJournals(), and
+ * a removed component's place is taken by the last one in its list, so that
+ * removing does not move the others. Components without a UID are always
+ * added.
+ * <br>
+ * The store also keeps a TimeIndex of the times its events, todos and
+ * journals occupy, so findOverlapping() can answer "what happens between
+ * these times" by expanding only the components that may occur then. Dates
+ * with a TZID are converted using the VTIMEZONEs stored here (which should be
+ * stored before the components that use them, as they are when they come
+ * first in a file) or the IANA timezone with that ID.
+ * <br>
+ * Each event, todo and journal stored is given an id, numbered from 0 in the
+ * order they are stored. A replacement keeps the id of the component it
+ * replaces, and the id of a removed component is given to the next one
+ * added, so the ids stay as few as the components stored. search() finds
+ * components by the words of their SUMMARY, DESCRIPTION, LOCATION and
+ * CATEGORIES using an inverted index that is built the first time it is
+ * searched and kept up to date from then on. findByAttendee(),
+ * findByOrganizer() and findByCategory() use indexes of calendar addresses and
+ * categories that are built and kept up to date the same way. These return a
+ * PostingList of ids, which can be combined with the results of other
+ * searches and passed to findOverlapping() to expand only the components
+ * found.
+ * <br>
+ * Each change to the events, todos and journals increases a modification
+ * sequence and is kept in a bounded change log, so changesSince() can give a
+ * client that polls with a sync token just the components changed since,
+ * and ChangeListeners are told of each change as it is made. Each stored
+ * component has an ETag that changes when it is replaced.
+ * <br>
+ * The lists returned by the getAll methods should not be modified, since the
+ * indexes refer to positions in them.
+ * 
+ * @author Craig Knudsen, craig@k5n.us
+ * @see DefaultDataStore
+ */
+public class IndexedDataStore extends DefaultDataStore {
+	/** The number of changes kept for changesSince() unless set otherwise */
+	public static final int DEFAULT_CHANGE_LOG_CAPACITY = 10000;
+	/** Position in events of each Event by UID and RECURRENCE-ID */
+	private final Map<String, Integer> eventIndex = new HashMap<String, Integer>();
+	/** Position in todos of each Todo by UID */
+	private final Map<String, Integer> todoIndex = new HashMap<String, Integer>();
+	/** Position in journals of each Journal by UID */
+	private final Map<String, Integer> journalIndex = new HashMap<String, Integer>();
+	private final OccurrenceExpander expander = new OccurrenceExpander()
+			.setTimezoneRegistry(timezoneRegistry);
+	/** The times occupied by the events, todos and journals */
+	private final TimeIndex timeIndex = new TimeIndex(expander);
+	/** The events, todos and journals by id, or null once removed */
+	private final List<Object> components = new ArrayList<Object>();
+	/** The ids of removed components, to give to the next ones added */
+	private final ArrayDeque<Integer> freeIds = new ArrayDeque<Integer>();
+	/** The id of each event, todo and journal */
+	private final Map<Object, Integer> componentIds = new IdentityHashMap<Object, Integer>();
+	/** The key of each event, todo and journal with a UID in its UID index */
+	private final Map<Object, String> keys = new IdentityHashMap<Object, String>();
+	/** The words of the events, todos and journals, built when first searched */
+	private TextIndex textIndex = null;
+	/** The addresses and categories of the events, todos and journals */
+	private PropertyIndex propertyIndex = null;
+	/** The recent changes to the events, todos and journals */
+	private final ChangeLog changeLog = new ChangeLog(DEFAULT_CHANGE_LOG_CAPACITY);
+	/** The modification sequence that last stored each component, by id */
+	private long[] modified = new long[16];
+	private final List<ChangeListener> changeListeners = new ArrayList<ChangeListener>();
+
+	/**
+	 * Constructor
+	 */
+	public IndexedDataStore() {
+		super();
+	}
+
+	/**
+	 * Store a Timezone, registering it for converting the dates of the
+	 * components stored after it.
+	 */
+	@Override
+	public void storeTimezone(Timezone timezone) {
+		super.storeTimezone(timezone);
+		expander.setTimezoneRegistry(timezoneRegistry);
+	}
+
+	/**
+	 * Store an Event, replacing an older version with the same UID and
+	 * RECURRENCE-ID.
+	 */
+	@Override
+	public void storeEvent(Event event) {
+		String key = key(event.getUid(), event.getRecurrenceId());
+		Integer pos = key == null ? null : eventIndex.get(key);
+		if (pos == null) {
+			if (key != null) {
+				eventIndex.put(key, events.size());
+				keys.put(event, key);
+			}
+			events.add(event);
+			index(event, newId());
+			changed(ComponentChange.ADDED, event);
+		} else {
+			Event old = events.get(pos);
+			if (!isOlder(event.getSequence(), event.getDtstamp(),
+					event.getLastModified(), old.getSequence(), old.getDtstamp(),
+					old.getLastModified())) {
+				events.set(pos, event);
+				keys.remove(old);
+				keys.put(event, key);
+				index(event, unindex(old));
+				changed(ComponentChange.MODIFIED, event);
+			}
+		}
+	}
+
+	/**
+	 * Store a Todo, replacing an older version with the same UID.
+	 */
+	@Override
+	public void storeTodo(Todo todo) {
+		String key = key(todo.getUid(), null);
+		Integer pos = key == null ? null : todoIndex.get(key);
+		if (pos == null) {
+			if (key != null) {
+				todoIndex.put(key, todos.size());
+				keys.put(todo, key);
+			}
+			todos.add(todo);
+			index(todo, newId());
+			changed(ComponentChange.ADDED, todo);
+		} else {
+			Todo old = todos.get(pos);
+			if (!isOlder(todo.getSequence(), todo.getDtstamp(),
+					todo.getLastModified(), old.getSequence(), old.getDtstamp(),
+					old.getLastModified())) {
+				todos.set(pos, todo);
+				keys.remove(old);
+				keys.put(todo, key);
+				index(todo, unindex(old));
+				changed(ComponentChange.MODIFIED, todo);
+			}
+		}
+	}
+
+	/**
+	 * Store a Journal, replacing an older version with the same UID.
+	 */
+	@Override
+	public void storeJournal(Journal journal) {
+		String key = key(journal.getUid(), null);
+		Integer pos = key == null ? null : journalIndex.get(key);
+		if (pos == null) {
+			if (key != null) {
+				journalIndex.put(key, journals.size());
+				keys.put(journal, key);
+			}
+			journals.add(journal);
+			index(journal, newId());
+			changed(ComponentChange.ADDED, journal);
+		} else {
+			Journal old = journals.get(pos);
+			if (!isOlder(journal.getSequence(), journal.getDtstamp(),
+					journal.getLastModified(), old.getSequence(), old.getDtstamp(),
+					old.getLastModified())) {
+				journals.set(pos, journal);
+				keys.remove(old);
+				keys.put(journal, key);
+				index(journal, unindex(old));
+				changed(ComponentChange.MODIFIED, journal);
+			}
+		}
+	}
+
+	/**
+	 * Get the Event with the specified UID that has no RECURRENCE-ID.
+	 * 
+	 * @param uid
+	 *          The UID value
+	 * @return The Event, or null if there is none
+	 */
+	public Event getEventByUid(String uid) {
+		return getEventByUid(uid, null);
+	}
+
+	/**
+	 * Get the Event with the specified UID and RECURRENCE-ID, which overrides
+	 * one instance of a recurring Event.
+	 * 
+	 * @param uid
+	 *          The UID value
+	 * @param recurrenceId
+	 *          The RECURRENCE-ID, or null for the Event that has none
+	 * @return The Event, or null if there is none
+	 */
+	public Event getEventByUid(String uid, Date recurrenceId) {
+		Integer pos = eventIndex.get(key(uid, recurrenceId));
+		return pos == null ? null : events.get(pos);
+	}
+
+	/**
+	 * Get the Todo with the specified UID.
+	 * 
+	 * @param uid
+	 *          The UID value
+	 * @return The Todo, or null if there is none
+	 */
+	public Todo getTodoByUid(String uid) {
+		Integer pos = todoIndex.get(key(uid, null));
+		return pos == null ? null : todos.get(pos);
+	}
+
+	/**
+	 * Get the Journal with the specified UID.
+	 * 
+	 * @param uid
+	 *          The UID value
+	 * @return The Journal, or null if there is none
+	 */
+	public Journal getJournalByUid(String uid) {
+		Integer pos = journalIndex.get(key(uid, null));
+		return pos == null ? null : journals.get(pos);
+	}
+
+	/**
+	 * Remove the Event with the specified UID and RECURRENCE-ID. The last event
+	 * stored takes its place in the list returned by getAllEvents().
+	 * 
+	 * @param uid
+	 *          The UID value
+	 * @param recurrenceId
+	 *          The RECURRENCE-ID, or null for the Event that has none
+	 * @return The Event removed, or null if there is none
+	 */
+	public Event removeEvent(String uid, Date recurrenceId) {
+		return remove(events, eventIndex, key(uid, recurrenceId));
+	}
+
+	/**
+	 * Remove the Todo with the specified UID. The last todo stored takes its
+	 * place in the list returned by getAllTodos().
+	 * 
+	 * @param uid
+	 *          The UID value
+	 * @return The Todo removed, or null if there is none
+	 */
+	public Todo removeTodo(String uid) {
+		return remove(todos, todoIndex, key(uid, null));
+	}
+
+	/**
+	 * Remove the Journal with the specified UID. The last journal stored takes
+	 * its place in the list returned by getAllJournals().
+	 * 
+	 * @param uid
+	 *          The UID value
+	 * @return The Journal removed, or null if there is none
+	 */
+	public Journal removeJournal(String uid) {
+		return remove(journals, journalIndex, key(uid, null));
+	}
+
+	private <T> T remove(List<T> list, Map<String, Integer> index, String key) {
+		Integer pos = key == null ? null : index.remove(key);
+		if (pos == null)
+			return null;
+		T ret = list.get(pos);
+		// move the last one into the hole, so no other positions change
+		T last = list.remove(list.size() - 1);
+		if (pos < list.size()) {
+			list.set(pos, last);
+			String lastKey = keys.get(last);
+			if (lastKey != null)
+				index.put(lastKey, pos);
+		}
+		freeIds.push(unindex(ret));
+		changed(ComponentChange.REMOVED, ret);
+		keys.remove(ret);
+		return ret;
+	}
+
+	/**
+	 * Get an id for a new event, todo or journal, reusing the id of one
+	 * removed if there is one.
+	 */
+	private int newId() {
+		if (!freeIds.isEmpty())
+			return freeIds.pop();
+		components.add(null);
+		return components.size() - 1;
+	}
+
+	/**
+	 * Give a stored event, todo or journal an id and add it to the indexes.
+	 */
+	private void index(Object component, int id) {
+		timeIndex.add(component);
+		components.set(id, component);
+		componentIds.put(component, id);
+		if (textIndex != null)
+			textIndex.add(id, component);
+		if (propertyIndex != null)
+			propertyIndex.add(id, component);
+	}
+
+	/**
+	 * Remove a replaced or removed event, todo or journal from the indexes.
+	 *
+	 * @return the id it had
+	 */
+	private int unindex(Object component) {
+		timeIndex.remove(component);
+		int id = componentIds.remove(component);
+		components.set(id, null);
+		if (textIndex != null)
+			textIndex.remove(id, component);
+		if (propertyIndex != null)
+			propertyIndex.remove(id, component);
+		return id;
+	}
+
+	/**
+	 * Record a change to the change log, give a stored component its ETag and
+	 * tell the listeners.
+	 */
+	private void changed(int type, Object component) {
+		String componentType;
+		Uid uid;
+		Date recurrenceId = null;
+		if (component instanceof Event) {
+			componentType = "VEVENT";
+			uid = ((Event) component).getUid();
+			recurrenceId = ((Event) component).getRecurrenceId();
+		} else if (component instanceof Todo) {
+			componentType = "VTODO";
+			uid = ((Todo) component).getUid();
+		} else {
+			componentType = "VJOURNAL";
+			uid = ((Journal) component).getUid();
+		}
+		ComponentChange change = changeLog.record(type, componentType,
+				uid == null ? null : uid.getValue(), recurrenceId,
+				keys.get(component));
+		if (type != ComponentChange.REMOVED) {
+			int id = componentIds.get(component);
+			if (id >= modified.length)
+				modified = Arrays.copyOf(modified, Math.max(id + 1,
+						modified.length * 2));
+			modified[id] = change.getSequence();
+		}
+		for (ChangeListener listener : changeListeners)
+			listener.componentChanged(change, component);
+	}
+
+	/**
+	 * Get the Event, Todo or Journal with the specified id.
+	 * 
+	 * @param id
+	 *          an id from a PostingList returned by this store
+	 * @return the component, or null if it has been removed
+	 */
+	public Object getComponent(int id) {
+		return id < 0 || id >= components.size() ? null : components.get(id);
+	}
+
+	/**
+	 * Get the id of a stored Event, Todo or Journal.
+	 * 
+	 * @return the id, or -1 if the component is not stored here
+	 */
+	public int getComponentId(Object component) {
+		Integer id = componentIds.get(component);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Get the modification sequence of the store, which increases each time an
+	 * event, todo or journal is added, replaced or removed.
+	 */
+	public long getModificationSequence() {
+		return changeLog.getSequence();
+	}
+
+	/**
+	 * Get a sync token for the current state of the store, to pass to
+	 * changesSince() later.
+	 */
+	public String getSyncToken() {
+		return changeLog.token();
+	}
+
+	/**
+	 * Get the events, todos and journals added, modified or removed since a
+	 * sync token. Only the most recent changes are kept (see
+	 * setChangeLogCapacity()), so a client that has not asked for longer is
+	 * told to fetch the whole calendar again.
+	 * 
+	 * @param token
+	 *          a token from getSyncToken() or an earlier ChangeSet, or null if
+	 *          the client has none
+	 * @return the net change to each component since the token, and the token
+	 *         to use next time
+	 */
+	public ChangeSet changesSince(String token) {
+		return changeLog.since(token);
+	}
+
+	/**
+	 * Get the number of changes kept for changesSince().
+	 */
+	public int getChangeLogCapacity() {
+		return changeLog.getCapacity();
+	}
+
+	/**
+	 * Set the number of changes kept for changesSince(), dropping the oldest
+	 * if more are kept now. The default is DEFAULT_CHANGE_LOG_CAPACITY.
+	 */
+	public void setChangeLogCapacity(int capacity) {
+		changeLog.setCapacity(capacity);
+	}
+
+	/**
+	 * Get the ETag of a stored Event, Todo or Journal, which changes each time
+	 * the component with its UID and RECURRENCE-ID is replaced.
+	 * 
+	 * @return the ETag, as a quoted string, or null if the component is not
+	 *         stored here
+	 */
+	public String getETag(Object component) {
+		Integer id = componentIds.get(component);
+		return id == null ? null : changeLog.etag(modified[id]);
+	}
+
+	/**
+	 * Add a listener to be told of each change to the events, todos and
+	 * journals, after the change is made.
+	 */
+	public void addChangeListener(ChangeListener listener) {
+		changeListeners.add(listener);
+	}
+
+	/**
+	 * Remove a listener added with addChangeListener().
+	 */
+	public void removeChangeListener(ChangeListener listener) {
+		changeListeners.remove(listener);
+	}
+
+	/**
+	 * Find the events, todos and journals whose SUMMARY, DESCRIPTION, LOCATION
+	 * or CATEGORIES contain every word of a query. Words are matched ignoring
+	 * case and accents. A word ending in "*", such as "meet*", matches any
+	 * word that starts with it, and words in double quotes, such as
+	 * {@code "project review"}, must appear together in that order.
+	 * 
+	 * @param query
+	 *          the words to find
+	 * @return the ids of the components found
+	 */
+	public PostingList search(String query) {
+		return search(query, null);
+	}
+
+	/**
+	 * Find the events, todos and journals with text in the specified language
+	 * that contains every word of a query, as for {@link #search(String)}.
+	 * Only properties with a LANGUAGE parameter whose primary subtag matches
+	 * are searched, so "en" matches text with LANGUAGE=en-US.
+	 * 
+	 * @param query
+	 *          the words to find
+	 * @param language
+	 *          the language ("en", "fr", etc.), or null for text in any
+	 *          language
+	 * @return the ids of the components found
+	 */
+	public PostingList search(String query, String language) {
+		if (textIndex == null) {
+			textIndex = new TextIndex(components);
+			for (int id = 0; id < components.size(); id++) {
+				if (components.get(id) != null)
+					textIndex.add(id, components.get(id));
+			}
+		}
+		return textIndex.search(query, language);
+	}
+
+	/**
+	 * Find the events, todos and journals with an ATTENDEE that has the
+	 * specified calendar address. A mailto: address is matched ignoring case,
+	 * and may be given without "mailto:".
+	 * 
+	 * @param address
+	 *          the calendar address, such as "mailto:alice@example.com"
+	 * @return the ids of the components found
+	 */
+	public PostingList findByAttendee(String address) {
+		return propertyIndex().findByAttendee(address);
+	}
+
+	/**
+	 * Find the events and journals whose ORGANIZER has the specified calendar
+	 * address, matched as for {@link #findByAttendee(String)}.
+	 * 
+	 * @param address
+	 *          the calendar address, such as "mailto:alice@example.com"
+	 * @return the ids of the components found
+	 */
+	public PostingList findByOrganizer(String address) {
+		return propertyIndex().findByOrganizer(address);
+	}
+
+	/**
+	 * Find the events, todos and journals with the specified category, matched
+	 * ignoring case.
+	 * 
+	 * @param category
+	 *          the category, such as "WORK"
+	 * @return the ids of the components found
+	 */
+	public PostingList findByCategory(String category) {
+		return propertyIndex().findByCategory(category);
+	}
+
+	private PropertyIndex propertyIndex() {
+		if (propertyIndex == null) {
+			propertyIndex = new PropertyIndex();
+			for (int id = 0; id < components.size(); id++) {
+				if (components.get(id) != null)
+					propertyIndex.add(id, components.get(id));
+			}
+		}
+		return propertyIndex;
+	}
+
+	/**
+	 * Find the occurrences of the stored events, todos and journals that
+	 * overlap a window. Only the components whose times, or for a recurring
+	 * component the span from its first to its last recurrence, overlap the
+	 * window are expanded, rather than every component in the store.
+	 * 
+	 * @param from
+	 *          the start of the window (inclusive)
+	 * @param to
+	 *          the end of the window (exclusive)
+	 * @return the occurrences within the window, sorted by start time. The
+	 *         component indexes of the table refer to its getComponents() list.
+	 */
+	public OccurrenceTable findOverlapping(Date from, Date to) {
+		long fromUtc = expander.toPackedUtc(from);
+		long toUtc = expander.toPackedUtc(to);
+		return expander.expand(timeIndex.findOverlapping(fromUtc, toUtc),
+				fromUtc, toUtc);
+	}
+
+	/**
+	 * Find the occurrences that overlap a window of the events, todos and
+	 * journals with the specified ids, such as the result of a search. Only
+	 * the components that are both in the list and found by the time index
+	 * are expanded, along with the Events that share a UID with them, since
+	 * the overrides of a recurring Event must be expanded with it.
+	 * 
+	 * @param from
+	 *          the start of the window (inclusive)
+	 * @param to
+	 *          the end of the window (exclusive)
+	 * @param ids
+	 *          the ids of the components to include
+	 * @return the occurrences of those components within the window, sorted by
+	 *         start time
+	 */
+	public OccurrenceTable findOverlapping(Date from, Date to, PostingList ids) {
+		long fromUtc = expander.toPackedUtc(from);
+		long toUtc = expander.toPackedUtc(to);
+		List<Object> found = timeIndex.findOverlapping(fromUtc, toUtc);
+		List<Object> expand = new ArrayList<Object>();
+		Set<String> uids = new HashSet<String>();
+		for (Object component : found) {
+			if (ids.contains(componentIds.get(component))) {
+				expand.add(component);
+				if (component instanceof Event
+						&& ((Event) component).getUid() != null)
+					uids.add(((Event) component).getUid().getValue());
+			}
+		}
+		int matched = expand.size();
+		for (Object component : found) {
+			if (component instanceof Event && ((Event) component).getUid() != null
+					&& uids.contains(((Event) component).getUid().getValue())
+					&& !ids.contains(componentIds.get(component)))
+				expand.add(component);
+		}
+		OccurrenceTable ret = expander.expand(expand, fromUtc, toUtc);
+		if (expand.size() > matched)
+			ret.retainComponents(matched);
+		return ret;
+	}
+
+	/**
+	 * Get the ids of the events, todos and journals that have an occurrence
+	 * overlapping a window, so a time range can be combined with searches
+	 * using {@link PostingList#or(PostingList)} as well as
+	 * {@link PostingList#and(PostingList)}. To find the occurrences of
+	 * components that match a search, findOverlapping(Date, Date, PostingList)
+	 * is faster, as it expands only those components.
+	 * 
+	 * @param from
+	 *          the start of the window (inclusive)
+	 * @param to
+	 *          the end of the window (exclusive)
+	 * @return the ids of the components found
+	 */
+	public PostingList findOverlappingIds(Date from, Date to) {
+		OccurrenceTable table = findOverlapping(from, to);
+		int[] ids = new int[table.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = componentIds.get(table.getComponent(i));
+		Arrays.sort(ids);
+		int n = 0;
+		for (int i = 0; i < ids.length; i++) {
+			if (n == 0 || ids[n - 1] != ids[i])
+				ids[n++] = ids[i];
+		}
+		return new PostingList(ids, n);
+	}
+
+	private String key(Uid uid, Date recurrenceId) {
+		return uid == null ? null : key(uid.getValue(), recurrenceId);
+	}
+
+	/**
+	 * Get the key of a component in its UID index. The RECURRENCE-ID of an
+	 * override is converted to UTC, so that the same instant written with
+	 * another TZID, or in UTC, gives the same key. The key of a stored
+	 * component is kept in keys, since storing a VTIMEZONE can change the
+	 * conversion.
+	 */
+	private String key(String uid, Date recurrenceId) {
+		if (uid == null)
+			return null;
+		if (recurrenceId == null)
+			return uid;
+		// NUL cannot appear in a UID, so keys for overrides never match a UID
+		return uid + '\0' + Long.toString(expander.toPackedUtc(
+				recurrenceId));
+	}
+
+	/**
+	 * Is a component older than the one already stored, according to SEQUENCE,
+	 * then DTSTAMP, then LAST-MODIFIED? A DTSTAMP or LAST-MODIFIED missing from
+	 * either component is not compared.
+	 */
+	private static boolean isOlder(Sequence sequence, Date dtstamp, Date lastModified,
+			Sequence oldSequence, Date oldDtstamp, Date oldLastModified) {
+		int seq = sequence == null ? 0 : sequence.getNum();
+		int oldSeq = oldSequence == null ? 0 : oldSequence.getNum();
+		if (seq != oldSeq)
+			return seq < oldSeq;
+		if (dtstamp != null && oldDtstamp != null) {
+			int ret = dtstamp.compareTo(oldDtstamp);
+			if (ret != 0)
+				return ret < 0;
+		}
+		if (lastModified != null && oldLastModified != null)
+			return lastModified.isBefore(oldLastModified);
+		return false;
+	}
+}
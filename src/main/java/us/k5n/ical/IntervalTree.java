@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.util.List;
+
+/**
+ * An interval tree of values, each with a [start, end) range of packed UTC
+ * values, that finds the values overlapping a window in O(log n + k) time. It
+ * is a balanced (AVL) binary tree ordered by start, where each node also holds
+ * the latest end in its subtree, so subtrees that end before the window can
+ * be skipped. Values may have the same range.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see TimeIndex
+ */
+class IntervalTree<T> {
+	/**
+	 * A value in the tree. The Node returned by add() is used to remove the
+	 * value again.
+	 */
+	static final class Node<T> {
+		final long start, end;
+		/** Orders nodes with the same start */
+		final long id;
+		final T value;
+		Node<T> left, right;
+		int height = 1;
+		/** The latest end in this subtree */
+		long maxEnd;
+
+		Node(long start, long end, long id, T value) {
+			this.start = start;
+			this.end = end;
+			this.id = id;
+			this.value = value;
+			this.maxEnd = end;
+		}
+	}
+
+	private Node<T> root = null;
+	private long nextId = 0;
+	private int size = 0;
+
+	/**
+	 * Add a value.
+	 *
+	 * @return the Node to pass to remove()
+	 */
+	Node<T> add(long start, long end, T value) {
+		Node<T> node = new Node<T>(start, end, nextId++, value);
+		root = insert(root, node);
+		size++;
+		return node;
+	}
+
+	/**
+	 * Remove a value added earlier.
+	 */
+	void remove(Node<T> node) {
+		root = delete(root, node);
+		size--;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Add to out the values that overlap a window, in order of start. As in
+	 * OccurrenceExpander, a value overlaps the window if it starts before the
+	 * end of the window and either ends after the start of the window or starts
+	 * at or after it.
+	 */
+	void findOverlapping(long from, long to, List<T> out) {
+		find(root, from, to, out);
+	}
+
+	private void find(Node<T> node, long from, long to, List<T> out) {
+		// A value that overlaps the window ends at or after its start
+		while (node != null && node.maxEnd >= from) {
+			find(node.left, from, to, out);
+			if (node.start >= to)
+				return;
+			if (node.end > from || node.start >= from)
+				out.add(node.value);
+			node = node.right;
+		}
+	}
+
+	private static <T> int compare(Node<T> a, Node<T> b) {
+		if (a.start != b.start)
+			return Long.compare(a.start, b.start);
+		return Long.compare(a.id, b.id);
+	}
+
+	private static <T> Node<T> insert(Node<T> root, Node<T> node) {
+		if (root == null)
+			return node;
+		if (compare(node, root) < 0)
+			root.left = insert(root.left, node);
+		else
+			root.right = insert(root.right, node);
+		return balance(root);
+	}
+
+	private static <T> Node<T> delete(Node<T> root, Node<T> node) {
+		if (root == null)
+			return null;
+		int cmp = compare(node, root);
+		if (cmp < 0) {
+			root.left = delete(root.left, node);
+		} else if (cmp > 0) {
+			root.right = delete(root.right, node);
+		} else {
+			if (root.left == null)
+				return root.right;
+			if (root.right == null)
+				return root.left;
+			// Replace the node with the first node of its right subtree
+			Node<T> next = root.right;
+			while (next.left != null)
+				next = next.left;
+			next.right = deleteFirst(root.right);
+			next.left = root.left;
+			root = next;
+		}
+		return balance(root);
+	}
+
+	private static <T> Node<T> deleteFirst(Node<T> root) {
+		if (root.left == null)
+			return root.right;
+		root.left = deleteFirst(root.left);
+		return balance(root);
+	}
+
+	private static <T> int height(Node<T> node) {
+		return node == null ? 0 : node.height;
+	}
+
+	private static <T> void update(Node<T> node) {
+		node.height = 1 + Math.max(height(node.left), height(node.right));
+		long maxEnd = node.end;
+		if (node.left != null && node.left.maxEnd > maxEnd)
+			maxEnd = node.left.maxEnd;
+		if (node.right != null && node.right.maxEnd > maxEnd)
+			maxEnd = node.right.maxEnd;
+		node.maxEnd = maxEnd;
+	}
+
+	private static <T> Node<T> rotateRight(Node<T> node) {
+		Node<T> left = node.left;
+		node.left = left.right;
+		left.right = node;
+		update(node);
+		update(left);
+		return left;
+	}
+
+	private static <T> Node<T> rotateLeft(Node<T> node) {
+		Node<T> right = node.right;
+		node.right = right.left;
+		right.left = node;
+		update(node);
+		update(right);
+		return right;
+	}
+
+	private static <T> Node<T> balance(Node<T> node) {
+		update(node);
+		int diff = height(node.left) - height(node.right);
+		if (diff > 1) {
+			if (height(node.left.left) < height(node.left.right))
+				node.left = rotateLeft(node.left);
+			return rotateRight(node);
+		}
+		if (diff < -1) {
+			if (height(node.right.right) < height(node.right.left))
+				node.right = rotateRight(node.right);
+			return rotateLeft(node);
+		}
+		return node;
+	}
+}
@@ -417,6 +417,8 @@ public class Journal implements Constants {
 			ret.append(lastModified.toICalendar());
 		if (classification != null)
 			ret.append(classification.toICalendar());
+		if (rrule != null)
+			ret.append(rrule.toICalendar());
 		if (this.exdates != null && this.exdates.size() > 0) {
 			if (this.exdates.size() == 1) {
 				ret.append(this.exdates.get(0).toICalendar());
@@ -430,6 +432,7 @@ public class Journal implements Constants {
 					sb.append(args[1]);
 				}
 				sb.append(CRLF);
+				ret.append(sb.toString());
 			}
 		}
 		if (this.rdates != null && this.rdates.size() > 0) {
@@ -445,6 +448,7 @@ public class Journal implements Constants {
 					sb.append(args[1]);
 				}
 				sb.append(CRLF);
+				ret.append(sb.toString());
 			}
 		}
 		if (relatedTo != null)
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The index file of a PersistentDataStore, which is memory-mapped so that
+ * opening the store does not read it. It lists the components in the log when
+ * it was written, in the order they were stored, with the position of each
+ * one's record, a hash of its kind and UID, and the time it occupies. Two
+ * sorted lists of entry numbers allow lookups: by UID hash, and by start time
+ * for components that occupy up to a week. Components that occupy more time,
+ * such as recurring events, are listed separately and always checked.
+ * <br>
+ * The file is written to a temporary file that replaces the old index once it
+ * is on the disk, so a crash leaves either the old or the new index.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see PersistentDataStore
+ */
+class MappedIndex {
+	static final String FILE_NAME = "index.dat";
+	private static final String TEMP_NAME = "index.tmp";
+	/** "JCTIDX01" */
+	private static final long MAGIC = 0x4a43544944583031L;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 64;
+	private static final int ENTRY_BYTES = 44;
+	/** Start of a component that has no start date */
+	static final long NO_TIME = Long.MIN_VALUE;
+	/** Longest span in seconds of the components sorted by start */
+	private static final long LONG_SPAN = 7 * 24 * 60 * 60;
+	private final MappedByteBuffer buf;
+	/** Number of entries */
+	final int count;
+	/** Position in the log up to which the index is complete */
+	final long logPosition;
+	/** Bytes of log used by the entries */
+	final long liveBytes;
+	/** Bytes of log used by records that have been replaced or deleted */
+	final long garbageBytes;
+	private final int sortedCount;
+	private final int longCount;
+	private final long maxSpan;
+	private final int uidOffset;
+	private final int startOffset;
+	private final int longOffset;
+
+	/**
+	 * A component in the log. The key is only known for entries that have
+	 * not been read from an index file.
+	 */
+	static final class Entry {
+		final long position;
+		final long uidHash;
+		final long start;
+		final long end;
+		final int crc;
+		final int size;
+		final byte kind;
+		final String key;
+
+		Entry(long position, long uidHash, long start, long end, int crc,
+				int size, byte kind, String key) {
+			this.position = position;
+			this.uidHash = uidHash;
+			this.start = start;
+			this.end = end;
+			this.crc = crc;
+			this.size = size;
+			this.kind = kind;
+			this.key = key;
+		}
+	}
+
+	private MappedIndex(MappedByteBuffer buf, long logPosition) {
+		this.buf = buf;
+		if (buf == null) {
+			count = sortedCount = longCount = 0;
+			this.logPosition = logPosition;
+			liveBytes = garbageBytes = maxSpan = 0;
+		} else {
+			count = buf.getInt(12);
+			sortedCount = buf.getInt(16);
+			longCount = buf.getInt(20);
+			this.logPosition = buf.getLong(24);
+			maxSpan = buf.getLong(32);
+			liveBytes = buf.getLong(40);
+			garbageBytes = buf.getLong(48);
+		}
+		uidOffset = HEADER_BYTES + count * ENTRY_BYTES;
+		startOffset = uidOffset + count * 4;
+		longOffset = startOffset + sortedCount * 4;
+	}
+
+	/**
+	 * Get an index with no entries, for a log to be read from a position.
+	 */
+	static MappedIndex empty(long logPosition) {
+		return new MappedIndex(null, logPosition);
+	}
+
+	/**
+	 * Map the index file in a directory.
+	 *
+	 * @return the index, or null if there is no index file or it is not valid
+	 */
+	static MappedIndex open(File directory) throws IOException {
+		File file = new File(directory, FILE_NAME);
+		if (!file.isFile())
+			return null;
+		MappedByteBuffer buf;
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE)
+				return null;
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buf.getLong(0) != MAGIC || buf.getInt(8) != VERSION)
+			return null;
+		MappedIndex index = new MappedIndex(buf, 0);
+		if (index.count < 0 || index.sortedCount < 0 || index.longCount < 0
+				|| (long) index.longOffset + index.longCount * 4L != buf.capacity())
+			return null;
+		return index;
+	}
+
+	long position(int i) {
+		return buf.getLong(HEADER_BYTES + i * ENTRY_BYTES);
+	}
+
+	long uidHash(int i) {
+		return buf.getLong(HEADER_BYTES + i * ENTRY_BYTES + 8);
+	}
+
+	long start(int i) {
+		return buf.getLong(HEADER_BYTES + i * ENTRY_BYTES + 16);
+	}
+
+	long end(int i) {
+		return buf.getLong(HEADER_BYTES + i * ENTRY_BYTES + 24);
+	}
+
+	int crc(int i) {
+		return buf.getInt(HEADER_BYTES + i * ENTRY_BYTES + 32);
+	}
+
+	int size(int i) {
+		return buf.getInt(HEADER_BYTES + i * ENTRY_BYTES + 36);
+	}
+
+	byte kind(int i) {
+		return buf.get(HEADER_BYTES + i * ENTRY_BYTES + 40);
+	}
+
+	/**
+	 * Get the entries with a UID hash.
+	 *
+	 * @return the entry numbers, in the order stored
+	 */
+	int[] findUidHash(long uidHash) {
+		int lo = 0, hi = count;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (uidHash(byUid(mid)) < uidHash)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		int end = lo;
+		while (end < count && uidHash(byUid(end)) == uidHash)
+			end++;
+		int[] found = new int[end - lo];
+		for (int j = lo; j < end; j++)
+			found[j - lo] = byUid(j);
+		return found;
+	}
+
+	private int byUid(int j) {
+		return buf.getInt(uidOffset + j * 4);
+	}
+
+	/**
+	 * Find the entries that start before to and either end after from or
+	 * start at or after it, as in IntervalTree.
+	 *
+	 * @param from
+	 *               seconds since 1 Jan 1970 UTC
+	 * @param to
+	 *               seconds since 1 Jan 1970 UTC
+	 * @param out
+	 *               the list the entry numbers are added to
+	 */
+	void findOverlapping(long from, long to, IntList out) {
+		// Those sorted by start must start no earlier than from - maxSpan
+		long earliest = from - maxSpan;
+		int lo = 0, hi = sortedCount;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (start(buf.getInt(startOffset + mid * 4)) < earliest)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		for (int j = lo; j < sortedCount; j++) {
+			int i = buf.getInt(startOffset + j * 4);
+			if (start(i) >= to)
+				break;
+			if (overlaps(start(i), end(i), from, to))
+				out.add(i);
+		}
+		for (int j = 0; j < longCount; j++) {
+			int i = buf.getInt(longOffset + j * 4);
+			if (overlaps(start(i), end(i), from, to))
+				out.add(i);
+		}
+	}
+
+	static boolean overlaps(long start, long end, long from, long to) {
+		return start != NO_TIME && start < to && (end > from || start >= from);
+	}
+
+	private static boolean isLong(Entry e) {
+		return e.end - e.start > LONG_SPAN || e.end - e.start < 0;
+	}
+
+	/**
+	 * Write an index file for entries, replacing the one in the directory.
+	 *
+	 * @param entries
+	 *                       the entries, in the order stored
+	 * @param logPosition
+	 *                       the position in the log up to which the entries are
+	 *                       complete
+	 */
+	static void write(File directory, final List<Entry> entries,
+			long logPosition, long liveBytes, long garbageBytes) throws IOException {
+		int count = entries.size();
+		if ((long) count * (ENTRY_BYTES + 8) + HEADER_BYTES > Integer.MAX_VALUE)
+			throw new IOException("Too many entries for an index: " + count);
+		Integer[] byUid = new Integer[count];
+		int sortedCount = 0, longCount = 0;
+		long maxSpan = 0;
+		for (int i = 0; i < count; i++) {
+			byUid[i] = i;
+			Entry e = entries.get(i);
+			if (e.start == NO_TIME)
+				continue;
+			if (isLong(e)) {
+				longCount++;
+			} else {
+				sortedCount++;
+				maxSpan = Math.max(maxSpan, e.end - e.start);
+			}
+		}
+		Arrays.sort(byUid, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int ret = Long.compare(entries.get(a).uidHash, entries.get(b).uidHash);
+				return ret != 0 ? ret : Integer.compare(a, b);
+			}
+		});
+		Integer[] byStart = new Integer[sortedCount];
+		int[] longSpans = new int[longCount];
+		sortedCount = longCount = 0;
+		for (int i = 0; i < count; i++) {
+			Entry e = entries.get(i);
+			if (e.start == NO_TIME)
+				continue;
+			if (isLong(e))
+				longSpans[longCount++] = i;
+			else
+				byStart[sortedCount++] = i;
+		}
+		Arrays.sort(byStart, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int ret = Long.compare(entries.get(a).start, entries.get(b).start);
+				return ret != 0 ? ret : Integer.compare(a, b);
+			}
+		});
+
+		File temp = new File(directory, TEMP_NAME);
+		try (FileOutputStream fos = new FileOutputStream(temp)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					fos, 1 << 16));
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(count);
+			out.writeInt(sortedCount);
+			out.writeInt(longCount);
+			out.writeLong(logPosition);
+			out.writeLong(maxSpan);
+			out.writeLong(liveBytes);
+			out.writeLong(garbageBytes);
+			out.writeLong(0);
+			for (Entry e : entries) {
+				out.writeLong(e.position);
+				out.writeLong(e.uidHash);
+				out.writeLong(e.start);
+				out.writeLong(e.end);
+				out.writeInt(e.crc);
+				out.writeInt(e.size);
+				out.writeByte(e.kind);
+				out.write(new byte[3]);
+			}
+			for (Integer i : byUid)
+				out.writeInt(i);
+			for (Integer i : byStart)
+				out.writeInt(i);
+			for (int i : longSpans)
+				out.writeInt(i);
+			out.flush();
+			fos.getFD().sync();
+		}
+		Files.move(temp.toPath(), new File(directory, FILE_NAME).toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * A growable list of ints.
+	 */
+	static final class IntList {
+		private int[] items = new int[16];
+		private int size;
+
+		void add(int i) {
+			if (size == items.length)
+				items = Arrays.copyOf(items, size * 2);
+			items[size++] = i;
+		}
+
+		int get(int index) {
+			return items[index];
+		}
+
+		int size() {
+			return size;
+		}
+	}
+}
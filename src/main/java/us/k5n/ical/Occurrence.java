@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+import com.google.ical.util.PackedDate;
+
+/**
+ * One occurrence of an Event, Todo or Journal, as produced by an
+ * AgendaIterator. Start and end times are given in milliseconds since 1 Jan
+ * 1970 UTC, with an all-day occurrence taken to start at midnight UTC.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see AgendaIterator
+ */
+public class Occurrence {
+	private final Object component;
+	/** Packed UTC values, as described in {@link PackedDate} */
+	private final long start, end;
+
+	Occurrence(Object component, long start, long end) {
+		this.component = component;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Get the Event, Todo or Journal that this is an occurrence of.
+	 */
+	public Object getComponent() {
+		return component;
+	}
+
+	/**
+	 * Get the start of the occurrence.
+	 *
+	 * @return milliseconds since 1 Jan 1970 UTC
+	 */
+	public long getStart() {
+		return PackedDate.timetSecs(start) * 1000;
+	}
+
+	/**
+	 * Get the end of the occurrence. This is the same as the start for
+	 * occurrences without a duration.
+	 *
+	 * @return milliseconds since 1 Jan 1970 UTC
+	 */
+	public long getEnd() {
+		return PackedDate.timetSecs(end) * 1000;
+	}
+
+	/**
+	 * Is this an all-day occurrence of a component with a DATE rather than a
+	 * DATE-TIME start?
+	 */
+	public boolean isDateOnly() {
+		return !PackedDate.hasTime(start);
+	}
+
+	public String toString() {
+		return PackedDate.toString(start) + "/" + PackedDate.toString(end);
+	}
+
+}
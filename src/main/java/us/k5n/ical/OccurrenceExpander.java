@@ -0,0 +1,788 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TimeZone;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.ical.iter.ExpansionPolicy;
+import com.google.ical.iter.RecurrenceIterator;
+import com.google.ical.iter.RecurrenceIteratorFactory;
+import com.google.ical.util.PackedDate;
+import com.google.ical.util.TimeUtils;
+
+/**
+ * Expands every Event, Todo and Journal in a DataStore into the occurrences
+ * that fall within a time window. Components are divided among the threads of
+ * a ForkJoinPool, and each thread expands its share into its own
+ * OccurrenceTable before the tables are merged into one sorted by start time.
+ * <br>
+ * An occurrence is included if it overlaps the window, or if it has no
+ * duration and starts within the window. DTSTART is always the first
+ * occurrence of a series, and RDATE and EXDATE values are applied. Dates
+ * without a TZID are treated as UTC.
+ * <br>
+ * An Event with a RECURRENCE-ID overrides an instance of the recurring Event
+ * with the same UID: the occurrence of the override replaces the instance, or
+ * removes it if the override's STATUS is CANCELLED. An override with
+ * RANGE=THISANDFUTURE applies to that instance and all later ones, which are
+ * moved as its DTSTART was moved. The component of such an occurrence is the
+ * override.
+ * <br>
+ * Example:
+ *
+ * <pre>
+ * OccurrenceTable table = new OccurrenceExpander().setParallelism(4)
+ * 		.expand(dataStore, windowStart, windowEnd);
+ * </pre>
+ *
+ * agenda() returns an AgendaIterator that produces the same occurrences lazily,
+ * without a window end.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see OccurrenceTable
+ * @see AgendaIterator
+ */
+public class OccurrenceExpander {
+	/** Number of components each task expands without splitting further */
+	static final int MIN_TASK_SIZE = 64;
+	private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+	private int parallelism = 0;
+	private ExpansionListener listener = null;
+	private TimezoneRegistry timezoneRegistry = null;
+	private ExpansionPolicy expansionPolicy = ExpansionPolicy.UNLIMITED;
+	private ConcurrentHashMap<String, TimeZone> timezones = new ConcurrentHashMap<String, TimeZone>();
+
+	/**
+	 * Set the number of threads to use. The default of 0 uses the common
+	 * ForkJoinPool.
+	 *
+	 * @return this expander
+	 */
+	public OccurrenceExpander setParallelism(int parallelism) {
+		if (parallelism < 0)
+			throw new IllegalArgumentException("Invalid parallelism "
+					+ parallelism);
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Set the listener that will be told about progress and that may cancel the
+	 * expansion.
+	 *
+	 * @return this expander
+	 */
+	public OccurrenceExpander setExpansionListener(ExpansionListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	public ExpansionListener getExpansionListener() {
+		return listener;
+	}
+
+	/**
+	 * Set the timezones defined by VTIMEZONE components (usually
+	 * ICalendarParser.getTimezoneRegistry()) to use for TZIDs that are not IANA
+	 * timezone IDs. If none is set, the VTIMEZONEs of the DataStore being
+	 * expanded are used.
+	 *
+	 * @return this expander
+	 */
+	public OccurrenceExpander setTimezoneRegistry(
+			TimezoneRegistry timezoneRegistry) {
+		this.timezoneRegistry = timezoneRegistry;
+		timezones.clear();
+		return this;
+	}
+
+	public TimezoneRegistry getTimezoneRegistry() {
+		return timezoneRegistry;
+	}
+
+	/**
+	 * Set the limits on expanding each RRULE. A series that reaches a limit
+	 * before the end of the window is cut short, and the resulting
+	 * OccurrenceTable is marked as truncated. The default has no limits.
+	 *
+	 * @return this expander
+	 */
+	public OccurrenceExpander setExpansionPolicy(ExpansionPolicy expansionPolicy) {
+		if (expansionPolicy == null)
+			throw new IllegalArgumentException("Null ExpansionPolicy");
+		this.expansionPolicy = expansionPolicy;
+		return this;
+	}
+
+	public ExpansionPolicy getExpansionPolicy() {
+		return expansionPolicy;
+	}
+
+	/**
+	 * Expand all events, todos and journals in the DataStore.
+	 *
+	 * @param dataStore
+	 *                    the components to expand
+	 * @param windowStart
+	 *                    the start of the window (inclusive)
+	 * @param windowEnd
+	 *                    the end of the window (exclusive)
+	 * @return the occurrences within the window, sorted by start time
+	 * @throws CancellationException
+	 *                               if the ExpansionListener cancelled the
+	 *                               expansion
+	 */
+	public OccurrenceTable expand(DataStore dataStore, Date windowStart,
+			Date windowEnd) {
+		OccurrenceExpander expander = forDataStore(dataStore);
+		return expander.expand(components(dataStore),
+				expander.toPackedUtc(windowStart), expander.toPackedUtc(windowEnd));
+	}
+
+	/**
+	 * Expand a list of events, todos and journals within a window given as
+	 * packed UTC values.
+	 */
+	OccurrenceTable expand(List<Object> components, long windowStartUtc,
+			long windowEndUtc) {
+		RecurrenceOverrides overrides = new RecurrenceOverrides(components, this);
+		ExpansionTask task = new ExpansionTask(components, overrides, 0,
+				components.size(), windowStartUtc, windowEndUtc, new AtomicInteger(),
+				new AtomicBoolean());
+		OccurrenceTable ret;
+		if (parallelism == 0) {
+			ret = ForkJoinPool.commonPool().invoke(task);
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				ret = pool.invoke(task);
+			} finally {
+				pool.shutdown();
+			}
+		}
+		if (task.cancelled.get())
+			throw new CancellationException("Expansion cancelled");
+		return ret;
+	}
+
+	/**
+	 * Get an iterator over the occurrences of all events, todos and journals in
+	 * the DataStore from a start time on, in order of start time. Unlike
+	 * expand(), which needs the end of the window, each series is expanded only
+	 * as far as the occurrences that have been asked for, so this suits
+	 * questions such as "what are the next 10 things on my calendar". The
+	 * iterator is not thread safe.
+	 *
+	 * @param dataStore
+	 *                  the components to expand
+	 * @param from
+	 *                  occurrences that start at or after this time or overlap it
+	 *                  are included
+	 * @return an iterator over the occurrences
+	 */
+	public AgendaIterator agenda(DataStore dataStore, Date from) {
+		OccurrenceExpander expander = forDataStore(dataStore);
+		List<Object> components = components(dataStore);
+		return new AgendaIterator(expander, components, new RecurrenceOverrides(
+				components, expander), expander.toPackedUtc(from));
+	}
+
+	/**
+	 * Get the expander to use for a DataStore: this one if it has a
+	 * TimezoneRegistry or the store has no VTIMEZONEs, or else a copy that uses
+	 * the store's VTIMEZONEs.
+	 */
+	private OccurrenceExpander forDataStore(DataStore dataStore) {
+		if (timezoneRegistry != null)
+			return this;
+		TimezoneRegistry registry;
+		if (dataStore instanceof DefaultDataStore) {
+			registry = ((DefaultDataStore) dataStore).getTimezoneRegistry();
+		} else {
+			registry = new TimezoneRegistry();
+			for (Timezone timezone : dataStore.getAllTimezones())
+				registry.register(timezone);
+		}
+		if (registry.size() == 0)
+			return this;
+		OccurrenceExpander ret = new OccurrenceExpander();
+		ret.parallelism = parallelism;
+		ret.listener = listener;
+		ret.expansionPolicy = expansionPolicy;
+		ret.timezoneRegistry = registry;
+		return ret;
+	}
+
+	/**
+	 * Get all the events, todos and journals in the DataStore, in the order they
+	 * are numbered by OccurrenceTable.
+	 */
+	private static List<Object> components(DataStore dataStore) {
+		List<Object> components = new ArrayList<Object>();
+		components.addAll(dataStore.getAllEvents());
+		components.addAll(dataStore.getAllTodos());
+		components.addAll(dataStore.getAllJournals());
+		return components;
+	}
+
+	/**
+	 * Expands a range of the components, splitting the range across further
+	 * tasks when it is large.
+	 */
+	private class ExpansionTask extends RecursiveTask<OccurrenceTable> {
+		private static final long serialVersionUID = 1L;
+		List<Object> components;
+		RecurrenceOverrides overrides;
+		int from, to;
+		long windowStartUtc, windowEndUtc;
+		AtomicInteger completed;
+		AtomicBoolean cancelled;
+
+		ExpansionTask(List<Object> components, RecurrenceOverrides overrides,
+				int from, int to, long windowStartUtc, long windowEndUtc,
+				AtomicInteger completed, AtomicBoolean cancelled) {
+			this.components = components;
+			this.overrides = overrides;
+			this.from = from;
+			this.to = to;
+			this.windowStartUtc = windowStartUtc;
+			this.windowEndUtc = windowEndUtc;
+			this.completed = completed;
+			this.cancelled = cancelled;
+		}
+
+		@Override
+		protected OccurrenceTable compute() {
+			if (to - from > MIN_TASK_SIZE) {
+				int mid = (from + to) >>> 1;
+				ExpansionTask left = new ExpansionTask(components, overrides, from,
+						mid, windowStartUtc, windowEndUtc, completed, cancelled);
+				ExpansionTask right = new ExpansionTask(components, overrides, mid,
+						to, windowStartUtc, windowEndUtc, completed, cancelled);
+				left.fork();
+				OccurrenceTable rightTable = right.compute();
+				return OccurrenceTable.merge(left.join(), rightTable);
+			}
+			OccurrenceTable table = new OccurrenceTable(components, 16);
+			long[] buffer = new long[64];
+			for (int i = from; i < to && !cancelled.get(); i++) {
+				expandComponent(components, overrides, i, windowStartUtc,
+						windowEndUtc, buffer, table);
+			}
+			table.sort();
+			int done = completed.addAndGet(to - from);
+			if (listener != null
+					&& !listener.expansionProgress(done, components.size()))
+				cancelled.set(true);
+			return table;
+		}
+	}
+
+	/**
+	 * Add the occurrences of one Event, Todo or Journal to the table, in order.
+	 */
+	void expandComponent(List<Object> components, RecurrenceOverrides overrides,
+			int index, long windowStartUtc, long windowEndUtc, long[] buffer,
+			OccurrenceTable table) {
+		Series series = newSeries(components, overrides, index, buffer);
+		if (series == null)
+			return;
+		series.advanceTo(windowStartUtc);
+		while (series.next() && series.start < windowEndUtc)
+			table.add(series.index, series.start, series.end);
+		if (series.isTruncated())
+			table.truncated = true;
+	}
+
+	/**
+	 * Create the Series for one Event, Todo or Journal. The instances of a
+	 * recurring Event that are overridden by other Events with the same UID are
+	 * replaced by the overrides, or removed if an override is cancelled. An
+	 * override with RANGE=THISANDFUTURE has a Series of its own for the
+	 * instances from its RECURRENCE-ID on, moved by the same amount as its
+	 * DTSTART and given its duration. The other overrides have no Series of
+	 * their own, as they are part of the Series of the instances they override.
+	 *
+	 * @param buffer
+	 *                 space for the Series to fetch recurrences into
+	 * @return null if the component has no start date or no Series of its own
+	 */
+	Series newSeries(List<Object> components, RecurrenceOverrides overrides,
+			int index, long[] buffer) {
+		Object component = components.get(index);
+		int masterIndex = overrides.getMaster(index);
+		long baseFrom = Long.MIN_VALUE;
+		if (masterIndex >= 0) {
+			if (!((Event) component).isThisAndFuture() || !overrides.isUsed(index))
+				return null;
+			baseFrom = overrides.getRecurrenceId(index);
+		} else {
+			masterIndex = index;
+		}
+		Object master = components.get(masterIndex);
+		Date startDate;
+		Rrule rrule;
+		List<Date> rdates, exdates;
+		if (master instanceof Event) {
+			Event event = (Event) master;
+			startDate = event.getStartDate();
+			rrule = event.getRrule();
+			rdates = event.getRdates();
+			exdates = event.getExceptions();
+		} else if (master instanceof Todo) {
+			Todo todo = (Todo) master;
+			startDate = todo.getStartDate();
+			rrule = todo.getRrule();
+			rdates = todo.getRdates();
+			exdates = todo.getExdates();
+		} else {
+			Journal journal = (Journal) master;
+			startDate = journal.getStartDate();
+			rrule = journal.getRrule();
+			rdates = journal.getRdates();
+			exdates = journal.getExceptions();
+		}
+		if (startDate == null)
+			return null;
+
+		// DTSTART and RDATE values, sorted and without duplicates
+		long[] extras = new long[1 + (rdates == null ? 0 : rdates.size())];
+		extras[0] = toPackedUtc(startDate);
+		for (int i = 1; i < extras.length; i++)
+			extras[i] = toPackedUtc(rdates.get(i - 1));
+		Arrays.sort(extras);
+		long[] excluded = new long[exdates == null ? 0 : exdates.size()];
+		for (int i = 0; i < excluded.length; i++)
+			excluded[i] = toPackedUtc(exdates.get(i));
+		Arrays.sort(excluded);
+
+		RecurrenceIterator it = null;
+		if (rrule != null) {
+			try {
+				it = RecurrenceIteratorFactory.createRecurrenceIterator(
+						rrule.toRecurrenceRule(), Rrule.toDateValue(startDate),
+						timeZone(startDate.tzid), expansionPolicy);
+			} catch (IllegalArgumentException e) {
+				// Not supported by the recurrence engine (e.g. FREQ=HOURLY from
+				// a date), so just use DTSTART and RDATE.
+				it = null;
+			}
+		}
+		if (component != master) {
+			Event override = (Event) component;
+			if (override.getStatus() == Constants.STATUS_CANCELLED) {
+				// all instances from the RECURRENCE-ID on are cancelled
+				extras = new long[0];
+				it = null;
+			}
+		}
+		Series series = new Series(component, index, durationSecs(component),
+				extras, excluded, it, buffer);
+
+		NavigableMap<Long, Integer> map = overrides.getOverrides(masterIndex);
+		if (map != null) {
+			// This Series ends at the next override of this and future instances.
+			long baseUntil = Long.MAX_VALUE;
+			for (Map.Entry<Long, Integer> e : map.tailMap(baseFrom, false)
+					.entrySet()) {
+				if (((Event) components.get(e.getValue())).isThisAndFuture()) {
+					baseUntil = e.getKey();
+					break;
+				}
+			}
+			long shiftSecs = 0;
+			if (component != master && ((Event) component).getStartDate() != null)
+				shiftSecs = PackedDate.secsSinceEpoch(toPackedUtc(((Event) component)
+						.getStartDate())) - PackedDate.secsSinceEpoch(baseFrom);
+			series.setRange(baseFrom, baseUntil, shiftSecs);
+			setOverrides(series, components, map.subMap(baseFrom,
+					component == master, baseUntil, false));
+		}
+		return series;
+	}
+
+	/**
+	 * Give a Series the overrides of its instances.
+	 *
+	 * @param overrides
+	 *                  the index of each override in components, by packed UTC
+	 *                  RECURRENCE-ID
+	 */
+	private void setOverrides(Series series, List<Object> components,
+			NavigableMap<Long, Integer> overrides) {
+		int n = overrides.size();
+		if (n == 0)
+			return;
+		long[] ids = new long[n];
+		final long[] starts = new long[n];
+		long[] ends = new long[n];
+		final int[] indexes = new int[n];
+		Integer[] order = new Integer[n];
+		int count = 0, i = 0;
+		for (Map.Entry<Long, Integer> e : overrides.entrySet()) {
+			ids[i++] = e.getKey();
+			Event override = (Event) components.get(e.getValue());
+			if (override.getStatus() == Constants.STATUS_CANCELLED)
+				continue;
+			starts[count] = override.getStartDate() == null ? e.getKey()
+					: toPackedUtc(override.getStartDate());
+			ends[count] = endOf(starts[count], durationSecs(override));
+			indexes[count] = e.getValue();
+			order[count] = count;
+			count++;
+		}
+		// Overrides are usually in the same order as the instances they
+		// override, but may have been moved past each other.
+		Arrays.sort(order, 0, count, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if (starts[a] != starts[b])
+					return Long.compare(starts[a], starts[b]);
+				return Integer.compare(indexes[a], indexes[b]);
+			}
+		});
+		long[] sortedStarts = new long[count], sortedEnds = new long[count];
+		int[] sortedIndexes = new int[count];
+		Object[] sortedComponents = new Object[count];
+		for (int j = 0; j < count; j++) {
+			sortedStarts[j] = starts[order[j]];
+			sortedEnds[j] = ends[order[j]];
+			sortedIndexes[j] = indexes[order[j]];
+			sortedComponents[j] = components.get(sortedIndexes[j]);
+		}
+		series.setOverrides(ids, sortedStarts, sortedEnds, sortedComponents,
+				sortedIndexes);
+	}
+
+	/**
+	 * Get the duration in seconds of each occurrence of an Event, Todo or
+	 * Journal.
+	 */
+	int durationSecs(Object component) {
+		Date startDate, endDate = null;
+		if (component instanceof Event) {
+			Event event = (Event) component;
+			startDate = event.getStartDate();
+			endDate = event.getEndDate();
+			if (endDate == null && event.getDuration() != null)
+				return event.getDuration().duration;
+			else if (endDate == null && startDate != null && startDate.dateOnly)
+				return SECONDS_PER_DAY; // an all-day event
+		} else if (component instanceof Todo) {
+			Todo todo = (Todo) component;
+			startDate = todo.getStartDate();
+			endDate = todo.getDueDate();
+		} else {
+			startDate = ((Journal) component).getStartDate();
+		}
+		if (startDate == null || endDate == null)
+			return 0;
+		return (int) Math.max(0, PackedDate.secsSinceEpoch(toPackedUtc(endDate))
+				- PackedDate.secsSinceEpoch(toPackedUtc(startDate)));
+	}
+
+	/**
+	 * The occurrences of one Event, Todo or Journal, produced one at a time in
+	 * order of start time by merging its RRULE with its DTSTART and RDATE values
+	 * and removing its EXDATE values. The instances that are overridden by other
+	 * Events are merged in the same pass: the RECURRENCE-IDs of the overrides
+	 * are removed as the instances are generated in order, and the overrides
+	 * themselves are merged in by their own start times.
+	 */
+	static class Series {
+		private static final long[] NONE = new long[0];
+		/** The component of the current occurrence */
+		Object component;
+		/** The index of the component of the current occurrence */
+		int index;
+		/** The start and end of the current occurrence as packed UTC values */
+		long start = Long.MIN_VALUE, end;
+		private final Object seriesComponent;
+		private final int seriesIndex;
+		private final int durationSecs;
+		private final long[] extras, excluded, buffer;
+		private final RecurrenceIterator rruleIt;
+		private RecurrenceIterator it;
+		private int nextExtra = 0, bufferPos = 0, bufferLimit = 0;
+		/** Occurrences must start at or after this or overlap it */
+		private long fromUtc = Long.MIN_VALUE;
+		/** Instances that start before this cannot overlap fromUtc */
+		private long earliestUtc = Long.MIN_VALUE;
+		/** The instances of this Series are those in [baseFrom, baseUntil) */
+		private long baseFrom = Long.MIN_VALUE, baseUntil = Long.MAX_VALUE;
+		/** The amount each instance is moved by */
+		private long shiftSecs = 0;
+		/** The previous instance, to skip duplicates */
+		private long lastInstance = Long.MIN_VALUE;
+		/** The next instance as an occurrence, if hasInstance */
+		private boolean hasInstance = false;
+		private long instanceStart, instanceEnd;
+		/** The RECURRENCE-IDs of the overrides, sorted */
+		private long[] overriddenIds = NONE;
+		private int nextOverridden = 0;
+		/** The occurrences of the overrides that are not cancelled, sorted */
+		private long[] overrideStarts = NONE, overrideEnds = NONE;
+		private Object[] overrideComponents;
+		private int[] overrideIndexes;
+		private int nextOverride = 0;
+
+		Series(Object component, int index, int durationSecs, long[] extras,
+				long[] excluded, RecurrenceIterator it, long[] buffer) {
+			this.component = this.seriesComponent = component;
+			this.index = this.seriesIndex = index;
+			this.durationSecs = durationSecs;
+			this.extras = extras;
+			this.excluded = excluded;
+			this.it = this.rruleIt = it;
+			this.buffer = buffer;
+		}
+
+		/**
+		 * Limit the Series to the instances in [from, until), each moved by the
+		 * given number of seconds.
+		 */
+		void setRange(long from, long until, long shiftSecs) {
+			this.baseFrom = from;
+			this.baseUntil = until;
+			this.shiftSecs = shiftSecs;
+			if (it != null && from != Long.MIN_VALUE)
+				it.advanceTo(PackedDate.toDateValue(from));
+		}
+
+		/**
+		 * Set the overrides of the instances of this Series.
+		 *
+		 * @param ids
+		 *                   the RECURRENCE-IDs of the overrides, sorted
+		 * @param starts
+		 *                   the starts of the overrides that are not cancelled,
+		 *                   sorted
+		 */
+		void setOverrides(long[] ids, long[] starts, long[] ends,
+				Object[] components, int[] indexes) {
+			this.overriddenIds = ids;
+			this.overrideStarts = starts;
+			this.overrideEnds = ends;
+			this.overrideComponents = components;
+			this.overrideIndexes = indexes;
+		}
+
+		/**
+		 * Skip the occurrences that neither start at or after the given time nor
+		 * overlap it. This takes effect from the next call to next(), and has no
+		 * effect if the Series has already passed the time.
+		 */
+		void advanceTo(long utc) {
+			if (utc <= fromUtc)
+				return;
+			fromUtc = utc;
+			earliestUtc = durationSecs == 0 ? utc : PackedDate.addSeconds(utc,
+					-durationSecs);
+			if (shiftSecs != 0)
+				earliestUtc = PackedDate.addSeconds(earliestUtc, -shiftSecs);
+			if (it != null
+					&& (bufferPos == bufferLimit || buffer[bufferLimit - 1] < earliestUtc)) {
+				bufferPos = bufferLimit;
+				it.advanceTo(PackedDate.toDateValue(earliestUtc));
+			}
+		}
+
+		/**
+		 * Move to the next occurrence.
+		 *
+		 * @return false if there are no more occurrences
+		 */
+		boolean next() {
+			if (hasInstance && !overlaps(instanceStart, instanceEnd))
+				hasInstance = false; // skipped by advanceTo()
+			if (!hasInstance)
+				hasInstance = nextInstance();
+			while (nextOverride < overrideStarts.length
+					&& !overlaps(overrideStarts[nextOverride], overrideEnds[nextOverride]))
+				nextOverride++;
+			boolean instanceFirst = hasInstance;
+			if (hasInstance && nextOverride < overrideStarts.length) {
+				// Occurrences with the same start are ordered by component index, as
+				// in an OccurrenceTable.
+				long overrideStart = overrideStarts[nextOverride];
+				instanceFirst = instanceStart < overrideStart
+						|| (instanceStart == overrideStart && seriesIndex < overrideIndexes[nextOverride]);
+			}
+			if (instanceFirst) {
+				hasInstance = false;
+				start = instanceStart;
+				end = instanceEnd;
+				component = seriesComponent;
+				index = seriesIndex;
+				return true;
+			}
+			if (nextOverride < overrideStarts.length) {
+				start = overrideStarts[nextOverride];
+				end = overrideEnds[nextOverride];
+				component = overrideComponents[nextOverride];
+				index = overrideIndexes[nextOverride];
+				nextOverride++;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Move to the next instance that is neither excluded nor overridden.
+		 *
+		 * @return false if there are no more instances
+		 */
+		private boolean nextInstance() {
+			while (true) {
+				if (it != null && bufferPos == bufferLimit) {
+					bufferLimit = it.nextBatch(buffer, 0, buffer.length);
+					bufferPos = 0;
+					if (bufferLimit == 0)
+						it = null;
+				}
+				long next;
+				if (it != null
+						&& (nextExtra == extras.length || buffer[bufferPos] <= extras[nextExtra])) {
+					next = buffer[bufferPos++];
+				} else if (nextExtra < extras.length) {
+					next = extras[nextExtra++];
+				} else {
+					return false;
+				}
+				if (next >= baseUntil) {
+					it = null;
+					nextExtra = extras.length;
+					return false;
+				}
+				if (next == lastInstance || next < earliestUtc || next < baseFrom)
+					continue;
+				lastInstance = next;
+				if (Arrays.binarySearch(excluded, next) >= 0 || isOverridden(next))
+					continue;
+				instanceStart = shift(next);
+				instanceEnd = endOf(instanceStart, durationSecs);
+				if (overlaps(instanceStart, instanceEnd))
+					return true;
+			}
+		}
+
+		/**
+		 * Is an instance overridden? Instances are checked in order, so the
+		 * RECURRENCE-IDs are walked rather than searched.
+		 */
+		private boolean isOverridden(long instance) {
+			while (nextOverridden < overriddenIds.length
+					&& overriddenIds[nextOverridden] < instance)
+				nextOverridden++;
+			return nextOverridden < overriddenIds.length
+					&& overriddenIds[nextOverridden] == instance;
+		}
+
+		/**
+		 * Move an instance by shiftSecs. Dates remain dates.
+		 */
+		private long shift(long instance) {
+			if (shiftSecs == 0)
+				return instance;
+			if (!PackedDate.hasTime(instance))
+				return PackedDate.fromFixedDay(PackedDate.fixedDay(instance)
+						+ (int) Math.floorDiv(shiftSecs, SECONDS_PER_DAY));
+			return PackedDate.addSeconds(instance, shiftSecs);
+		}
+
+		/**
+		 * Does an occurrence start at or after fromUtc or overlap it?
+		 */
+		private boolean overlaps(long start, long end) {
+			return end > fromUtc || start >= fromUtc;
+		}
+
+		/**
+		 * Advance to the given time and move to the first occurrence that starts
+		 * at or after it or overlaps it, which may be the current occurrence.
+		 *
+		 * @return false if there are no more occurrences
+		 */
+		boolean skipTo(long utc) {
+			advanceTo(utc);
+			if (start != Long.MIN_VALUE && overlaps(start, end))
+				return true;
+			return next();
+		}
+
+		/**
+		 * Was the RRULE cut short by the ExpansionPolicy?
+		 */
+		boolean isTruncated() {
+			return rruleIt != null && rruleIt.isTruncated();
+		}
+	}
+
+	/**
+	 * Get the end of an occurrence. Dates remain dates, so a date with a
+	 * duration that is not a whole number of days is rounded down.
+	 */
+	static long endOf(long start, int durationSecs) {
+		if (durationSecs == 0)
+			return start;
+		if (!PackedDate.hasTime(start))
+			return PackedDate.fromFixedDay(PackedDate.fixedDay(start) + durationSecs
+					/ SECONDS_PER_DAY);
+		return PackedDate.addSeconds(start, durationSecs);
+	}
+
+	/**
+	 * Convert a Date to a packed UTC value using its TZID.
+	 */
+	long toPackedUtc(Date d) {
+		long local = d.dateOnly ? PackedDate.pack(d.getYear(), d.getMonth(),
+				d.getDay()) : PackedDate.pack(d.getYear(), d.getMonth(), d.getDay(),
+				d.getHour(), d.getMinute(), d.getSecond());
+		return TimeUtils.toUtc(local, timeZone(d.tzid));
+	}
+
+	private TimeZone timeZone(String tzid) {
+		if (tzid == null)
+			return TimeUtils.utcTimezone();
+		TimeZone tz = timezones.get(tzid);
+		if (tz == null) {
+			tz = TimezoneRegistry.resolve(timezoneRegistry, tzid);
+			timezones.put(tzid, tz);
+		}
+		return tz;
+	}
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.ical.util.PackedDate;
+
+/**
+ * The occurrences produced by an OccurrenceExpander, sorted by start time.
+ * The occurrences are stored in parallel arrays rather than as one object per
+ * occurrence, and each occurrence refers to its Event, Todo or Journal by
+ * index. Start and end times are given in milliseconds since 1 Jan 1970 UTC,
+ * as by {@link Occurrence}, with an all-day occurrence taken to start at
+ * midnight UTC.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see OccurrenceExpander
+ */
+public class OccurrenceTable {
+	List<Object> components;
+	int[] componentIndexes;
+	long[] starts;
+	long[] ends;
+	int size;
+	boolean truncated;
+
+	OccurrenceTable(List<Object> components, int capacity) {
+		this.components = components;
+		this.componentIndexes = new int[capacity];
+		this.starts = new long[capacity];
+		this.ends = new long[capacity];
+	}
+
+	/**
+	 * Get the number of occurrences.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the index of the component of the specified occurrence within
+	 * {@link #getComponents()}.
+	 */
+	public int getComponentIndex(int i) {
+		return componentIndexes[i];
+	}
+
+	/**
+	 * Get the Event, Todo or Journal of the specified occurrence.
+	 */
+	public Object getComponent(int i) {
+		return components.get(componentIndexes[i]);
+	}
+
+	/**
+	 * Get the expanded components, in the order events, todos, journals.
+	 */
+	public List<Object> getComponents() {
+		return components;
+	}
+
+	/**
+	 * Get the start of the specified occurrence.
+	 *
+	 * @return milliseconds since 1 Jan 1970 UTC
+	 */
+	public long getStart(int i) {
+		return PackedDate.timetSecs(starts[i]) * 1000;
+	}
+
+	/**
+	 * Get the end of the specified occurrence. This is the same as the start
+	 * for occurrences without a duration.
+	 *
+	 * @return milliseconds since 1 Jan 1970 UTC
+	 */
+	public long getEnd(int i) {
+		return PackedDate.timetSecs(ends[i]) * 1000;
+	}
+
+	/**
+	 * Is the specified occurrence an all-day occurrence of a component with a
+	 * DATE rather than a DATE-TIME start?
+	 */
+	public boolean isDateOnly(int i) {
+		return !PackedDate.hasTime(starts[i]);
+	}
+
+	/**
+	 * Was any series cut short by the OccurrenceExpander's ExpansionPolicy, so
+	 * that some occurrences within the window may be missing?
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	void add(int componentIndex, long start, long end) {
+		if (size == starts.length) {
+			int capacity = Math.max(16, size * 2);
+			componentIndexes = Arrays.copyOf(componentIndexes, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+		}
+		componentIndexes[size] = componentIndex;
+		starts[size] = start;
+		ends[size] = end;
+		size++;
+	}
+
+	/**
+	 * Remove the occurrences of the components at or after a position in the
+	 * component list, keeping the order of the rest.
+	 */
+	void retainComponents(int count) {
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			if (componentIndexes[i] < count) {
+				componentIndexes[n] = componentIndexes[i];
+				starts[n] = starts[i];
+				ends[n] = ends[i];
+				n++;
+			}
+		}
+		size = n;
+	}
+
+	/**
+	 * Does occurrence i of a sort before occurrence j of b? Ties are broken by
+	 * component index so that the order does not depend on how the work was
+	 * divided.
+	 */
+	private static boolean before(OccurrenceTable a, int i, OccurrenceTable b,
+			int j) {
+		if (a.starts[i] != b.starts[j])
+			return a.starts[i] < b.starts[j];
+		return a.componentIndexes[i] < b.componentIndexes[j];
+	}
+
+	/**
+	 * Merge two sorted tables into a new sorted table.
+	 */
+	static OccurrenceTable merge(OccurrenceTable a, OccurrenceTable b) {
+		boolean truncated = a.truncated || b.truncated;
+		if (b.size == 0 || a.size == 0) {
+			OccurrenceTable ret = b.size == 0 ? a : b;
+			ret.truncated = truncated;
+			return ret;
+		}
+		OccurrenceTable ret = new OccurrenceTable(a.components, a.size + b.size);
+		ret.truncated = truncated;
+		int i = 0, j = 0;
+		while (i < a.size || j < b.size) {
+			if (j == b.size || (i < a.size && before(a, i, b, j))) {
+				ret.add(a.componentIndexes[i], a.starts[i], a.ends[i]);
+				i++;
+			} else {
+				ret.add(b.componentIndexes[j], b.starts[j], b.ends[j]);
+				j++;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Sort the occurrences by start time. Each series is added in order, so
+	 * this merges runs that are already sorted.
+	 */
+	void sort() {
+		int n = size;
+		OccurrenceTable from = this;
+		OccurrenceTable to = new OccurrenceTable(components, n);
+		for (int width = 1; width < n; width *= 2) {
+			to.size = 0;
+			for (int lo = 0; lo < n; lo += 2 * width) {
+				int mid = Math.min(lo + width, n), hi = Math.min(lo + 2 * width, n);
+				int i = lo, j = mid;
+				if (mid == hi || before(from, mid - 1, from, mid)) {
+					// already in order
+					for (; i < hi; i++)
+						to.add(from.componentIndexes[i], from.starts[i], from.ends[i]);
+					continue;
+				}
+				while (i < mid || j < hi) {
+					if (j == hi || (i < mid && !before(from, j, from, i))) {
+						to.add(from.componentIndexes[i], from.starts[i], from.ends[i]);
+						i++;
+					} else {
+						to.add(from.componentIndexes[j], from.starts[j], from.ends[j]);
+						j++;
+					}
+				}
+			}
+			OccurrenceTable tmp = from;
+			from = to;
+			to = tmp;
+		}
+		if (from != this) {
+			this.componentIndexes = from.componentIndexes;
+			this.starts = from.starts;
+			this.ends = from.ends;
+		}
+		this.size = n;
+	}
+
+}
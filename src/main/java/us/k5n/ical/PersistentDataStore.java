@@ -0,0 +1,843 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import com.google.ical.util.PackedDate;
+
+/**
+ * A DataStore kept on disk, so that a calendar parsed once can be opened again
+ * without parsing its iCalendar files. Add it to a parser with
+ * CalendarParser.addDataStore() and each component is written to the store's
+ * directory as it is parsed:
+ *
+ * <pre>
+ * PersistentDataStore store = new PersistentDataStore(new File("cal-store"));
+ * parser.addDataStore(store);
+ * parser.parse(reader);
+ * store.close();
+ * </pre>
+ *
+ * Components are written to an append-only log, as the iCalendar text of the
+ * component in records checked by a CRC. An index of the log, listing each
+ * component by its UID and the time it occupies, is written at each
+ * checkpoint and memory-mapped when the store is opened, so opening a store
+ * only reads the records written after the last checkpoint. If the process
+ * stopped without closing the store, those records are read again to recover
+ * the changes. Replay stops at the first partly written or damaged record,
+ * and that record and everything after it are dropped.
+ * <br>
+ * Components are read from the log when they are requested, so the lists
+ * returned by getAllEvents() and the other getAll methods read each component
+ * again every time an element is requested. The lists hold the components
+ * stored when they were returned, and should not be used after the store is
+ * compacted or closed.
+ * <br>
+ * A component stored with the same UID as one already stored (and, for an
+ * Event, the same RECURRENCE-ID) replaces it. A VTIMEZONE replaces one with
+ * the same TZID. Components without a UID are always added. Replaced and
+ * removed components leave their records in the log until it is compacted,
+ * which is done at a checkpoint when more than half of the log has been
+ * replaced. A checkpoint is taken every 10,000 changes, by default, and when
+ * the store is closed.
+ * <br>
+ * The store is synchronized, so it can be used from any thread. Errors
+ * writing the log from the DataStore methods are thrown as
+ * UncheckedIOException.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see IndexedDataStore
+ */
+public class PersistentDataStore implements DataStore, Closeable {
+	/** The default size of a log segment file */
+	public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+	private static final byte EVENT = 1;
+	private static final byte TODO = 2;
+	private static final byte JOURNAL = 3;
+	private static final byte TIMEZONE = 4;
+	private static final byte FREEBUSY = 5;
+	private static final byte VLOCATION = 6;
+	private static final byte VRESOURCE = 7;
+	private static final byte VAVAILABILITY = 8;
+	private static final byte PARTICIPANT = 9;
+	private static final byte METHOD = 10;
+	private static final String METHOD_KEY = "METHOD";
+	/** Replaced records are not compacted until there are at least this many */
+	private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+	/** Parser for the components read, which ignores their parse errors */
+	private static final CalendarParser READ_PARSER = new ReadParser();
+	private final File directory;
+	private final SegmentLog log;
+	/** The index written at the last checkpoint */
+	private MappedIndex index;
+	/** Entries in index that have been replaced or removed since */
+	private BitSet replaced = new BitSet();
+	/** Components stored since the last checkpoint, by kind and key */
+	private final LinkedHashMap<String, MappedIndex.Entry> recent = new LinkedHashMap<String, MappedIndex.Entry>();
+	private long liveBytes;
+	private long garbageBytes;
+	private int checkpointInterval = 10000;
+	private int changes;
+	private final TimezoneRegistry timezoneRegistry = new TimezoneRegistry();
+	private final OccurrenceExpander expander = new OccurrenceExpander()
+			.setTimezoneRegistry(timezoneRegistry);
+	/** Used to find the time each component occupies */
+	private final TimeIndex spans = new TimeIndex(expander);
+	private Property method;
+	/** Is the log being read when the store is opened? */
+	private boolean recovering;
+	private boolean closed;
+
+	/**
+	 * Open a store, creating it if the directory does not exist.
+	 *
+	 * @param directory
+	 *                    The directory the log and index are kept in
+	 */
+	public PersistentDataStore(File directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_BYTES);
+	}
+
+	/**
+	 * Open a store, creating it if the directory does not exist.
+	 *
+	 * @param directory
+	 *                       The directory the log and index are kept in
+	 * @param segmentBytes
+	 *                       The size of each log file, up to 2GB
+	 */
+	public PersistentDataStore(File directory, long segmentBytes)
+			throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create " + directory);
+		this.directory = directory;
+		log = new SegmentLog(directory, segmentBytes);
+		try {
+			MappedIndex mapped = MappedIndex.open(directory);
+			index = mapped != null ? mapped : MappedIndex.empty(log.start());
+			liveBytes = index.liveBytes;
+			garbageBytes = index.garbageBytes;
+			for (int i = 0; i < index.count; i++) {
+				byte kind = index.kind(i);
+				if (kind == TIMEZONE || kind == METHOD)
+					loaded(kind, read(index.position(i)));
+			}
+			recovering = true;
+			log.replay(index.logPosition, new SegmentLog.RecordHandler() {
+				public void record(SegmentLog.Record record) throws IOException {
+					recover(record);
+				}
+			});
+			recovering = false;
+			if (changes >= checkpointInterval)
+				checkpoint();
+		} catch (IOException e) {
+			log.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Set the number of changes between checkpoints. Fewer changes make
+	 * opening the store after a crash faster, at the cost of writing the index
+	 * more often.
+	 */
+	public synchronized void setCheckpointInterval(int changes) {
+		if (changes < 1)
+			throw new IllegalArgumentException("Invalid interval: " + changes);
+		checkpointInterval = changes;
+	}
+
+	public synchronized void storeTimezone(Timezone timezone) {
+		put(TIMEZONE, timezone.getTimezoneId(), timezone.toICalendar(), null);
+		if (timezoneRegistry.register(timezone))
+			expander.setTimezoneRegistry(timezoneRegistry);
+	}
+
+	public void storeEvent(Event event) {
+		put(EVENT, key(event.getUid(), event.getRecurrenceId()), event
+				.toICalendar(), event);
+	}
+
+	public void storeTodo(Todo todo) {
+		put(TODO, key(todo.getUid(), null), todo.toICalendar(), todo);
+	}
+
+	public void storeJournal(Journal journal) {
+		put(JOURNAL, key(journal.getUid(), null), journal.toICalendar(), journal);
+	}
+
+	public void storeFreebusy(Freebusy freebusy) {
+		put(FREEBUSY, key(freebusy.getUid(), null), freebusy.toICalendar(), null);
+	}
+
+	public void storeVLocation(VLocation vlocation) {
+		put(VLOCATION, key(vlocation.getUid(), null), vlocation.toICalendar(),
+				null);
+	}
+
+	public void storeVResource(VResource vresource) {
+		put(VRESOURCE, key(vresource.getUid(), null), vresource.toICalendar(),
+				null);
+	}
+
+	public void storeVAvailability(VAvailability vavailability) {
+		put(VAVAILABILITY, key(vavailability.getUid(), null), vavailability
+				.toICalendar(), null);
+	}
+
+	public void storeParticipant(Participant participant) {
+		put(PARTICIPANT, key(participant.getUid(), null), participant
+				.toICalendar(), null);
+	}
+
+	public synchronized void setMethod(Property method) {
+		put(METHOD, METHOD_KEY, method.toICalendar(), null);
+		this.method = method;
+	}
+
+	/**
+	 * Get the METHOD property of the calendar.
+	 *
+	 * @return the METHOD, or null if none was stored
+	 */
+	public synchronized Property getMethod() {
+		return method;
+	}
+
+	public List<Event> getAllEvents() {
+		return components(EVENT);
+	}
+
+	public List<Todo> getAllTodos() {
+		return components(TODO);
+	}
+
+	public List<Journal> getAllJournals() {
+		return components(JOURNAL);
+	}
+
+	public List<Timezone> getAllTimezones() {
+		return components(TIMEZONE);
+	}
+
+	public List<Participant> getAllParticipants() {
+		return components(PARTICIPANT);
+	}
+
+	/**
+	 * Get all Freebusy objects.
+	 */
+	public List<Freebusy> getAllFreebusys() {
+		return components(FREEBUSY);
+	}
+
+	/**
+	 * Get all VLocation objects.
+	 */
+	public List<VLocation> getAllVLocations() {
+		return components(VLOCATION);
+	}
+
+	/**
+	 * Get all VResource objects.
+	 */
+	public List<VResource> getAllVResources() {
+		return components(VRESOURCE);
+	}
+
+	/**
+	 * Get all VAvailability objects.
+	 */
+	public List<VAvailability> getAllVAvailabilities() {
+		return components(VAVAILABILITY);
+	}
+
+	/**
+	 * Get the Event with a UID that is not an override of a recurrence.
+	 *
+	 * @return the Event, or null if there is none
+	 */
+	public Event getEventByUid(String uid) {
+		return getEventByUid(uid, null);
+	}
+
+	/**
+	 * Get the Event with a UID and RECURRENCE-ID.
+	 *
+	 * @param recurrenceId
+	 *                       The RECURRENCE-ID, or null for the Event that is not
+	 *                       an override
+	 * @return the Event, or null if there is none
+	 */
+	public Event getEventByUid(String uid, Date recurrenceId) {
+		return (Event) find(EVENT, key(uid, recurrenceId));
+	}
+
+	/**
+	 * Get the Todo with a UID.
+	 *
+	 * @return the Todo, or null if there is none
+	 */
+	public Todo getTodoByUid(String uid) {
+		return (Todo) find(TODO, key(uid, null));
+	}
+
+	/**
+	 * Get the Journal with a UID.
+	 *
+	 * @return the Journal, or null if there is none
+	 */
+	public Journal getJournalByUid(String uid) {
+		return (Journal) find(JOURNAL, key(uid, null));
+	}
+
+	/**
+	 * Remove the Event with a UID and RECURRENCE-ID.
+	 *
+	 * @param recurrenceId
+	 *                       The RECURRENCE-ID, or null for the Event that is not
+	 *                       an override
+	 * @return the Event removed, or null if there is none
+	 */
+	public Event removeEvent(String uid, Date recurrenceId) {
+		return (Event) remove(EVENT, key(uid, recurrenceId));
+	}
+
+	/**
+	 * Remove the Todo with a UID.
+	 *
+	 * @return the Todo removed, or null if there is none
+	 */
+	public Todo removeTodo(String uid) {
+		return (Todo) remove(TODO, key(uid, null));
+	}
+
+	/**
+	 * Remove the Journal with a UID.
+	 *
+	 * @return the Journal removed, or null if there is none
+	 */
+	public Journal removeJournal(String uid) {
+		return (Journal) remove(JOURNAL, key(uid, null));
+	}
+
+	/**
+	 * Expand the occurrences of the events, todos and journals between two
+	 * times, as OccurrenceExpander does for all of them, reading only the
+	 * components that the index shows may occur then (and the other Events
+	 * with their UIDs).
+	 *
+	 * @param from
+	 *               Start of the window, inclusive
+	 * @param to
+	 *               End of the window, exclusive
+	 * @return the occurrences in start order. The components of the table are
+	 *         those read from the store.
+	 */
+	public OccurrenceTable findOverlapping(Date from, Date to) {
+		List<Object> components = new ArrayList<Object>();
+		long fromUtc, toUtc;
+		synchronized (this) {
+			checkOpen();
+			fromUtc = expander.toPackedUtc(from);
+			toUtc = expander.toPackedUtc(to);
+			// Packed dates order a date before a time on the same second, so
+			// widen the window by a second and let the expander trim it
+			long fromSecs = PackedDate.timetSecs(fromUtc) - 1;
+			long toSecs = PackedDate.timetSecs(toUtc) + 1;
+			try {
+				MappedIndex.IntList found = new MappedIndex.IntList();
+				index.findOverlapping(fromSecs, toSecs, found);
+				List<Long> positions = new ArrayList<Long>();
+				Set<Long> uidHashes = new HashSet<Long>();
+				for (int j = 0; j < found.size(); j++) {
+					int i = found.get(j);
+					if (!replaced.get(i)) {
+						positions.add(index.position(i));
+						if (index.kind(i) == EVENT)
+							uidHashes.add(index.uidHash(i));
+					}
+				}
+				for (MappedIndex.Entry e : recent.values()) {
+					if (MappedIndex.overlaps(e.start, e.end, fromSecs, toSecs)) {
+						positions.add(e.position);
+						if (e.kind == EVENT)
+							uidHashes.add(e.uidHash);
+					}
+				}
+				// An override must be expanded with the Event it overrides
+				Set<String> uids = new HashSet<String>();
+				Set<Long> seen = new HashSet<Long>(positions);
+				for (Long position : positions) {
+					Object component = read(position);
+					components.add(component);
+					if (component instanceof Event && ((Event) component).getUid() != null)
+						uids.add(((Event) component).getUid().getValue());
+				}
+				List<Long> related = new ArrayList<Long>();
+				for (Long uidHash : uidHashes) {
+					for (int i : index.findUidHash(uidHash))
+						if (!replaced.get(i) && index.kind(i) == EVENT)
+							related.add(index.position(i));
+				}
+				for (MappedIndex.Entry e : recent.values())
+					if (e.kind == EVENT && uidHashes.contains(e.uidHash))
+						related.add(e.position);
+				for (Long position : related) {
+					if (seen.add(position)) {
+						Event event = (Event) read(position);
+						if (event.getUid() != null
+								&& uids.contains(event.getUid().getValue()))
+							components.add(event);
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return expander.expand(components, fromUtc, toUtc);
+	}
+
+	/**
+	 * Write the index and everything stored to the disk, so that opening the
+	 * store does not need to read the log, and compact the log if more than
+	 * half of it has been replaced.
+	 */
+	public synchronized void checkpoint() throws IOException {
+		checkOpen();
+		log.sync();
+		MappedIndex.write(directory, liveEntries(), log.end(), liveBytes,
+				garbageBytes);
+		reopenIndex();
+		if (garbageBytes > liveBytes && garbageBytes >= MIN_COMPACT_BYTES)
+			compact();
+	}
+
+	/**
+	 * Rewrite the log without the records of replaced and removed components.
+	 */
+	public synchronized void compact() throws IOException {
+		checkOpen();
+		List<MappedIndex.Entry> entries = liveEntries();
+		int firstSegment = log.startNewSegment();
+		List<MappedIndex.Entry> moved = new ArrayList<MappedIndex.Entry>(entries
+				.size());
+		long live = 0;
+		for (MappedIndex.Entry e : entries) {
+			SegmentLog.Record r = log.read(e.position);
+			SegmentLog.Record w = log.append(r.kind, SegmentLog.PUT, r.key,
+					r.payload);
+			moved.add(new MappedIndex.Entry(w.position, e.uidHash, e.start, e.end,
+					w.crc, w.size, e.kind, r.key));
+			live += w.size;
+		}
+		log.sync();
+		liveBytes = live;
+		garbageBytes = 0;
+		MappedIndex.write(directory, moved, log.end(), liveBytes, garbageBytes);
+		reopenIndex();
+		log.deleteSegmentsBefore(firstSegment);
+	}
+
+	/**
+	 * Get the bytes of log used by the components stored.
+	 */
+	public synchronized long getLiveBytes() {
+		return liveBytes;
+	}
+
+	/**
+	 * Get the bytes of log used by components that have been replaced or
+	 * removed, which compact() frees.
+	 */
+	public synchronized long getGarbageBytes() {
+		return garbageBytes;
+	}
+
+	/**
+	 * Take a checkpoint and close the files.
+	 */
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		try {
+			checkpoint();
+		} finally {
+			closed = true;
+			log.close();
+		}
+	}
+
+	private void checkOpen() {
+		if (closed)
+			throw new IllegalStateException("Store is closed");
+	}
+
+	private void reopenIndex() throws IOException {
+		MappedIndex mapped = MappedIndex.open(directory);
+		if (mapped == null)
+			throw new IOException("Cannot read the index just written");
+		index = mapped;
+		replaced = new BitSet();
+		recent.clear();
+		changes = 0;
+	}
+
+	/**
+	 * Get the components stored, in the order they were stored.
+	 */
+	private List<MappedIndex.Entry> liveEntries() {
+		List<MappedIndex.Entry> entries = new ArrayList<MappedIndex.Entry>(
+				index.count + recent.size());
+		for (int i = 0; i < index.count; i++) {
+			if (!replaced.get(i))
+				entries.add(new MappedIndex.Entry(index.position(i), index.uidHash(i),
+						index.start(i), index.end(i), index.crc(i), index.size(i), index
+								.kind(i), null));
+		}
+		entries.addAll(recent.values());
+		return entries;
+	}
+
+	/**
+	 * Get the key of a component, which for an Event override includes its
+	 * RECURRENCE-ID converted to UTC, as in IndexedDataStore.
+	 */
+	private String key(Uid uid, Date recurrenceId) {
+		return uid == null ? null : key(uid.getValue(), recurrenceId);
+	}
+
+	private String key(String uid, Date recurrenceId) {
+		if (uid == null)
+			return null;
+		if (recurrenceId == null)
+			return uid;
+		return uid + '\0' + Long.toString(expander.toPackedUtc(recurrenceId));
+	}
+
+	/**
+	 * Hash the kind and UID of a key, so that an Event and its overrides have
+	 * the same hash.
+	 */
+	private static long uidHash(byte kind, String key) {
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ kind) * 0x100000001b3L;
+		int end = key.indexOf('\0');
+		if (end < 0)
+			end = key.length();
+		for (int i = 0; i < end; i++)
+			hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+		return hash;
+	}
+
+	private static String mapKey(byte kind, String key) {
+		return (char) kind + key;
+	}
+
+	/**
+	 * Write a component to the log and index it.
+	 *
+	 * @param key
+	 *                    The key, or null to add the component with a new key
+	 * @param component
+	 *                    The Event, Todo or Journal, to find its time, or null
+	 */
+	private synchronized void put(byte kind, String key, String text,
+			Object component) {
+		checkOpen();
+		try {
+			// The log position makes a key that is never used again
+			if (key == null)
+				key = "\u0001" + Long.toHexString(log.end());
+			byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+			MappedIndex.Entry old = recent.get(mapKey(kind, key));
+			int oldIndex = old == null ? findIndexed(kind, key) : -1;
+			int crc = SegmentLog.crc(kind, SegmentLog.PUT, key, payload);
+			// Storing the same text again, as when a file is parsed again, leaves
+			// the log as it is
+			if ((old != null && old.crc == crc) || (oldIndex >= 0 && index
+					.crc(oldIndex) == crc))
+				return;
+			SegmentLog.Record record = log.append(kind, SegmentLog.PUT, key,
+					payload);
+			added(record, component);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private synchronized Object remove(byte kind, String key) {
+		Object component = find(kind, key);
+		if (component == null)
+			return null;
+		try {
+			removed(log.append(kind, SegmentLog.DELETE, key, new byte[0]));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return component;
+	}
+
+	/**
+	 * Index a component written to the log, replacing the one with its key.
+	 */
+	private void added(SegmentLog.Record record, Object component)
+			throws IOException {
+		unindex(record.kind, record.key);
+		long start = MappedIndex.NO_TIME, end = MappedIndex.NO_TIME;
+		long[] span = component == null ? null : spans.span(component);
+		if (span != null) {
+			start = PackedDate.timetSecs(span[0]);
+			end = span[1] == Long.MAX_VALUE ? Long.MAX_VALUE : PackedDate
+					.timetSecs(span[1]);
+		}
+		recent.put(mapKey(record.kind, record.key), new MappedIndex.Entry(
+				record.position, uidHash(record.kind, record.key), start, end,
+				record.crc, record.size, record.kind, record.key));
+		liveBytes += record.size;
+		changed();
+	}
+
+	private void removed(SegmentLog.Record record) throws IOException {
+		unindex(record.kind, record.key);
+		garbageBytes += record.size;
+		changed();
+	}
+
+	private void changed() throws IOException {
+		// A checkpoint while recovering would cover records not read yet
+		if (++changes >= checkpointInterval && !recovering)
+			checkpoint();
+	}
+
+	/**
+	 * Stop indexing the component with a key, counting its record as garbage.
+	 */
+	private void unindex(byte kind, String key) throws IOException {
+		MappedIndex.Entry old = recent.remove(mapKey(kind, key));
+		int size;
+		if (old != null) {
+			size = old.size;
+		} else {
+			int i = findIndexed(kind, key);
+			if (i < 0)
+				return;
+			replaced.set(i);
+			size = index.size(i);
+		}
+		liveBytes -= size;
+		garbageBytes += size;
+	}
+
+	/**
+	 * Find the entry in the index for a key.
+	 *
+	 * @return the entry number, or -1 if there is none or it has been replaced
+	 */
+	private int findIndexed(byte kind, String key) throws IOException {
+		for (int i : index.findUidHash(uidHash(kind, key))) {
+			if (!replaced.get(i) && index.kind(i) == kind
+					&& log.read(index.position(i)).key.equals(key))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Apply a record read from the log when the store is opened.
+	 */
+	private void recover(SegmentLog.Record record) throws IOException {
+		if (record.op == SegmentLog.DELETE) {
+			removed(record);
+		} else {
+			Object component = parse(record);
+			loaded(record.kind, component);
+			added(record, component instanceof Event || component instanceof Todo
+					|| component instanceof Journal ? component : null);
+		}
+	}
+
+	/**
+	 * Keep track of a Timezone or METHOD read from the log.
+	 */
+	private void loaded(byte kind, Object component) {
+		if (kind == TIMEZONE) {
+			if (timezoneRegistry.register((Timezone) component))
+				expander.setTimezoneRegistry(timezoneRegistry);
+		} else if (kind == METHOD) {
+			method = (Property) component;
+		}
+	}
+
+	private synchronized Object find(byte kind, String key) {
+		checkOpen();
+		if (key == null)
+			return null;
+		try {
+			MappedIndex.Entry e = recent.get(mapKey(kind, key));
+			if (e != null)
+				return read(e.position);
+			int i = findIndexed(kind, key);
+			return i < 0 ? null : read(index.position(i));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private Object read(long position) throws IOException {
+		return parse(log.read(position));
+	}
+
+	/**
+	 * Create the component in a record.
+	 */
+	private static Object parse(SegmentLog.Record record) throws IOException {
+		String text = new String(record.payload, StandardCharsets.UTF_8);
+		switch (record.kind) {
+			case EVENT:
+				return new Event(READ_PARSER, 0, StringUtils.splitLines(text));
+			case TODO:
+				return new Todo(READ_PARSER, 0, StringUtils.splitLines(text));
+			case JOURNAL:
+				return new Journal(READ_PARSER, 0, StringUtils.splitLines(text));
+			case METHOD:
+				try {
+					return new Property(text.trim());
+				} catch (ParseException e) {
+					throw new IOException("Cannot read METHOD: " + e.getMessage());
+				}
+			default:
+				// Components with sub-components are read as the parser reads them
+				ICalendarParser parser = new ICalendarParser(Constants.PARSE_LOOSE);
+				parser.parse(new StringReader("BEGIN:VCALENDAR\r\nVERSION:2.0\r\n"
+						+ "PRODID:-//k5n.us//javacaltools//EN\r\n" + text
+						+ "END:VCALENDAR\r\n"));
+				DefaultDataStore ds = (DefaultDataStore) parser.getDataStoreAt(0);
+				List<?> list = record.kind == TIMEZONE ? ds.getAllTimezones()
+						: record.kind == FREEBUSY ? ds.getAllFreebusys()
+								: record.kind == VLOCATION ? ds.getAllVLocations()
+										: record.kind == VRESOURCE ? ds.getAllVResources()
+												: record.kind == VAVAILABILITY ? ds
+														.getAllVAvailabilities() : ds.getAllParticipants();
+				if (list.isEmpty())
+					throw new IOException("Cannot read component at "
+							+ Long.toHexString(record.position));
+				return list.get(0);
+		}
+	}
+
+	/**
+	 * Get the components of a kind, read from the log as they are requested.
+	 */
+	private synchronized <T> List<T> components(byte kind) {
+		checkOpen();
+		long[] positions = new long[16];
+		int n = 0;
+		for (int i = 0; i < index.count; i++) {
+			if (index.kind(i) == kind && !replaced.get(i)) {
+				if (n == positions.length)
+					positions = Arrays.copyOf(positions, n * 2);
+				positions[n++] = index.position(i);
+			}
+		}
+		for (MappedIndex.Entry e : recent.values()) {
+			if (e.kind == kind) {
+				if (n == positions.length)
+					positions = Arrays.copyOf(positions, n * 2);
+				positions[n++] = e.position;
+			}
+		}
+		return new ComponentList<T>(Arrays.copyOf(positions, n));
+	}
+
+	private final class ComponentList<T> extends AbstractList<T> implements
+			RandomAccess {
+		private final long[] positions;
+
+		ComponentList(long[] positions) {
+			this.positions = positions;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public T get(int index) {
+			if (index < 0 || index >= positions.length)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+						+ positions.length);
+			SegmentLog.Record record;
+			synchronized (PersistentDataStore.this) {
+				checkOpen();
+				try {
+					record = log.read(positions[index]);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			try {
+				return (T) parse(record);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public int size() {
+			return positions.length;
+		}
+	}
+
+	/**
+	 * The CalendarParser given to the components read. Their text was parsed,
+	 * and any errors reported, before they were stored, so errors are not
+	 * reported again.
+	 */
+	private static final class ReadParser extends CalendarParser {
+		ReadParser() {
+			super(Constants.PARSE_LOOSE);
+		}
+
+		@Override
+		public void reportParseError(ParseError error) {
+		}
+
+		@Override
+		public boolean parse(java.io.Reader reader) {
+			return false;
+		}
+	}
+}
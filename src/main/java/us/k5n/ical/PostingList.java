@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+import java.util.Arrays;
+
+/**
+ * A sorted list of component ids, as returned by the searches of an
+ * IndexedDataStore. The ids are held in an int array, and lists are combined
+ * with and() and or() by merging them, so the result of one search can be
+ * narrowed by another, or by the components that occur in a window with
+ * {@link IndexedDataStore#findOverlapping(Date, Date, PostingList)}, without
+ * creating an object for each component. When one list is much shorter than
+ * the other, and() searches the longer list for each id of the shorter one
+ * rather than stepping through it.
+ * <br>
+ * A PostingList returned by a search does not change as components are
+ * stored. Use {@link IndexedDataStore#getComponent(int)} to get the
+ * component with an id.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see IndexedDataStore
+ */
+public final class PostingList {
+	/** The empty list */
+	public static final PostingList EMPTY = new PostingList(new int[0], 0);
+	/**
+	 * and() searches the longer list when it is this many times longer than
+	 * the shorter one
+	 */
+	private static final int GALLOP_RATIO = 8;
+	int[] ids;
+	int size;
+
+	PostingList() {
+		this(new int[4], 0);
+	}
+
+	PostingList(int[] ids, int size) {
+		this.ids = ids;
+		this.size = size;
+	}
+
+	/**
+	 * Get the number of ids.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Is the list empty?
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Get the id at the specified position.
+	 */
+	public int get(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("Index " + i + ", size " + size);
+		return ids[i];
+	}
+
+	/**
+	 * Does the list hold the specified id?
+	 */
+	public boolean contains(int id) {
+		return Arrays.binarySearch(ids, 0, size, id) >= 0;
+	}
+
+	/**
+	 * Get the ids as an array, in ascending order.
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(ids, size);
+	}
+
+	/**
+	 * Get the ids in both this list and another.
+	 */
+	public PostingList and(PostingList other) {
+		PostingList a = size <= other.size ? this : other;
+		PostingList b = a == this ? other : this;
+		int[] ret = new int[a.size];
+		int n = 0;
+		if (a.size * GALLOP_RATIO < b.size) {
+			int from = 0;
+			for (int i = 0; i < a.size && from < b.size; i++) {
+				int pos = Arrays.binarySearch(b.ids, from, b.size, a.ids[i]);
+				if (pos >= 0) {
+					ret[n++] = a.ids[i];
+					from = pos + 1;
+				} else {
+					from = -pos - 1;
+				}
+			}
+		} else {
+			int i = 0, j = 0;
+			while (i < a.size && j < b.size) {
+				if (a.ids[i] < b.ids[j]) {
+					i++;
+				} else if (a.ids[i] > b.ids[j]) {
+					j++;
+				} else {
+					ret[n++] = a.ids[i];
+					i++;
+					j++;
+				}
+			}
+		}
+		return new PostingList(ret, n);
+	}
+
+	/**
+	 * Get the ids in either this list or another.
+	 */
+	public PostingList or(PostingList other) {
+		if (other.size == 0)
+			return this;
+		if (size == 0)
+			return other;
+		int[] ret = new int[size + other.size];
+		int n = 0, i = 0, j = 0;
+		while (i < size || j < other.size) {
+			if (j == other.size || (i < size && ids[i] < other.ids[j])) {
+				ret[n++] = ids[i++];
+			} else if (i == size || other.ids[j] < ids[i]) {
+				ret[n++] = other.ids[j++];
+			} else {
+				ret[n++] = ids[i++];
+				j++;
+			}
+		}
+		return new PostingList(ret, n);
+	}
+
+	/**
+	 * Get a copy that will not change when this list does.
+	 */
+	PostingList copy() {
+		return size == 0 ? EMPTY : new PostingList(toArray(), size);
+	}
+
+	/**
+	 * Add an id. Ids are usually added in ascending order, which appends them.
+	 */
+	void add(int id) {
+		int pos = size == 0 || ids[size - 1] < id ? -size - 1
+				: Arrays.binarySearch(ids, 0, size, id);
+		if (pos >= 0)
+			return;
+		pos = -pos - 1;
+		if (size == ids.length)
+			ids = Arrays.copyOf(ids, Math.max(4, size * 2));
+		System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+		ids[pos] = id;
+		size++;
+	}
+
+	/**
+	 * Remove an id.
+	 *
+	 * @return true if the id was in the list
+	 */
+	boolean remove(int id) {
+		int pos = Arrays.binarySearch(ids, 0, size, id);
+		if (pos < 0)
+			return false;
+		System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+		size--;
+		return true;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof PostingList))
+			return false;
+		PostingList other = (PostingList) o;
+		return size == other.size
+				&& Arrays.equals(ids, 0, size, other.ids, 0, other.size);
+	}
+
+	@Override
+	public int hashCode() {
+		int ret = 1;
+		for (int i = 0; i < size; i++)
+			ret = 31 * ret + ids[i];
+		return ret;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+}
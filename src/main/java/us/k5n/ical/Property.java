@@ -117,6 +117,7 @@ public class Property implements Constants {
 		// divide nameAndAttr up into the name and the various attributes
 		// we need to be careful since a ';' might also be in quotes in
 		// an attribute like: ATTENDEE;X="1;2";Y=4:ABC
+		StringInterner interner = StringInterner.getCurrent();
 		loc = nameAndAttr.indexOf(';');
 		if (loc < 0) {
 			// no attributes
@@ -131,7 +132,7 @@ public class Property implements Constants {
 				char ch = nameAndAttr.charAt(i);
 				if (ch == ';' && !inQuote) {
 					if (p.length() > 0) {
-						addAttribute(p.toString(), pv.toString());
+						addAttribute(attribute(p.toString(), pv.toString(), interner));
 						p.setLength(0);
 						pv.setLength(0);
 						inPName = true;
@@ -152,9 +153,27 @@ public class Property implements Constants {
 				}
 			}
 			if (p.length() > 0) {
-				addAttribute(p.toString(), pv.toString());
+				addAttribute(attribute(p.toString(), pv.toString(), interner));
 			}
 		}
+		if (interner != null) {
+			name = interner.intern(name);
+			value = interner.intern(name, value);
+		}
+	}
+
+	/**
+	 * Create a parsed Attribute, sharing its name and value with other
+	 * properties when parsing with a StringInterner.
+	 */
+	private static Attribute attribute(String name, String value,
+			StringInterner interner) {
+		Attribute a = new Attribute(name, value);
+		if (interner != null) {
+			a.name = interner.intern(a.name);
+			a.value = interner.intern(a.value);
+		}
+		return a;
 	}
 
 	private String interpretEscapeSequences(String input) {
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Indexes of events, todos and journals by the calendar addresses of their
+ * ATTENDEEs and ORGANIZER and by their CATEGORIES, each mapping a normalized
+ * value to the sorted ids of the components that have it.
+ * <br>
+ * A "mailto:" address is compared with its scheme and address lowercased, and
+ * an address without a scheme that contains "@" is taken to be a mailto:
+ * address, so "MAILTO:Alice@Example.com" and "alice@example.com" are the same.
+ * Other addresses are compared as they are. Categories are compared ignoring
+ * case and surrounding spaces.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see IndexedDataStore#findByAttendee(String)
+ */
+class PropertyIndex {
+	private final Map<String, PostingList> attendees = new HashMap<String, PostingList>();
+	private final Map<String, PostingList> organizers = new HashMap<String, PostingList>();
+	private final Map<String, PostingList> categories = new HashMap<String, PostingList>();
+
+	/**
+	 * Add an Event, Todo or Journal.
+	 */
+	void add(int id, Object component) {
+		update(id, component, true);
+	}
+
+	/**
+	 * Remove a component added earlier, which must not have changed since.
+	 */
+	void remove(int id, Object component) {
+		update(id, component, false);
+	}
+
+	private void update(int id, Object component, boolean add) {
+		if (component instanceof Event) {
+			Event event = (Event) component;
+			update(id, event.getAttendees(), event.getOrganizer(),
+					event.getCategories(), add);
+		} else if (component instanceof Todo) {
+			Todo todo = (Todo) component;
+			update(id, todo.getAttendees(), null, todo.getCategories(), add);
+		} else if (component instanceof Journal) {
+			Journal journal = (Journal) component;
+			update(id, journal.getAttendees(), journal.getOrganizer(),
+					journal.getCategories(), add);
+		}
+	}
+
+	private void update(int id, List<Attendee> attendeeList,
+			Organizer organizer, Categories categoryList, boolean add) {
+		if (attendeeList != null) {
+			for (Attendee attendee : attendeeList)
+				update(attendees, normalizeAddress(attendee.getValue()), id, add);
+		}
+		if (organizer != null)
+			update(organizers, normalizeAddress(organizer.getValue()), id, add);
+		if (categoryList != null) {
+			for (String category : categoryList.getCategoryList())
+				update(categories, normalizeCategory(category), id, add);
+		}
+	}
+
+	private static void update(Map<String, PostingList> map, String key,
+			int id, boolean add) {
+		if (key == null)
+			return;
+		PostingList postings = map.get(key);
+		if (add) {
+			if (postings == null) {
+				postings = new PostingList();
+				map.put(key, postings);
+			}
+			postings.add(id);
+		} else if (postings != null && postings.remove(id) && postings.isEmpty()) {
+			map.remove(key);
+		}
+	}
+
+	PostingList findByAttendee(String address) {
+		return find(attendees, normalizeAddress(address));
+	}
+
+	PostingList findByOrganizer(String address) {
+		return find(organizers, normalizeAddress(address));
+	}
+
+	PostingList findByCategory(String category) {
+		return find(categories, normalizeCategory(category));
+	}
+
+	private static PostingList find(Map<String, PostingList> map, String key) {
+		PostingList postings = key == null ? null : map.get(key);
+		return postings == null ? PostingList.EMPTY : postings.copy();
+	}
+
+	/**
+	 * Normalize a calendar address as described above.
+	 *
+	 * @return the address, or null if it is empty
+	 */
+	static String normalizeAddress(String address) {
+		if (address == null)
+			return null;
+		address = address.trim();
+		if (address.isEmpty())
+			return null;
+		if (address.regionMatches(true, 0, "mailto:", 0, 7))
+			return "mailto:" + address.substring(7).trim().toLowerCase(Locale.ROOT);
+		if (address.indexOf(':') < 0 && address.indexOf('@') > 0)
+			return "mailto:" + address.toLowerCase(Locale.ROOT);
+		return address;
+	}
+
+	private static String normalizeCategory(String category) {
+		if (category == null)
+			return null;
+		category = category.trim();
+		return category.isEmpty() ? null : category.toLowerCase(Locale.ROOT);
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Links each Event that overrides an instance of a recurring Event, that is
+ * one with a RECURRENCE-ID, to the recurring Event with the same UID, and
+ * indexes the overrides of each recurring Event by the instant they override.
+ * Components are referred to by their index in the list being expanded, as in
+ * an OccurrenceTable. An override whose UID matches no recurring Event is not
+ * linked, and is expanded on its own.
+ * <br>
+ * If more than one override has the same RECURRENCE-ID, the one with the
+ * highest SEQUENCE is used, or the last one if they have the same SEQUENCE.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see OccurrenceExpander
+ */
+class RecurrenceOverrides {
+	/** The index of the recurring Event of each linked override, or -1 */
+	private final int[] masters;
+	/** The RECURRENCE-ID of each linked override as a packed UTC value */
+	private final long[] recurrenceIds;
+	/** The overrides of each recurring Event, by packed UTC RECURRENCE-ID */
+	private final Map<Integer, NavigableMap<Long, Integer>> overrides = new HashMap<Integer, NavigableMap<Long, Integer>>();
+
+	RecurrenceOverrides(List<Object> components, OccurrenceExpander expander) {
+		int n = components.size();
+		masters = new int[n];
+		recurrenceIds = new long[n];
+		Arrays.fill(masters, -1);
+		Map<String, Integer> byUid = null;
+		for (int i = 0; i < n; i++) {
+			Event event = override(components.get(i));
+			if (event != null && event.getUid() != null) {
+				byUid = new HashMap<String, Integer>();
+				break;
+			}
+		}
+		if (byUid == null)
+			return;
+		for (int i = 0; i < n; i++) {
+			Object component = components.get(i);
+			if (component instanceof Event && override(component) == null) {
+				Uid uid = ((Event) component).getUid();
+				if (uid != null && !byUid.containsKey(uid.getValue()))
+					byUid.put(uid.getValue(), i);
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			Event event = override(components.get(i));
+			if (event == null || event.getUid() == null)
+				continue;
+			Integer master = byUid.get(event.getUid().getValue());
+			if (master == null)
+				continue;
+			long recurrenceId = expander.toPackedUtc(event.getRecurrenceId());
+			masters[i] = master;
+			recurrenceIds[i] = recurrenceId;
+			NavigableMap<Long, Integer> map = overrides.get(master);
+			if (map == null) {
+				map = new TreeMap<Long, Integer>();
+				overrides.put(master, map);
+			}
+			Integer previous = map.get(recurrenceId);
+			if (previous == null
+					|| sequence(event) >= sequence((Event) components.get(previous)))
+				map.put(recurrenceId, i);
+		}
+	}
+
+	private static Event override(Object component) {
+		if (component instanceof Event
+				&& ((Event) component).getRecurrenceId() != null)
+			return (Event) component;
+		return null;
+	}
+
+	private static int sequence(Event event) {
+		return event.getSequence() == null ? 0 : event.getSequence().getNum();
+	}
+
+	/**
+	 * Get the index of the recurring Event that a component overrides.
+	 *
+	 * @return -1 if the component is not a linked override
+	 */
+	int getMaster(int index) {
+		return masters[index];
+	}
+
+	/**
+	 * Get the RECURRENCE-ID of a linked override as a packed UTC value.
+	 */
+	long getRecurrenceId(int index) {
+		return recurrenceIds[index];
+	}
+
+	/**
+	 * Is a linked override the one used for its RECURRENCE-ID, rather than one
+	 * replaced by another override of the same instance?
+	 */
+	boolean isUsed(int index) {
+		NavigableMap<Long, Integer> map = overrides.get(masters[index]);
+		Integer used = map.get(recurrenceIds[index]);
+		return used != null && used == index;
+	}
+
+	/**
+	 * Get the overrides of a recurring Event.
+	 *
+	 * @return the index of each override by its packed UTC RECURRENCE-ID, or
+	 *         null if there are none
+	 */
+	NavigableMap<Long, Integer> getOverrides(int master) {
+		return overrides.get(master);
+	}
+
+}
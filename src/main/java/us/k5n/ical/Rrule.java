@@ -24,11 +24,14 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import com.google.ical.iter.ExpansionPolicy;
+import com.google.ical.iter.OccurrenceIndex;
 import com.google.ical.iter.RecurrenceIterator;
 import com.google.ical.iter.RecurrenceIteratorFactory;
 import com.google.ical.values.DateTimeValueImpl;
 import com.google.ical.values.DateValueImpl;
 import com.google.ical.values.Frequency;
+import com.google.ical.values.RRuleTokenizer;
 import com.google.ical.values.Weekday;
 import com.google.ical.values.WeekdayNum;
 
@@ -191,6 +194,17 @@ public class Rrule extends Property {
 	public static final int FREQ_MINUTELY = 6;
 	public static final int FREQ_SECONDLY = 7;
 
+	/** Default maximum number of recurrences generated */
+	public static final int DEFAULT_MAX_INSTANCES = 10000;
+	/** Default number of years from this year that recurrences may go */
+	public static final int DEFAULT_MAX_YEARS = 100;
+	/** Default maximum number of candidate days examined */
+	public static final long DEFAULT_MAX_STEPS = 1000000L;
+	/** Limits on generating recurrences, or null for the defaults */
+	protected ExpansionPolicy expansionPolicy = null;
+	/** The VTIMEZONEs for TZIDs that are not IANA timezone IDs, or null */
+	private TimezoneRegistry timezoneRegistry = null;
+
 	/**
 	 * Create an Rrule.
 	 * 
@@ -214,6 +228,9 @@ public class Rrule extends Property {
 	public Rrule(String icalStr, int parseMode) throws ParseException,
 			BogusDataException {
 		super(icalStr, parseMode);
+		// keep the registry of the parser creating this, so that recurrences
+		// expanded later or on another thread use the same VTIMEZONEs
+		timezoneRegistry = TimezoneRegistry.getCurrent();
 
 		// Set defaults
 		freq = FREQ_NOT_SPECIFIED;
@@ -230,46 +247,39 @@ public class Rrule extends Property {
 			}
 		}
 
-		String[] args = value.split(";");
-		for (int i = 0; i < args.length; i++) {
-			String[] param = args[i].split("=", 2);
-			if (param.length != 2)
-				throw new ParseException("Invalid RRULE '" + args[i] + "'", icalStr);
-			String aname = param[0].toUpperCase();
-			String aval = param[1].toUpperCase();
-			if (aname.equals("FREQ")) {
+		RRuleTokenizer parts = new RRuleTokenizer(value);
+		while (parts.nextPart()) {
+			if (!parts.hasValue())
+				throw new ParseException("Invalid RRULE '" + parts.part() + "'",
+						icalStr);
+			if (parts.nameIs("FREQ")) {
 				// only one allowed
 				if (freq != FREQ_NOT_SPECIFIED)
 					throw new BogusDataException(
 							"More than one RRULE FREQ is not allowed", icalStr);
-				if (aval.equals("YEARLY")) {
+				if (parts.valueIs("YEARLY")) {
 					freq = FREQ_YEARLY;
-				} else if (aval.equals("MONTHLY")) {
+				} else if (parts.valueIs("MONTHLY")) {
 					freq = FREQ_MONTHLY;
-				} else if (aval.equals("WEEKLY")) {
+				} else if (parts.valueIs("WEEKLY")) {
 					freq = FREQ_WEEKLY;
-				} else if (aval.equals("DAILY")) {
+				} else if (parts.valueIs("DAILY")) {
 					freq = FREQ_DAILY;
-				} else if (aval.equals("HOURLY")) {
+				} else if (parts.valueIs("HOURLY")) {
 					freq = FREQ_HOURLY;
-				} else if (aval.equals("MINUTELY")) {
+				} else if (parts.valueIs("MINUTELY")) {
 					freq = FREQ_MINUTELY;
-				} else if (aval.equals("SECONDLY")) {
+				} else if (parts.valueIs("SECONDLY")) {
 					freq = FREQ_SECONDLY;
 				} else {
-					throw new BogusDataException("Invalid RRULE FREQ '" + aval + "'",
-							icalStr);
-				}
-			} else if (aname.equals("INTERVAL")) {
-				try {
-					interval = Integer.parseInt(aval);
-				} catch (NumberFormatException nef) {
-					throw new BogusDataException("Invalid RRULE INTERVAL '" + aval
-							+ "'", icalStr);
+					throw new BogusDataException("Invalid RRULE FREQ '"
+							+ parts.value().toUpperCase() + "'", icalStr);
 				}
-			} else if (aname.equals("UNTIL")) {
+			} else if (parts.nameIs("INTERVAL")) {
+				interval = parseInt(parts, "INTERVAL", icalStr);
+			} else if (parts.nameIs("UNTIL")) {
 				try {
-					untilDate = new Date("XXX:" + aval);
+					untilDate = new Date("XXX:" + parts.value().toUpperCase());
 				} catch (BogusDataException bde) {
 					throw new BogusDataException("Invalid RRULE UNTIL date: "
 							+ bde.error, icalStr);
@@ -277,126 +287,46 @@ public class Rrule extends Property {
 					throw new BogusDataException("Invalid RRULE UNTIL date: "
 							+ pe.error, icalStr);
 				}
-			} else if (aname.equals("COUNT")) {
-				try {
-					count = Integer.parseInt(aval);
-				} catch (NumberFormatException nef) {
-					throw new BogusDataException("Invalid RRULE COUNT '" + aval + "'",
-							icalStr);
-				}
-			} else if (aname.equals("WKST")) {
+			} else if (parts.nameIs("COUNT")) {
+				count = parseInt(parts, "COUNT", icalStr);
+			} else if (parts.nameIs("WKST")) {
 				// TODO
-			} else if (aname.equals("BYYEARNO")) {
+			} else if (parts.nameIs("BYYEARNO")) {
 				// TODO
-			} else if (aname.equals("BYWEEKNO")) {
+			} else if (parts.nameIs("BYWEEKNO")) {
 				// TODO
-			} else if (aname.equals("BYSETPOS")) {
-				String[] s = aval.split(",");
-				bysetpos = new int[s.length];
-				for (int j = 0; j < s.length; j++) {
-					if (StringUtils.isNumber(s[j], true)) {
-						bysetpos[j] = Integer.parseInt(s[j]);
-						if (bysetpos[j] < -366 || bysetpos[j] > 366) {
-							throw new BogusDataException("Invalid RRULE BYSETPOS (range) '"
-									+ bysetpos[j] + "'", icalStr);
-						}
-					} else {
-						throw new BogusDataException("Invalid RRULE BYSETPOS '" + s[j]
-								+ "'", icalStr);
-					}
-				}
-			} else if (aname.equals("BYMONTH")) {
-				String[] s = aval.split(",");
-				bymonth = new int[s.length];
-				for (int j = 0; j < s.length; j++) {
-					if (StringUtils.isNumber(s[j], true))
-						bymonth[j] = Integer.parseInt(s[j]);
-					else {
-						throw new BogusDataException("Invalid RRULE BYMONTH '" + s[j]
-								+ "'", icalStr);
-					}
-				}
-			} else if (aname.equals("BYYEARDAY")) {
-				String[] s = aval.split(",");
-				byyearday = new int[s.length];
-				for (int j = 0; j < s.length; j++) {
-					if (StringUtils.isNumber(s[j], true)) {
-						byyearday[j] = Integer.parseInt(s[j]);
-						if (byyearday[j] < -366 || byyearday[j] > 366) {
-							throw new BogusDataException("Invalid RRULE BYYEARDAY '" + s[j]
-									+ "'", icalStr);
-						}
-					} else {
-						throw new BogusDataException("Invalid RRULE BYYEARDAY '" + s[j]
-								+ "'", icalStr);
-					}
-				}
-			} else if (aname.equals("BYMONTHDAY")) {
-				String[] s = aval.split(",");
-				bymonthday = new int[s.length];
-				for (int j = 0; j < s.length; j++) {
-					if (StringUtils.isNumber(s[j], true)) {
-						bymonthday[j] = Integer.parseInt(s[j]);
-						if (bymonthday[j] < -31 || bymonthday[j] > 31) {
-							throw new BogusDataException(
-									"Invalid RRULE BYMONTHDAY (range) '" + bymonthday[j] + "'",
-									icalStr);
-						}
-					} else {
-						throw new BogusDataException("Invalid RRULE BYMONTHDAY '" + s[j]
-								+ "'", icalStr);
-					}
-				}
-			} else if (aname.equals("BYDAY")) {
-				String[] bydaystr = aval.split(",");
-				byday = new RruleByday[bydaystr.length];
-				for (int j = 0; j < bydaystr.length; j++) {
-					byday[j] = new RruleByday(bydaystr[j]);
+			} else if (parts.nameIs("BYSETPOS")) {
+				bysetpos = parseIntList(parts, "BYSETPOS", -366, 366, icalStr);
+			} else if (parts.nameIs("BYMONTH")) {
+				bymonth = parseIntList(parts, "BYMONTH", Integer.MIN_VALUE,
+						Integer.MAX_VALUE, icalStr);
+			} else if (parts.nameIs("BYYEARDAY")) {
+				byyearday = parseIntList(parts, "BYYEARDAY", -366, 366, icalStr);
+			} else if (parts.nameIs("BYMONTHDAY")) {
+				bymonthday = parseIntList(parts, "BYMONTHDAY", -31, 31, icalStr);
+			} else if (parts.nameIs("BYDAY")) {
+				byday = new RruleByday[parts.itemCount()];
+				for (int j = 0; parts.nextItem(); j++) {
+					String item = parts.item().toUpperCase();
+					byday[j] = new RruleByday(item);
 					if (!byday[j].valid) {
-						throw new BogusDataException("Invalid RRULE BYDAY '"
-								+ bydaystr[j] + "'", icalStr);
-					}
-				}
-			} else if (aname.equals("BYHOUR")) {
-				String[] s = aval.split(",");
-				byhour = new int[s.length];
-				// validate
-				for (int j = 0; j < s.length; j++) {
-					if (!StringUtils.isNumber(s[j]) || Integer.parseInt(s[j]) > 23) {
-						throw new BogusDataException("Invalid RRULE BYHOUR '" + s[j]
-								+ "'", icalStr);
-					} else {
-						byhour[j] = Integer.parseInt(s[j]);
-					}
-				}
-			} else if (aname.equals("BYMINUTE")) {
-				String[] s = aval.split(",");
-				byminute = new int[s.length];
-				// validate
-				for (int j = 0; j < s.length; j++) {
-					if (!StringUtils.isNumber(s[j]) || Integer.parseInt(s[j]) > 59) {
-						throw new BogusDataException("Invalid RRULE BYMINUTE '" + s[j]
-								+ "'", icalStr);
-					} else {
-						byminute[j] = Integer.parseInt(s[j]);
-					}
-				}
-			} else if (aname.equals("BYSECOND")) {
-				String[] s = aval.split(",");
-				bysecond = new int[s.length];
-				// validate
-				for (int j = 0; j < s.length; j++) {
-					if (!StringUtils.isNumber(s[j]) || Integer.parseInt(s[j]) > 59) {
-						throw new BogusDataException("Invalid RRULE BYSECOND '" + s[j]
-								+ "'", icalStr);
-					} else {
-						bysecond[j] = Integer.parseInt(s[j]);
+						throw new BogusDataException("Invalid RRULE BYDAY '" + item + "'",
+								icalStr);
 					}
 				}
+			} else if (parts.nameIs("BYHOUR")) {
+				byhour = parseIntList(parts, "BYHOUR", Integer.MIN_VALUE, 23,
+						icalStr);
+			} else if (parts.nameIs("BYMINUTE")) {
+				byminute = parseIntList(parts, "BYMINUTE", Integer.MIN_VALUE, 59,
+						icalStr);
+			} else if (parts.nameIs("BYSECOND")) {
+				bysecond = parseIntList(parts, "BYSECOND", Integer.MIN_VALUE, 59,
+						icalStr);
 			} else if (parseMode == PARSE_STRICT) {
 				// Only generate exception if strict parsing
-				throw new ParseException("Invalid RRULE attribute '" + aname + "'",
-						icalStr);
+				throw new ParseException("Invalid RRULE attribute '" + parts.name()
+						+ "'", icalStr);
 			}
 		}
 
@@ -407,6 +337,37 @@ public class Rrule extends Property {
 		}
 	}
 
+	private static int parseInt(RRuleTokenizer parts, String name,
+			String icalStr) throws BogusDataException {
+		try {
+			return Integer.parseInt(parts.value());
+		} catch (NumberFormatException nef) {
+			throw new BogusDataException("Invalid RRULE " + name + " '"
+					+ parts.value().toUpperCase() + "'", icalStr);
+		}
+	}
+
+	/**
+	 * Parse the comma-separated numbers of an RRULE part such as BYMONTHDAY,
+	 * each of which must be within min and max.
+	 */
+	private static int[] parseIntList(RRuleTokenizer parts, String name,
+			int min, int max, String icalStr) throws BogusDataException {
+		int[] ret = new int[parts.itemCount()];
+		for (int j = 0; parts.nextItem(); j++) {
+			if (!parts.itemIsNumber(true)) {
+				throw new BogusDataException("Invalid RRULE " + name + " '"
+						+ parts.item().toUpperCase() + "'", icalStr);
+			}
+			ret[j] = parts.itemInt();
+			if (ret[j] < min || ret[j] > max) {
+				throw new BogusDataException("Invalid RRULE " + name + " (range) '"
+						+ ret[j] + "'", icalStr);
+			}
+		}
+		return ret;
+	}
+
 	/**
 	 * Get the frequency of the recurrence. This can be any of the following:
 	 * <ul>
@@ -539,7 +500,7 @@ public class Rrule extends Property {
 	 * @param tzid
 	 *                  the timezone ID
 	 */
-	public List<Date> generateRecurrances(Date startDate, String tzid) {
+	public Recurrences generateRecurrances(Date startDate, String tzid) {
 		return generateRecurrances(startDate, tzid, null, null);
 	}
 
@@ -550,6 +511,11 @@ public class Rrule extends Property {
 	 * URL for more info: <a
 	 * href=
 	 * "http://code.google.com/p/google-rfc-2445/">http://code.google.com/p/google-rfc-2445/</a>
+	 * <br>
+	 * Only the rule, EXDATEs and RDATEs are used. Events that override an
+	 * instance with a RECURRENCE-ID are separate components, so the dates of
+	 * instances they move or cancel are returned unchanged; use
+	 * {@link OccurrenceExpander} or {@link AgendaIterator} to apply them.
 	 * 
 	 * @param startDate
 	 *                  the start date of the recurrence
@@ -564,97 +530,31 @@ public class Rrule extends Property {
 	 *                  RDATE
 	 *                  iCalendar field)
 	 */
-	public List<Date> generateRecurrances(Date startDate, String tzid,
+	public Recurrences generateRecurrances(Date startDate, String tzid,
 			List<Date> exdates, List<Date> rdates) {
-		List<Date> ret = new ArrayList<Date>();
-		com.google.ical.values.DateValue dtStart = null;
-		if (startDate.dateOnly) {
-			dtStart = new DateValueImpl(startDate.getYear(),
-					startDate.getMonth(), startDate.getDay());
-		} else {
-			dtStart = new DateTimeValueImpl(startDate.getYear(),
-					startDate.getMonth(), startDate.getDay(), startDate.getHour(),
-					startDate.getMinute(), startDate.getSecond());
-		}
-		com.google.ical.values.RRule rrule = new com.google.ical.values.RRule();
-		rrule.setName("RRULE");
-		rrule.setInterval(this.interval);
-		switch (this.freq) {
-			case FREQ_YEARLY:
-				rrule.setFreq(Frequency.YEARLY);
-				break;
-			case FREQ_MONTHLY:
-				rrule.setFreq(Frequency.MONTHLY);
-				break;
-			case FREQ_WEEKLY:
-				rrule.setFreq(Frequency.WEEKLY);
-				break;
-			case FREQ_DAILY:
-				rrule.setFreq(Frequency.DAILY);
-				break;
-			case FREQ_HOURLY:
-				rrule.setFreq(Frequency.HOURLY);
-				break;
-			case FREQ_MINUTELY:
-				rrule.setFreq(Frequency.MINUTELY);
-				break;
-			case FREQ_SECONDLY:
-				rrule.setFreq(Frequency.SECONDLY);
-				break;
-		}
-		if (this.count > 0)
-			rrule.setCount(this.count);
-		if (this.byyearday != null && this.byyearday.length > 0) {
-			rrule.setByYearDay(this.byyearday);
-		}
-		if (this.bymonth != null && this.bymonth.length > 0)
-			rrule.setByMonth(this.bymonth);
-		if (this.bymonthday != null && this.bymonthday.length > 0)
-			rrule.setByMonthDay(this.bymonthday);
-		if (this.byday != null && this.byday.length > 0) {
-			List<WeekdayNum> weekdays = new ArrayList<WeekdayNum>();
-			for (int i = 0; i < this.byday.length; i++) {
-				WeekdayNum weekday = this.byday[i].toWeekdayNum();
-				weekdays.add(weekday);
-			}
-			rrule.setByDay(weekdays);
-		}
-		if (this.byhour != null && this.byhour.length > 0)
-			rrule.setByHour(this.byhour);
-		if (this.byminute != null && this.byminute.length > 0)
-			rrule.setByMinute(this.byminute);
-		if (this.bysecond != null && this.bysecond.length > 0)
-			rrule.setBySecond(this.bysecond);
-		if (this.bysetpos != null && this.bysetpos.length > 0)
-			rrule.setBySetPos(this.bysetpos);
-		if (this.untilDate != null) {
-			com.google.ical.values.DateValue rruleUntil = null;
-			if (this.untilDate.dateOnly) {
-				rruleUntil = new DateValueImpl(this.untilDate.getYear(),
-						this.untilDate.getMonth(), this.untilDate.getDay());
-			} else {
-				rruleUntil = new DateTimeValueImpl(this.untilDate.getYear(),
-						this.untilDate.getMonth(), this.untilDate.getDay(),
-						this.untilDate.getHour(), this.untilDate.getMinute(),
-						this.untilDate.getSecond());
-			}
-			rrule.setUntil(rruleUntil);
-		}
+		Recurrences ret = new Recurrences();
+		com.google.ical.values.DateValue dtStart = toDateValue(startDate);
+		com.google.ical.values.RRule rrule = toRecurrenceRule();
 
 		// TODO: does this conflict with Joda's own Timezone stuff?
 		// should we be using a Joda timezone object here?
 		if (tzid == null)
 			tzid = "GMT";
-		java.util.TimeZone timezone = java.util.TimeZone.getTimeZone(tzid);
+		java.util.TimeZone timezone = TimezoneRegistry.resolve(timezoneRegistry,
+				tzid);
 		RecurrenceIterator iter = RecurrenceIteratorFactory
-				.createRecurrenceIterator(rrule, dtStart, timezone);
-		int num = 0;
-		int thisYear = java.util.Calendar.getInstance().get(
-				java.util.Calendar.YEAR);
-		while (iter.hasNext() && num++ < 10000) {
+				.createRecurrenceIterator(rrule, dtStart, timezone,
+						getExpansionPolicy());
+		// A rule more frequent than daily has other recurrences on the start
+		// date, so only the start time itself is skipped.
+		com.google.ical.values.DateValue dtStartUtc = freq >= FREQ_HOURLY
+				? com.google.ical.util.TimeUtils.toUtc(dtStart, timezone)
+				: null;
+		while (iter.hasNext()) {
 			com.google.ical.values.DateValue d = iter.next();
 			// Check if the generated date matches the original start date
-			boolean isSameAsStartDate = d.year() == startDate.getYear() &&
+			boolean isSameAsStartDate = dtStartUtc != null ? d.equals(dtStartUtc)
+					: d.year() == startDate.getYear() &&
 					d.month() == startDate.getMonth() &&
 					d.day() == startDate.getDay() &&
 					(!startDate.dateOnly || (d instanceof com.google.ical.values.DateTimeValue &&
@@ -696,11 +596,8 @@ public class Rrule extends Property {
 					e1.printStackTrace();
 				}
 			}
-			// Max of 100 years from this year. (To avoid endless loop.)
-			// TODO: make this configurable
-			if (d.year() >= thisYear + 100)
-				break;
 		}
+		ret.truncated = iter.isTruncated();
 		// Add in inclusion dates (from RDATE field)
 		// If the recurrence already has the date, don't re-add it (which could
 		// happen if the RRULE was changed after the RDATE field was set).
@@ -722,6 +619,208 @@ public class Rrule extends Property {
 		return ret;
 	}
 
+	/**
+	 * Set the timezones defined by VTIMEZONE components to use for TZIDs that
+	 * are not IANA timezone IDs. An Rrule created by an ICalendarParser uses
+	 * the parser's registry unless this is called.
+	 * 
+	 * @param timezoneRegistry
+	 *                         the registry, or null to use only IANA timezones
+	 */
+	public void setTimezoneRegistry(TimezoneRegistry timezoneRegistry) {
+		this.timezoneRegistry = timezoneRegistry;
+	}
+
+	public TimezoneRegistry getTimezoneRegistry() {
+		return timezoneRegistry;
+	}
+
+	/**
+	 * Set the limits on generating recurrences. Recurrences beyond a limit are
+	 * not generated, and the list returned by generateRecurrances reports
+	 * this with {@link Recurrences#isTruncated()}.
+	 * 
+	 * @param expansionPolicy
+	 *                        the limits, or null for the defaults
+	 */
+	public void setExpansionPolicy(ExpansionPolicy expansionPolicy) {
+		this.expansionPolicy = expansionPolicy;
+	}
+
+	/**
+	 * Get the limits on generating recurrences. By default at most
+	 * DEFAULT_MAX_INSTANCES recurrences are generated, none more than
+	 * DEFAULT_MAX_YEARS years from this year, and at most DEFAULT_MAX_STEPS
+	 * candidate days are examined.
+	 * 
+	 * @return the limits
+	 */
+	public ExpansionPolicy getExpansionPolicy() {
+		if (expansionPolicy != null)
+			return expansionPolicy;
+		int thisYear = java.util.Calendar.getInstance().get(
+				java.util.Calendar.YEAR);
+		return ExpansionPolicy.UNLIMITED
+				.withMaxInstances(DEFAULT_MAX_INSTANCES)
+				.withMaxHorizon(new DateValueImpl(thisYear + DEFAULT_MAX_YEARS, 1, 1))
+				.withMaxSteps(DEFAULT_MAX_STEPS);
+	}
+
+	/**
+	 * Get the number of times this event will repeat on or after one date and
+	 * before another. Unlike {@link #generateRecurrances(Date, String)}, the
+	 * original event date counts if it matches the rule, as it does for COUNT.
+	 * Common rules (such as daily, weekly by day or monthly by day of the
+	 * month) are counted without generating each recurrence.
+	 * 
+	 * @param startDate
+	 *                  the start date of the recurrence
+	 * @param tzid
+	 *                  the timezone ID
+	 * @param from
+	 *                  the start of the range (inclusive)
+	 * @param to
+	 *                  the end of the range (exclusive)
+	 */
+	public long countOccurrences(Date startDate, String tzid, Date from, Date to) {
+		return createOccurrenceIndex(startDate, tzid).countOccurrences(
+				toDateValue(from), toDateValue(to));
+	}
+
+	/**
+	 * Get the nth recurrence of this event, counting from 0.
+	 * 
+	 * @param startDate
+	 *                  the start date of the recurrence
+	 * @param tzid
+	 *                  the timezone ID
+	 * @param n
+	 *                  the index of the recurrence
+	 * @return the recurrence, or null if there are not that many
+	 */
+	public Date nthOccurrence(Date startDate, String tzid, long n) {
+		return toDate(createOccurrenceIndex(startDate, tzid).nthOccurrence(n));
+	}
+
+	/**
+	 * Get the last recurrence of this event as determined by the COUNT or UNTIL
+	 * values. This is useful for displaying when a repeating event ends.
+	 * 
+	 * @param startDate
+	 *                  the start date of the recurrence
+	 * @param tzid
+	 *                  the timezone ID
+	 * @return the last recurrence, or null if the event repeats forever
+	 */
+	public Date lastOccurrence(Date startDate, String tzid) {
+		return toDate(createOccurrenceIndex(startDate, tzid).lastOccurrence());
+	}
+
+	/**
+	 * Get the last recurrence of this event, giving up if that takes more work
+	 * than an ExpansionPolicy allows. Rules whose recurrences can be computed
+	 * without generating them are not limited.
+	 * 
+	 * @return the last recurrence, or null if the event repeats forever or a
+	 *         limit was reached
+	 */
+	Date lastOccurrence(Date startDate, String tzid, ExpansionPolicy policy) {
+		return toDate(createOccurrenceIndex(startDate, tzid).lastOccurrence(
+				policy));
+	}
+
+	private OccurrenceIndex createOccurrenceIndex(Date startDate, String tzid) {
+		if (tzid == null)
+			tzid = "GMT";
+		return OccurrenceIndex.forRule(toRecurrenceRule(),
+				toDateValue(startDate), TimezoneRegistry.resolve(timezoneRegistry,
+						tzid));
+	}
+
+	/**
+	 * Convert to the RRule object used by the Google RFC2445 package.
+	 */
+	com.google.ical.values.RRule toRecurrenceRule() {
+		com.google.ical.values.RRule rrule = new com.google.ical.values.RRule();
+		rrule.setName("RRULE");
+		rrule.setInterval(this.interval);
+		switch (this.freq) {
+			case FREQ_YEARLY:
+				rrule.setFreq(Frequency.YEARLY);
+				break;
+			case FREQ_MONTHLY:
+				rrule.setFreq(Frequency.MONTHLY);
+				break;
+			case FREQ_WEEKLY:
+				rrule.setFreq(Frequency.WEEKLY);
+				break;
+			case FREQ_DAILY:
+				rrule.setFreq(Frequency.DAILY);
+				break;
+			case FREQ_HOURLY:
+				rrule.setFreq(Frequency.HOURLY);
+				break;
+			case FREQ_MINUTELY:
+				rrule.setFreq(Frequency.MINUTELY);
+				break;
+			case FREQ_SECONDLY:
+				rrule.setFreq(Frequency.SECONDLY);
+				break;
+		}
+		if (this.count > 0)
+			rrule.setCount(this.count);
+		if (this.byyearday != null && this.byyearday.length > 0) {
+			rrule.setByYearDay(this.byyearday);
+		}
+		if (this.bymonth != null && this.bymonth.length > 0)
+			rrule.setByMonth(this.bymonth);
+		if (this.bymonthday != null && this.bymonthday.length > 0)
+			rrule.setByMonthDay(this.bymonthday);
+		if (this.byday != null && this.byday.length > 0) {
+			List<WeekdayNum> weekdays = new ArrayList<WeekdayNum>();
+			for (int i = 0; i < this.byday.length; i++) {
+				WeekdayNum weekday = this.byday[i].toWeekdayNum();
+				weekdays.add(weekday);
+			}
+			rrule.setByDay(weekdays);
+		}
+		if (this.byhour != null && this.byhour.length > 0)
+			rrule.setByHour(this.byhour);
+		if (this.byminute != null && this.byminute.length > 0)
+			rrule.setByMinute(this.byminute);
+		if (this.bysecond != null && this.bysecond.length > 0)
+			rrule.setBySecond(this.bysecond);
+		if (this.bysetpos != null && this.bysetpos.length > 0)
+			rrule.setBySetPos(this.bysetpos);
+		if (this.untilDate != null) {
+			rrule.setUntil(toDateValue(this.untilDate));
+		}
+		return rrule;
+	}
+
+	static com.google.ical.values.DateValue toDateValue(Date d) {
+		if (d.dateOnly) {
+			return new DateValueImpl(d.getYear(), d.getMonth(), d.getDay());
+		}
+		return new DateTimeValueImpl(d.getYear(), d.getMonth(), d.getDay(),
+				d.getHour(), d.getMinute(), d.getSecond());
+	}
+
+	private static Date toDate(com.google.ical.values.DateValue d) {
+		if (d == null)
+			return null;
+		try {
+			if (d instanceof com.google.ical.values.DateTimeValue) {
+				com.google.ical.values.DateTimeValue dt = (com.google.ical.values.DateTimeValue) d;
+				return new Date("XXX", dt.year(), dt.month(), dt.day(), dt.hour(),
+						dt.minute(), dt.second());
+			}
+			return new Date("XXX", d.year(), d.month(), d.day());
+		} catch (BogusDataException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
 	/**
 	 * Check if this RRULE is valid
 	 *
@@ -846,4 +945,26 @@ public class Rrule extends Property {
 
 		return valid;
 	}
+
+	/**
+	 * The dates returned by generateRecurrances, together with whether the
+	 * expansion stopped at a limit of the ExpansionPolicy. The flag belongs to
+	 * the result rather than the Rrule so that one Rrule can be expanded by
+	 * several threads at once.
+	 */
+	public static class Recurrences extends ArrayList<Date> {
+		private static final long serialVersionUID = 1L;
+		boolean truncated = false;
+
+		/**
+		 * Did the expansion stop at a limit of the ExpansionPolicy, so that there
+		 * are more recurrences than were returned?
+		 * 
+		 * @return true if the recurrences were truncated
+		 */
+		public boolean isTruncated() {
+			return truncated;
+		}
+	}
+
 }
@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of records, split into numbered segment files in a
+ * directory. Each record holds a component kind, an operation (put or
+ * delete), a key and a payload, and is checked with a CRC32 when it is read
+ * back.
+ * <br>
+ * A record is found by its position: the segment number in the high 32 bits
+ * and the offset within the segment in the low 32. Positions only increase,
+ * since a new segment is always numbered above the ones before it, even after
+ * older segments are deleted.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see PersistentDataStore
+ */
+class SegmentLog implements Closeable {
+	static final byte PUT = 1;
+	static final byte DELETE = 2;
+	/** "JCTLOG01" */
+	private static final long MAGIC = 0x4a43544c4f473031L;
+	private static final int VERSION = 1;
+	/** Bytes of the magic number and version at the start of each segment */
+	static final int HEADER_BYTES = 12;
+	/** Bytes of the length and CRC before each record body */
+	private static final int RECORD_HEADER_BYTES = 8;
+	/** Bytes of the kind, operation and key length in each record body */
+	private static final int BODY_HEADER_BYTES = 4;
+	private final File directory;
+	private final long segmentBytes;
+	private final TreeMap<Integer, FileChannel> segments = new TreeMap<Integer, FileChannel>();
+	private int activeId;
+	private FileChannel active;
+	private long activeSize;
+
+	/**
+	 * A record read from the log.
+	 */
+	static final class Record {
+		final long position;
+		final byte kind;
+		final byte op;
+		final String key;
+		final byte[] payload;
+		/** The CRC32 of the record body */
+		final int crc;
+		/** Bytes used in the log */
+		final int size;
+
+		Record(long position, byte kind, byte op, String key, byte[] payload,
+				int crc, int size) {
+			this.position = position;
+			this.kind = kind;
+			this.op = op;
+			this.key = key;
+			this.payload = payload;
+			this.crc = crc;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Receives the records read by replay().
+	 */
+	interface RecordHandler {
+		void record(Record record) throws IOException;
+	}
+
+	/**
+	 * Open the segments in a directory, creating the first if there are none.
+	 * A last segment too short to hold its header, as it may be after a crash
+	 * while it was being started, is treated as empty.
+	 *
+	 * @param segmentBytes
+	 *                       the size at which a new segment is started
+	 */
+	SegmentLog(File directory, long segmentBytes) throws IOException {
+		if (segmentBytes > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Segments are limited to 2GB");
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+		TreeMap<Integer, File> files = new TreeMap<Integer, File>();
+		File[] list = directory.listFiles();
+		if (list != null) {
+			for (File file : list) {
+				int id = segmentId(file.getName());
+				if (id > 0)
+					files.put(id, file);
+			}
+		}
+		try {
+			for (Map.Entry<Integer, File> file : files.entrySet())
+				segments.put(file.getKey(), open(file.getValue(),
+						file.getKey().equals(files.lastKey())));
+			if (segments.isEmpty()) {
+				startSegment(1);
+			} else {
+				activeId = segments.lastKey();
+				active = segments.get(activeId);
+				activeSize = active.size();
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	private static int segmentId(String name) {
+		if (!name.startsWith("segment-") || !name.endsWith(".log")
+				|| name.length() != 20)
+			return 0;
+		try {
+			return Integer.parseInt(name.substring(8, 16));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private File segmentFile(int id) {
+		return new File(directory, String.format("segment-%08d.log", id));
+	}
+
+	/**
+	 * Open an existing segment.
+	 *
+	 * @param last
+	 *                       true for the last segment, which is given a new
+	 *                       header if its own was not completely written
+	 */
+	private FileChannel open(File file, boolean last) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		if (read(channel, header, 0) < HEADER_BYTES) {
+			if (last) {
+				channel.truncate(0);
+				writeHeader(channel);
+				return channel;
+			}
+		} else if (header.getLong(0) == MAGIC && header.getInt(8) == VERSION) {
+			return channel;
+		}
+		channel.close();
+		throw new IOException("Not a log segment: " + file);
+	}
+
+	private static void writeHeader(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putLong(MAGIC).putInt(VERSION).flip();
+		write(channel, header, 0);
+	}
+
+	private void startSegment(int id) throws IOException {
+		active = FileChannel.open(segmentFile(id).toPath(),
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		writeHeader(active);
+		segments.put(id, active);
+		activeId = id;
+		activeSize = HEADER_BYTES;
+	}
+
+	static long position(int segment, long offset) {
+		return ((long) segment << 32) | offset;
+	}
+
+	/**
+	 * Get the position the next record will be written at, unless a new
+	 * segment is started for it.
+	 */
+	long end() {
+		return position(activeId, activeSize);
+	}
+
+	/**
+	 * Get the position of the first record in the log.
+	 */
+	long start() {
+		return position(segments.firstKey(), HEADER_BYTES);
+	}
+
+	/**
+	 * Get the CRC32 a record would have.
+	 */
+	static int crc(byte kind, byte op, String key, byte[] payload) {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		CRC32 crc = new CRC32();
+		crc.update(kind);
+		crc.update(op);
+		crc.update(keyBytes.length >> 8);
+		crc.update(keyBytes.length);
+		crc.update(keyBytes);
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Append a record.
+	 *
+	 * @return the record, with its position in the log
+	 */
+	Record append(byte kind, byte op, String key, byte[] payload)
+			throws IOException {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		if (keyBytes.length > 0xffff)
+			throw new IllegalArgumentException("Key too long: " + key);
+		int bodyLength = BODY_HEADER_BYTES + keyBytes.length + payload.length;
+		int size = RECORD_HEADER_BYTES + bodyLength;
+		if (activeSize > HEADER_BYTES && activeSize + size > segmentBytes)
+			startSegment(activeId + 1);
+		ByteBuffer buf = ByteBuffer.allocate(size);
+		buf.putInt(bodyLength).putInt(0).put(kind).put(op)
+				.putShort((short) keyBytes.length).put(keyBytes).put(payload);
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), RECORD_HEADER_BYTES, bodyLength);
+		buf.putInt(4, (int) crc.getValue()).flip();
+		long position = end();
+		write(active, buf, activeSize);
+		activeSize += size;
+		return new Record(position, kind, op, key, payload, (int) crc.getValue(),
+				size);
+	}
+
+	/**
+	 * Read the record at a position.
+	 *
+	 * @throws IOException
+	 *                       if there is no record there or it is damaged
+	 */
+	Record read(long position) throws IOException {
+		Record record = readAt((int) (position >>> 32), position & 0xffffffffL);
+		if (record == null)
+			throw new IOException("No record at " + Long.toHexString(position));
+		return record;
+	}
+
+	/**
+	 * Read a record, or return null if the bytes there are not a whole record
+	 * with a matching CRC.
+	 */
+	private Record readAt(int id, long offset) throws IOException {
+		FileChannel channel = segments.get(id);
+		if (channel == null)
+			throw new IOException("No log segment " + id);
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+		if (read(channel, header, offset) < RECORD_HEADER_BYTES)
+			return null;
+		int bodyLength = header.getInt(0);
+		if (bodyLength < BODY_HEADER_BYTES
+				|| offset + RECORD_HEADER_BYTES + bodyLength > channel.size())
+			return null;
+		byte[] body = new byte[bodyLength];
+		read(channel, ByteBuffer.wrap(body), offset + RECORD_HEADER_BYTES);
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		if ((int) crc.getValue() != header.getInt(4))
+			return null;
+		int keyLength = ((body[2] & 0xff) << 8) | (body[3] & 0xff);
+		if (BODY_HEADER_BYTES + keyLength > bodyLength)
+			return null;
+		String key = new String(body, BODY_HEADER_BYTES, keyLength,
+				StandardCharsets.UTF_8);
+		byte[] payload = new byte[bodyLength - BODY_HEADER_BYTES - keyLength];
+		System.arraycopy(body, BODY_HEADER_BYTES + keyLength, payload, 0,
+				payload.length);
+		return new Record(position(id, offset), body[0], body[1], key, payload,
+				header.getInt(4), RECORD_HEADER_BYTES + bodyLength);
+	}
+
+	/**
+	 * Read the records from a position to the end of the log, stopping at the
+	 * first damaged or partly written record, as there may be after a crash.
+	 * The log is truncated before that record and any later segments are
+	 * deleted, so that the records kept are always a prefix of those written
+	 * and new records are appended after them.
+	 */
+	void replay(long from, RecordHandler handler) throws IOException {
+		int fromId = (int) (from >>> 32);
+		for (Map.Entry<Integer, FileChannel> segment : new ArrayList<Map.Entry<Integer, FileChannel>>(
+				segments.tailMap(fromId, true).entrySet())) {
+			int id = segment.getKey();
+			FileChannel channel = segment.getValue();
+			long offset = id == fromId ? Math.max(HEADER_BYTES, from & 0xffffffffL)
+					: HEADER_BYTES;
+			while (offset < channel.size()) {
+				Record record = readAt(id, offset);
+				if (record == null) {
+					channel.truncate(offset);
+					deleteSegmentsAfter(id);
+					activeId = id;
+					active = channel;
+					activeSize = offset;
+					return;
+				}
+				handler.record(record);
+				offset += record.size;
+			}
+			if (id == activeId)
+				activeSize = channel.size();
+		}
+	}
+
+	/**
+	 * Delete the segments numbered above a segment.
+	 */
+	private void deleteSegmentsAfter(int id) throws IOException {
+		List<Integer> ids = new ArrayList<Integer>(segments.tailMap(id, false)
+				.keySet());
+		for (Integer later : ids) {
+			segments.remove(later).close();
+			if (!segmentFile(later).delete())
+				throw new IOException("Cannot delete " + segmentFile(later));
+		}
+	}
+
+	/**
+	 * Start a new segment, so that the records appended after this are in
+	 * segments numbered from the one returned.
+	 */
+	int startNewSegment() throws IOException {
+		active.force(false);
+		startSegment(activeId + 1);
+		return activeId;
+	}
+
+	/**
+	 * Delete the segments numbered below a segment.
+	 */
+	void deleteSegmentsBefore(int id) throws IOException {
+		List<Integer> ids = new ArrayList<Integer>(segments.headMap(id).keySet());
+		for (Integer old : ids) {
+			segments.remove(old).close();
+			if (!segmentFile(old).delete())
+				throw new IOException("Cannot delete " + segmentFile(old));
+		}
+	}
+
+	/**
+	 * Write everything appended so far to the disk.
+	 */
+	void sync() throws IOException {
+		active.force(false);
+	}
+
+	/**
+	 * Get the total size of the segments.
+	 */
+	long size() throws IOException {
+		long size = 0;
+		for (FileChannel channel : segments.values())
+			size += channel.size();
+		return size;
+	}
+
+	public void close() throws IOException {
+		for (FileChannel channel : segments.values())
+			channel.close();
+		segments.clear();
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buf, long offset)
+			throws IOException {
+		while (buf.hasRemaining())
+			offset += channel.write(buf, offset);
+	}
+
+	/**
+	 * Fill a buffer from a position of a channel.
+	 *
+	 * @return the bytes read, which are less than requested at the end of the
+	 *         channel
+	 */
+	private static int read(FileChannel channel, ByteBuffer buf, long offset)
+			throws IOException {
+		int total = 0;
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, offset + total);
+			if (n < 0)
+				break;
+			total += n;
+		}
+		return total;
+	}
+}
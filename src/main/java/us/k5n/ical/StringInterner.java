@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * A table of strings used to share one copy of the values that large
+ * calendars repeat many times, such as the parameter names CN, ROLE and
+ * PARTSTAT, their values, TZIDs, and the addresses of ORGANIZERs and
+ * ATTENDEEs. Without it, every Property parsed holds its own copy of each.
+ * <br>
+ * While an ICalendarParser that has a StringInterner is parsing, each
+ * Property parsed gets its name, its parameter names and values, and the
+ * value of properties with one of the configured names (ATTENDEE, ORGANIZER,
+ * LOCATION, CATEGORIES and a few enumerated properties by default) from the
+ * table. Values longer than the maximum length are not looked up, as long
+ * text is rarely repeated. The table refers to its strings weakly, so
+ * strings no longer used by any component are dropped.
+ * <br>
+ * A StringInterner can be used for one parse or shared by the parsers that
+ * fill a store. It is thread safe. The number of bytes saved is an estimate
+ * of the size of the duplicate strings that were replaced, assuming a 64-bit
+ * JVM with compressed references.
+ *
+ * <pre>
+ * StringInterner interner = new StringInterner();
+ * parser.setStringInterner(interner);
+ * parser.parse(reader);
+ * System.out.println(interner.getBytesSaved() + " bytes saved");
+ * </pre>
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see ICalendarParser#setStringInterner(StringInterner)
+ */
+public class StringInterner {
+	/** The longest value looked up unless set otherwise */
+	public static final int DEFAULT_MAX_LENGTH = 128;
+	/** The properties whose values are looked up unless set otherwise */
+	private static final String[] DEFAULT_PROPERTY_NAMES = { "ATTENDEE",
+			"ORGANIZER", "LOCATION", "CATEGORIES", "CLASS", "STATUS", "TRANSP",
+			"PRIORITY", "RESOURCES", "CONTACT" };
+	/** The interner of the parser running on this thread */
+	private static final ThreadLocal<StringInterner> current = new ThreadLocal<StringInterner>();
+	private final WeakHashMap<String, WeakReference<String>> table = new WeakHashMap<String, WeakReference<String>>();
+	private final Set<String> propertyNames = new HashSet<String>(
+			Arrays.asList(DEFAULT_PROPERTY_NAMES));
+	private int maxLength = DEFAULT_MAX_LENGTH;
+	private long lookups = 0;
+	private long hits = 0;
+	private long bytesSaved = 0;
+
+	/**
+	 * Constructor
+	 */
+	public StringInterner() {
+	}
+
+	/**
+	 * Get the shared copy of a string, adding it to the table if there is none.
+	 * Strings longer than the maximum length are returned as they are.
+	 *
+	 * @param s
+	 *          the string, which may be null
+	 * @return the shared copy
+	 */
+	public synchronized String intern(String s) {
+		if (s == null || s.length() > maxLength)
+			return s;
+		lookups++;
+		WeakReference<String> ref = table.get(s);
+		String shared = ref == null ? null : ref.get();
+		if (shared == null) {
+			table.put(s, new WeakReference<String>(s));
+			return s;
+		}
+		if (shared != s) {
+			hits++;
+			bytesSaved += stringBytes(s);
+		}
+		return shared;
+	}
+
+	/**
+	 * Get the shared copy of the value of a property, if values of properties
+	 * with its name are looked up.
+	 */
+	String intern(String propertyName, String value) {
+		return propertyNames.contains(propertyName) ? intern(value) : value;
+	}
+
+	/**
+	 * Estimate the heap used by a String: its object and its byte array, each
+	 * aligned to 8 bytes.
+	 */
+	private static long stringBytes(String s) {
+		int len = s.length();
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) > 0xff) {
+				// not compact, so two bytes a char
+				len = s.length() * 2;
+				break;
+			}
+		}
+		return 24 + ((16 + len + 7) & ~7);
+	}
+
+	/**
+	 * Get the longest value that is looked up.
+	 */
+	public synchronized int getMaxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * Set the longest value that is looked up. The default is
+	 * DEFAULT_MAX_LENGTH.
+	 */
+	public synchronized void setMaxLength(int maxLength) {
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Get the names of the properties whose values are looked up.
+	 */
+	public synchronized Set<String> getPropertyNames() {
+		return Collections.unmodifiableSet(new HashSet<String>(propertyNames));
+	}
+
+	/**
+	 * Look up the values of properties with a name, such as "SUMMARY" for a
+	 * calendar of recurring meetings.
+	 */
+	public synchronized void addPropertyName(String name) {
+		propertyNames.add(name.toUpperCase());
+	}
+
+	/**
+	 * Stop looking up the values of properties with a name.
+	 */
+	public synchronized void removePropertyName(String name) {
+		propertyNames.remove(name.toUpperCase());
+	}
+
+	/**
+	 * Get the number of strings in the table.
+	 */
+	public synchronized int size() {
+		return table.size();
+	}
+
+	/**
+	 * Get the number of strings looked up.
+	 */
+	public synchronized long getLookups() {
+		return lookups;
+	}
+
+	/**
+	 * Get the number of strings that were replaced by a copy already in the
+	 * table.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get an estimate of the bytes of the strings that were replaced by a copy
+	 * already in the table.
+	 */
+	public synchronized long getBytesSaved() {
+		return bytesSaved;
+	}
+
+	/**
+	 * Get the interner of the parser running on this thread, if any.
+	 */
+	static StringInterner getCurrent() {
+		return current.get();
+	}
+
+	/**
+	 * Set the interner of the parser running on this thread.
+	 *
+	 * @return the previous interner, to be restored when parsing is done
+	 */
+	static StringInterner setCurrent(StringInterner interner) {
+		StringInterner ret = current.get();
+		if (interner == null)
+			current.remove();
+		else
+			current.set(interner);
+		return ret;
+	}
+}
@@ -20,6 +20,9 @@
 
 package us.k5n.ical;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * iCalendar StringFormatter utility class
  * 
@@ -96,6 +99,11 @@ public class StringUtils implements Constants {
 	// TODO: convert quotable-printable format
 	static public String unfoldLine ( String line, int parseMode )
 	    throws ParseException {
+		// Most lines have nothing to unfold or unescape
+		if ( ( parseMode != PARSE_STRICT || line.length () <= MAX_LINE_LENGTH )
+		    && line.indexOf ( '\\' ) < 0 && line.indexOf ( LF ) < 0
+		    && line.indexOf ( CR ) < 0 )
+			return line;
 		int len = 0;
 		StringBuffer ret = new StringBuffer ( line.length () );
 		for ( int i = 0; i < line.length (); i++ ) {
@@ -153,6 +161,39 @@ public class StringUtils implements Constants {
 		return ret.toString ();
 	}
 
+	/**
+	 * Split iCalendar text, such as that returned by toICalendar(), into the
+	 * lines passed to component constructors. As in ICalendarParser, a folded
+	 * line is kept together with its continuation lines, joined by CRLF, and
+	 * empty lines are dropped.
+	 * 
+	 * @param ical
+	 *          iCalendar text
+	 * @return The lines
+	 */
+	static public List<String> splitLines ( String ical ) {
+		List<String> lines = new ArrayList<String> ();
+		int pos = 0, len = ical.length ();
+		while ( pos < len ) {
+			int eol = ical.indexOf ( LF, pos );
+			int next = eol < 0 ? len : eol + 1;
+			if ( eol < 0 )
+				eol = len;
+			if ( eol > pos && ical.charAt ( eol - 1 ) == CR )
+				eol--;
+			String line = ical.substring ( pos, eol );
+			if ( !lines.isEmpty () && line.length () > 0
+			    && ( line.charAt ( 0 ) == SPACE || line.charAt ( 0 ) == TAB ) ) {
+				int last = lines.size () - 1;
+				lines.set ( last, lines.get ( last ) + CRLF + line );
+			} else if ( line.length () > 0 ) {
+				lines.add ( line );
+			}
+			pos = next;
+		}
+		return lines;
+	}
+
 	/**
 	 * Determine if a String is a whole number
 	 */
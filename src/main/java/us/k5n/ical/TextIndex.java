@@ -0,0 +1,419 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An inverted index of the words in the SUMMARY, DESCRIPTION, LOCATION and
+ * CATEGORIES of events, todos and journals, mapping each term to the sorted
+ * ids of the components that contain it.
+ * <br>
+ * Text is split into words at anything other than a letter, digit or
+ * combining mark. Each word is lowercased using the rules of the LANGUAGE of
+ * its property, then its accents are removed, so "Café", "CAFE" and "cafe"
+ * give the same term. The terms of properties with a LANGUAGE are also kept
+ * in an index for that language (by its primary subtag, so "en-GB" is "en"),
+ * so a search can be limited to text in one language.
+ * <br>
+ * A query is a list of words, all of which must match. A word ending in "*"
+ * matches any term it is a prefix of, and words in double quotes match only
+ * when they appear together in that order within one property. Phrases are
+ * found by intersecting the postings of their terms and then checking the
+ * text of the components found, so positions are not kept in the index.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see IndexedDataStore#search(String, String)
+ */
+class TextIndex {
+	/** The postings of each term in text of any language */
+	private final TreeMap<String, PostingList> terms = new TreeMap<String, PostingList>();
+	/** The postings of each term by the language of its property */
+	private final Map<String, TreeMap<String, PostingList>> languages = new HashMap<String, TreeMap<String, PostingList>>();
+	/** The Locale of each LANGUAGE value */
+	private final Map<String, Locale> locales = new HashMap<String, Locale>();
+	/** The components, by id */
+	private final List<Object> components;
+
+	/**
+	 * @param components
+	 *                   the components by id, used to check phrases
+	 */
+	TextIndex(List<Object> components) {
+		this.components = components;
+	}
+
+	/**
+	 * Add the text of an Event, Todo or Journal.
+	 */
+	void add(int id, Object component) {
+		for (Property p : fields(component)) {
+			String language = language(p);
+			TreeMap<String, PostingList> byLanguage = null;
+			if (language != null) {
+				byLanguage = languages.get(language);
+				if (byLanguage == null) {
+					byLanguage = new TreeMap<String, PostingList>();
+					languages.put(language, byLanguage);
+				}
+			}
+			for (String term : tokenize(p.getValue(), locale(p))) {
+				add(terms, term, id);
+				if (byLanguage != null)
+					add(byLanguage, term, id);
+			}
+		}
+	}
+
+	private static void add(Map<String, PostingList> map, String term, int id) {
+		PostingList postings = map.get(term);
+		if (postings == null) {
+			postings = new PostingList();
+			map.put(term, postings);
+		}
+		postings.add(id);
+	}
+
+	/**
+	 * Remove the text of a component added earlier, which must not have
+	 * changed since.
+	 */
+	void remove(int id, Object component) {
+		for (Property p : fields(component)) {
+			String language = language(p);
+			TreeMap<String, PostingList> byLanguage = language == null ? null
+					: languages.get(language);
+			for (String term : tokenize(p.getValue(), locale(p))) {
+				remove(terms, term, id);
+				if (byLanguage != null)
+					remove(byLanguage, term, id);
+			}
+			if (byLanguage != null && byLanguage.isEmpty())
+				languages.remove(language);
+		}
+	}
+
+	private static void remove(Map<String, PostingList> map, String term,
+			int id) {
+		PostingList postings = map.get(term);
+		if (postings != null && postings.remove(id) && postings.isEmpty())
+			map.remove(term);
+	}
+
+	/**
+	 * Get the number of distinct terms.
+	 */
+	int getTermCount() {
+		return terms.size();
+	}
+
+	/**
+	 * Find the components that match a query.
+	 *
+	 * @param query
+	 *                 the words to find, as described above
+	 * @param language
+	 *                 only match text with this LANGUAGE, or null for any text
+	 * @return the ids of the components that match every word of the query
+	 */
+	PostingList search(String query, String language) {
+		TreeMap<String, PostingList> index = terms;
+		if (language != null) {
+			language = primaryTag(language);
+			index = languages.get(language);
+			if (index == null)
+				return PostingList.EMPTY;
+		}
+		List<Clause> clauses = parse(query);
+		if (clauses.isEmpty())
+			return PostingList.EMPTY;
+		List<PostingList> postings = new ArrayList<PostingList>(clauses.size());
+		for (Clause clause : clauses) {
+			for (int i = 0; i < clause.terms.size(); i++) {
+				String term = clause.terms.get(i);
+				PostingList p = clause.prefix && i == clause.terms.size() - 1
+						? prefix(index, term) : index.get(term);
+				if (p == null || p.isEmpty())
+					return PostingList.EMPTY;
+				postings.add(p);
+			}
+		}
+		// Intersect the shortest lists first, so the rest are searched
+		Collections.sort(postings, new Comparator<PostingList>() {
+			public int compare(PostingList a, PostingList b) {
+				return Integer.compare(a.size(), b.size());
+			}
+		});
+		PostingList ret = postings.get(0);
+		for (int i = 1; i < postings.size() && !ret.isEmpty(); i++)
+			ret = ret.and(postings.get(i));
+		for (Clause clause : clauses) {
+			if (clause.terms.size() > 1 && !ret.isEmpty())
+				ret = phrase(ret, clause, language);
+		}
+		return ret == postings.get(0) ? ret.copy() : ret;
+	}
+
+	/**
+	 * Get the postings of every term that starts with a prefix.
+	 */
+	private static PostingList prefix(TreeMap<String, PostingList> index,
+			String prefix) {
+		SortedMap<String, PostingList> matches = index.subMap(prefix, prefix
+				+ Character.MAX_VALUE);
+		if (matches.size() <= 1)
+			return matches.isEmpty() ? null : matches.values().iterator().next();
+		int n = 0;
+		for (PostingList p : matches.values())
+			n += p.size;
+		int[] ids = new int[n];
+		n = 0;
+		for (PostingList p : matches.values()) {
+			System.arraycopy(p.ids, 0, ids, n, p.size);
+			n += p.size;
+		}
+		Arrays.sort(ids);
+		int size = 0;
+		for (int i = 0; i < n; i++) {
+			if (size == 0 || ids[size - 1] != ids[i])
+				ids[size++] = ids[i];
+		}
+		return new PostingList(ids, size);
+	}
+
+	/**
+	 * Keep the components that have the words of a phrase together in one
+	 * property.
+	 */
+	private PostingList phrase(PostingList candidates, Clause clause,
+			String language) {
+		int[] ids = new int[candidates.size()];
+		int n = 0;
+		for (int i = 0; i < candidates.size(); i++) {
+			int id = candidates.get(i);
+			for (Property p : fields(components.get(id))) {
+				if (language != null && !language.equals(language(p)))
+					continue;
+				if (contains(tokenize(p.getValue(), locale(p)), clause)) {
+					ids[n++] = id;
+					break;
+				}
+			}
+		}
+		return new PostingList(ids, n);
+	}
+
+	private static boolean contains(List<String> words, Clause clause) {
+		int len = clause.terms.size();
+		for (int i = 0; i + len <= words.size(); i++) {
+			int j = 0;
+			while (j < len && (words.get(i + j).equals(clause.terms.get(j))
+					|| (clause.prefix && j == len - 1
+							&& words.get(i + j).startsWith(clause.terms.get(j)))))
+				j++;
+			if (j == len)
+				return true;
+		}
+		return false;
+	}
+
+	/** Words that must appear together, the last of which may be a prefix */
+	private static final class Clause {
+		final List<String> terms;
+		final boolean prefix;
+
+		Clause(List<String> terms, boolean prefix) {
+			this.terms = terms;
+			this.prefix = prefix;
+		}
+	}
+
+	/**
+	 * Split a query into clauses: quoted phrases and single words. A word that
+	 * normalizes to more than one term, such as "e-mail", is a phrase.
+	 */
+	private static List<Clause> parse(String query) {
+		List<Clause> ret = new ArrayList<Clause>();
+		int len = query.length();
+		int i = 0;
+		while (i < len) {
+			char c = query.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+				continue;
+			}
+			int end;
+			String text;
+			if (c == '"') {
+				end = query.indexOf('"', i + 1);
+				if (end < 0)
+					end = len;
+				text = query.substring(i + 1, end);
+				end++;
+			} else {
+				end = i;
+				while (end < len && !Character.isWhitespace(query.charAt(end)))
+					end++;
+				text = query.substring(i, end);
+			}
+			i = end;
+			boolean prefix = text.endsWith("*");
+			List<String> terms = tokenize(prefix ? text.substring(0,
+					text.length() - 1) : text, Locale.ROOT);
+			if (!terms.isEmpty())
+				ret.add(new Clause(terms, prefix));
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the SUMMARY, DESCRIPTION, LOCATION and CATEGORIES of an Event, Todo
+	 * or Journal.
+	 */
+	static List<Property> fields(Object component) {
+		List<Property> ret = new ArrayList<Property>(4);
+		if (component instanceof Event) {
+			Event event = (Event) component;
+			addField(ret, event.getSummary());
+			addField(ret, event.getDescription());
+			addField(ret, event.getLocation());
+			addField(ret, event.getCategories());
+		} else if (component instanceof Todo) {
+			Todo todo = (Todo) component;
+			addField(ret, todo.getSummary());
+			addField(ret, todo.getDescription());
+			addField(ret, todo.getLocation());
+			addField(ret, todo.getCategories());
+		} else if (component instanceof Journal) {
+			Journal journal = (Journal) component;
+			addField(ret, journal.getSummary());
+			addField(ret, journal.getDescription());
+			addField(ret, journal.getCategories());
+		}
+		return ret;
+	}
+
+	private static void addField(List<Property> fields, Property p) {
+		if (p != null && p.getValue() != null)
+			fields.add(p);
+	}
+
+	/**
+	 * Get the primary subtag of the LANGUAGE of a property, lowercased, or
+	 * null if it has none.
+	 */
+	private static String language(Property p) {
+		Attribute a = p.getNamedAttribute("LANGUAGE");
+		return a == null || a.value == null || a.value.isEmpty() ? null
+				: primaryTag(a.value);
+	}
+
+	private static String primaryTag(String language) {
+		int dash = language.indexOf('-');
+		return (dash < 0 ? language : language.substring(0, dash))
+				.toLowerCase(Locale.ROOT);
+	}
+
+	private Locale locale(Property p) {
+		Attribute a = p.getNamedAttribute("LANGUAGE");
+		if (a == null || a.value == null)
+			return Locale.ROOT;
+		Locale ret = locales.get(a.value);
+		if (ret == null) {
+			ret = Locale.forLanguageTag(a.value);
+			locales.put(a.value, ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Split text into normalized terms.
+	 */
+	static List<String> tokenize(String text, Locale locale) {
+		List<String> ret = new ArrayList<String>();
+		int len = text.length();
+		int i = 0;
+		while (i < len) {
+			int c = text.codePointAt(i);
+			if (!isWordChar(c)) {
+				i += Character.charCount(c);
+				continue;
+			}
+			int start = i;
+			while (i < len && isWordChar(c = text.codePointAt(i)))
+				i += Character.charCount(c);
+			String term = normalize(text.substring(start, i), locale);
+			if (!term.isEmpty())
+				ret.add(term);
+		}
+		return ret;
+	}
+
+	private static boolean isWordChar(int c) {
+		if (Character.isLetterOrDigit(c))
+			return true;
+		int type = Character.getType(c);
+		return type == Character.NON_SPACING_MARK
+				|| type == Character.COMBINING_SPACING_MARK;
+	}
+
+	/**
+	 * Lowercase a word and remove its accents. The dotless i and sharp s,
+	 * which have no decomposition, are folded to i and ss so that text
+	 * lowercased for one language matches a query lowercased for another.
+	 */
+	private static String normalize(String word, Locale locale) {
+		String lower = word.toLowerCase(locale);
+		int i = 0;
+		while (i < lower.length() && lower.charAt(i) < 0x80)
+			i++;
+		if (i == lower.length())
+			return lower;
+		String decomposed = Normalizer.normalize(lower, Normalizer.Form.NFKD);
+		StringBuilder sb = new StringBuilder(decomposed.length());
+		for (i = 0; i < decomposed.length(); i++) {
+			char c = decomposed.charAt(i);
+			int type = Character.getType(c);
+			if (type == Character.NON_SPACING_MARK
+					|| type == Character.COMBINING_SPACING_MARK
+					|| type == Character.ENCLOSING_MARK)
+				continue;
+			if (c == '\u0131')
+				sb.append('i');
+			else if (c == '\u00df')
+				sb.append("ss");
+			else
+				sb.append(c);
+		}
+		return sb.toString();
+	}
+}
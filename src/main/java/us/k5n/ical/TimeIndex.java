@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ * 
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+package us.k5n.ical;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.ical.iter.ExpansionPolicy;
+import com.google.ical.util.PackedDate;
+
+/**
+ * An index of events, todos and journals by the times they occupy, so that
+ * the components that may have occurrences in a window can be found without
+ * expanding every component. Components that occur once are kept in an
+ * IntervalTree by the start and end of their occurrence. Recurring components
+ * are kept in a second IntervalTree by an envelope that holds all of their
+ * occurrences: from their earliest DTSTART or RDATE to the end of the last
+ * occurrence allowed by UNTIL or COUNT, or forever. Their occurrences are only
+ * expanded for the components found.
+ * <br>
+ * Events that share a UID (a recurring Event and the Events that override its
+ * instances) are always found together, since the overrides must be expanded
+ * with the Event they override.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see IndexedDataStore#findOverlapping(Date, Date)
+ */
+class TimeIndex {
+	private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+	/**
+	 * Limits on finding the last recurrence of a COUNT rule that has to be
+	 * iterated, so that storing one with a huge COUNT stays fast. A rule that
+	 * reaches them is indexed as recurring forever.
+	 */
+	static final ExpansionPolicy LAST_OCCURRENCE_POLICY = ExpansionPolicy.UNLIMITED
+			.withMaxInstances(10000).withMaxSteps(100000);
+	private final OccurrenceExpander expander;
+	/** Components that occur once */
+	private final IntervalTree<Object> instances = new IntervalTree<Object>();
+	/** Components that recur, by their envelope */
+	private final IntervalTree<Object> series = new IntervalTree<Object>();
+	/** The node of each component in instances */
+	private final Map<Object, IntervalTree.Node<Object>> instanceNodes = new IdentityHashMap<Object, IntervalTree.Node<Object>>();
+	/** The node of each component in series */
+	private final Map<Object, IntervalTree.Node<Object>> seriesNodes = new IdentityHashMap<Object, IntervalTree.Node<Object>>();
+	/** The Events with each UID */
+	private final Map<String, List<Event>> eventsByUid = new HashMap<String, List<Event>>();
+
+	/**
+	 * @param expander
+	 *                 used to convert dates to UTC and find durations, as they
+	 *                 will be when the components are expanded
+	 */
+	TimeIndex(OccurrenceExpander expander) {
+		this.expander = expander;
+	}
+
+	/**
+	 * Add an Event, Todo or Journal. Components without a start date have no
+	 * occurrences and are not indexed.
+	 */
+	void add(Object component) {
+		if (component instanceof Event && ((Event) component).getUid() != null)
+			addByUid((Event) component);
+		long[] span = span(component);
+		if (span == null)
+			return;
+		if (span[2] != 0)
+			seriesNodes.put(component, series.add(span[0], span[1], component));
+		else
+			instanceNodes.put(component, instances.add(span[0], span[1],
+					component));
+	}
+
+	/**
+	 * Get the time an Event, Todo or Journal occupies, as packed UTC values.
+	 * For a component that occurs once this is its occurrence. For a recurring
+	 * component, or an override with RANGE=THISANDFUTURE, it is an envelope
+	 * that holds all of its occurrences.
+	 *
+	 * @return the start, the end, and 1 if the component recurs or 0 if not;
+	 *         or null if it has no start date
+	 */
+	long[] span(Object component) {
+		Date startDate;
+		Rrule rrule;
+		List<Date> rdates;
+		if (component instanceof Event) {
+			Event event = (Event) component;
+			startDate = event.getStartDate();
+			rrule = event.getRrule();
+			rdates = event.getRdates();
+			if (event.getRecurrenceId() != null) {
+				// An override occupies its own time, or with RANGE=THISANDFUTURE
+				// all time from there on.
+				long start = expander.toPackedUtc(startDate != null ? startDate
+						: event.getRecurrenceId());
+				if (event.isThisAndFuture())
+					return new long[] { start, Long.MAX_VALUE, 1 };
+				return new long[] { start, OccurrenceExpander.endOf(start,
+						expander.durationSecs(component)), 0 };
+			}
+		} else if (component instanceof Todo) {
+			Todo todo = (Todo) component;
+			startDate = todo.getStartDate();
+			rrule = todo.getRrule();
+			rdates = todo.getRdates();
+		} else {
+			Journal journal = (Journal) component;
+			startDate = journal.getStartDate();
+			rrule = journal.getRrule();
+			rdates = journal.getRdates();
+		}
+		if (startDate == null)
+			return null;
+		long start = expander.toPackedUtc(startDate);
+		int durationSecs = expander.durationSecs(component);
+		if (rrule == null && (rdates == null || rdates.isEmpty()))
+			return new long[] { start, OccurrenceExpander.endOf(start, durationSecs),
+					0 };
+		long last = start;
+		if (rdates != null) {
+			for (Date rdate : rdates) {
+				long utc = expander.toPackedUtc(rdate);
+				start = Math.min(start, utc);
+				last = Math.max(last, utc);
+			}
+		}
+		long end = OccurrenceExpander.endOf(last, durationSecs);
+		if (rrule != null)
+			end = Math.max(end, lastRecurrenceEnd(rrule, startDate, durationSecs));
+		return new long[] { start, end, 1 };
+	}
+
+	/**
+	 * Get a time no earlier than the end of the last recurrence of an RRULE,
+	 * or Long.MAX_VALUE if it recurs forever or its last recurrence is not
+	 * found within LAST_OCCURRENCE_POLICY. A day is allowed for the difference
+	 * between the timezone of UNTIL and DTSTART.
+	 */
+	private long lastRecurrenceEnd(Rrule rrule, Date startDate, int durationSecs) {
+		Date last = rrule.untilDate;
+		if (last == null && rrule.count > 0) {
+			try {
+				last = rrule.lastOccurrence(startDate, startDate.tzid,
+						LAST_OCCURRENCE_POLICY);
+			} catch (IllegalArgumentException e) {
+				// not supported by the recurrence engine
+				last = null;
+			}
+		}
+		if (last == null)
+			return Long.MAX_VALUE;
+		long utc = expander.toPackedUtc(last);
+		return PackedDate.addSeconds(utc, durationSecs + SECONDS_PER_DAY
+				* (PackedDate.hasTime(utc) ? 1 : 2));
+	}
+
+	private void addByUid(Event event) {
+		String uid = event.getUid().getValue();
+		List<Event> events = eventsByUid.get(uid);
+		if (events == null) {
+			events = new ArrayList<Event>(2);
+			eventsByUid.put(uid, events);
+		}
+		events.add(event);
+	}
+
+	/**
+	 * Remove a component added earlier.
+	 */
+	void remove(Object component) {
+		IntervalTree.Node<Object> node = instanceNodes.remove(component);
+		if (node != null)
+			instances.remove(node);
+		node = seriesNodes.remove(component);
+		if (node != null)
+			series.remove(node);
+		if (component instanceof Event && ((Event) component).getUid() != null) {
+			String uid = ((Event) component).getUid().getValue();
+			List<Event> events = eventsByUid.get(uid);
+			if (events != null) {
+				for (int i = 0; i < events.size(); i++) {
+					if (events.get(i) == component) {
+						events.remove(i);
+						break;
+					}
+				}
+				if (events.isEmpty())
+					eventsByUid.remove(uid);
+			}
+		}
+	}
+
+	/**
+	 * Get the components that may have occurrences that overlap a window given
+	 * as packed UTC values, along with any Events that share a UID with them.
+	 */
+	List<Object> findOverlapping(long fromUtc, long toUtc) {
+		List<Object> found = new ArrayList<Object>();
+		instances.findOverlapping(fromUtc, toUtc, found);
+		series.findOverlapping(fromUtc, toUtc, found);
+		Map<Object, Boolean> seen = null;
+		int n = found.size();
+		for (int i = 0; i < n; i++) {
+			Object component = found.get(i);
+			if (!(component instanceof Event)
+					|| ((Event) component).getUid() == null)
+				continue;
+			List<Event> events = eventsByUid.get(((Event) component).getUid()
+					.getValue());
+			if (events.size() == 1)
+				continue;
+			if (seen == null) {
+				seen = new IdentityHashMap<Object, Boolean>();
+				for (Object c : found)
+					seen.put(c, Boolean.TRUE);
+			}
+			for (Event event : events) {
+				if (seen.put(event, Boolean.TRUE) == null)
+					found.add(event);
+			}
+		}
+		return found;
+	}
+}
@@ -20,9 +20,21 @@
 
 package us.k5n.ical;
 
+import java.time.DateTimeException;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
+import com.google.ical.iter.ExpansionPolicy;
+import com.google.ical.iter.RecurrenceIterator;
+import com.google.ical.iter.RecurrenceIteratorFactory;
+import com.google.ical.util.PackedDate;
+import com.google.ical.util.ZoneOffsetTable;
+import com.google.ical.values.Frequency;
+import com.google.ical.values.RRule;
+
 /**
  * iCalendar Timezone class that corresponds to the VTIMEZONE iCalendar object.
  * A VTIMEZONE component defines a time zone and typically contains one or more
@@ -31,6 +43,13 @@ import java.util.List;
  * @author Craig Knudsen, craig@k5n.us
  */
 public class Timezone implements Constants {
+	/**
+	 * Limits on expanding the RRULE of one observance. A YEARLY rule from 1601
+	 * (as Exchange writes) to ZoneOffsetTable.MAX_SECS has about 600 onsets, so
+	 * these only stop rules that no real timezone uses.
+	 */
+	static final ExpansionPolicy OBSERVANCE_POLICY = ExpansionPolicy.UNLIMITED
+			.withMaxInstances(2000).withMaxSteps(100000);
 	/** Timezone identifier (required) */
 	protected String tzid = null;
 	/** Last modification timestamp */
@@ -41,6 +60,12 @@ public class Timezone implements Constants {
 	protected List<TimezoneDaylight> daylight = null;
 	/** URL for timezone definition */
 	protected URL url = null;
+	/** Observances compiled by getOffsetTable() */
+	private volatile ZoneOffsetTable offsetTable = null;
+	/** The compiled table as a TimeZone, made by toTimeZone() */
+	private volatile java.util.TimeZone timeZone = null;
+	/** Standard offset (in seconds) of the compiled table */
+	private int rawOffset = 0;
 
 	/**
 	 * Create a Timezone object based on specified iCalendar data
@@ -127,8 +152,10 @@ public class Timezone implements Constants {
 	 * @param standard
 	 *               The TimezoneStandard component
 	 */
-	public void addStandard(TimezoneStandard standard) {
+	public synchronized void addStandard(TimezoneStandard standard) {
 		standards.add(standard);
+		offsetTable = null;
+		timeZone = null;
 	}
 
 	/**
@@ -137,8 +164,201 @@ public class Timezone implements Constants {
 	 * @param daylight
 	 *               The TimezoneDaylight component
 	 */
-	public void addDaylight(TimezoneDaylight daylight) {
+	public synchronized void addDaylight(TimezoneDaylight daylight) {
 		this.daylight.add(daylight);
+		offsetTable = null;
+		timeZone = null;
+	}
+
+	/**
+	 * Compile the STANDARD and DAYLIGHT observances into a table of the UTC
+	 * offset in effect at any time, so that conversions only need a binary
+	 * search. Each observance's RRULE is expanded once, up to
+	 * ZoneOffsetTable.MAX_SECS, and the table is kept for later calls.
+	 * Observances that are missing DTSTART, TZOFFSETFROM or TZOFFSETTO are
+	 * ignored. Since a VTIMEZONE may come from an untrusted source, a RRULE
+	 * that repeats more often than yearly is ignored (leaving only DTSTART and
+	 * RDATE) and a yearly one stops at the limits of OBSERVANCE_POLICY.
+	 * 
+	 * @return the compiled table, or null if there are no usable observances
+	 */
+	public ZoneOffsetTable getOffsetTable() {
+		ZoneOffsetTable ret = offsetTable;
+		return ret != null ? ret : compile();
+	}
+
+	private synchronized ZoneOffsetTable compile() {
+		if (offsetTable != null)
+			return offsetTable;
+		// Each onset is { UTC seconds, offset after, offset before, standard }
+		List<long[]> onsets = new ArrayList<long[]>();
+		for (int i = 0; i < standards.size(); i++) {
+			TimezoneStandard s = standards.get(i);
+			addOnsets(onsets, s.dtstart, s.tzOffsetFrom, s.tzOffsetTo, s.rrule,
+					s.rdates, true);
+		}
+		for (int i = 0; i < daylight.size(); i++) {
+			TimezoneDaylight d = daylight.get(i);
+			addOnsets(onsets, d.dtstart, d.tzOffsetFrom, d.tzOffsetTo, d.rrule,
+					d.rdates, false);
+		}
+		if (onsets.isEmpty())
+			return null;
+		onsets.sort(Comparator.comparingLong(o -> o[0]));
+
+		long[] transitions = new long[onsets.size()];
+		int[] offsets = new int[onsets.size() + 1];
+		int n = 0;
+		offsets[0] = (int) onsets.get(0)[2];
+		rawOffset = offsets[0];
+		for (long[] onset : onsets) {
+			if (onset[3] != 0)
+				rawOffset = (int) onset[1];
+			if (n > 0 && transitions[n - 1] == onset[0]) {
+				// Two observances start at once, so the later one wins
+				offsets[n] = (int) onset[1];
+			} else if (onset[1] != offsets[n]) {
+				transitions[n] = onset[0];
+				offsets[++n] = (int) onset[1];
+			}
+		}
+		offsetTable = new ZoneOffsetTable(Arrays.copyOf(transitions, n),
+				Arrays.copyOf(offsets, n + 1));
+		return offsetTable;
+	}
+
+	/**
+	 * Get a java.util.TimeZone that uses the compiled observances of this
+	 * Timezone.
+	 * 
+	 * @return the TimeZone, or null if there are no usable observances
+	 */
+	public java.util.TimeZone toTimeZone() {
+		java.util.TimeZone ret = timeZone;
+		if (ret != null)
+			return ret;
+		synchronized (this) {
+			ZoneOffsetTable table = getOffsetTable();
+			if (table != null && timeZone == null)
+				timeZone = table.toTimeZone(tzid, rawOffset);
+			return timeZone;
+		}
+	}
+
+	/**
+	 * Does this Timezone have an observance that getOffsetTable() can use? This
+	 * does not expand any RRULE, so it is cheap enough to call when the
+	 * Timezone is stored.
+	 */
+	public synchronized boolean hasObservances() {
+		for (int i = 0; i < standards.size(); i++) {
+			TimezoneStandard s = standards.get(i);
+			if (offsetSecs(s.dtstart, s.tzOffsetFrom, s.tzOffsetTo) != null)
+				return true;
+		}
+		for (int i = 0; i < daylight.size(); i++) {
+			TimezoneDaylight d = daylight.get(i);
+			if (offsetSecs(d.dtstart, d.tzOffsetFrom, d.tzOffsetTo) != null)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Get the offsets (in seconds) before and after an observance starts.
+	 * 
+	 * @return { from, to }, or null if the observance cannot be used
+	 */
+	private static int[] offsetSecs(Date dtstart, String from, String to) {
+		if (dtstart == null || from == null || to == null)
+			return null;
+		try {
+			int[] ret = { parseOffset(from), parseOffset(to) };
+			ZoneOffset.ofTotalSeconds(ret[0]);
+			ZoneOffset.ofTotalSeconds(ret[1]);
+			return ret;
+		} catch (NumberFormatException e) {
+			return null;
+		} catch (DateTimeException e) {
+			return null; // out of range
+		}
+	}
+
+	/**
+	 * Add the onset of an observance and each of its recurrences.
+	 */
+	private static void addOnsets(List<long[]> onsets, Date dtstart,
+			String from, String to, Rrule rrule, List<Date> rdates,
+			boolean standard) {
+		int[] secs = offsetSecs(dtstart, from, to);
+		if (secs == null)
+			return;
+		int fromSecs = secs[0], toSecs = secs[1];
+		long[] first = { localSecs(dtstart) - fromSecs, toSecs, fromSecs,
+				standard ? 1 : 0 };
+		onsets.add(first);
+		if (rrule != null && rrule.value != null) {
+			try {
+				// Onsets are in the local time before the observance, so expanding
+				// in a zone with that offset gives the onsets in UTC and compares
+				// them correctly against a UTC UNTIL.
+				RRule rule = new RRule("RRULE:" + rrule.value);
+				// Real observances repeat yearly, so anything more often is not
+				// expanded, which would only make the table huge
+				if (rule.getFreq() == Frequency.YEARLY) {
+					RecurrenceIterator it = RecurrenceIteratorFactory
+							.createRecurrenceIterator(rule, Rrule.toDateValue(dtstart),
+									java.util.TimeZone.getTimeZone(ZoneOffset
+											.ofTotalSeconds(fromSecs)), OBSERVANCE_POLICY);
+					long[] buffer = new long[64];
+					int count;
+					expand: while ((count = it.nextBatch(buffer, 0, buffer.length)) > 0) {
+						for (int i = 0; i < count; i++) {
+							long utc = PackedDate.timetSecs(buffer[i]);
+							if (utc >= ZoneOffsetTable.MAX_SECS)
+								break expand;
+							if (utc != first[0])
+								onsets.add(new long[] { utc, toSecs, fromSecs,
+										first[3] });
+						}
+					}
+				}
+			} catch (java.text.ParseException e) {
+				// Not a rule we can expand, so just use DTSTART and RDATE
+			} catch (IllegalArgumentException e) {
+				// Not a rule we can expand, so just use DTSTART and RDATE
+			}
+		}
+		for (int i = 0; rdates != null && i < rdates.size(); i++) {
+			long utc = localSecs(rdates.get(i)) - fromSecs;
+			onsets.add(new long[] { utc, toSecs, fromSecs, first[3] });
+		}
+	}
+
+	/**
+	 * Convert the local time of a Date to seconds since the epoch as if it
+	 * were UTC.
+	 */
+	private static long localSecs(Date d) {
+		return PackedDate.timetSecs(PackedDate.pack(d.getYear(),
+				d.getMonth(), d.getDay(), d.getHour(), d.getMinute(), d.getSecond()));
+	}
+
+	/**
+	 * Parse a UTC offset such as "-0500" or "+053000" into seconds.
+	 */
+	static int parseOffset(String offset) {
+		offset = offset.trim();
+		if (offset.length() != 5 && offset.length() != 7)
+			throw new NumberFormatException("Invalid UTC offset '" + offset + "'");
+		int sign = offset.charAt(0) == '-' ? -1 : 1;
+		if (offset.charAt(0) != '-' && offset.charAt(0) != '+')
+			throw new NumberFormatException("Invalid UTC offset '" + offset + "'");
+		int secs = Integer.parseInt(offset.substring(1, 3)) * 3600
+				+ Integer.parseInt(offset.substring(3, 5)) * 60;
+		if (offset.length() == 7)
+			secs += Integer.parseInt(offset.substring(5, 7));
+		return sign * secs;
 	}
 
 	/**
@@ -87,7 +87,7 @@ public class TimezoneDaylight implements Constants {
 			// ignore begin/end markers
 		} else if (up.trim().length() == 0) {
 			// ignore empty lines
-		} else if (up.startsWith("DTSTART:")) {
+		} else if (up.startsWith("DTSTART:") || up.startsWith("DTSTART;")) {
 			dtstart = new Date(icalStr);
 		} else if (up.startsWith("TZOFFSETFROM:")) {
 			Property p = new Property(icalStr);
@@ -104,7 +104,7 @@ public class TimezoneDaylight implements Constants {
 			Property p = new Property(icalStr);
 			String[] dates = p.value.split(",");
 			for (int i = 0; i < dates.length; i++) {
-				Date date = new Date(dates[i].trim());
+				Date date = new Date("RDATE:" + dates[i].trim());
 				rdates.add(date);
 			}
 		} else if (up.startsWith("COMMENT:")) {
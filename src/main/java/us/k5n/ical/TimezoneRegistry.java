@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is included in the Wine
+ * distribution in the file COPYING.LIB. If you did not receive this copy,
+ * write to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA 02111-1307 USA.
+ */
+
+
+package us.k5n.ical;
+
+import java.time.ZoneOffset;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.ical.util.PackedDate;
+import com.google.ical.util.ZoneOffsetTable;
+
+/**
+ * The timezones defined by VTIMEZONE components, compiled so that their
+ * TZIDs can be used for date conversion and recurrence expansion even when
+ * they are not IANA timezone IDs (such as the "Eastern Standard Time" zones
+ * that Exchange generates).
+ * <br>
+ * Each ICalendarParser has a registry, and the VTIMEZONE components it parses
+ * are registered as they are found. While the parser is running, the Date
+ * objects it creates use the parser's registry for any TZID that java.time
+ * does not recognize, and the Rrule objects it creates keep the registry for
+ * expanding their recurrences later. Conversions after parsing never depend
+ * on the thread they run on: OccurrenceExpander uses the registry set on it,
+ * or else the VTIMEZONEs of the DataStore it expands (see
+ * DefaultDataStore.getTimezoneRegistry()).
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ * @see Timezone#getOffsetTable()
+ */
+public class TimezoneRegistry {
+	/** The registry of the parser running on this thread, for parsing only */
+	private static final ThreadLocal<TimezoneRegistry> current = new ThreadLocal<TimezoneRegistry>();
+	private ConcurrentHashMap<String, Timezone> timezones = new ConcurrentHashMap<String, Timezone>();
+
+	/**
+	 * Register a Timezone. A Timezone with the same TZID replaces any
+	 * registered earlier. Its observances are compiled the first time the TZID
+	 * is used for a conversion, not when it is registered.
+	 *
+	 * @return true if the Timezone had observances that could be compiled
+	 */
+	public boolean register(Timezone timezone) {
+		if (timezone.getTimezoneId() == null || !timezone.hasObservances())
+			return false;
+		timezones.put(timezone.getTimezoneId(), timezone);
+		return true;
+	}
+
+	/**
+	 * Get the compiled TimeZone for a TZID, compiling it if this is the first
+	 * use.
+	 *
+	 * @return the TimeZone, or null if no VTIMEZONE with the TZID was
+	 *         registered
+	 */
+	public TimeZone getTimeZone(String tzid) {
+		Timezone timezone = tzid == null ? null : timezones.get(tzid);
+		return timezone == null ? null : timezone.toTimeZone();
+	}
+
+	/**
+	 * Get the number of registered timezones.
+	 */
+	public int size() {
+		return timezones.size();
+	}
+
+	/**
+	 * Get the registry of the parser running on this thread, if any.
+	 */
+	static TimezoneRegistry getCurrent() {
+		return current.get();
+	}
+
+	/**
+	 * Set the registry of the parser running on this thread.
+	 *
+	 * @return the previous registry, to be restored when parsing is done
+	 */
+	static TimezoneRegistry setCurrent(TimezoneRegistry registry) {
+		TimezoneRegistry ret = current.get();
+		if (registry == null)
+			current.remove();
+		else
+			current.set(registry);
+		return ret;
+	}
+
+	/**
+	 * Get the TimeZone to use for a TZID, preferring a registered timezone.
+	 * Unknown TZIDs give GMT, as TimeZone.getTimeZone does.
+	 */
+	public TimeZone resolve(String tzid) {
+		TimeZone ret = getTimeZone(tzid);
+		return ret != null ? ret : TimeZone.getTimeZone(tzid);
+	}
+
+	/**
+	 * Get the TimeZone to use for a TZID from a registry that may be null.
+	 */
+	static TimeZone resolve(TimezoneRegistry registry, String tzid) {
+		return registry != null ? registry.resolve(tzid)
+				: TimeZone.getTimeZone(tzid);
+	}
+
+	/**
+	 * Get the UTC offset of a registered TZID at a local time, using the
+	 * registry of the parser running on this thread.
+	 *
+	 * @return the offset, or null if the TZID is not registered
+	 */
+	static ZoneOffset currentOffsetAt(String tzid, int year, int month,
+			int day, int hour, int minute, int second) {
+		TimezoneRegistry registry = current.get();
+		TimeZone tz = registry == null ? null : registry.getTimeZone(tzid);
+		if (tz == null)
+			return null;
+		long localSecs = PackedDate.timetSecs(PackedDate.pack(year, month,
+				day, hour, minute, second));
+		return ZoneOffset.ofTotalSeconds(ZoneOffsetTable.forZone(tz)
+				.offsetAtLocal(localSecs));
+	}
+
+}
@@ -28,6 +28,8 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Calendar;
 
+import com.google.ical.util.YearTable;
+
 /**
  * iCalendar Utility class
  * 
@@ -399,13 +401,7 @@ public class Utils implements Constants {
 	 * @return The weekday (0=sunday)
 	 */
 	public static int getFirstDayOfWeekForYear(int y) {
-		try {
-			Date d = new Date("FOOBAR", y, 1, 1);
-			return getDayOfWeek(d.getYear(), d.getMonth(), d.getDay());
-		} catch (BogusDataException e1) {
-			e1.printStackTrace();
-			return -1;
-		}
+		return YearTable.forYear(y).firstDayOfWeekInMonth(1).jsDayNum;
 	}
 
 	/**
@@ -416,13 +412,7 @@ public class Utils implements Constants {
 	 * @return The weekday (0=sunday)
 	 */
 	public static int getLastDayOfWeekForYear(int y) {
-		try {
-			Date d = new Date("FOOBAR", y, 12, 31);
-			return getDayOfWeek(d.getYear(), d.getMonth(), d.getDay());
-		} catch (BogusDataException e1) {
-			e1.printStackTrace();
-			return -1;
-		}
+		return YearTable.forYear(y).dayOfWeek(12, 31).jsDayNum;
 	}
 
 	/**
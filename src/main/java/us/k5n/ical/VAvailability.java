@@ -115,25 +115,25 @@ public class VAvailability implements Constants {
 			// ignore empty lines
 		} else if (up.startsWith("UID:")) {
 			uid = new Uid(icalStr);
-		} else if (up.startsWith("DTSTAMP:")) {
+		} else if (up.startsWith("DTSTAMP:") || up.startsWith("DTSTAMP;")) {
 			dtstamp = new Date(icalStr);
-		} else if (up.startsWith("DTSTART:")) {
+		} else if (up.startsWith("DTSTART:") || up.startsWith("DTSTART;")) {
 			dtstart = new Date(icalStr);
-		} else if (up.startsWith("DTEND:")) {
+		} else if (up.startsWith("DTEND:") || up.startsWith("DTEND;")) {
 			dtend = new Date(icalStr);
 		} else if (up.startsWith("DURATION:")) {
 			duration = new Duration(icalStr);
 		} else if (up.startsWith("BUSYTYPE:")) {
 			busyType = icalStr.substring(icalStr.indexOf(':') + 1);
-		} else if (up.startsWith("SUMMARY:")) {
+		} else if (up.startsWith("SUMMARY:") || up.startsWith("SUMMARY;")) {
 			summary = new Summary(icalStr);
-		} else if (up.startsWith("DESCRIPTION:")) {
+		} else if (up.startsWith("DESCRIPTION:") || up.startsWith("DESCRIPTION;")) {
 			description = new Description(icalStr);
-		} else if (up.startsWith("CATEGORIES:")) {
+		} else if (up.startsWith("CATEGORIES:") || up.startsWith("CATEGORIES;")) {
 			categories = new Categories(icalStr);
-		} else if (up.startsWith("CREATED:")) {
+		} else if (up.startsWith("CREATED:") || up.startsWith("CREATED;")) {
 			createdDate = new Date(icalStr);
-		} else if (up.startsWith("LAST-MODIFIED:")) {
+		} else if (up.startsWith("LAST-MODIFIED:") || up.startsWith("LAST-MODIFIED;")) {
 			lastModified = new Date(icalStr);
 		} else if (up.startsWith("PARTICIPANT-TYPE:")) {
 			participantType = icalStr.substring(icalStr.indexOf(':') + 1);
@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2005-2006 Craig Knudsen and other authors
+ * (see AUTHORS for a complete list)
+ *
+ * JavaCalTools is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ */
+
+package us.k5n.ical.core.components;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.google.ical.util.PackedDate;
+import com.google.ical.util.TimeUtils;
+import com.google.ical.util.ZoneOffsetTable;
+
+import us.k5n.ical.DataStore;
+import us.k5n.ical.Event;
+import us.k5n.ical.ICalendarParser;
+import us.k5n.ical.OccurrenceExpander;
+import us.k5n.ical.OccurrenceTable;
+import us.k5n.ical.Timezone;
+
+/**
+ * Tests for compiling VTIMEZONE definitions into transition tables and using
+ * them for TZIDs that are not IANA timezone IDs.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("VTIMEZONE compilation")
+public class VTimezoneCompileTest {
+  /** US Eastern time with the rules in effect since 1967 */
+  private static String eastern(String tzid) {
+    return "BEGIN:VTIMEZONE\n"
+        + "TZID:" + tzid + "\n"
+        + "BEGIN:STANDARD\n"
+        + "DTSTART:19671029T020000\n"
+        + "RRULE:FREQ=YEARLY;BYMONTH=10;BYDAY=-1SU;UNTIL=20061029T060000Z\n"
+        + "TZOFFSETFROM:-0400\n"
+        + "TZOFFSETTO:-0500\n"
+        + "TZNAME:EST\n"
+        + "END:STANDARD\n"
+        + "BEGIN:STANDARD\n"
+        + "DTSTART:20071104T020000\n"
+        + "RRULE:FREQ=YEARLY;BYMONTH=11;BYDAY=1SU\n"
+        + "TZOFFSETFROM:-0400\n"
+        + "TZOFFSETTO:-0500\n"
+        + "TZNAME:EST\n"
+        + "END:STANDARD\n"
+        + "BEGIN:DAYLIGHT\n"
+        + "DTSTART:19670430T020000\n"
+        + "RRULE:FREQ=YEARLY;BYMONTH=4;BYDAY=-1SU;UNTIL=19730429T070000Z\n"
+        + "TZOFFSETFROM:-0500\n"
+        + "TZOFFSETTO:-0400\n"
+        + "TZNAME:EDT\n"
+        + "END:DAYLIGHT\n"
+        + "BEGIN:DAYLIGHT\n"
+        + "DTSTART:19740106T020000\n"
+        + "RDATE:19750223T020000\n"
+        + "TZOFFSETFROM:-0500\n"
+        + "TZOFFSETTO:-0400\n"
+        + "TZNAME:EDT\n"
+        + "END:DAYLIGHT\n"
+        + "BEGIN:DAYLIGHT\n"
+        + "DTSTART:19760425T020000\n"
+        + "RRULE:FREQ=YEARLY;BYMONTH=4;BYDAY=-1SU;UNTIL=19860427T070000Z\n"
+        + "TZOFFSETFROM:-0500\n"
+        + "TZOFFSETTO:-0400\n"
+        + "TZNAME:EDT\n"
+        + "END:DAYLIGHT\n"
+        + "BEGIN:DAYLIGHT\n"
+        + "DTSTART:19870405T020000\n"
+        + "RRULE:FREQ=YEARLY;BYMONTH=4;BYDAY=1SU;UNTIL=20060402T070000Z\n"
+        + "TZOFFSETFROM:-0500\n"
+        + "TZOFFSETTO:-0400\n"
+        + "TZNAME:EDT\n"
+        + "END:DAYLIGHT\n"
+        + "BEGIN:DAYLIGHT\n"
+        + "DTSTART:20070311T020000\n"
+        + "RRULE:FREQ=YEARLY;BYMONTH=3;BYDAY=2SU\n"
+        + "TZOFFSETFROM:-0500\n"
+        + "TZOFFSETTO:-0400\n"
+        + "TZNAME:EDT\n"
+        + "END:DAYLIGHT\n"
+        + "END:VTIMEZONE\n";
+  }
+
+  private ICalendarParser parser;
+
+  @BeforeEach
+  void setUp() {
+    parser = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+  }
+
+  private DataStore parse(String body) throws Exception {
+    parser.parse(new StringReader("BEGIN:VCALENDAR\nVERSION:2.0\n"
+        + "PRODID:-//Test//Test//EN\n" + body + "END:VCALENDAR\n"));
+    return parser.getDataStoreAt(0);
+  }
+
+  @Nested
+  @DisplayName("Parsing")
+  class ParsingTests {
+
+    @Test
+    @DisplayName("should attach STANDARD and DAYLIGHT when VTIMEZONE is parsed")
+    void should_attachObservances_when_vtimezoneParsed() throws Exception {
+      DataStore ds = parse(eastern("Custom/Eastern"));
+      List<Timezone> timezones = ds.getAllTimezones();
+      assertEquals(1, timezones.size());
+      assertEquals(2, timezones.get(0).getStandards().size());
+      assertEquals(5, timezones.get(0).getDaylight().size());
+      assertEquals("-0500",
+          timezones.get(0).getStandards().get(0).getTzOffsetTo());
+    }
+
+    @Test
+    @DisplayName("should register VTIMEZONE with the parser when TZID is not IANA")
+    void should_register_when_tzidIsNotIana() throws Exception {
+      parse(eastern("Eastern Standard Time"));
+      assertEquals(1, parser.getTimezoneRegistry().size());
+      assertNotNull(
+          parser.getTimezoneRegistry().getTimeZone("Eastern Standard Time"));
+      assertNull(parser.getTimezoneRegistry().getTimeZone("Pacific"));
+    }
+  }
+
+  @Nested
+  @DisplayName("Compilation")
+  class CompilationTests {
+
+    @Test
+    @DisplayName("should match America/New_York when rules are the same")
+    void should_matchIanaZone_when_rulesAreTheSame() throws Exception {
+      parse(eastern("Eastern Standard Time"));
+      TimeZone tz =
+          parser.getTimezoneRegistry().getTimeZone("Eastern Standard Time");
+      ZoneOffsetTable table = ZoneOffsetTable.forZone(tz);
+      assertNotNull(table);
+      ZoneRules rules = ZoneId.of("America/New_York").getRules();
+      Instant t = Instant.parse("1967-06-01T00:00:00Z");
+      int checked = 0;
+      for (ZoneOffsetTransition tr;
+           (tr = rules.nextTransition(t)) != null
+           && tr.getInstant().getEpochSecond() < ZoneOffsetTable.MAX_SECS;
+           t = tr.getInstant()) {
+        long secs = tr.getInstant().getEpochSecond();
+        assertEquals(tr.getOffsetBefore().getTotalSeconds(),
+            table.offsetAtUtc(secs - 1), "before " + tr);
+        assertEquals(tr.getOffsetAfter().getTotalSeconds(),
+            table.offsetAtUtc(secs), "at " + tr);
+        checked++;
+      }
+      assertTrue(checked > 400);
+      assertEquals(-5 * 3600 * 1000, tz.getRawOffset());
+      assertTrue(tz.useDaylightTime());
+    }
+
+    @Test
+    @DisplayName("should use the table when converting with TimeUtils")
+    void should_convertWithTable_when_zoneIsCompiled() throws Exception {
+      parse(eastern("Eastern Standard Time"));
+      TimeZone tz =
+          parser.getTimezoneRegistry().getTimeZone("Eastern Standard Time");
+      long summer = PackedDate.pack(2023, 7, 15, 10, 0, 0);
+      assertEquals(PackedDate.pack(2023, 7, 15, 14, 0, 0),
+          TimeUtils.toUtc(summer, tz));
+      long winter = PackedDate.pack(2023, 1, 15, 10, 0, 0);
+      assertEquals(PackedDate.pack(2023, 1, 15, 15, 0, 0),
+          TimeUtils.toUtc(winter, tz));
+      assertEquals(winter, TimeUtils.fromUtc(TimeUtils.toUtc(winter, tz), tz));
+    }
+
+    @Test
+    @DisplayName("should use RDATE onsets when there is no RRULE")
+    void should_useRdates_when_noRrule() throws Exception {
+      parse("BEGIN:VTIMEZONE\n"
+          + "TZID:Custom Zone\n"
+          + "BEGIN:STANDARD\n"
+          + "DTSTART:20000101T000000\n"
+          + "RDATE:20101107T020000\n"
+          + "TZOFFSETFROM:+0100\n"
+          + "TZOFFSETTO:+0000\n"
+          + "END:STANDARD\n"
+          + "BEGIN:DAYLIGHT\n"
+          + "DTSTART:20100301T000000\n"
+          + "TZOFFSETFROM:+0000\n"
+          + "TZOFFSETTO:+0100\n"
+          + "END:DAYLIGHT\n"
+          + "END:VTIMEZONE\n");
+      ZoneOffsetTable table = ZoneOffsetTable.forZone(
+          parser.getTimezoneRegistry().getTimeZone("Custom Zone"));
+      // 2000 onset, 2010 daylight onset, RDATE onset
+      assertEquals(3, table.size());
+      assertEquals(3600, table.offsetAtUtc(946684800L - 3601));
+      assertEquals(0, table.offsetAtUtc(946684800L));
+      assertEquals(3600, table.offsetAtUtc(1288000000L));
+      assertEquals(0, table.offsetAtUtc(1289200000L));
+    }
+
+    @Test
+    @DisplayName("should return null when there are no observances")
+    void should_returnNull_when_noObservances() throws Exception {
+      DataStore ds = parse("BEGIN:VTIMEZONE\nTZID:Empty/Zone\nEND:VTIMEZONE\n");
+      Timezone tz = ds.getAllTimezones().get(0);
+      assertNull(tz.getOffsetTable());
+      assertNull(tz.toTimeZone());
+      assertEquals(0, parser.getTimezoneRegistry().size());
+    }
+
+    @Test
+    @DisplayName("should not expand observances that repeat more often than yearly")
+    void should_ignoreRule_when_observanceRepeatsTooOften() throws Exception {
+      DataStore ds = parse("BEGIN:VTIMEZONE\n"
+          + "TZID:Hostile Zone\n"
+          + "BEGIN:STANDARD\n"
+          + "DTSTART:16010101T000000\n"
+          + "RRULE:FREQ=MINUTELY\n"
+          + "TZOFFSETFROM:+0100\n"
+          + "TZOFFSETTO:+0000\n"
+          + "END:STANDARD\n"
+          + "BEGIN:DAYLIGHT\n"
+          + "DTSTART:16010101T003000\n"
+          + "RRULE:FREQ=HOURLY\n"
+          + "TZOFFSETFROM:+0000\n"
+          + "TZOFFSETTO:+0100\n"
+          + "END:DAYLIGHT\n"
+          + "END:VTIMEZONE\n"
+          + "BEGIN:VEVENT\nUID:e1\nDTSTART;TZID=Hostile Zone:20240101T090000\n"
+          + "SUMMARY:Meeting\nEND:VEVENT\n");
+      assertEquals(1, ds.getAllEvents().size());
+      ZoneOffsetTable table = ZoneOffsetTable.forZone(
+          parser.getTimezoneRegistry().getTimeZone("Hostile Zone"));
+      // only the two DTSTART onsets are used
+      assertEquals(2, table.size());
+      assertEquals(3600, table.offsetAtUtc(
+          PackedDate.timetSecs(PackedDate.pack(2024, 1, 1))));
+    }
+
+    @Test
+    @DisplayName("should limit the onsets of a yearly rule with many instances")
+    void should_limitOnsets_when_yearlyRuleHasManyInstances() throws Exception {
+      parse("BEGIN:VTIMEZONE\n"
+          + "TZID:Hostile Zone\n"
+          + "BEGIN:STANDARD\n"
+          + "DTSTART:16010101T000000\n"
+          + "RRULE:FREQ=YEARLY;BYHOUR=0,2,4,6,8,10,12,14,16,18,20,22;"
+          + "BYMINUTE=0,10,20,30,40,50\n"
+          + "TZOFFSETFROM:+0100\n"
+          + "TZOFFSETTO:+0000\n"
+          + "END:STANDARD\n"
+          + "BEGIN:DAYLIGHT\n"
+          + "DTSTART:16010101T010000\n"
+          + "RRULE:FREQ=YEARLY;BYHOUR=1,3,5,7,9,11,13,15,17,19,21,23;"
+          + "BYMINUTE=5,15,25,35,45,55\n"
+          + "TZOFFSETFROM:+0000\n"
+          + "TZOFFSETTO:+0100\n"
+          + "END:DAYLIGHT\n"
+          + "END:VTIMEZONE\n");
+      ZoneOffsetTable table = ZoneOffsetTable.forZone(
+          parser.getTimezoneRegistry().getTimeZone("Hostile Zone"));
+      assertTrue(table.size() > 100, table.size() + " transitions");
+      assertTrue(table.size() <= 4000, table.size() + " transitions");
+    }
+
+    @Test
+    @DisplayName("should reuse the compiled table when called again")
+    void should_reuseTable_when_calledAgain() throws Exception {
+      DataStore ds = parse(eastern("Custom/Eastern"));
+      Timezone tz = ds.getAllTimezones().get(0);
+      assertSame(tz.getOffsetTable(), tz.getOffsetTable());
+    }
+  }
+
+  @Nested
+  @DisplayName("Date conversion")
+  class DateConversionTests {
+
+    @Test
+    @DisplayName("should convert dates the same as IANA zone when TZID is custom")
+    void should_convertLikeIana_when_tzidIsCustom() throws Exception {
+      DataStore ds = parse(eastern("Eastern Standard Time")
+          + "BEGIN:VEVENT\nUID:custom\nDTSTAMP:20230101T000000Z\n"
+          + "DTSTART;TZID=Eastern Standard Time:20230715T100000\n"
+          + "SUMMARY:Custom\nEND:VEVENT\n"
+          + "BEGIN:VEVENT\nUID:iana\nDTSTAMP:20230101T000000Z\n"
+          + "DTSTART;TZID=America/New_York:20230715T100000\n"
+          + "SUMMARY:IANA\nEND:VEVENT\n");
+      List<Event> events = ds.getAllEvents();
+      assertEquals(2, events.size());
+      us.k5n.ical.Date custom = events.get(0).getStartDate();
+      us.k5n.ical.Date iana = events.get(1).getStartDate();
+      assertEquals(iana.getYear(), custom.getYear());
+      assertEquals(iana.getMonth(), custom.getMonth());
+      assertEquals(iana.getDay(), custom.getDay());
+      assertEquals(iana.getHour(), custom.getHour());
+      assertEquals(iana.getMinute(), custom.getMinute());
+    }
+
+    @Test
+    @DisplayName("should expand with the store's VTIMEZONE after parsing")
+    void should_useStoreTimezones_when_expandedAfterParsing() throws Exception {
+      // the VTIMEZONE follows the event, so its DTSTART keeps the TZID
+      DataStore ds = parse("BEGIN:VEVENT\nUID:custom\nDTSTAMP:20230101T000000Z\n"
+          + "DTSTART;TZID=Eastern Standard Time:20230715T100000\n"
+          + "RRULE:FREQ=DAILY;COUNT=3\nSUMMARY:Custom\nEND:VEVENT\n"
+          + eastern("Eastern Standard Time"));
+      Event event = ds.getAllEvents().get(0);
+      assertEquals("Eastern Standard Time",
+          event.getStartDate().getNamedAttribute("TZID").value);
+      assertSame(parser.getTimezoneRegistry(),
+          event.getRrule().getTimezoneRegistry());
+      OccurrenceTable table = new OccurrenceExpander().setParallelism(2)
+          .expand(ds, new us.k5n.ical.Date("DTSTART:20230701T000000Z"),
+              new us.k5n.ical.Date("DTEND:20230801T000000Z"));
+      assertEquals(3, table.size());
+      assertEquals(Instant.parse("2023-07-15T14:00:00Z").toEpochMilli(),
+          table.getStart(0));
+      assertEquals(Instant.parse("2023-07-17T14:00:00Z").toEpochMilli(),
+          table.getStart(2));
+    }
+  }
+}
@@ -222,6 +222,17 @@ public class DatePropertyTest implements Constants {
         fail("Failed: " + e.toString());
       }
     }
+
+    @Test
+    @DisplayName("RFC 5545 Section 3.3.5: should write floating date-time as local time")
+    void should_keepLocalTime_when_floatingDateTimeWritten() throws Exception {
+      Date d = new Date("DTSTART:20070901T120000", PARSE_STRICT);
+      assertEquals("DTSTART;VALUE=\"DATE-TIME\":20070901T120000",
+          d.toICalendar().trim());
+      Date newDate = new Date(d.toICalendar(), PARSE_STRICT);
+      assertTrue(newDate.isFloating(), "Date should still be floating");
+      assertEquals(d.toICalendar(), newDate.toICalendar());
+    }
   }
 
   @Nested
@@ -0,0 +1,204 @@
+package us.k5n.ical.infrastructure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import us.k5n.ical.CalendarSnapshot;
+import us.k5n.ical.ConcurrentDataStore;
+import us.k5n.ical.DefaultDataStore;
+import us.k5n.ical.Event;
+import us.k5n.ical.ICalendarParser;
+import us.k5n.ical.IndexedDataStore;
+import us.k5n.ical.StringUtils;
+import us.k5n.ical.VAvailability;
+import us.k5n.ical.VLocation;
+import us.k5n.ical.VResource;
+
+/**
+ * Tests for reading and writing DataStore snapshots.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("CalendarSnapshot")
+public class CalendarSnapshotTest {
+
+  private static final String CALENDAR = "BEGIN:VCALENDAR\r\nVERSION:2.0\r\n"
+      + "PRODID:-//Test//EN\r\nMETHOD:PUBLISH\r\nNAME:Team calendar\r\n"
+      + "URL:http://example.com/cal\r\nLAST-MODIFIED:20240102T030405Z\r\n"
+      + "BEGIN:VTIMEZONE\r\nTZID:America/New_York\r\n"
+      + "BEGIN:STANDARD\r\nDTSTART:19701101T020000\r\n"
+      + "RRULE:FREQ=YEARLY;BYMONTH=11;BYDAY=1SU\r\nTZOFFSETFROM:-0400\r\n"
+      + "TZOFFSETTO:-0500\r\nTZNAME:EST\r\nEND:STANDARD\r\n"
+      + "BEGIN:DAYLIGHT\r\nDTSTART:19700308T020000\r\n"
+      + "RRULE:FREQ=YEARLY;BYMONTH=3;BYDAY=2SU\r\nTZOFFSETFROM:-0500\r\n"
+      + "TZOFFSETTO:-0400\r\nTZNAME:EDT\r\nEND:DAYLIGHT\r\nEND:VTIMEZONE\r\n"
+      + "BEGIN:VEVENT\r\nUID:e1@test\r\nDTSTAMP:20240101T000000Z\r\n"
+      + "DTSTART;TZID=America/New_York:20240105T090000\r\n"
+      + "DTEND;TZID=America/New_York:20240105T100000\r\n"
+      + "SUMMARY;LANGUAGE=en:Weekly sync\r\n"
+      + "DESCRIPTION:A description long enough to be folded when it is "
+      + "written back out by toICalendar\\, with an escaped comma\r\n"
+      + "ORGANIZER;CN=\"Owner, The\":mailto:owner@test\r\n"
+      + "ATTENDEE;PARTSTAT=ACCEPTED;CN=Jo:mailto:jo@test\r\n"
+      + "CATEGORIES:WORK,MEETING\r\nRRULE:FREQ=WEEKLY;COUNT=10\r\n"
+      + "EXDATE;TZID=America/New_York:20240112T090000,20240119T090000\r\n"
+      + "RDATE;TZID=America/New_York:20240301T090000,20240302T090000\r\n"
+      + "BEGIN:VALARM\r\nACTION:DISPLAY\r\nTRIGGER:-PT15M\r\n"
+      + "DESCRIPTION:Reminder\r\nEND:VALARM\r\nEND:VEVENT\r\n"
+      + "BEGIN:VEVENT\r\nUID:e1@test\r\nDTSTAMP:20240101T000000Z\r\n"
+      + "RECURRENCE-ID;TZID=America/New_York:20240126T090000\r\n"
+      + "DTSTART:20240126T110000\r\nDURATION:PT2H\r\nSUMMARY:Moved\r\n"
+      + "END:VEVENT\r\n"
+      + "BEGIN:VEVENT\r\nUID:e2@test\r\nDTSTAMP:20240101T000000Z\r\n"
+      + "DTSTART;VALUE=DATE:20240704\r\nSUMMARY:Holiday\r\nEND:VEVENT\r\n"
+      + "BEGIN:VTODO\r\nUID:t1@test\r\nDTSTAMP:20240101T000000Z\r\n"
+      + "DUE:20240201T170000Z\r\nSUMMARY:File report\r\n"
+      + "PERCENT-COMPLETE:40\r\nEND:VTODO\r\n"
+      + "BEGIN:VJOURNAL\r\nUID:j1@test\r\nDTSTAMP:20240101T000000Z\r\n"
+      + "DTSTART;VALUE=DATE:20240110\r\nRRULE:FREQ=MONTHLY;COUNT=3\r\n"
+      + "EXDATE;VALUE=DATE:20240210,20240310\r\nSUMMARY:Notes\r\n"
+      + "END:VJOURNAL\r\n"
+      + "BEGIN:VFREEBUSY\r\nUID:f1@test\r\nDTSTAMP:20240101T000000Z\r\n"
+      + "DTSTART:20240101T000000Z\r\nDTEND:20240201T000000Z\r\n"
+      + "FREEBUSY:20240105T140000Z/20240105T150000Z\r\nEND:VFREEBUSY\r\n"
+      + "BEGIN:PARTICIPANT\r\nUID:p1@test\r\nPARTICIPANT-TYPE:GROUP\r\n"
+      + "CALENDAR-ADDRESS:mailto:team@test\r\nNAME:Development Team\r\n"
+      + "END:PARTICIPANT\r\n"
+      + "END:VCALENDAR\r\n";
+
+  private DefaultDataStore ds;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    ICalendarParser parser = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+    parser.parse(new StringReader(CALENDAR));
+    ds = (DefaultDataStore) parser.getDataStoreAt(0);
+    // ICalendarParser reads these from the BEGIN line only
+    ds.storeVLocation(new VLocation("BEGIN:VLOCATION\nUID:l1@test\n"
+        + "NAME:Main Auditorium\nLOCATION-TYPE:ROOM\nEND:VLOCATION"));
+    ds.storeVResource(new VResource("BEGIN:VRESOURCE\nUID:r1@test\n"
+        + "NAME:Projector\nRESOURCE-TYPE:PROJECTOR\nEND:VRESOURCE"));
+    ds.storeVAvailability(new VAvailability(parser, 0, StringUtils
+        .splitLines("BEGIN:VAVAILABILITY\r\nUID:a1@test\r\n"
+            + "DTSTAMP:20230101T120000Z\r\nDTSTART:20230101T090000Z\r\n"
+            + "BUSYTYPE:BUSY-UNAVAILABLE\r\nSUMMARY:Office Hours\r\n"
+            + "END:VAVAILABILITY\r\n")));
+  }
+
+  private static byte[] write(us.k5n.ical.DataStore dataStore)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CalendarSnapshot.write(dataStore, out);
+    return out.toByteArray();
+  }
+
+  /** The text of every component, in the order they were stored. */
+  private static List<String> components(DefaultDataStore d) {
+    List<String> ret = new ArrayList<String>();
+    d.getAllTimezones().forEach(c -> ret.add(c.toICalendar()));
+    d.getAllEvents().forEach(c -> ret.add(c.toICalendar()));
+    d.getAllTodos().forEach(c -> ret.add(c.toICalendar()));
+    d.getAllJournals().forEach(c -> ret.add(c.toICalendar()));
+    d.getAllFreebusys().forEach(c -> ret.add(c.toICalendar()));
+    d.getAllVLocations().forEach(c -> ret.add(c.toICalendar()));
+    d.getAllVResources().forEach(c -> ret.add(c.toICalendar()));
+    d.getAllVAvailabilities().forEach(c -> ret.add(c.toICalendar()));
+    d.getAllParticipants().forEach(c -> ret.add(c.toICalendar()));
+    return ret;
+  }
+
+  @Nested
+  @DisplayName("Round trip")
+  class RoundTripTests {
+
+    @Test
+    @DisplayName("should read back every component type unchanged")
+    void should_readBackUnchanged_when_allTypesWritten() throws Exception {
+      byte[] snapshot = write(ds);
+      DefaultDataStore copy = new DefaultDataStore();
+      assertEquals(11, CalendarSnapshot.read(
+          new ByteArrayInputStream(snapshot), copy));
+      assertEquals(components(ds), components(copy));
+      assertEquals(ds.toICalendar(), copy.toICalendar());
+      assertEquals("PUBLISH", copy.getMethodValue());
+      assertEquals("Team calendar", copy.getName());
+    }
+
+    @Test
+    @DisplayName("should be smaller than the iCalendar text")
+    void should_beSmaller_when_comparedToText() throws Exception {
+      List<String> many = new ArrayList<String>();
+      for (int i = 0; i < 200; i++)
+        many.add(ds.getAllEvents().get(0).toICalendar().replace("e1@test",
+            "e" + i + "@test"));
+      DefaultDataStore big = new DefaultDataStore();
+      ICalendarParser parser = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+      for (String ical : many)
+        big.storeEvent(new Event(parser, 0, StringUtils.splitLines(ical)));
+      byte[] snapshot = write(big);
+      assertTrue(snapshot.length * 3 < big.toICalendar().length(),
+          snapshot.length + " bytes");
+    }
+
+    @Test
+    @DisplayName("should store into any DataStore and write from a snapshot")
+    void should_copy_when_otherDataStoresUsed() throws Exception {
+      IndexedDataStore indexed = new IndexedDataStore();
+      CalendarSnapshot.read(new ByteArrayInputStream(write(ds)), indexed);
+      assertEquals("Moved", indexed.getEventByUid("e1@test",
+          ds.getAllEvents().get(1).getRecurrenceId()).getSummary().getValue());
+
+      ConcurrentDataStore concurrent = new ConcurrentDataStore();
+      CalendarSnapshot.read(new ByteArrayInputStream(write(ds)), concurrent);
+      DefaultDataStore copy = new DefaultDataStore();
+      CalendarSnapshot.read(new ByteArrayInputStream(write(concurrent)), copy);
+      assertEquals(components(ds), components(copy));
+    }
+  }
+
+  @Nested
+  @DisplayName("Errors")
+  class ErrorTests {
+
+    @Test
+    @DisplayName("should reject a stream that is not a snapshot")
+    void should_reject_when_notSnapshot() {
+      assertThrows(IOException.class, () -> CalendarSnapshot.read(
+          new ByteArrayInputStream(CALENDAR.getBytes()), new DefaultDataStore()));
+    }
+
+    @Test
+    @DisplayName("should reject a newer schema version")
+    void should_reject_when_newerVersion() throws Exception {
+      byte[] snapshot = write(ds);
+      snapshot[8] = (byte) (CalendarSnapshot.SCHEMA_VERSION + 1);
+      IOException e = assertThrows(IOException.class, () -> CalendarSnapshot
+          .read(new ByteArrayInputStream(snapshot), new DefaultDataStore()));
+      assertTrue(e.getMessage().contains("version"), e.getMessage());
+    }
+
+    @Test
+    @DisplayName("should reject a truncated snapshot")
+    void should_reject_when_truncated() throws Exception {
+      byte[] snapshot = write(ds);
+      assertThrows(EOFException.class, () -> CalendarSnapshot.read(
+          new ByteArrayInputStream(Arrays.copyOf(snapshot, snapshot.length - 2)),
+          new DefaultDataStore()));
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package us.k5n.ical.infrastructure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import us.k5n.ical.ColumnarDataStore;
+import us.k5n.ical.DefaultDataStore;
+import us.k5n.ical.Event;
+import us.k5n.ical.ICalendarParser;
+import us.k5n.ical.Summary;
+
+/**
+ * Tests for the DataStore that keeps events in columns.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("ColumnarDataStore")
+public class ColumnarDataStoreTest {
+
+  private static final String CALENDAR = "BEGIN:VCALENDAR\r\nVERSION:2.0\r\n"
+      + "PRODID:-//Test//EN\r\n"
+      + "BEGIN:VEVENT\r\nUID:a@test\r\nDTSTAMP:20240101T000000Z\r\n"
+      + "DTSTART:20240105T100000Z\r\nDTEND:20240105T113000Z\r\n"
+      + "SUMMARY:Planning\\, weekly\r\nLOCATION:Room 1\r\n"
+      + "ORGANIZER;CN=Pat:mailto:pat@test\r\nCATEGORIES:WORK,PLANNING\r\n"
+      + "RRULE:FREQ=WEEKLY;COUNT=4\r\n"
+      + "DESCRIPTION:A description long enough that it is folded when the "
+      + "event is written as iCalendar text again\r\n"
+      + "BEGIN:VALARM\r\nACTION:DISPLAY\r\nDESCRIPTION:Reminder\r\n"
+      + "TRIGGER:-PT15M\r\nEND:VALARM\r\nEND:VEVENT\r\n"
+      + "BEGIN:VEVENT\r\nUID:b@test\r\nDTSTAMP:20240101T000000Z\r\n"
+      + "DTSTART;VALUE=DATE:20240201\r\nSUMMARY:Holiday\r\n"
+      + "LOCATION:Room 1\r\nSTATUS:CANCELLED\r\nEND:VEVENT\r\n"
+      + "BEGIN:VTODO\r\nUID:t@test\r\nDTSTAMP:20240101T000000Z\r\n"
+      + "SUMMARY:Task\r\nEND:VTODO\r\n"
+      + "END:VCALENDAR\r\n";
+
+  /** Parse the calendar into a ColumnarDataStore and a DefaultDataStore. */
+  private static DefaultDataStore parse(ColumnarDataStore ds)
+      throws IOException {
+    ICalendarParser parser = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+    parser.addDataStore(ds);
+    parser.parse(new StringReader(CALENDAR));
+    return (DefaultDataStore) parser.getDataStoreAt(0);
+  }
+
+  @Nested
+  @DisplayName("Columns")
+  class ColumnTests {
+
+    @Test
+    @DisplayName("should read times, flags and text without an Event")
+    void should_readColumns_when_eventsStored() throws Exception {
+      ColumnarDataStore ds = new ColumnarDataStore();
+      parse(ds);
+      assertEquals(2, ds.getEventCount());
+      assertEquals(1, ds.getAllTodos().size());
+      assertEquals("a@test", ds.getUid(0));
+      assertEquals(1704448800L, ds.getStartSeconds(0));
+      assertEquals(1704448800L + 90 * 60, ds.getEndSeconds(0));
+      assertEquals("Planning, weekly", ds.getSummary(0));
+      assertEquals("mailto:pat@test", ds.getOrganizer(0));
+      assertEquals(Arrays.asList("WORK", "PLANNING"), ds.getCategories(0));
+      assertEquals("RRULE:FREQ=WEEKLY;COUNT=4", ds.getRrule(0));
+      assertTrue(ds.isRecurring(0));
+      assertFalse(ds.isDateOnly(0));
+      assertFalse(ds.isCancelled(0));
+
+      assertEquals(1706745600L, ds.getStartSeconds(1));
+      assertTrue(ds.isDateOnly(1));
+      assertTrue(ds.isCancelled(1));
+      assertFalse(ds.isRecurring(1));
+      assertEquals("Room 1", ds.getLocation(1));
+      assertNull(ds.getOrganizer(1));
+      assertNull(ds.getRrule(1));
+      assertEquals(Collections.emptyList(), ds.getCategories(1));
+    }
+
+    @Test
+    @DisplayName("should report the bytes used for each event")
+    void should_reportBytes_when_eventsStored() throws Exception {
+      ColumnarDataStore ds = new ColumnarDataStore();
+      assertEquals(0.0, ds.getBytesPerEvent());
+      parse(ds);
+      assertTrue(ds.getMemoryUsage() > 0);
+      assertEquals((double) ds.getMemoryUsage() / 2, ds.getBytesPerEvent());
+    }
+  }
+
+  @Nested
+  @DisplayName("Materialized events")
+  class MaterializeTests {
+
+    @Test
+    @DisplayName("should materialize the same events as a DefaultDataStore")
+    void should_matchDefaultStore_when_materialized() throws Exception {
+      for (boolean offHeap : new boolean[] { false, true }) {
+        ColumnarDataStore ds = new ColumnarDataStore(offHeap);
+        DefaultDataStore objects = parse(ds);
+        assertEquals(offHeap, ds.isOffHeap());
+        assertEquals(objects.getAllEvents().size(), ds.getAllEvents().size());
+        for (int i = 0; i < ds.getEventCount(); i++)
+          assertEquals(objects.getAllEvents().get(i).toICalendar(),
+              ds.getAllEvents().get(i).toICalendar());
+        assertEquals(1, ds.getEvent(0).getAlarms().size());
+        assertEquals(objects.toICalendar(), ds.toICalendar());
+      }
+    }
+
+    @Test
+    @DisplayName("should give a new Event each time one is read")
+    void should_copy_when_eventModified() throws Exception {
+      ColumnarDataStore ds = new ColumnarDataStore();
+      parse(ds);
+      Event event = ds.getEvent(0);
+      assertNotSame(event, ds.getEvent(0));
+      event.setSummary(new Summary("SUMMARY:Changed"));
+      assertEquals("Planning, weekly",
+          ds.getEvent(0).getSummary().getValue());
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package us.k5n.ical.infrastructure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import us.k5n.ical.ConcurrentDataStore;
+import us.k5n.ical.Date;
+import us.k5n.ical.Event;
+import us.k5n.ical.ICalendarParser;
+import us.k5n.ical.OccurrenceExpander;
+import us.k5n.ical.Todo;
+
+/**
+ * Tests for the DataStore that readers can use while it is being written.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("ConcurrentDataStore")
+public class ConcurrentDataStoreTest {
+
+  private static Event event(int i) throws Exception {
+    return new Event("Event " + i, "", new Date("DTSTART", 2024, 1,
+        1 + i % 28, 10, 0, 0));
+  }
+
+  @Nested
+  @DisplayName("Snapshots")
+  class SnapshotTests {
+
+    @Test
+    @DisplayName("should not change a snapshot when more is stored")
+    void should_keepSnapshot_when_storedAfter() throws Exception {
+      ConcurrentDataStore store = new ConcurrentDataStore();
+      store.storeEvent(event(0));
+      ConcurrentDataStore.Snapshot before = store.snapshot();
+      for (int i = 1; i < 100; i++)
+        store.storeEvent(event(i));
+      store.storeTodo(new Todo("Task", ""));
+
+      assertEquals(1, before.getAllEvents().size());
+      assertEquals(0, before.getAllTodos().size());
+      assertEquals(1, before.getVersion());
+      assertEquals(100, store.getAllEvents().size());
+      assertEquals(1, store.getAllTodos().size());
+      assertEquals(101, store.getVersion());
+      assertEquals("Event 99",
+          store.getAllEvents().get(99).getSummary().getValue());
+      assertSame(store.snapshot(), store.snapshot());
+    }
+
+    @Test
+    @DisplayName("should not allow changes through a snapshot")
+    void should_reject_when_snapshotModified() throws Exception {
+      ConcurrentDataStore store = new ConcurrentDataStore();
+      store.storeEvent(event(0));
+      ConcurrentDataStore.Snapshot snapshot = store.snapshot();
+      assertThrows(UnsupportedOperationException.class,
+          () -> snapshot.storeEvent(event(1)));
+      assertThrows(UnsupportedOperationException.class,
+          () -> snapshot.getAllEvents().add(event(1)));
+      assertThrows(UnsupportedOperationException.class,
+          () -> store.getAllEvents().remove(0));
+      assertThrows(IndexOutOfBoundsException.class,
+          () -> snapshot.getAllEvents().get(1));
+    }
+
+    @Test
+    @DisplayName("should be filled by the parser and expanded")
+    void should_expand_when_parsedIntoStore() throws Exception {
+      ConcurrentDataStore store = new ConcurrentDataStore();
+      ICalendarParser parser = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+      parser.addDataStore(store);
+      parser.parse(new StringReader("BEGIN:VCALENDAR\r\nVERSION:2.0\r\n"
+          + "PRODID:-//Test//EN\r\nNAME:Team\r\nBEGIN:VEVENT\r\n"
+          + "UID:a@test\r\nDTSTAMP:20240101T000000Z\r\n"
+          + "DTSTART:20240101T100000Z\r\nRRULE:FREQ=DAILY;COUNT=3\r\n"
+          + "SUMMARY:Standup\r\nEND:VEVENT\r\nEND:VCALENDAR\r\n"));
+      assertEquals(1, store.getAllEvents().size());
+      assertEquals(3, new OccurrenceExpander().expand(store.snapshot(),
+          new Date("DTSTART:20240101T000000Z"),
+          new Date("DTEND:20240201T000000Z")).size());
+    }
+  }
+
+  @Nested
+  @DisplayName("Concurrency")
+  class ConcurrencyTests {
+
+    @Test
+    @DisplayName("should give readers consistent snapshots while writing")
+    void should_readConsistently_when_writerRuns() throws Exception {
+      ConcurrentDataStore store = new ConcurrentDataStore();
+      int n = 5000;
+      AtomicBoolean done = new AtomicBoolean();
+      AtomicReference<String> failure = new AtomicReference<String>();
+      Thread[] readers = new Thread[4];
+      for (int r = 0; r < readers.length; r++) {
+        readers[r] = new Thread(() -> {
+          long lastVersion = 0;
+          while (!done.get() && failure.get() == null) {
+            ConcurrentDataStore.Snapshot snapshot = store.snapshot();
+            List<Event> events = snapshot.getAllEvents();
+            // every event is stored once in order, so the version is the
+            // count and each event is where it was stored
+            if (snapshot.getVersion() < lastVersion
+                || events.size() != snapshot.getVersion())
+              failure.set("version " + snapshot.getVersion() + " with "
+                  + events.size() + " events");
+            for (int i = 0; i < events.size(); i++) {
+              if (events.get(i) == null || !events.get(i).getSummary()
+                  .getValue().equals("Event " + i))
+                failure.set("wrong event at " + i);
+            }
+            lastVersion = snapshot.getVersion();
+          }
+        });
+        readers[r].start();
+      }
+      for (int i = 0; i < n; i++)
+        store.storeEvent(event(i));
+      done.set(true);
+      for (Thread reader : readers)
+        reader.join();
+      assertNull(failure.get());
+      assertEquals(n, store.getAllEvents().size());
+      assertEquals(n, store.getVersion());
+    }
+  }
+}
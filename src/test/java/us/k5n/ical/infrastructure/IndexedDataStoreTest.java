@@ -0,0 +1,596 @@
+package us.k5n.ical.infrastructure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import us.k5n.ical.ChangeListener;
+import us.k5n.ical.ChangeSet;
+import us.k5n.ical.ComponentChange;
+import us.k5n.ical.Date;
+import us.k5n.ical.Event;
+import us.k5n.ical.ICalendarParser;
+import us.k5n.ical.IndexedDataStore;
+import us.k5n.ical.OccurrenceTable;
+import us.k5n.ical.PostingList;
+import us.k5n.ical.Todo;
+
+/**
+ * Tests for the DataStore that indexes components by UID.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("IndexedDataStore")
+public class IndexedDataStoreTest {
+
+  private IndexedDataStore ds;
+  private ICalendarParser parser;
+
+  @BeforeEach
+  void setUp() {
+    parser = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+    parser.removeDataStoreAt(0);
+    ds = new IndexedDataStore();
+    parser.addDataStore(ds);
+  }
+
+  private void parse(String... components) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    sb.append("BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//Test//EN\r\n");
+    for (String c : components)
+      sb.append(c);
+    sb.append("END:VCALENDAR\r\n");
+    parser.parse(new StringReader(sb.toString()));
+  }
+
+  private static String event(String uid, int sequence, String dtstamp,
+      String summary) {
+    return "BEGIN:VEVENT\r\nUID:" + uid + "\r\nSEQUENCE:" + sequence
+        + "\r\nDTSTAMP:" + dtstamp + "\r\nDTSTART:20240101T100000Z\r\n"
+        + "SUMMARY:" + summary + "\r\nEND:VEVENT\r\n";
+  }
+
+  @Nested
+  @DisplayName("Upserts")
+  class UpsertTests {
+
+    @Test
+    @DisplayName("should replace an event when a feed is imported again")
+    void should_replace_when_sameVersionReimported() throws Exception {
+      parse(event("a@test", 0, "20240101T000000Z", "First"),
+          event("b@test", 0, "20240101T000000Z", "Other"));
+      parse(event("a@test", 0, "20240101T000000Z", "Again"));
+      assertEquals(2, ds.getAllEvents().size());
+      assertEquals("Again", ds.getAllEvents().get(0).getSummary().getValue());
+      assertEquals("Again", ds.getEventByUid("a@test").getSummary().getValue());
+    }
+
+    @Test
+    @DisplayName("should keep the higher SEQUENCE")
+    void should_keepHigherSequence_when_olderArrivesLater() throws Exception {
+      parse(event("a@test", 2, "20240101T000000Z", "Two"),
+          event("a@test", 1, "20240301T000000Z", "One"));
+      assertEquals(1, ds.getAllEvents().size());
+      assertEquals("Two", ds.getEventByUid("a@test").getSummary().getValue());
+      parse(event("a@test", 3, "20231201T000000Z", "Three"));
+      assertEquals("Three", ds.getEventByUid("a@test").getSummary().getValue());
+    }
+
+    @Test
+    @DisplayName("should keep the later DTSTAMP when SEQUENCE is the same")
+    void should_keepLaterDtstamp_when_sequenceEqual() throws Exception {
+      parse(event("a@test", 1, "20240301T000000Z", "Later"),
+          event("a@test", 1, "20240201T000000Z", "Earlier"));
+      assertEquals("Later", ds.getEventByUid("a@test").getSummary().getValue());
+    }
+
+    @Test
+    @DisplayName("should index overrides separately from the recurring event")
+    void should_indexOverride_when_recurrenceIdGiven() throws Exception {
+      parse("BEGIN:VEVENT\r\nUID:r@test\r\nDTSTAMP:20240101T000000Z\r\n"
+          + "DTSTART:20240101T100000Z\r\nRRULE:FREQ=DAILY;COUNT=5\r\n"
+          + "SUMMARY:Daily\r\nEND:VEVENT\r\n",
+          "BEGIN:VEVENT\r\nUID:r@test\r\nDTSTAMP:20240101T000000Z\r\n"
+          + "RECURRENCE-ID:20240103T100000Z\r\nDTSTART:20240103T120000Z\r\n"
+          + "SUMMARY:Moved\r\nEND:VEVENT\r\n");
+      assertEquals(2, ds.getAllEvents().size());
+      assertEquals("Daily", ds.getEventByUid("r@test").getSummary().getValue());
+      assertEquals("Moved", ds.getEventByUid("r@test",
+          new Date("RECURRENCE-ID:20240103T100000Z")).getSummary().getValue());
+      assertNull(ds.getEventByUid("r@test",
+          new Date("RECURRENCE-ID:20240104T100000Z")));
+    }
+
+    @Test
+    @DisplayName("should replace an override when its RECURRENCE-ID is given in UTC")
+    void should_replaceOverride_when_recurrenceIdWrittenInUtc() throws Exception {
+      parse("BEGIN:VEVENT\r\nUID:r@test\r\nDTSTAMP:20240101T000000Z\r\n"
+          + "DTSTART;TZID=America/New_York:20240101T050000\r\n"
+          + "RRULE:FREQ=DAILY;COUNT=5\r\nSUMMARY:Daily\r\nEND:VEVENT\r\n",
+          "BEGIN:VEVENT\r\nUID:r@test\r\nDTSTAMP:20240101T000000Z\r\n"
+          + "RECURRENCE-ID;TZID=America/New_York:20240102T050000\r\n"
+          + "DTSTART;TZID=America/New_York:20240102T070000\r\n"
+          + "SUMMARY:Moved\r\nEND:VEVENT\r\n");
+      String token = ds.getSyncToken();
+      parse("BEGIN:VEVENT\r\nUID:r@test\r\nDTSTAMP:20240102T000000Z\r\n"
+          + "RECURRENCE-ID:20240102T100000Z\r\n"
+          + "DTSTART;TZID=America/New_York:20240102T080000\r\n"
+          + "SUMMARY:Moved again\r\nEND:VEVENT\r\n");
+      assertEquals(2, ds.getAllEvents().size());
+      assertEquals("Moved again", ds.getEventByUid("r@test",
+          new Date("RECURRENCE-ID:20240102T100000Z")).getSummary().getValue());
+      assertEquals("Moved again", ds.getEventByUid("r@test",
+          new Date("RECURRENCE-ID;TZID=America/New_York:20240102T050000"))
+          .getSummary().getValue());
+      List<ComponentChange> changes = ds.changesSince(token).getChanges();
+      assertEquals(1, changes.size());
+      assertEquals(ComponentChange.MODIFIED, changes.get(0).getType());
+      assertNotNull(ds.removeEvent("r@test",
+          new Date("RECURRENCE-ID:20240102T100000Z")));
+      assertEquals(1, ds.getAllEvents().size());
+    }
+  }
+
+  @Nested
+  @DisplayName("Overlap queries")
+  class OverlapTests {
+
+    private String summaries(OccurrenceTable table) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < table.size(); i++) {
+        if (sb.length() > 0)
+          sb.append(',');
+        Object c = table.getComponent(i);
+        sb.append(c instanceof Event ? ((Event) c).getSummary().getValue()
+            : ((Todo) c).getSummary().getValue());
+      }
+      return sb.toString();
+    }
+
+    private OccurrenceTable find(String from, String to) throws Exception {
+      return ds.findOverlapping(new Date("DTSTART:" + from),
+          new Date("DTEND:" + to));
+    }
+
+    @Test
+    @DisplayName("should find single and recurring events in a window")
+    void should_findOverlapping_when_windowGiven() throws Exception {
+      parse(event("a@test", 0, "20240101T000000Z", "Single")
+          .replace("DTSTART:20240101T100000Z", "DTSTART:20240110T090000Z\r\n"
+              + "DTEND:20240110T110000Z"),
+          event("b@test", 0, "20240101T000000Z", "Weekly")
+              .replace("SUMMARY", "RRULE:FREQ=WEEKLY;COUNT=4\r\nSUMMARY"),
+          event("c@test", 0, "20240101T000000Z", "Forever")
+              .replace("SUMMARY", "RRULE:FREQ=MONTHLY\r\nSUMMARY"));
+      assertEquals("Weekly,Single",
+          summaries(find("20240108T000000Z", "20240111T000000Z")));
+      // overlapping the end of an occurrence
+      assertEquals("Single",
+          summaries(find("20240110T100000Z", "20240110T103000Z")));
+      assertEquals("Weekly,Forever",
+          summaries(find("20240101T000000Z", "20240102T000000Z")));
+      // long after the COUNT is used up
+      assertEquals("Forever",
+          summaries(find("20250101T000000Z", "20250201T000000Z")));
+    }
+
+    @Test
+    @DisplayName("should treat a COUNT too large to walk as open-ended")
+    void should_findSeries_when_countTooLargeToWalk() throws Exception {
+      parse(event("a@test", 0, "20240101T000000Z", "Huge")
+          .replace("SUMMARY",
+              "RRULE:FREQ=MONTHLY;BYDAY=1MO;COUNT=1000000\r\nSUMMARY"),
+          event("b@test", 0, "20240101T000000Z", "Short")
+              .replace("SUMMARY", "RRULE:FREQ=MONTHLY;BYDAY=1MO;COUNT=3\r\n"
+                  + "SUMMARY"));
+      assertEquals("Huge,Short",
+          summaries(find("20240301T000000Z", "20240401T000000Z")));
+      assertEquals("Huge",
+          summaries(find("20990101T000000Z", "20990201T000000Z")));
+    }
+
+    @Test
+    @DisplayName("should find todos by their start and due dates")
+    void should_findTodo_when_dueInWindow() throws Exception {
+      parse("BEGIN:VTODO\r\nUID:t@test\r\nDTSTAMP:20240101T000000Z\r\n"
+          + "DTSTART:20240301T090000Z\r\nDUE:20240305T170000Z\r\n"
+          + "SUMMARY:Report\r\nEND:VTODO\r\n");
+      assertEquals("Report",
+          summaries(find("20240304T000000Z", "20240305T000000Z")));
+      assertEquals("", summaries(find("20240306T000000Z", "20240307T000000Z")));
+    }
+
+    @Test
+    @DisplayName("should use an override moved out of its recurring event's span")
+    void should_useOverride_when_movedAway() throws Exception {
+      parse("BEGIN:VEVENT\r\nUID:r@test\r\nDTSTAMP:20240101T000000Z\r\n"
+          + "DTSTART:20240101T100000Z\r\nRRULE:FREQ=DAILY;COUNT=3\r\n"
+          + "SUMMARY:Daily\r\nEND:VEVENT\r\n",
+          "BEGIN:VEVENT\r\nUID:r@test\r\nDTSTAMP:20240101T000000Z\r\n"
+          + "RECURRENCE-ID:20240102T100000Z\r\nDTSTART:20240601T100000Z\r\n"
+          + "SUMMARY:Moved\r\nEND:VEVENT\r\n");
+      assertEquals("Daily,Daily",
+          summaries(find("20240101T000000Z", "20240201T000000Z")));
+      assertEquals("Moved",
+          summaries(find("20240601T000000Z", "20240602T000000Z")));
+    }
+
+    @Test
+    @DisplayName("should follow replaced and removed events")
+    void should_updateIndex_when_eventsReplacedOrRemoved() throws Exception {
+      parse(event("a@test", 0, "20240101T000000Z", "Old"),
+          event("b@test", 0, "20240101T000000Z", "Other"));
+      parse(event("a@test", 1, "20240101T000000Z", "New")
+          .replace("DTSTART:20240101T100000Z", "DTSTART:20240201T100000Z"));
+      assertEquals("Other",
+          summaries(find("20240101T000000Z", "20240102T000000Z")));
+      assertEquals("New",
+          summaries(find("20240201T000000Z", "20240202T000000Z")));
+      assertEquals("New", ds.removeEvent("a@test", null).getSummary()
+          .getValue());
+      assertEquals("", summaries(find("20240201T000000Z", "20240202T000000Z")));
+      assertEquals("Other", ds.getEventByUid("b@test").getSummary().getValue());
+      assertEquals(1, ds.getAllEvents().size());
+    }
+  }
+
+  @Nested
+  @DisplayName("Text search")
+  class TextSearchTests {
+
+    private String summaries(PostingList ids) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < ids.size(); i++) {
+        if (sb.length() > 0)
+          sb.append(',');
+        Object c = ds.getComponent(ids.get(i));
+        sb.append(c instanceof Event ? ((Event) c).getSummary().getValue()
+            : ((Todo) c).getSummary().getValue());
+      }
+      return sb.toString();
+    }
+
+    private String text(String uid, String summary, String more) {
+      return "BEGIN:VEVENT\r\nUID:" + uid + "\r\nDTSTAMP:20240101T000000Z\r\n"
+          + "DTSTART:20240101T100000Z\r\nSUMMARY:" + summary + "\r\n" + more
+          + "END:VEVENT\r\n";
+    }
+
+    @Test
+    @DisplayName("should match words, prefixes and phrases in any text field")
+    void should_match_when_queryGiven() throws Exception {
+      parse(text("a@test", "Project review", "LOCATION:Room 12\r\n"),
+          text("b@test", "Review of the project", "CATEGORIES:WORK,PLANNING\r\n"),
+          text("c@test", "Lunch", "DESCRIPTION:Meeting at the Café\r\n"),
+          "BEGIN:VTODO\r\nUID:t@test\r\nDTSTAMP:20240101T000000Z\r\n"
+              + "SUMMARY:Plan the project\r\nEND:VTODO\r\n");
+      assertEquals("Project review,Review of the project",
+          summaries(ds.search("REVIEW project")));
+      assertEquals("Project review", summaries(ds.search("\"project review\"")));
+      assertEquals("Review of the project,Plan the project",
+          summaries(ds.search("plan*")));
+      assertEquals("Project review", summaries(ds.search("room 12")));
+      assertEquals("Lunch", summaries(ds.search("cafe meet*")));
+      assertEquals("", summaries(ds.search("project lunch")));
+      assertTrue(ds.search("  ").isEmpty());
+    }
+
+    @Test
+    @DisplayName("should limit a search to text in one language")
+    void should_matchLanguage_when_languageGiven() throws Exception {
+      parse(text("a@test", "Réunion", "DESCRIPTION;LANGUAGE=fr-CA:Ordre du "
+          + "jour\r\n"),
+          text("b@test", "Meeting", "DESCRIPTION;LANGUAGE=en:Agenda du "
+              + "jour\r\n"),
+          text("c@test", "Istanbul trip", "DESCRIPTION;LANGUAGE=tr:İSTANBUL "
+              + "IĞDIR\r\n"));
+      assertEquals("Réunion,Meeting", summaries(ds.search("jour")));
+      assertEquals("Réunion", summaries(ds.search("jour", "FR")));
+      assertEquals("Meeting", summaries(ds.search("\"agenda du\"", "en")));
+      assertEquals("Réunion", summaries(ds.search("reunion")));
+      assertEquals("Istanbul trip", summaries(ds.search("igdir istanbul", "tr")));
+      assertTrue(ds.search("jour", "de").isEmpty());
+    }
+
+    @Test
+    @DisplayName("should follow replaced and removed components")
+    void should_updateIndex_when_componentsReplaced() throws Exception {
+      parse(event("a@test", 0, "20240101T000000Z", "Budget draft"),
+          event("b@test", 0, "20240101T000000Z", "Budget final"));
+      assertEquals(2, ds.search("budget").size());
+      parse(event("a@test", 1, "20240101T000000Z", "Forecast"));
+      assertEquals("Budget final", summaries(ds.search("budget")));
+      assertEquals("Forecast", summaries(ds.search("forecast")));
+      ds.removeEvent("b@test", null);
+      assertTrue(ds.search("budget").isEmpty());
+      assertTrue(ds.search("draft").isEmpty());
+    }
+
+    @Test
+    @DisplayName("should reuse ids of replaced and removed components")
+    void should_reuseIds_when_componentsReplacedOrRemoved() throws Exception {
+      parse(event("a@test", 0, "20240101T000000Z", "Budget draft"),
+          event("b@test", 0, "20240101T000000Z", "Budget final"));
+      assertEquals("Budget draft,Budget final", summaries(ds.search("budget")));
+      int a = ds.getComponentId(ds.getEventByUid("a@test"));
+      int b = ds.getComponentId(ds.getEventByUid("b@test"));
+      for (int seq = 1; seq <= 20; seq++)
+        parse(event("a@test", seq, "20240101T000000Z", "Budget v" + seq));
+      assertEquals(a, ds.getComponentId(ds.getEventByUid("a@test")));
+      assertEquals("Budget v20,Budget final", summaries(ds.search("budget")));
+      ds.removeEvent("b@test", null);
+      assertNull(ds.getComponent(b));
+      parse(event("c@test", 0, "20240101T000000Z", "Forecast"));
+      assertEquals(b, ds.getComponentId(ds.getEventByUid("c@test")));
+      assertEquals("Forecast", summaries(ds.search("forecast")));
+      assertEquals("Budget v20", summaries(ds.search("budget")));
+      assertNull(ds.getComponent(2));
+    }
+
+    @Test
+    @DisplayName("should expand only the components found in a window")
+    void should_intersectTimeIndex_when_searchResultsExpanded() throws Exception {
+      parse(text("a@test", "Standup", "RRULE:FREQ=DAILY;COUNT=5\r\n"),
+          text("b@test", "Retro", ""),
+          text("a@test", "Standup moved",
+              "RECURRENCE-ID:20240102T100000Z\r\n").replace(
+                  "DTSTART:20240101T100000Z", "DTSTART:20240102T150000Z"),
+          text("c@test", "Standup notes", "").replace("20240101T100000Z",
+              "20240301T100000Z"));
+      PostingList standup = ds.search("standup");
+      assertEquals(3, standup.size());
+      OccurrenceTable table = ds.findOverlapping(
+          new Date("DTSTART:20240101T000000Z"),
+          new Date("DTEND:20240104T000000Z"), standup);
+      assertEquals(3, table.size());
+      assertEquals("Standup moved",
+          ((Event) table.getComponent(1)).getSummary().getValue());
+      // the override alone still moves its instance
+      PostingList moved = standup.and(ds.search("moved"));
+      table = ds.findOverlapping(new Date("DTSTART:20240101T000000Z"),
+          new Date("DTEND:20240104T000000Z"), moved);
+      assertEquals(1, table.size());
+      assertEquals("Standup moved",
+          ((Event) table.getComponent(0)).getSummary().getValue());
+    }
+  }
+
+  @Nested
+  @DisplayName("Address and category queries")
+  class PropertyQueryTests {
+
+    private String meeting(String uid, String summary, String organizer,
+        String categories, String... attendees) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("BEGIN:VEVENT\r\nUID:").append(uid)
+          .append("\r\nDTSTAMP:20240101T000000Z\r\nDTSTART:20240110T100000Z")
+          .append("\r\nSUMMARY:").append(summary).append("\r\nORGANIZER:")
+          .append(organizer).append("\r\nCATEGORIES:").append(categories)
+          .append("\r\n");
+      for (String attendee : attendees)
+        sb.append("ATTENDEE;PARTSTAT=ACCEPTED:").append(attendee).append("\r\n");
+      return sb.append("END:VEVENT\r\n").toString();
+    }
+
+    private String summaries(PostingList ids) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < ids.size(); i++) {
+        if (sb.length() > 0)
+          sb.append(',');
+        sb.append(((Event) ds.getComponent(ids.get(i))).getSummary().getValue());
+      }
+      return sb.toString();
+    }
+
+    @Test
+    @DisplayName("should find components by normalized address and category")
+    void should_find_when_addressOrCategoryGiven() throws Exception {
+      parse(meeting("a@test", "Planning", "mailto:Boss@Example.com", "Work",
+          "MAILTO:Alice@Example.com", "mailto:bob@example.com"),
+          meeting("b@test", "Lunch", "mailto:alice@example.com",
+              "PERSONAL, work ", "mailto:carol@example.com"),
+          meeting("c@test", "Review", "mailto:boss@example.com", "WORK",
+              "mailto:alice@example.com"));
+      assertEquals("Planning,Review",
+          summaries(ds.findByAttendee("alice@EXAMPLE.com")));
+      assertEquals("Lunch",
+          summaries(ds.findByOrganizer("mailto:ALICE@example.com")));
+      assertEquals("Planning,Lunch,Review", summaries(ds.findByCategory("work")));
+      assertEquals("Lunch", summaries(ds.findByCategory(" Personal")));
+      assertTrue(ds.findByAttendee("mailto:dave@example.com").isEmpty());
+      // alice@ as attendee or organizer, at work, with the boss organizing
+      PostingList alice = ds.findByAttendee("alice@example.com")
+          .or(ds.findByOrganizer("alice@example.com"));
+      assertEquals("Planning,Lunch,Review", summaries(alice));
+      assertEquals("Planning,Review", summaries(alice.and(
+          ds.findByOrganizer("boss@example.com")).and(
+              ds.findByCategory("WORK"))));
+    }
+
+    @Test
+    @DisplayName("should combine with time ranges")
+    void should_combine_when_timeRangeGiven() throws Exception {
+      parse(meeting("a@test", "January", "mailto:boss@example.com", "WORK",
+          "mailto:alice@example.com"),
+          meeting("b@test", "February", "mailto:boss@example.com", "WORK",
+              "mailto:alice@example.com").replace("DTSTART:20240110",
+                  "DTSTART:20240210"),
+          meeting("c@test", "Other", "mailto:boss@example.com", "HOME"));
+      Date from = new Date("DTSTART:20240101T000000Z");
+      Date to = new Date("DTEND:20240201T000000Z");
+      PostingList january = ds.findOverlappingIds(from, to);
+      assertEquals("January,Other", summaries(january));
+      assertEquals("January",
+          summaries(january.and(ds.findByAttendee("alice@example.com"))));
+      assertEquals("January,February,Other",
+          summaries(january.or(ds.findByCategory("work"))));
+      OccurrenceTable table = ds.findOverlapping(from, to,
+          ds.findByCategory("work"));
+      assertEquals(1, table.size());
+      assertEquals("January",
+          ((Event) table.getComponent(0)).getSummary().getValue());
+    }
+
+    @Test
+    @DisplayName("should follow replaced and removed components")
+    void should_updateIndexes_when_componentsReplaced() throws Exception {
+      parse(meeting("a@test", "First", "mailto:boss@example.com", "WORK",
+          "mailto:alice@example.com"));
+      assertEquals(1, ds.findByAttendee("alice@example.com").size());
+      parse(meeting("a@test", "Second", "mailto:boss@example.com", "HOME",
+          "mailto:bob@example.com").replace("DTSTAMP:20240101",
+              "DTSTAMP:20240102"));
+      assertTrue(ds.findByAttendee("alice@example.com").isEmpty());
+      assertTrue(ds.findByCategory("work").isEmpty());
+      assertEquals("Second", summaries(ds.findByAttendee("bob@example.com")));
+      ds.removeEvent("a@test", null);
+      assertTrue(ds.findByAttendee("bob@example.com").isEmpty());
+      assertTrue(ds.findByOrganizer("boss@example.com").isEmpty());
+    }
+  }
+
+  @Nested
+  @DisplayName("Change feed")
+  class ChangeFeedTests {
+
+    private String changes(ChangeSet changeSet) {
+      StringBuilder sb = new StringBuilder();
+      for (ComponentChange change : changeSet.getChanges()) {
+        if (sb.length() > 0)
+          sb.append(',');
+        sb.append(change.getType() == ComponentChange.ADDED ? "+"
+            : change.getType() == ComponentChange.MODIFIED ? "~" : "-")
+            .append(change.getUid());
+      }
+      return sb.toString();
+    }
+
+    @Test
+    @DisplayName("should give the net changes since a sync token")
+    void should_giveNetChanges_when_tokenGiven() throws Exception {
+      parse(event("a@test", 0, "20240101T000000Z", "A"),
+          event("b@test", 0, "20240101T000000Z", "B"),
+          event("c@test", 0, "20240101T000000Z", "C"));
+      assertEquals(3, ds.getModificationSequence());
+      String token = ds.getSyncToken();
+      parse(event("a@test", 1, "20240101T000000Z", "A v2"),
+          event("d@test", 0, "20240101T000000Z", "D"),
+          event("e@test", 0, "20240101T000000Z", "E"));
+      ds.removeEvent("b@test", null);
+      ds.removeEvent("e@test", null);
+      ds.removeEvent("c@test", null);
+      parse(event("c@test", 0, "20240101T000000Z", "C again"),
+          event("d@test", 1, "20240101T000000Z", "D v2"));
+      ChangeSet changes = ds.changesSince(token);
+      assertFalse(changes.isFullSync());
+      assertEquals("~a@test,-b@test,~c@test,+d@test", changes(changes));
+      assertEquals(ds.getETag(ds.getEventByUid("d@test")),
+          changes.getChanges().get(3).getETag());
+
+      ChangeSet none = ds.changesSince(changes.getToken());
+      assertFalse(none.isFullSync());
+      assertTrue(none.getChanges().isEmpty());
+      assertEquals(none.getToken(), changes.getToken());
+      assertTrue(ds.changesSince(null).isFullSync());
+      assertTrue(ds.changesSince("elsewhere-1").isFullSync());
+    }
+
+    @Test
+    @DisplayName("should ask for a full sync once the log has moved on")
+    void should_fullSync_when_changesDropped() throws Exception {
+      ds.setChangeLogCapacity(2);
+      parse(event("a@test", 0, "20240101T000000Z", "A"));
+      String old = ds.getSyncToken();
+      parse(event("b@test", 0, "20240101T000000Z", "B"));
+      String recent = ds.getSyncToken();
+      parse(event("c@test", 0, "20240101T000000Z", "C"),
+          event("d@test", 0, "20240101T000000Z", "D"));
+      assertEquals("+c@test,+d@test", changes(ds.changesSince(recent)));
+      ChangeSet full = ds.changesSince(old);
+      assertTrue(full.isFullSync());
+      assertTrue(full.getChanges().isEmpty());
+      assertEquals(ds.getSyncToken(), full.getToken());
+      ds.setChangeLogCapacity(1);
+      assertTrue(ds.changesSince(recent).isFullSync());
+    }
+
+    @Test
+    @DisplayName("should change ETags and tell listeners when stored")
+    void should_notify_when_componentStored() throws Exception {
+      List<String> heard = new ArrayList<String>();
+      ChangeListener listener = new ChangeListener() {
+        public void componentChanged(ComponentChange change, Object component) {
+          heard.add(change.getType() + " " + change.getComponentType() + " "
+              + ((Event) component).getSummary().getValue());
+        }
+      };
+      ds.addChangeListener(listener);
+      parse(event("a@test", 1, "20240101T000000Z", "First"));
+      String etag = ds.getETag(ds.getEventByUid("a@test"));
+      assertTrue(etag.startsWith("\"") && etag.endsWith("\""), etag);
+      // an older version is ignored
+      parse(event("a@test", 0, "20240101T000000Z", "Older"));
+      assertEquals(etag, ds.getETag(ds.getEventByUid("a@test")));
+      parse(event("a@test", 2, "20240101T000000Z", "Second"));
+      assertNotEquals(etag, ds.getETag(ds.getEventByUid("a@test")));
+      ds.removeEvent("a@test", null);
+      ds.removeChangeListener(listener);
+      parse(event("b@test", 0, "20240101T000000Z", "Unheard"));
+      assertEquals(List.of(ComponentChange.ADDED + " VEVENT First",
+          ComponentChange.MODIFIED + " VEVENT Second",
+          ComponentChange.REMOVED + " VEVENT Second"), heard);
+    }
+  }
+
+  @Nested
+  @DisplayName("Lookups")
+  class LookupTests {
+
+    @Test
+    @DisplayName("should find todos and journals by UID")
+    void should_find_when_todoOrJournalStored() throws Exception {
+      parse("BEGIN:VTODO\r\nUID:t@test\r\nDTSTAMP:20240101T000000Z\r\n"
+          + "SUMMARY:Task\r\nEND:VTODO\r\n",
+          "BEGIN:VJOURNAL\r\nUID:j@test\r\nDTSTAMP:20240101T000000Z\r\n"
+          + "SUMMARY:Notes\r\nEND:VJOURNAL\r\n",
+          "BEGIN:VTODO\r\nUID:t@test\r\nSEQUENCE:1\r\n"
+          + "DTSTAMP:20240101T000000Z\r\nSUMMARY:Task v2\r\nEND:VTODO\r\n");
+      assertEquals(1, ds.getAllTodos().size());
+      assertEquals("Task v2", ds.getTodoByUid("t@test").getSummary().getValue());
+      assertNotNull(ds.getJournalByUid("j@test"));
+      assertNull(ds.getEventByUid("t@test"));
+      assertNull(ds.getTodoByUid("missing@test"));
+    }
+
+    @Test
+    @DisplayName("should move the last event into the place of one removed")
+    void should_keepLookups_when_eventRemoved() throws Exception {
+      parse(event("a@test", 0, "20240101T000000Z", "A"),
+          event("b@test", 0, "20240101T000000Z", "B"),
+          event("c@test", 0, "20240101T000000Z", "C"),
+          event("d@test", 0, "20240101T000000Z", "D"));
+      assertEquals("A", ds.removeEvent("a@test", null).getSummary().getValue());
+      assertEquals("D", ds.getAllEvents().get(0).getSummary().getValue());
+      assertEquals("D", ds.getEventByUid("d@test").getSummary().getValue());
+      assertEquals("D", ds.removeEvent("d@test", null).getSummary().getValue());
+      assertEquals("C", ds.removeEvent("c@test", null).getSummary().getValue());
+      assertEquals(1, ds.getAllEvents().size());
+      assertEquals("B", ds.getEventByUid("b@test").getSummary().getValue());
+      assertNull(ds.getEventByUid("a@test"));
+      assertNull(ds.removeEvent("c@test", null));
+    }
+  }
+}
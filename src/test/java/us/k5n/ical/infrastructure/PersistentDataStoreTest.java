@@ -0,0 +1,263 @@
+package us.k5n.ical.infrastructure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import us.k5n.ical.Date;
+import us.k5n.ical.Event;
+import us.k5n.ical.ICalendarParser;
+import us.k5n.ical.OccurrenceTable;
+import us.k5n.ical.PersistentDataStore;
+
+/**
+ * Tests for the DataStore that keeps components in a log on disk.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("PersistentDataStore")
+public class PersistentDataStoreTest {
+
+  @TempDir
+  File dir;
+
+  private PersistentDataStore ds;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    ds = new PersistentDataStore(dir, 4096);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    ds.close();
+  }
+
+  private void parse(String... components) throws IOException {
+    ICalendarParser parser = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+    parser.removeDataStoreAt(0);
+    parser.addDataStore(ds);
+    StringBuilder sb = new StringBuilder();
+    sb.append("BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//Test//EN\r\n"
+        + "METHOD:PUBLISH\r\n");
+    for (String c : components)
+      sb.append(c);
+    sb.append("END:VCALENDAR\r\n");
+    parser.parse(new StringReader(sb.toString()));
+  }
+
+  private static String event(String uid, String dtstart, String summary) {
+    return "BEGIN:VEVENT\r\nUID:" + uid + "\r\nDTSTAMP:20240101T000000Z\r\n"
+        + "DTSTART:" + dtstart + "\r\nDURATION:PT1H\r\nSUMMARY:" + summary
+        + "\r\nEND:VEVENT\r\n";
+  }
+
+  private void reopen() throws IOException {
+    ds.close();
+    ds = new PersistentDataStore(dir, 4096);
+  }
+
+  private static File lastSegment(File dir) {
+    File[] files = dir.listFiles((d, name) -> name.endsWith(".log"));
+    Arrays.sort(files);
+    return files[files.length - 1];
+  }
+
+  @Nested
+  @DisplayName("Durability")
+  class DurabilityTests {
+
+    @Test
+    @DisplayName("should read back components after a reopen")
+    void should_readBack_when_reopened() throws Exception {
+      parse("BEGIN:VTIMEZONE\r\nTZID:Test/Zone\r\nBEGIN:STANDARD\r\n"
+          + "DTSTART:19700101T000000\r\nTZOFFSETFROM:+0100\r\n"
+          + "TZOFFSETTO:+0100\r\nEND:STANDARD\r\nEND:VTIMEZONE\r\n",
+          event("a@test", "20240101T100000Z", "First"),
+          "BEGIN:VTODO\r\nUID:t@test\r\nDTSTAMP:20240101T000000Z\r\n"
+              + "SUMMARY:Task\r\nEND:VTODO\r\n");
+      reopen();
+      assertEquals(1, ds.getAllEvents().size());
+      assertEquals("First",
+          ds.getEventByUid("a@test").getSummary().getValue());
+      assertEquals("Task", ds.getTodoByUid("t@test").getSummary().getValue());
+      assertEquals("Test/Zone",
+          ds.getAllTimezones().get(0).getTimezoneId());
+      assertEquals("PUBLISH", ds.getMethod().getValue());
+    }
+
+    @Test
+    @DisplayName("should replay the log when not closed")
+    void should_replay_when_notClosed() throws Exception {
+      ds.setCheckpointInterval(2);
+      for (int i = 0; i < 5; i++)
+        parse(event("e" + i + "@test", "20240101T100000Z", "E" + i));
+      // Abandon the store without closing it, as if the process had died
+      ds = new PersistentDataStore(dir, 4096);
+      assertEquals(5, ds.getAllEvents().size());
+      assertEquals("E4", ds.getEventByUid("e4@test").getSummary().getValue());
+    }
+
+    @Test
+    @DisplayName("should drop a torn record at the end of the log")
+    void should_dropTornRecord_when_tailDamaged() throws Exception {
+      parse(event("a@test", "20240101T100000Z", "First"));
+      ds.close();
+      try (RandomAccessFile f = new RandomAccessFile(lastSegment(dir), "rw")) {
+        f.seek(f.length());
+        f.write(new byte[] { 0, 0, 0, 40, 1, 2, 3 });
+      }
+      ds = new PersistentDataStore(dir, 4096);
+      assertEquals(1, ds.getAllEvents().size());
+      parse(event("b@test", "20240101T100000Z", "Second"));
+      reopen();
+      assertEquals(2, ds.getAllEvents().size());
+    }
+
+    @Test
+    @DisplayName("should open when the last segment has no header")
+    void should_open_when_lastSegmentEmpty() throws Exception {
+      parse(event("a@test", "20240101T100000Z", "First"));
+      ds.close();
+      // A crash just after a new segment was created leaves an empty file
+      String name = lastSegment(dir).getName();
+      int next = Integer.parseInt(name.substring(8, 16)) + 1;
+      File empty = new File(dir, String.format("segment-%08d.log", next));
+      assertTrue(empty.createNewFile());
+      ds = new PersistentDataStore(dir, 4096);
+      assertEquals(1, ds.getAllEvents().size());
+      parse(event("b@test", "20240101T100000Z", "Second"));
+      reopen();
+      assertEquals(2, ds.getAllEvents().size());
+      assertEquals("Second",
+          ds.getEventByUid("b@test").getSummary().getValue());
+    }
+
+    @Test
+    @DisplayName("should stop replaying at a damaged record in an earlier segment")
+    void should_stopReplay_when_earlierSegmentDamaged() throws Exception {
+      for (int i = 0; i < 60; i++)
+        parse(event("e" + i + "@test", "20240101T100000Z", "E" + i));
+      File[] segments = dir.listFiles((d, name) -> name.endsWith(".log"));
+      assertTrue(segments.length > 2, segments.length + " segments");
+      Arrays.sort(segments);
+      // Abandon the store without a checkpoint and damage the first segment
+      try (RandomAccessFile f = new RandomAccessFile(segments[0], "rw")) {
+        f.seek(f.length() / 2);
+        f.write(~f.read());
+      }
+      ds = new PersistentDataStore(dir, 4096);
+      int kept = ds.getAllEvents().size();
+      assertTrue(kept > 0 && kept < 60, kept + " events");
+      for (int i = 0; i < 60; i++)
+        assertEquals(i < kept, ds.getEventByUid("e" + i + "@test") != null);
+      assertEquals(1, dir.listFiles((d, name) -> name.endsWith(".log")).length);
+
+      parse(event("new@test", "20240101T100000Z", "New"));
+      reopen();
+      assertEquals(kept + 1, ds.getAllEvents().size());
+      assertNotNull(ds.getEventByUid("new@test"));
+      assertNull(ds.getEventByUid("e59@test"));
+    }
+
+    @Test
+    @DisplayName("should reject use after close")
+    void should_reject_when_closed() throws Exception {
+      ds.close();
+      assertThrows(IllegalStateException.class, () -> ds.getAllEvents());
+    }
+  }
+
+  @Nested
+  @DisplayName("Updates")
+  class UpdateTests {
+
+    @Test
+    @DisplayName("should keep the last component stored with a UID")
+    void should_keepLast_when_uidStoredAgain() throws Exception {
+      parse(event("a@test", "20240101T100000Z", "First"),
+          event("a@test", "20240101T100000Z", "Second"));
+      assertEquals(1, ds.getAllEvents().size());
+      reopen();
+      assertEquals("Second",
+          ds.getEventByUid("a@test").getSummary().getValue());
+      assertTrue(ds.getGarbageBytes() > 0);
+    }
+
+    @Test
+    @DisplayName("should forget a removed component after a reopen")
+    void should_forget_when_removed() throws Exception {
+      parse(event("a@test", "20240101T100000Z", "First"),
+          event("b@test", "20240101T100000Z", "Second"));
+      assertNotNull(ds.removeEvent("a@test", null));
+      assertNull(ds.removeEvent("a@test", null));
+      reopen();
+      assertNull(ds.getEventByUid("a@test"));
+      assertEquals(1, ds.getAllEvents().size());
+    }
+
+    @Test
+    @DisplayName("should reclaim replaced records when compacted")
+    void should_reclaim_when_compacted() throws Exception {
+      for (int i = 0; i < 50; i++)
+        parse(event("a@test", "20240101T100000Z", "Version " + i));
+      long garbage = ds.getGarbageBytes();
+      assertTrue(garbage > 0);
+      ds.compact();
+      assertEquals(0, ds.getGarbageBytes());
+      reopen();
+      assertEquals(1, ds.getAllEvents().size());
+      assertEquals("Version 49",
+          ds.getEventByUid("a@test").getSummary().getValue());
+    }
+  }
+
+  @Nested
+  @DisplayName("Time queries")
+  class TimeQueryTests {
+
+    @Test
+    @DisplayName("should find occurrences from the index and the log tail")
+    void should_findOccurrences_when_windowGiven() throws Exception {
+      parse(event("a@test", "20240101T100000Z", "January"),
+          "BEGIN:VEVENT\r\nUID:w@test\r\nDTSTAMP:20240101T000000Z\r\n"
+              + "DTSTART:20240102T090000Z\r\nDURATION:PT1H\r\n"
+              + "RRULE:FREQ=WEEKLY;COUNT=10\r\nSUMMARY:Weekly\r\n"
+              + "END:VEVENT\r\n");
+      ds.checkpoint();
+      parse(event("b@test", "20240201T100000Z", "February"),
+          "BEGIN:VEVENT\r\nUID:w@test\r\nDTSTAMP:20240101T000000Z\r\n"
+              + "RECURRENCE-ID:20240206T090000Z\r\n"
+              + "DTSTART:20240301T090000Z\r\nDURATION:PT1H\r\n"
+              + "SUMMARY:Moved\r\nEND:VEVENT\r\n");
+      OccurrenceTable table = ds.findOverlapping(
+          new Date("DTSTART:20240201T000000Z"),
+          new Date("DTEND:20240208T000000Z"));
+      // The weekly instance on 6 February has moved to March
+      assertEquals(1, table.size());
+      assertEquals("February",
+          ((Event) table.getComponent(0)).getSummary().getValue());
+      reopen();
+      table = ds.findOverlapping(new Date("DTSTART:20240301T000000Z"),
+          new Date("DTEND:20240302T000000Z"));
+      assertEquals(1, table.size());
+      assertEquals("Moved",
+          ((Event) table.getComponent(0)).getSummary().getValue());
+    }
+  }
+}
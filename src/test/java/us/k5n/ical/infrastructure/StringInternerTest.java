@@ -0,0 +1,131 @@
+package us.k5n.ical.infrastructure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import us.k5n.ical.Attendee;
+import us.k5n.ical.Event;
+import us.k5n.ical.ICalendarParser;
+import us.k5n.ical.Property;
+import us.k5n.ical.StringInterner;
+
+/**
+ * Tests for sharing repeated strings between the properties parsed.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("StringInterner")
+public class StringInternerTest {
+
+  private ICalendarParser parser;
+  private StringInterner interner;
+
+  @BeforeEach
+  void setUp() {
+    parser = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+    interner = new StringInterner();
+  }
+
+  private static String event(String uid, String summary) {
+    return "BEGIN:VEVENT\r\nUID:" + uid + "\r\nDTSTAMP:20240101T000000Z\r\n"
+        + "DTSTART;TZID=America/New_York:20240105T090000\r\n"
+        + "SUMMARY:" + summary + "\r\nLOCATION:Room 12\r\n"
+        + "ORGANIZER;CN=Boss:mailto:boss@example.com\r\n"
+        + "ATTENDEE;ROLE=REQ-PARTICIPANT;PARTSTAT=ACCEPTED;CN=Alice:"
+        + "mailto:alice@example.com\r\nEND:VEVENT\r\n";
+  }
+
+  private List<Event> parse(String... events) throws Exception {
+    StringBuilder sb = new StringBuilder(
+        "BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//Test//EN\r\n");
+    for (String e : events)
+      sb.append(e);
+    sb.append("END:VCALENDAR\r\n");
+    parser.parse(new StringReader(sb.toString()));
+    return parser.getDataStoreAt(0).getAllEvents();
+  }
+
+  @Nested
+  @DisplayName("Parsing")
+  class ParsingTests {
+
+    @Test
+    @DisplayName("should share repeated names, parameters and values")
+    void should_share_when_internerSet() throws Exception {
+      parser.setStringInterner(interner);
+      List<Event> events = parse(event("a@test", "Standup"),
+          event("b@test", "Standup"));
+      Event a = events.get(0), b = events.get(1);
+      Attendee alice = a.getAttendees().get(0);
+      Attendee alice2 = b.getAttendees().get(0);
+      assertSame(alice.getValue(), alice2.getValue());
+      assertSame(alice.getNamedAttribute("PARTSTAT").value,
+          alice2.getNamedAttribute("PARTSTAT").value);
+      assertSame(alice.attributeAt(0).name, alice2.attributeAt(0).name);
+      assertSame(a.getOrganizer().getValue(), b.getOrganizer().getValue());
+      assertSame(a.getLocation().getValue(), b.getLocation().getValue());
+      assertSame(a.getStartDate().getNamedAttribute("TZID").value,
+          b.getStartDate().getNamedAttribute("TZID").value);
+      // SUMMARY values are not looked up by default
+      assertNotSame(a.getSummary().getValue(), b.getSummary().getValue());
+      assertEquals(a.toICalendar().replace("a@test", "b@test"), b.toICalendar());
+      assertTrue(interner.getHits() > 10);
+      assertTrue(interner.getBytesSaved() > interner.getHits() * 40);
+    }
+
+    @Test
+    @DisplayName("should not share strings without an interner")
+    void should_notShare_when_noInterner() throws Exception {
+      List<Event> events = parse(event("a@test", "Standup"),
+          event("b@test", "Standup"));
+      assertNotSame(events.get(0).getAttendees().get(0).getValue(),
+          events.get(1).getAttendees().get(0).getValue());
+      parser.setStringInterner(interner);
+      parse(event("c@test", "Standup"));
+      int size = interner.size();
+      // only while the parser is running
+      new Property("LOCATION;X-NEW=1:Elsewhere");
+      assertEquals(size, interner.size());
+    }
+  }
+
+  @Nested
+  @DisplayName("Configuration")
+  class ConfigurationTests {
+
+    @Test
+    @DisplayName("should look up the configured properties up to the maximum length")
+    void should_followConfiguration_when_changed() throws Exception {
+      interner.addPropertyName("summary");
+      interner.removePropertyName("LOCATION");
+      interner.setMaxLength(10);
+      assertTrue(interner.getPropertyNames().contains("SUMMARY"));
+      parser.setStringInterner(interner);
+      List<Event> events = parse(event("a@test", "Standup"),
+          event("b@test", "Standup"), event("c@test", "A very long summary"),
+          event("d@test", "A very long summary"));
+      assertSame(events.get(0).getSummary().getValue(),
+          events.get(1).getSummary().getValue());
+      assertNotSame(events.get(2).getSummary().getValue(),
+          events.get(3).getSummary().getValue());
+      assertNotSame(events.get(0).getLocation().getValue(),
+          events.get(1).getLocation().getValue());
+      // longer than 10 characters
+      assertNotSame(events.get(0).getOrganizer().getValue(),
+          events.get(1).getOrganizer().getValue());
+      long lookups = interner.getLookups();
+      assertSame(interner.intern(new String("ROLE")), interner.intern("ROLE"));
+      assertEquals(lookups + 2, interner.getLookups());
+    }
+  }
+}
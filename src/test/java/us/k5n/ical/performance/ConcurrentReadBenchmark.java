@@ -0,0 +1,143 @@
+package us.k5n.ical.performance;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import us.k5n.ical.ConcurrentDataStore;
+import us.k5n.ical.Date;
+import us.k5n.ical.DefaultDataStore;
+import us.k5n.ical.Event;
+
+/**
+ * Benchmark of read throughput against the number of reader threads while one
+ * writer keeps storing events, for ConcurrentDataStore snapshots and for a
+ * DefaultDataStore behind a global lock. This is not run by
+ * <code>mvn test</code>; to run it:
+ *
+ * <pre>
+ * mvn -q test-compile
+ * java -cp target/classes:target/test-classes \
+ *     us.k5n.ical.performance.ConcurrentReadBenchmark [maxThreads] [millis]
+ * </pre>
+ *
+ * The reader threads double from one up to maxThreads (by default the number
+ * of cores), and each run lasts the given number of milliseconds. The
+ * correctness of the snapshots is checked by ConcurrentDataStoreTests in
+ * PerformanceTest.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class ConcurrentReadBenchmark {
+  private static final int EVENTS = 2000;
+
+  private static Event event(int i) throws Exception {
+    return new Event("Event " + i, "", new Date("DTSTART", 2024,
+        1 + i % 12, 1 + i % 28, 10, 0, 0));
+  }
+
+  /**
+   * A read: look at the events in June, as an agenda query would.
+   *
+   * @return the number of events looked at
+   */
+  private static int scan(List<Event> events) {
+    int n = 0;
+    for (int i = 0; i < events.size(); i++) {
+      if (events.get(i).getStartDate().getMonth() == 6)
+        n++;
+    }
+    if (n == 0)
+      throw new IllegalStateException("No events in June");
+    return events.size();
+  }
+
+  /**
+   * Run readers on the given number of threads for a time while one writer
+   * stores an event every 100 microseconds, as a feed being ingested would.
+   *
+   * @return the events scanned per second and the events stored
+   */
+  private static long[] run(int threads, long millis, Callable<Integer> read,
+      Callable<Void> write) throws Exception {
+    AtomicBoolean stop = new AtomicBoolean();
+    AtomicLong scanned = new AtomicLong();
+    AtomicLong stored = new AtomicLong();
+    Thread writer = new Thread(() -> {
+      try {
+        while (!stop.get()) {
+          write.call();
+          stored.incrementAndGet();
+          LockSupport.parkNanos(100000);
+        }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    Thread[] readers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      readers[t] = new Thread(() -> {
+        try {
+          long n = 0;
+          while (!stop.get())
+            n += read.call();
+          scanned.addAndGet(n);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      });
+    }
+    writer.start();
+    for (Thread reader : readers)
+      reader.start();
+    Thread.sleep(millis);
+    stop.set(true);
+    writer.join();
+    for (Thread reader : readers)
+      reader.join();
+    return new long[] { scanned.get() * 1000 / millis, stored.get() };
+  }
+
+  public static void main(String[] args) throws Exception {
+    int cores = Runtime.getRuntime().availableProcessors();
+    int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : cores;
+    long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+    System.out.println(cores + " core(s), " + EVENTS + " events, one writer");
+    System.out.printf("%8s %18s %10s %18s %10s %8s%n", "Readers",
+        "Snapshot (K/s)", "Stored", "Locked (K/s)", "Stored", "Ratio");
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      ConcurrentDataStore store = new ConcurrentDataStore();
+      DefaultDataStore locked = new DefaultDataStore();
+      for (int i = 0; i < EVENTS; i++) {
+        store.storeEvent(event(i));
+        locked.storeEvent(event(i));
+      }
+      Event extra = event(5);
+      // warm up both scans
+      for (int i = 0; i < 2000; i++) {
+        scan(store.snapshot().getAllEvents());
+        scan(locked.getAllEvents());
+      }
+      long[] snapshotRun = run(threads, millis,
+          () -> scan(store.snapshot().getAllEvents()), () -> {
+            store.storeEvent(extra);
+            return null;
+          });
+      long[] lockedRun = run(threads, millis, () -> {
+        synchronized (locked) {
+          return scan(locked.getAllEvents());
+        }
+      }, () -> {
+        synchronized (locked) {
+          locked.storeEvent(extra);
+        }
+        return null;
+      });
+      System.out.printf("%8d %18d %10d %18d %10d %7.1fx%n", threads,
+          snapshotRun[0] / 1000, snapshotRun[1], lockedRun[0] / 1000,
+          lockedRun[1], (double) snapshotRun[0] / Math.max(1, lockedRun[0]));
+    }
+  }
+}
@@ -7,6 +7,8 @@ import org.junit.jupiter.api.Nested;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import us.k5n.ical.*;
 
 /**
@@ -185,4 +187,493 @@ public class PerformanceTest {
       assertEquals(1, ds.getAllEvents().size());
     }
   }
+
+  @Nested
+  @DisplayName("Sub-daily Recurrence Benchmarks")
+  class SubDailyRecurrenceTests {
+
+    private final java.util.TimeZone utc = java.util.TimeZone.getTimeZone("UTC");
+
+    /** Expand a rule with the recurrence engine, as seconds since 1970. */
+    private List<Long> expand(String rule, String dtStart) throws Exception {
+      com.google.ical.iter.RecurrenceIterator it =
+          com.google.ical.iter.RecurrenceIteratorFactory.createRecurrenceIterator(
+              new com.google.ical.values.RRule(rule),
+              com.google.ical.values.IcalParseUtil.parseDateValue(dtStart), utc);
+      List<Long> out = new java.util.ArrayList<Long>();
+      while (it.hasNext()) {
+        com.google.ical.values.DateTimeValue d =
+            (com.google.ical.values.DateTimeValue) it.next();
+        out.add(java.time.LocalDateTime.of(d.year(), d.month(), d.day(),
+            d.hour(), d.minute(), d.second())
+            .toEpochSecond(java.time.ZoneOffset.UTC));
+      }
+      return out;
+    }
+
+    /**
+     * Expand the same schedule by stepping through every period from the
+     * start and filtering each candidate.
+     */
+    private List<Long> step(long startSecs, long untilSecs, int periodSecs,
+        java.util.function.Predicate<java.time.LocalDateTime> filter) {
+      List<Long> out = new java.util.ArrayList<Long>();
+      for (long t = startSecs; t <= untilSecs; t += periodSecs) {
+        if (filter.test(java.time.LocalDateTime.ofEpochSecond(t, 0,
+            java.time.ZoneOffset.UTC)))
+          out.add(t);
+      }
+      return out;
+    }
+
+    /**
+     * Check that the recurrence engine gives the same instances for a year as
+     * stepping through every period and filtering each candidate.
+     */
+    private void compare(String rule, String dtStart, int periodSecs,
+        java.util.function.Predicate<java.time.LocalDateTime> filter)
+        throws Exception {
+      long startSecs = java.time.LocalDateTime.parse(dtStart,
+          java.time.format.DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss"))
+          .toEpochSecond(java.time.ZoneOffset.UTC);
+      long untilSecs = startSecs + 366L * 24 * 60 * 60 - 1;
+      List<Long> fast = expand(rule, dtStart);
+      assertFalse(fast.isEmpty());
+      assertEquals(step(startSecs, untilSecs, periodSecs, filter), fast);
+    }
+
+    @Test
+    @DisplayName("should expand a business hours MINUTELY rule for a year")
+    void should_matchStepping_when_minutelyByHourByDay() throws Exception {
+      compare("RRULE:FREQ=MINUTELY;INTERVAL=15;BYHOUR=9,10,11;"
+              + "BYDAY=MO,TU,WE,TH,FR;UNTIL=20241231T235959Z",
+          "20240101T090000", 15 * 60,
+          t -> t.getHour() >= 9 && t.getHour() <= 11
+              && t.getDayOfWeek().getValue() <= 5);
+    }
+
+    @Test
+    @DisplayName("should expand a sparse SECONDLY rule for a year")
+    void should_matchStepping_when_secondlyByHourByMinute() throws Exception {
+      compare("RRULE:FREQ=SECONDLY;INTERVAL=10;BYHOUR=12;BYMINUTE=0;"
+              + "UNTIL=20241231T235959Z",
+          "20240101T120000", 10,
+          t -> t.getHour() == 12 && t.getMinute() == 0);
+    }
+  }
+
+  @Nested
+  @DisplayName("Concurrent DataStore Benchmarks")
+  class ConcurrentDataStoreTests {
+
+    private static final int EVENTS = 2000;
+
+    private Event event(int i) throws Exception {
+      return new Event("Event " + i, "", new Date("DTSTART", 2024,
+          1 + i % 12, 1 + i % 28, 10, 0, 0));
+    }
+
+    private Todo todo(int i) {
+      return new Todo("Todo " + i, "");
+    }
+
+    /**
+     * Check that a Snapshot holds exactly the events and todos stored before
+     * it was taken, in order.
+     *
+     * @return a description of the first problem found, or null
+     */
+    private String check(ConcurrentDataStore.Snapshot snapshot) {
+      List<Event> events = snapshot.getAllEvents();
+      List<Todo> todos = snapshot.getAllTodos();
+      // the writer stores an event then a todo, so every version is either
+      // a matched pair or one extra event
+      if (events.size() + todos.size() != snapshot.getVersion()
+          || events.size() - todos.size() < 0
+          || events.size() - todos.size() > 1)
+        return "version " + snapshot.getVersion() + " with " + events.size()
+            + " events and " + todos.size() + " todos";
+      for (int i = 0; i < events.size(); i++) {
+        if (!events.get(i).getSummary().getValue().equals("Event " + i))
+          return "wrong event at " + i;
+      }
+      for (int i = 0; i < todos.size(); i++) {
+        if (!todos.get(i).getSummary().getValue().equals("Todo " + i))
+          return "wrong todo at " + i;
+      }
+      return null;
+    }
+
+    @Test
+    @DisplayName("should never show readers a partly written snapshot")
+    void should_readWholeSnapshots_when_writerRuns() throws Exception {
+      ConcurrentDataStore store = new ConcurrentDataStore();
+      int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      AtomicBoolean done = new AtomicBoolean();
+      CountDownLatch started = new CountDownLatch(threads);
+      List<Future<String>> readers = new java.util.ArrayList<Future<String>>();
+      try {
+        for (int t = 0; t < threads; t++) {
+          readers.add(pool.submit(() -> {
+            started.countDown();
+            List<ConcurrentDataStore.Snapshot> kept =
+                new java.util.ArrayList<ConcurrentDataStore.Snapshot>();
+            long lastVersion = 0;
+            while (!done.get()) {
+              ConcurrentDataStore.Snapshot snapshot = store.snapshot();
+              if (snapshot.getVersion() < lastVersion)
+                return "version went back to " + snapshot.getVersion();
+              String problem = check(snapshot);
+              if (problem != null)
+                return problem;
+              lastVersion = snapshot.getVersion();
+              if (kept.size() < 50)
+                kept.add(snapshot);
+            }
+            // snapshots taken while writing must not see later stores
+            for (ConcurrentDataStore.Snapshot snapshot : kept) {
+              String problem = check(snapshot);
+              if (problem != null)
+                return "kept snapshot changed: " + problem;
+            }
+            return null;
+          }));
+        }
+        started.await();
+        for (int i = 0; i < EVENTS; i++) {
+          store.storeEvent(event(i));
+          store.storeTodo(todo(i));
+        }
+        done.set(true);
+        for (Future<String> reader : readers)
+          assertNull(reader.get(30, TimeUnit.SECONDS));
+      } finally {
+        pool.shutdownNow();
+      }
+      assertEquals(2L * EVENTS, store.getVersion());
+      assertNull(check(store.snapshot()));
+    }
+  }
+
+  @Nested
+  @DisplayName("Columnar DataStore Benchmarks")
+  class ColumnarDataStoreTests {
+
+    private static final int EVENTS = 20000;
+
+    /** A calendar of meetings that share a few rooms, organizers and rules. */
+    private String calendar() {
+      StringBuilder sb = new StringBuilder(EVENTS * 400);
+      sb.append("BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//k5n//bench//EN\r\n");
+      for (int i = 0; i < EVENTS; i++) {
+        int day = 1 + i % 28, hour = 8 + i % 9;
+        String date = String.format("2024%02d%02dT%02d", 1 + i % 12, day, hour);
+        sb.append("BEGIN:VEVENT\r\n");
+        sb.append("UID:event-").append(i).append("@bench.k5n.us\r\n");
+        sb.append("DTSTAMP:20240101T000000Z\r\n");
+        sb.append("DTSTART:").append(date).append("0000Z\r\n");
+        sb.append("DTEND:").append(date).append("3000Z\r\n");
+        sb.append("SUMMARY:").append(i % 3 == 0 ? "Team standup" : "Review "
+            + i % 200).append("\r\n");
+        sb.append("LOCATION:Room ").append(i % 20).append("\r\n");
+        sb.append("ORGANIZER:mailto:owner").append(i % 10)
+            .append("@k5n.us\r\n");
+        sb.append("ATTENDEE:mailto:person").append(i % 50)
+            .append("@k5n.us\r\n");
+        sb.append("CATEGORIES:").append(i % 2 == 0 ? "WORK" : "WORK,PROJECT")
+            .append("\r\n");
+        if (i % 10 == 0)
+          sb.append("RRULE:FREQ=WEEKLY;COUNT=10\r\n");
+        sb.append("END:VEVENT\r\n");
+      }
+      sb.append("END:VCALENDAR\r\n");
+      return sb.toString();
+    }
+
+    private void parse(String ics, DataStore store) throws Exception {
+      ICalendarParser p = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+      p.removeDataStoreAt(0);
+      p.addDataStore(store);
+      p.parse(new java.io.StringReader(ics));
+    }
+
+    @Test
+    @DisplayName("should give the same events from columns as Event objects")
+    void should_matchEventObjects_when_eventsStoredInColumns() throws Exception {
+      String ics = calendar();
+      DefaultDataStore objects = new DefaultDataStore();
+      parse(ics, objects);
+      ColumnarDataStore columns = new ColumnarDataStore();
+      parse(ics, columns);
+      ColumnarDataStore offHeap = new ColumnarDataStore(true);
+      parse(ics, offHeap);
+      assertEquals(EVENTS, objects.getAllEvents().size());
+      assertEquals(EVENTS, columns.getEventCount());
+      assertEquals(EVENTS, offHeap.getEventCount());
+      for (int i = 0; i < EVENTS; i++) {
+        Event event = objects.getAllEvents().get(i);
+        assertEquals(event.getUid().getValue(), columns.getUid(i));
+        assertEquals(event.getSummary().getValue(), columns.getSummary(i));
+        assertEquals(event.getLocation().getValue(), columns.getLocation(i));
+        assertEquals(event.getRrule() != null, columns.isRecurring(i));
+        assertEquals(columns.getEvent(i).toICalendar(),
+            offHeap.getEvent(i).toICalendar());
+      }
+      assertTrue(columns.getBytesPerEvent() > 0);
+    }
+  }
+
+  @Nested
+  @DisplayName("PersistentDataStore Performance")
+  class PersistentDataStoreTests {
+
+    private static final int EVENTS = 20000;
+
+    @org.junit.jupiter.api.io.TempDir
+    java.io.File dir;
+
+    private String calendar() {
+      StringBuilder sb = new StringBuilder(EVENTS * 300);
+      sb.append("BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//k5n//bench//EN\r\n");
+      for (int i = 0; i < EVENTS; i++) {
+        String date = String.format("2024%02d%02dT%02d", 1 + i % 12,
+            1 + i % 28, 8 + i % 9);
+        sb.append("BEGIN:VEVENT\r\nUID:event-").append(i)
+            .append("@bench.k5n.us\r\nDTSTAMP:20240101T000000Z\r\n");
+        sb.append("DTSTART:").append(date).append("0000Z\r\n");
+        sb.append("DTEND:").append(date).append("3000Z\r\n");
+        sb.append("SUMMARY:Meeting ").append(i).append("\r\n");
+        if (i % 10 == 0)
+          sb.append("RRULE:FREQ=WEEKLY;COUNT=10\r\n");
+        sb.append("END:VEVENT\r\n");
+      }
+      sb.append("END:VCALENDAR\r\n");
+      return sb.toString();
+    }
+
+    @Test
+    @DisplayName("should reopen a stored calendar with the parsed events")
+    void should_matchParsed_when_calendarReopened() throws Exception {
+      String ics = calendar();
+      PersistentDataStore store = new PersistentDataStore(dir);
+      ICalendarParser p = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+      p.removeDataStoreAt(0);
+      p.addDataStore(store);
+      p.parse(new java.io.StringReader(ics));
+      store.close();
+
+      Date from = new Date("DTSTART:20240601T000000Z");
+      Date to = new Date("DTEND:20240608T000000Z");
+      p = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+      p.parse(new java.io.StringReader(ics));
+      DataStore parsed = p.getDataStoreAt(0);
+
+      store = new PersistentDataStore(dir);
+      try {
+        List<Event> opened = store.getAllEvents();
+        assertEquals(EVENTS, parsed.getAllEvents().size());
+        assertEquals(EVENTS, opened.size());
+        for (int i = 0; i < EVENTS; i += 97)
+          assertEquals(parsed.getAllEvents().get(i).toICalendar(),
+              opened.get(i).toICalendar());
+        OccurrenceTable week = store.findOverlapping(from, to);
+        assertTrue(week.size() > 0);
+        assertEquals(new OccurrenceExpander().expand(parsed, from, to).size(),
+            week.size());
+      } finally {
+        store.close();
+      }
+    }
+  }
+
+  @Nested
+  @DisplayName("CalendarSnapshot Performance")
+  class CalendarSnapshotTests {
+
+    private static final int EVENTS = 20000;
+
+    private String calendar() {
+      StringBuilder sb = new StringBuilder(EVENTS * 400);
+      sb.append("BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//k5n//bench//EN\r\n");
+      for (int i = 0; i < EVENTS; i++) {
+        String date = String.format("2024%02d%02dT%02d", 1 + i % 12,
+            1 + i % 28, 8 + i % 9);
+        sb.append("BEGIN:VEVENT\r\nUID:event-").append(i)
+            .append("@bench.k5n.us\r\nDTSTAMP:20240101T000000Z\r\n");
+        sb.append("DTSTART:").append(date).append("0000Z\r\n");
+        sb.append("DTEND:").append(date).append("3000Z\r\n");
+        sb.append("SUMMARY:Meeting ").append(i).append("\r\n");
+        sb.append("LOCATION:Room ").append(i % 20).append("\r\n");
+        sb.append("ORGANIZER;CN=Owner ").append(i % 10)
+            .append(":mailto:owner").append(i % 10).append("@k5n.us\r\n");
+        sb.append("ATTENDEE;PARTSTAT=ACCEPTED:mailto:person").append(i % 50)
+            .append("@k5n.us\r\n");
+        if (i % 10 == 0)
+          sb.append("RRULE:FREQ=WEEKLY;COUNT=10\r\n");
+        sb.append("END:VEVENT\r\n");
+      }
+      sb.append("END:VCALENDAR\r\n");
+      return sb.toString();
+    }
+
+    @Test
+    @DisplayName("should load a snapshot that matches the parsed calendar")
+    void should_matchParsed_when_snapshotLoaded() throws Exception {
+      ICalendarParser p = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+      p.parse(new java.io.StringReader(calendar()));
+      DefaultDataStore ds = (DefaultDataStore) p.getDataStoreAt(0);
+      String ics = ds.toICalendar();
+      java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+      CalendarSnapshot.write(ds, out);
+      byte[] snapshot = out.toByteArray();
+
+      DefaultDataStore loaded = new DefaultDataStore();
+      assertEquals(EVENTS, CalendarSnapshot.read(
+          new java.io.ByteArrayInputStream(snapshot), loaded));
+      assertEquals(EVENTS, loaded.getAllEvents().size());
+      for (int i = 0; i < EVENTS; i++)
+        assertEquals(ds.getAllEvents().get(i).toICalendar(),
+            loaded.getAllEvents().get(i).toICalendar());
+      assertEquals(ics, loaded.toICalendar());
+      assertTrue(snapshot.length < ics.length());
+    }
+  }
+
+  @Nested
+  @DisplayName("Text Search Performance")
+  class TextSearchTests {
+
+    private static final int EVENTS = 20000;
+
+    private static final String[] WORDS = { "budget", "review", "standup",
+        "planning", "design", "customer", "release", "hiring", "roadmap",
+        "security", "training", "offsite", "retro", "demo", "sync" };
+
+    /**
+     * Find the ids of the events with a word in their summary or location
+     * that starts with a prefix, by looking at every event.
+     */
+    private int[] scan(IndexedDataStore ds, String prefix, boolean whole) {
+      List<Integer> ids = new java.util.ArrayList<Integer>();
+      for (Event e : ds.getAllEvents()) {
+        String text = e.getSummary().getValue() + " "
+            + e.getLocation().getValue();
+        for (String word : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+          if (whole ? word.equals(prefix) : word.startsWith(prefix)) {
+            ids.add(ds.getComponentId(e));
+            break;
+          }
+        }
+      }
+      return ids.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    @Test
+    @DisplayName("should find the same events as scanning summaries")
+    void should_matchScan_when_textIndexed() throws Exception {
+      StringBuilder sb = new StringBuilder(EVENTS * 250);
+      sb.append("BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//k5n//bench//EN\r\n");
+      for (int i = 0; i < EVENTS; i++) {
+        sb.append("BEGIN:VEVENT\r\nUID:event-").append(i)
+            .append("@bench.k5n.us\r\nDTSTAMP:20240101T000000Z\r\n");
+        sb.append("DTSTART:2024").append(String.format("%02d%02d", 1 + i % 12,
+            1 + i % 28)).append("T100000Z\r\nDURATION:PT1H\r\n");
+        sb.append("SUMMARY:").append(WORDS[i % WORDS.length]).append(' ')
+            .append(WORDS[(i / WORDS.length) % WORDS.length]).append(" #")
+            .append(i).append("\r\n");
+        sb.append("LOCATION:Room ").append(i % 40).append("\r\n");
+        sb.append("END:VEVENT\r\n");
+      }
+      sb.append("END:VCALENDAR\r\n");
+      IndexedDataStore ds = new IndexedDataStore();
+      ICalendarParser p = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+      p.removeDataStoreAt(0);
+      p.addDataStore(ds);
+      p.parse(new java.io.StringReader(sb.toString()));
+
+      int[] budget = scan(ds, "budget", true);
+      assertTrue(budget.length > 0);
+      assertArrayEquals(budget, ds.search("budget").toArray());
+      for (int q = 0; q < WORDS.length * 2; q++) {
+        String prefix = WORDS[q % WORDS.length].substring(0, 3 + q % 2);
+        assertArrayEquals(scan(ds, prefix, false),
+            ds.search(prefix + "*").toArray(), prefix);
+      }
+      assertArrayEquals(scan(ds, "room", true), ds.search("ROOM").toArray());
+    }
+  }
+
+  @Nested
+  @DisplayName("StringInterner Memory")
+  class StringInternerTests {
+
+    private static final int EVENTS = 20000;
+
+    private String calendar() {
+      StringBuilder sb = new StringBuilder(EVENTS * 500);
+      sb.append("BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//k5n//bench//EN\r\n");
+      for (int i = 0; i < EVENTS; i++) {
+        sb.append("BEGIN:VEVENT\r\nUID:event-").append(i)
+            .append("@bench.k5n.us\r\nDTSTAMP:20240101T000000Z\r\n");
+        sb.append("DTSTART;TZID=America/New_York:2024")
+            .append(String.format("%02d%02d", 1 + i % 12, 1 + i % 28))
+            .append("T100000\r\nDURATION:PT1H\r\nSUMMARY:Meeting ").append(i)
+            .append("\r\nLOCATION:Building ").append(i % 5).append(" Room ")
+            .append(i % 40).append("\r\nCATEGORIES:WORK\r\n");
+        sb.append("ORGANIZER;CN=Owner ").append(i % 10).append(":mailto:owner")
+            .append(i % 10).append("@k5n.us\r\n");
+        for (int j = 0; j < 3; j++)
+          sb.append("ATTENDEE;ROLE=REQ-PARTICIPANT;PARTSTAT=ACCEPTED;CN=Person ")
+              .append((i + j) % 50).append(":mailto:person").append((i + j) % 50)
+              .append("@k5n.us\r\n");
+        sb.append("END:VEVENT\r\n");
+      }
+      sb.append("END:VCALENDAR\r\n");
+      return sb.toString();
+    }
+
+    private List<Event> parse(String ics, StringInterner interner)
+        throws Exception {
+      ICalendarParser p = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+      p.setStringInterner(interner);
+      p.parse(new java.io.StringReader(ics));
+      return p.getDataStoreAt(0).getAllEvents();
+    }
+
+    /** Check that a value is the same object as the first equal value seen. */
+    private void checkShared(java.util.Map<String, String> seen, String value) {
+      assertSame(seen.computeIfAbsent(value, v -> value), value, value);
+    }
+
+    @Test
+    @DisplayName("should share one copy of each repeated value")
+    void should_shareValues_when_stringsInterned() throws Exception {
+      String ics = calendar();
+      StringInterner interner = new StringInterner();
+      List<Event> events = parse(ics, interner);
+      assertEquals(EVENTS, events.size());
+      java.util.Map<String, String> seen = new java.util.HashMap<String, String>();
+      for (Event e : events) {
+        checkShared(seen, e.getLocation().getValue());
+        checkShared(seen, e.getOrganizer().getValue());
+        checkShared(seen, e.getOrganizer().getNamedAttribute("CN").value);
+        checkShared(seen, e.getStartDate().getNamedAttribute("TZID").value);
+        for (Attendee a : e.getAttendees()) {
+          checkShared(seen, a.getValue());
+          checkShared(seen, a.getNamedAttribute("PARTSTAT").value);
+          checkShared(seen, a.getNamedAttribute("CN").value);
+        }
+      }
+      assertTrue(interner.getHits() > 0);
+      assertTrue(interner.getBytesSaved() > 0);
+
+      List<Event> plain = parse(ics, null);
+      assertEquals(EVENTS, plain.size());
+      assertEquals(events.get(0).getLocation().getValue(),
+          plain.get(40).getLocation().getValue());
+      assertNotSame(plain.get(0).getLocation().getValue(),
+          plain.get(40).getLocation().getValue());
+    }
+  }
 }
@@ -0,0 +1,132 @@
+package us.k5n.ical.performance;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.TimeZone;
+import java.util.function.Predicate;
+
+import com.google.ical.iter.RecurrenceIterator;
+import com.google.ical.iter.RecurrenceIteratorFactory;
+import com.google.ical.values.IcalParseUtil;
+import com.google.ical.values.RRule;
+
+/**
+ * Benchmark of expanding HOURLY, MINUTELY and SECONDLY rules for a year with
+ * the recurrence engine's time slot generator, against stepping through every
+ * period from the start and filtering each candidate. This is not run by
+ * <code>mvn test</code>; to run it:
+ *
+ * <pre>
+ * mvn -q test-compile
+ * java -cp target/classes:target/test-classes \
+ *     us.k5n.ical.performance.SubDailyRecurrenceBenchmark [runs]
+ * </pre>
+ *
+ * SubDailyRecurrenceTests in PerformanceTest checks that both give the same
+ * instances.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+public class SubDailyRecurrenceBenchmark {
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+  private static final DateTimeFormatter LOCAL = DateTimeFormatter
+      .ofPattern("yyyyMMdd'T'HHmmss");
+
+  private final String name;
+  private final String rule;
+  private final String dtStart;
+  private final int periodSecs;
+  private final Predicate<LocalDateTime> filter;
+
+  private SubDailyRecurrenceBenchmark(String name, String rule, String dtStart,
+      int periodSecs, Predicate<LocalDateTime> filter) {
+    this.name = name;
+    this.rule = rule;
+    this.dtStart = dtStart;
+    this.periodSecs = periodSecs;
+    this.filter = filter;
+  }
+
+  /** Expand the rule with the recurrence engine. */
+  private int expand() throws Exception {
+    RecurrenceIterator it = RecurrenceIteratorFactory.createRecurrenceIterator(
+        new RRule(rule), IcalParseUtil.parseDateValue(dtStart), UTC);
+    long[] buffer = new long[256];
+    int total = 0, n;
+    while ((n = it.nextBatch(buffer, 0, buffer.length)) > 0)
+      total += n;
+    return total;
+  }
+
+  /** Expand the same schedule by stepping through every period. */
+  private int step() {
+    long startSecs = LocalDateTime.parse(dtStart, LOCAL)
+        .toEpochSecond(ZoneOffset.UTC);
+    long untilSecs = startSecs + 366L * 24 * 60 * 60 - 1;
+    int total = 0;
+    for (long t = startSecs; t <= untilSecs; t += periodSecs) {
+      if (filter.test(LocalDateTime.ofEpochSecond(t, 0, ZoneOffset.UTC)))
+        total++;
+    }
+    return total;
+  }
+
+  private interface Task {
+    int run() throws Exception;
+  }
+
+  /**
+   * Get the fastest of several runs of a task, in nanoseconds.
+   */
+  private static long bestOf(int runs, Task task) throws Exception {
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < runs; i++) {
+      long start = System.nanoTime();
+      task.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best;
+  }
+
+  private void run(int runs) throws Exception {
+    int instances = expand();
+    if (instances != step())
+      throw new IllegalStateException(name + ": " + instances
+          + " instances from the engine but " + step() + " from stepping");
+    // warm up both before timing
+    bestOf(runs, this::expand);
+    bestOf(runs, this::step);
+    long slots = bestOf(runs, this::expand);
+    long stepping = bestOf(runs, this::step);
+    System.out.printf("%-40s %8d %12d %12d %8.1fx%n", name, instances,
+        slots / 1000, stepping / 1000, (double) stepping / slots);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    SubDailyRecurrenceBenchmark[] benchmarks = {
+        new SubDailyRecurrenceBenchmark(
+            "MINUTELY;INTERVAL=15;BYHOUR=9,10,11",
+            "RRULE:FREQ=MINUTELY;INTERVAL=15;BYHOUR=9,10,11;"
+                + "BYDAY=MO,TU,WE,TH,FR;UNTIL=20241231T235959Z",
+            "20240101T090000", 15 * 60,
+            t -> t.getHour() >= 9 && t.getHour() <= 11
+                && t.getDayOfWeek().getValue() <= 5),
+        new SubDailyRecurrenceBenchmark(
+            "SECONDLY;INTERVAL=10;BYHOUR=12;BYMINUTE=0",
+            "RRULE:FREQ=SECONDLY;INTERVAL=10;BYHOUR=12;BYMINUTE=0;"
+                + "UNTIL=20241231T235959Z",
+            "20240101T120000", 10,
+            t -> t.getHour() == 12 && t.getMinute() == 0),
+        new SubDailyRecurrenceBenchmark(
+            "HOURLY;BYDAY=SA,SU",
+            "RRULE:FREQ=HOURLY;BYDAY=SA,SU;UNTIL=20250105T235959Z",
+            "20240106T000000", 60 * 60,
+            t -> t.getDayOfWeek().getValue() >= 6) };
+    System.out.printf("%-40s %8s %12s %12s %9s%n", "Rule", "Count",
+        "Slots (us)", "Steps (us)", "Speedup");
+    for (SubDailyRecurrenceBenchmark benchmark : benchmarks)
+      benchmark.run(runs);
+  }
+}
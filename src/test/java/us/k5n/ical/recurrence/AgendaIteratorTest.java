@@ -0,0 +1,216 @@
+package us.k5n.ical.recurrence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.time.Instant;
+import java.util.NoSuchElementException;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.google.ical.iter.ExpansionPolicy;
+import com.google.ical.util.PackedDate;
+
+import us.k5n.ical.AgendaIterator;
+import us.k5n.ical.DataStore;
+import us.k5n.ical.Date;
+import us.k5n.ical.Event;
+import us.k5n.ical.ICalendarParser;
+import us.k5n.ical.Occurrence;
+import us.k5n.ical.OccurrenceExpander;
+import us.k5n.ical.OccurrenceTable;
+
+/**
+ * Tests for iterating over the occurrences of all the components of a
+ * DataStore in order.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("Agenda Iterator")
+public class AgendaIteratorTest {
+
+  private static DataStore parse(String components) throws Exception {
+    ICalendarParser parser = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+    parser.parse(new StringReader("BEGIN:VCALENDAR\r\nVERSION:2.0\r\n"
+        + "PRODID:-//Test//Test//EN\r\n" + components + "END:VCALENDAR\r\n"));
+    return parser.getDataStoreAt(0);
+  }
+
+  private static String event(String uid, String... lines) {
+    StringBuilder sb = new StringBuilder("BEGIN:VEVENT\r\nUID:" + uid + "\r\n"
+        + "SUMMARY:" + uid + "\r\n");
+    for (String line : lines) {
+      sb.append(line).append("\r\n");
+    }
+    return sb.append("END:VEVENT\r\n").toString();
+  }
+
+  private static Date date(String value) throws Exception {
+    return new Date("DTSTART:" + value);
+  }
+
+  private static String uid(Occurrence occurrence) {
+    return ((Event) occurrence.getComponent()).getUid().getValue();
+  }
+
+  @Nested
+  @DisplayName("Iteration")
+  class IterationTests {
+
+    @Test
+    @DisplayName("should merge series in start order")
+    void should_mergeSeriesInStartOrder_when_severalSeries() throws Exception {
+      DataStore ds = parse(event("weekly", "DTSTART:20240101T090000",
+          "DURATION:PT1H", "RRULE:FREQ=WEEKLY")
+          + event("daily", "DTSTART:20240101T080000", "RRULE:FREQ=DAILY",
+              "EXDATE:20240102T080000")
+          + event("once", "DTSTART:20240103T120000"));
+      AgendaIterator it = new OccurrenceExpander().agenda(ds,
+          date("20240101T083000"));
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 6; i++) {
+        Occurrence occurrence = it.next();
+        sb.append(uid(occurrence)).append(' ').append(occurrence).append('\n');
+      }
+      assertEquals("weekly 20240101T090000/20240101T100000\n"
+          + "daily 20240103T080000/20240103T080000\n"
+          + "once 20240103T120000/20240103T120000\n"
+          + "daily 20240104T080000/20240104T080000\n"
+          + "daily 20240105T080000/20240105T080000\n"
+          + "daily 20240106T080000/20240106T080000\n", sb.toString());
+      assertTrue(it.hasNext());
+    }
+
+    @Test
+    @DisplayName("should give start and end times in epoch milliseconds")
+    void should_giveEpochMillis_when_occurrenceRead() throws Exception {
+      DataStore ds = parse(event("meeting", "DTSTART:20240101T090000Z",
+          "DURATION:PT1H")
+          + event("holiday", "DTSTART;VALUE=DATE:20240102"));
+      AgendaIterator it = new OccurrenceExpander().agenda(ds,
+          date("20240101T000000Z"));
+      Occurrence meeting = it.next();
+      assertEquals("meeting", uid(meeting));
+      assertEquals(Instant.parse("2024-01-01T09:00:00Z").toEpochMilli(),
+          meeting.getStart());
+      assertEquals(Instant.parse("2024-01-01T10:00:00Z").toEpochMilli(),
+          meeting.getEnd());
+      assertFalse(meeting.isDateOnly());
+      Occurrence holiday = it.next();
+      assertEquals("holiday", uid(holiday));
+      assertEquals(Instant.parse("2024-01-02T00:00:00Z").toEpochMilli(),
+          holiday.getStart());
+      assertTrue(holiday.isDateOnly());
+    }
+
+    @Test
+    @DisplayName("should match an expanded table within a window")
+    void should_matchExpandedTable_when_windowGiven() throws Exception {
+      String[] rules = { "RRULE:FREQ=DAILY", "RRULE:FREQ=WEEKLY;BYDAY=TU,TH",
+          "RRULE:FREQ=MONTHLY;BYMONTHDAY=1,15", "RRULE:FREQ=DAILY;COUNT=5" };
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 200; i++) {
+        sb.append(event("e" + i,
+            String.format("DTSTART:202401%02dT%02d%02d00", 1 + i % 28, i % 24,
+                i % 60),
+            "DURATION:PT" + (1 + i % 50) + "H", rules[i % rules.length]));
+      }
+      DataStore ds = parse(sb.toString());
+      OccurrenceExpander expander = new OccurrenceExpander();
+      OccurrenceTable table = expander.expand(ds, date("20240201"),
+          date("20240301"));
+      AgendaIterator it = expander.agenda(ds, date("20240201"));
+      long end = PackedDate.timetSecs(PackedDate.pack(2024, 3, 1)) * 1000;
+      int n = 0;
+      while (it.hasNext()) {
+        Occurrence occurrence = it.next();
+        if (occurrence.getStart() >= end) {
+          break;
+        }
+        assertEquals(table.getStart(n), occurrence.getStart());
+        assertEquals(table.getEnd(n), occurrence.getEnd());
+        assertSame(table.getComponent(n), occurrence.getComponent());
+        n++;
+      }
+      assertTrue(n > 1000);
+      assertEquals(table.size(), n);
+    }
+
+    @Test
+    @DisplayName("should stop when all series are exhausted")
+    void should_stop_when_seriesExhausted() throws Exception {
+      DataStore ds = parse(event("count", "DTSTART;VALUE=DATE:20240101",
+          "RRULE:FREQ=DAILY;COUNT=3"));
+      AgendaIterator it = new OccurrenceExpander().agenda(ds, date("20240102"));
+      assertEquals("20240102/20240103", it.next().toString());
+      assertEquals("20240103/20240104", it.next().toString());
+      assertFalse(it.hasNext());
+      assertThrows(NoSuchElementException.class, () -> it.next());
+      assertFalse(it.isTruncated());
+    }
+
+    @Test
+    @DisplayName("should report truncation by the expansion policy")
+    void should_reportTruncation_when_policyLimitReached() throws Exception {
+      DataStore ds = parse(event("daily", "DTSTART:20240101T090000",
+          "RRULE:FREQ=DAILY"));
+      AgendaIterator it = new OccurrenceExpander()
+          .setExpansionPolicy(ExpansionPolicy.UNLIMITED.withMaxInstances(5))
+          .agenda(ds, date("20240101"));
+      int n = 0;
+      while (it.hasNext()) {
+        it.next();
+        n++;
+      }
+      assertEquals(5, n);
+      assertTrue(it.isTruncated());
+    }
+  }
+
+  @Nested
+  @DisplayName("Advancing")
+  class AdvanceTests {
+
+    @Test
+    @DisplayName("should skip to occurrences at or overlapping the new start")
+    void should_skipOccurrences_when_advanced() throws Exception {
+      DataStore ds = parse(event("long", "DTSTART:20240101T000000",
+          "DURATION:P2D", "RRULE:FREQ=WEEKLY")
+          + event("daily", "DTSTART:20240101T090000", "RRULE:FREQ=DAILY"));
+      AgendaIterator it = new OccurrenceExpander().agenda(ds,
+          date("20240101"));
+      assertEquals("long", uid(it.next()));
+      it.advanceTo(date("20240109T120000"));
+      Occurrence occurrence = it.next();
+      assertEquals("long", uid(occurrence));
+      assertEquals("20240108T000000/20240110T000000", occurrence.toString());
+      occurrence = it.next();
+      assertEquals("daily", uid(occurrence));
+      assertEquals("20240110T090000/20240110T090000", occurrence.toString());
+
+      // advancing to a time already passed has no effect
+      it.advanceTo(date("20240101"));
+      assertEquals("20240111T090000/20240111T090000", it.next().toString());
+    }
+
+    @Test
+    @DisplayName("should skip far ahead without expanding the skipped range")
+    void should_skipFarAhead_when_advancedByYears() throws Exception {
+      DataStore ds = parse(event("daily", "DTSTART:20240101T090000",
+          "RRULE:FREQ=DAILY"));
+      AgendaIterator it = new OccurrenceExpander()
+          .setExpansionPolicy(ExpansionPolicy.UNLIMITED.withMaxSteps(1000))
+          .agenda(ds, date("20240101"));
+      it.next();
+      it.advanceTo(date("21240101"));
+      assertEquals("21240101T090000/21240101T090000", it.next().toString());
+      assertFalse(it.isTruncated());
+    }
+  }
+}
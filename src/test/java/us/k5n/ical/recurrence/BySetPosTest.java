@@ -0,0 +1,84 @@
+package us.k5n.ical.recurrence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.google.ical.iter.RecurrenceIterator;
+import com.google.ical.iter.RecurrenceIteratorFactory;
+import com.google.ical.values.IcalParseUtil;
+
+/**
+ * Tests for choosing recurrences by their position in a set with BYSETPOS.
+ * The series start on DTSTART 20240101, which is always the first result.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("BYSETPOS")
+public class BySetPosTest {
+
+  private static String iterate(String rule, String dtStart)
+      throws Exception {
+    RecurrenceIterator it = RecurrenceIteratorFactory.createRecurrenceIterator(
+        rule, IcalParseUtil.parseDateValue(dtStart),
+        TimeZone.getTimeZone("UTC"), true);
+    StringBuilder sb = new StringBuilder();
+    while (it.hasNext()) {
+      if (sb.length() > 0)
+        sb.append(',');
+      sb.append(it.next());
+    }
+    return sb.toString();
+  }
+
+  @Nested
+  @DisplayName("Positions")
+  class PositionTests {
+
+    @Test
+    @DisplayName("should pick the last weekday of each month")
+    void should_pickLast_when_negativePosition() throws Exception {
+      assertEquals("20240101,20240131,20240229,20240329,20240430",
+          iterate("RRULE:FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1;"
+              + "COUNT=4", "20240101"));
+    }
+
+    @Test
+    @DisplayName("should resolve positions across all the months of a year")
+    void should_resolvePositions_when_yearlySet() throws Exception {
+      assertEquals("20240101,20240517,20241231,20250101,20250520,20251231",
+          iterate("RRULE:FREQ=YEARLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=1,100,-1;"
+              + "COUNT=6", "20240101"));
+    }
+
+    @Test
+    @DisplayName("should ignore positions outside a set")
+    void should_ignorePositions_when_setTooSmall() throws Exception {
+      // only March 2024 has nine weekend days
+      assertEquals("20240101,20240106,20240203,20240302,20240303,20240330,"
+          + "20240406",
+          iterate("RRULE:FREQ=MONTHLY;BYDAY=SA,SU;BYSETPOS=1,-9,9;COUNT=6",
+              "20240101"));
+    }
+
+    @Test
+    @DisplayName("should keep a week's set together across a new year")
+    void should_keepWeek_when_weekSpansYears() throws Exception {
+      assertEquals("20241223,20241230,20250106",
+          iterate("RRULE:FREQ=WEEKLY;BYDAY=MO,SU;WKST=TU;BYSETPOS=2;COUNT=3",
+              "20241223"));
+    }
+
+    @Test
+    @DisplayName("should pick from dates relative to the month end")
+    void should_pick_when_byMonthDayGiven() throws Exception {
+      assertEquals("20240101,20240115,20240315,20240515",
+          iterate("RRULE:FREQ=MONTHLY;INTERVAL=2;BYMONTHDAY=1,15,-1;"
+              + "BYSETPOS=-2;COUNT=3", "20240101"));
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package us.k5n.ical.recurrence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.google.ical.iter.ExpansionPolicy;
+import com.google.ical.iter.RecurrenceIterator;
+import com.google.ical.iter.RecurrenceIteratorFactory;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.IcalParseUtil;
+import com.google.ical.values.RRule;
+
+/**
+ * Tests for rules whose BYDAY and BYMONTHDAY parts are applied as filters on
+ * the dates produced by another rule part.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("Day Filters")
+public class DayFilterTest {
+
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+  private static String expand(String rule, String dtStart) throws Exception {
+    RecurrenceIterator it = RecurrenceIteratorFactory.createRecurrenceIterator(
+        rule, IcalParseUtil.parseDateValue(dtStart), UTC, true);
+    StringBuilder sb = new StringBuilder();
+    while (it.hasNext()) {
+      if (sb.length() > 0)
+        sb.append(',');
+      sb.append(it.next());
+    }
+    return sb.toString();
+  }
+
+  @Nested
+  @DisplayName("Filtered generators")
+  class FilteredGeneratorTests {
+
+    @Test
+    @DisplayName("should generate Friday the 13ths when monthly by month day")
+    void should_generateFridayThe13ths_when_monthlyByMonthDay() throws Exception {
+      assertEquals("20150101,20150213,20150313,20151113,20160513,20170113",
+          expand("RRULE:FREQ=MONTHLY;BYDAY=FR;BYMONTHDAY=13;COUNT=5",
+              "20150101"));
+    }
+
+    @Test
+    @DisplayName("should apply week interval when weekly by day is filtered")
+    void should_applyWeekInterval_when_weeklyByDayFiltered() throws Exception {
+      assertEquals("20150101,20150213,20150313,20170113,20180713",
+          expand("RRULE:FREQ=WEEKLY;INTERVAL=2;BYDAY=FR;BYMONTHDAY=13;COUNT=4",
+              "20150101"));
+    }
+
+    @Test
+    @DisplayName("should match only leap days when by year day is filtered")
+    void should_matchOnlyLeapDays_when_byYearDayFiltered() throws Exception {
+      assertEquals("20150101,20160229,20200229,20240229",
+          expand("RRULE:FREQ=YEARLY;BYYEARDAY=60;BYMONTHDAY=29;COUNT=3",
+              "20150101"));
+    }
+
+    @Test
+    @DisplayName("should keep days in week 1 when by week number is filtered")
+    void should_keepDaysInWeek1_when_byWeekNoFiltered() throws Exception {
+      assertEquals("20080101,20100104,20110103,20120102,20160104",
+          expand("RRULE:FREQ=YEARLY;BYWEEKNO=1;BYDAY=MO;COUNT=4", "20080101"));
+    }
+
+    @Test
+    @DisplayName("should count weeks in the year when yearly by month day")
+    void should_countWeeksInYear_when_yearlyByMonthDay() throws Exception {
+      assertEquals("20000101,20041231,20101231,20211231",
+          expand("RRULE:FREQ=YEARLY;BYMONTHDAY=31;BYDAY=-1FR;COUNT=3",
+              "20000101"));
+    }
+
+    @Test
+    @DisplayName("should count weeks in the year when daily by month day")
+    void should_countWeeksInYear_when_dailyByMonthDay() throws Exception {
+      assertEquals("20000101,20010101,20011231,20070101,20071231",
+          expand("RRULE:FREQ=DAILY;BYMONTHDAY=1,-1;BYDAY=1MO,-1MO;COUNT=4",
+              "20000101"));
+    }
+
+    @Test
+    @DisplayName("should not generate rejected days when filter is applied")
+    void should_notGenerateRejectedDays_when_filterApplied() throws Exception {
+      // each month's dates are filtered at once, so a step is taken per month
+      // rather than per Friday
+      RecurrenceIterator it = RecurrenceIteratorFactory.createRecurrenceIterator(
+          new RRule("RRULE:FREQ=WEEKLY;BYDAY=FR;BYMONTHDAY=13"),
+          IcalParseUtil.parseDateValue("20070101"), UTC,
+          ExpansionPolicy.UNLIMITED.withMaxSteps(1000));
+      List<DateValue> dates = new ArrayList<DateValue>();
+      while (it.hasNext())
+        dates.add(it.next());
+      assertTrue(dates.size() > 1000 / 12, "got " + dates.size());
+      assertTrue(it.isTruncated());
+    }
+  }
+}
@@ -0,0 +1,196 @@
+package us.k5n.ical.recurrence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.google.ical.iter.ExpansionPolicy;
+import com.google.ical.iter.RecurrenceIterator;
+import com.google.ical.iter.RecurrenceIteratorFactory;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.DateValueImpl;
+import com.google.ical.values.IcalParseUtil;
+import com.google.ical.values.RRule;
+
+import us.k5n.ical.DataStore;
+import us.k5n.ical.Date;
+import us.k5n.ical.ICalendarParser;
+import us.k5n.ical.OccurrenceExpander;
+import us.k5n.ical.OccurrenceTable;
+import us.k5n.ical.Rrule;
+
+/**
+ * Tests for limiting recurrence expansion with an ExpansionPolicy.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("Expansion Policy")
+public class ExpansionPolicyTest {
+
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+  private static RecurrenceIterator create(String rule, ExpansionPolicy policy)
+      throws Exception {
+    return RecurrenceIteratorFactory.createRecurrenceIterator(new RRule(rule),
+        IcalParseUtil.parseDateValue("20070101T090000"), UTC, policy);
+  }
+
+  private static List<DateValue> iterate(RecurrenceIterator it) {
+    List<DateValue> out = new ArrayList<DateValue>();
+    while (it.hasNext()) {
+      out.add(it.next());
+    }
+    return out;
+  }
+
+  @Nested
+  @DisplayName("Recurrence iterators")
+  class IteratorTests {
+
+    @Test
+    @DisplayName("should not be truncated when the rule ends within the limits")
+    void should_notBeTruncated_when_ruleEndsWithinLimits() throws Exception {
+      RecurrenceIterator it = create("RRULE:FREQ=DAILY;COUNT=10",
+          ExpansionPolicy.UNLIMITED.withMaxInstances(10));
+      assertEquals(10, iterate(it).size());
+      assertFalse(it.isTruncated());
+    }
+
+    @Test
+    @DisplayName("should stop and be truncated when max instances is reached")
+    void should_beTruncated_when_maxInstancesReached() throws Exception {
+      RecurrenceIterator it = create("RRULE:FREQ=DAILY",
+          ExpansionPolicy.UNLIMITED.withMaxInstances(25));
+      assertEquals(25, iterate(it).size());
+      assertTrue(it.isTruncated());
+    }
+
+    @Test
+    @DisplayName("should stop at the horizon")
+    void should_stopAtHorizon_when_horizonSet() throws Exception {
+      RecurrenceIterator it = create("RRULE:FREQ=MONTHLY",
+          ExpansionPolicy.UNLIMITED.withMaxHorizon(new DateValueImpl(2008, 1, 1)));
+      List<DateValue> dates = iterate(it);
+      assertEquals(12, dates.size());
+      assertEquals(2007, dates.get(11).year());
+      assertTrue(it.isTruncated());
+    }
+
+    @Test
+    @DisplayName("should stop an unproductive rule when max steps is reached")
+    void should_stopUnproductiveRule_when_maxStepsReached() throws Exception {
+      // each day is examined, but only 1 in 365 is the first Friday of the year
+      RecurrenceIterator it = create(
+          "RRULE:FREQ=DAILY;BYDAY=1FR",
+          ExpansionPolicy.UNLIMITED.withMaxSteps(1000));
+      List<DateValue> dates = iterate(it);
+      assertTrue(dates.size() <= 1000 / 365 + 1, "got " + dates.size());
+      assertTrue(dates.get(dates.size() - 1).year() < 2007 + 1000 / 365 + 1);
+      assertTrue(it.isTruncated());
+    }
+
+    @Test
+    @DisplayName("should stop when the time limit is reached")
+    void should_stop_when_maxNanosReached() throws Exception {
+      RecurrenceIterator it = create("RRULE:FREQ=DAILY",
+          ExpansionPolicy.UNLIMITED.withMaxNanos(1));
+      long[] batch = new long[1024];
+      int total = 0, n;
+      while ((n = it.nextBatch(batch, 0, batch.length)) > 0) {
+        total += n;
+      }
+      assertTrue(total < 1000, "got " + total);
+      assertTrue(it.isTruncated());
+    }
+
+    @Test
+    @DisplayName("should report truncation of a compound iterator")
+    void should_reportTruncation_when_compoundRuleTruncated() throws Exception {
+      RecurrenceIterator it = RecurrenceIteratorFactory.createRecurrenceIterator(
+          "RRULE:FREQ=WEEKLY\nRDATE:20070105T090000Z",
+          IcalParseUtil.parseDateValue("20070101T090000"), UTC, true,
+          ExpansionPolicy.UNLIMITED.withMaxInstances(5));
+      assertEquals(6, iterate(it).size());
+      assertTrue(it.isTruncated());
+    }
+
+    @Test
+    @DisplayName("should reject limits that are not positive")
+    void should_reject_when_limitNotPositive() {
+      assertThrows(IllegalArgumentException.class,
+          () -> ExpansionPolicy.UNLIMITED.withMaxInstances(0));
+      assertThrows(IllegalArgumentException.class,
+          () -> ExpansionPolicy.UNLIMITED.withMaxSteps(-1));
+      assertThrows(IllegalArgumentException.class,
+          () -> ExpansionPolicy.UNLIMITED.withMaxNanos(0));
+    }
+  }
+
+  @Nested
+  @DisplayName("Rrule and OccurrenceExpander")
+  class CalendarTests {
+
+    @Test
+    @DisplayName("should flag truncation when generateRecurrances hits the limit")
+    void should_flagTruncation_when_generateRecurrancesLimited()
+        throws Exception {
+      Rrule rrule = new Rrule("RRULE:FREQ=DAILY", Rrule.PARSE_LOOSE);
+      rrule.setExpansionPolicy(ExpansionPolicy.UNLIMITED.withMaxInstances(50));
+      Rrule.Recurrences dates = rrule.generateRecurrances(
+          new Date("DTSTART", 2007, 1, 1), null);
+      // the first instance is DTSTART, which is not returned
+      assertEquals(49, dates.size());
+      assertTrue(dates.isTruncated());
+
+      rrule = new Rrule("RRULE:FREQ=DAILY;COUNT=50", Rrule.PARSE_LOOSE);
+      rrule.setExpansionPolicy(ExpansionPolicy.UNLIMITED.withMaxInstances(50));
+      assertFalse(rrule.generateRecurrances(new Date("DTSTART", 2007, 1, 1),
+          null).isTruncated());
+    }
+
+    @Test
+    @DisplayName("should apply the default limits when no policy is set")
+    void should_applyDefaultLimits_when_noPolicySet() throws Exception {
+      Rrule rrule = new Rrule("RRULE:FREQ=DAILY", Rrule.PARSE_LOOSE);
+      Rrule.Recurrences dates = rrule.generateRecurrances(
+          new Date("DTSTART", 2007, 1, 1), null);
+      assertEquals(Rrule.DEFAULT_MAX_INSTANCES - 1, dates.size());
+      assertTrue(dates.isTruncated());
+    }
+
+    @Test
+    @DisplayName("should mark the occurrence table when a series is truncated")
+    void should_markTable_when_seriesTruncated() throws Exception {
+      ICalendarParser parser = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+      parser.parse(new StringReader("BEGIN:VCALENDAR\nVERSION:2.0\n"
+          + "PRODID:-//Test//Test//EN\n"
+          + "BEGIN:VEVENT\nUID:a\nDTSTAMP:20070101T000000Z\n"
+          + "DTSTART:20070101T090000Z\nRRULE:FREQ=DAILY\nSUMMARY:A\n"
+          + "END:VEVENT\nEND:VCALENDAR\n"));
+      DataStore ds = parser.getDataStoreAt(0);
+      Date windowStart = new Date("DTSTART", 2007, 1, 1);
+      Date windowEnd = new Date("DTEND", 2007, 3, 1);
+
+      OccurrenceTable table = new OccurrenceExpander()
+          .expand(ds, windowStart, windowEnd);
+      assertEquals(59, table.size());
+      assertFalse(table.isTruncated());
+
+      table = new OccurrenceExpander()
+          .setExpansionPolicy(ExpansionPolicy.UNLIMITED.withMaxInstances(20))
+          .expand(ds, windowStart, windowEnd);
+      assertEquals(20, table.size());
+      assertTrue(table.isTruncated());
+    }
+  }
+}
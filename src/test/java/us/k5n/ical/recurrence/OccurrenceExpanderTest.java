@@ -0,0 +1,177 @@
+package us.k5n.ical.recurrence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import us.k5n.ical.DataStore;
+import us.k5n.ical.Date;
+import us.k5n.ical.ICalendarParser;
+import us.k5n.ical.OccurrenceExpander;
+import us.k5n.ical.OccurrenceTable;
+
+/**
+ * Tests for expanding all the components of a DataStore at once.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("Bulk Occurrence Expansion")
+public class OccurrenceExpanderTest {
+
+  private static DataStore parse(String components) throws Exception {
+    ICalendarParser parser = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+    parser.parse(new StringReader("BEGIN:VCALENDAR\r\nVERSION:2.0\r\n"
+        + "PRODID:-//Test//Test//EN\r\n" + components + "END:VCALENDAR\r\n"));
+    return parser.getDataStoreAt(0);
+  }
+
+  private static String event(String uid, String... lines) {
+    StringBuilder sb = new StringBuilder("BEGIN:VEVENT\r\nUID:" + uid + "\r\n"
+        + "SUMMARY:" + uid + "\r\n");
+    for (String line : lines) {
+      sb.append(line).append("\r\n");
+    }
+    return sb.append("END:VEVENT\r\n").toString();
+  }
+
+  private static Date date(String value) throws Exception {
+    return new Date("DTSTART:" + value);
+  }
+
+  private static final DateTimeFormatter DATE = DateTimeFormatter
+      .ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+  private static final DateTimeFormatter DATE_TIME = DateTimeFormatter
+      .ofPattern("yyyyMMdd'T'HHmmss").withZone(ZoneOffset.UTC);
+
+  private static String format(OccurrenceTable table, int i) {
+    DateTimeFormatter f = table.isDateOnly(i) ? DATE : DATE_TIME;
+    return f.format(Instant.ofEpochMilli(table.getStart(i))) + "/"
+        + f.format(Instant.ofEpochMilli(table.getEnd(i)));
+  }
+
+  @Nested
+  @DisplayName("Expansion")
+  class ExpansionTests {
+
+    @Test
+    @DisplayName("should expand a series within the window")
+    void should_expandSeries_when_windowGiven() throws Exception {
+      DataStore ds = parse(event("daily", "DTSTART:20240101T090000",
+          "DTEND:20240101T100000", "RRULE:FREQ=DAILY;BYDAY=MO,WE,FR",
+          "EXDATE:20240110T090000", "RDATE:20240113T090000"));
+      OccurrenceTable table = new OccurrenceExpander().expand(ds,
+          date("20240108"), date("20240115"));
+      assertEquals(3, table.size());
+      assertEquals("20240108T090000/20240108T100000", format(table, 0));
+      assertEquals("20240112T090000/20240112T100000", format(table, 1));
+      assertEquals("20240113T090000/20240113T100000", format(table, 2));
+    }
+
+    @Test
+    @DisplayName("should include occurrences that overlap the window start")
+    void should_includeOverlap_when_occurrenceStartsBeforeWindow()
+        throws Exception {
+      DataStore ds = parse(event("allday", "DTSTART;VALUE=DATE:20240101",
+          "RRULE:FREQ=WEEKLY;COUNT=10")
+          + event("single", "DTSTART:20240114T230000",
+              "DURATION:PT2H"));
+      OccurrenceTable table = new OccurrenceExpander().expand(ds,
+          date("20240115T000000"), date("20240116T000000"));
+      assertEquals(2, table.size());
+      assertEquals("20240114T230000/20240115T010000", format(table, 0));
+      assertEquals("20240115/20240116", format(table, 1));
+      assertEquals("allday", ((us.k5n.ical.Event) table.getComponent(1))
+          .getUid().getValue());
+    }
+
+    @Test
+    @DisplayName("should give start and end times in epoch milliseconds")
+    void should_giveEpochMillis_when_tableRead() throws Exception {
+      DataStore ds = parse(event("meeting", "DTSTART:20240101T090000Z",
+          "DURATION:PT1H")
+          + event("holiday", "DTSTART;VALUE=DATE:20240102"));
+      OccurrenceTable table = new OccurrenceExpander().expand(ds,
+          date("20240101T000000Z"), date("20240103T000000Z"));
+      assertEquals(2, table.size());
+      assertEquals(Instant.parse("2024-01-01T09:00:00Z").toEpochMilli(),
+          table.getStart(0));
+      assertEquals(Instant.parse("2024-01-01T10:00:00Z").toEpochMilli(),
+          table.getEnd(0));
+      assertFalse(table.isDateOnly(0));
+      assertEquals(Instant.parse("2024-01-02T00:00:00Z").toEpochMilli(),
+          table.getStart(1));
+      assertTrue(table.isDateOnly(1));
+    }
+  }
+
+  @Nested
+  @DisplayName("Parallelism")
+  class ParallelismTests {
+
+    @Test
+    @DisplayName("should produce the same sorted table for any parallelism")
+    void should_matchSerial_when_parallel() throws Exception {
+      String[] rules = { "RRULE:FREQ=DAILY", "RRULE:FREQ=WEEKLY;BYDAY=TU,TH",
+          "RRULE:FREQ=MONTHLY;BYMONTHDAY=1,15", "RRULE:FREQ=DAILY;COUNT=5" };
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 500; i++) {
+        sb.append(event("e" + i,
+            String.format("DTSTART:202401%02dT%02d%02d00", 1 + i % 28, i % 24,
+                i % 60),
+            "DURATION:PT30M", rules[i % rules.length]));
+      }
+      DataStore ds = parse(sb.toString());
+      OccurrenceTable serial = new OccurrenceExpander().setParallelism(1)
+          .expand(ds, date("20240201"), date("20240301"));
+      OccurrenceTable parallel = new OccurrenceExpander().setParallelism(4)
+          .expand(ds, date("20240201"), date("20240301"));
+      assertTrue(serial.size() > 5000);
+      assertEquals(serial.size(), parallel.size());
+      for (int i = 0; i < serial.size(); i++) {
+        assertEquals(serial.getStart(i), parallel.getStart(i));
+        assertEquals(serial.getComponentIndex(i),
+            parallel.getComponentIndex(i));
+        assertSame(serial.getComponent(i), parallel.getComponent(i));
+        if (i > 0) {
+          assertTrue(serial.getStart(i - 1) <= serial.getStart(i));
+        }
+      }
+    }
+
+    @Test
+    @DisplayName("should report progress and allow cancellation")
+    void should_cancel_when_listenerReturnsFalse() throws Exception {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 300; i++) {
+        sb.append(event("e" + i, "DTSTART:20240101T090000",
+            "RRULE:FREQ=DAILY"));
+      }
+      DataStore ds = parse(sb.toString());
+      AtomicInteger last = new AtomicInteger();
+      new OccurrenceExpander().setParallelism(2).setExpansionListener(
+          (completed, total) -> {
+            last.accumulateAndGet(completed, Math::max);
+            return true;
+          }).expand(ds, date("20240101"), date("20240201"));
+      assertEquals(300, last.get());
+
+      assertThrows(CancellationException.class,
+          () -> new OccurrenceExpander().setParallelism(2)
+              .setExpansionListener((completed, total) -> false)
+              .expand(ds, date("20240101"), date("20240201")));
+    }
+  }
+}
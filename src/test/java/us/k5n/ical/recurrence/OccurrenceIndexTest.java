@@ -0,0 +1,230 @@
+package us.k5n.ical.recurrence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.google.ical.iter.ExpansionPolicy;
+import com.google.ical.iter.OccurrenceIndex;
+import com.google.ical.iter.RecurrenceIterator;
+import com.google.ical.iter.RecurrenceIteratorFactory;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.IcalParseUtil;
+import com.google.ical.values.RRule;
+
+import us.k5n.ical.Date;
+import us.k5n.ical.Rrule;
+
+/**
+ * Tests for closed-form occurrence counting and indexing.
+ *
+ * Every answer from OccurrenceIndex must match what iterating over the rule
+ * would produce, whether or not the rule has a closed form.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("Occurrence Counting and Indexing")
+public class OccurrenceIndexTest {
+
+  private static final String[] CLOSED_FORM_RULES = {
+      "RRULE:FREQ=DAILY",
+      "RRULE:FREQ=DAILY;INTERVAL=3;COUNT=50",
+      "RRULE:FREQ=WEEKLY;INTERVAL=2;UNTIL=20080101",
+      "RRULE:FREQ=WEEKLY;BYDAY=TU,TH",
+      "RRULE:FREQ=WEEKLY;INTERVAL=3;BYDAY=SU,MO,SA;WKST=SU",
+      "RRULE:FREQ=WEEKLY;BYDAY=MO,WE;UNTIL=20071104T063000Z",
+      "RRULE:FREQ=MONTHLY;BYMONTHDAY=1,15",
+      "RRULE:FREQ=MONTHLY;BYMONTHDAY=10,20,28;INTERVAL=2;COUNT=20",
+      "RRULE:FREQ=YEARLY;INTERVAL=4;COUNT=5",
+  };
+
+  private static final String[] FALLBACK_RULES = {
+      "RRULE:FREQ=MONTHLY;BYMONTHDAY=-1;COUNT=12",
+      "RRULE:FREQ=MONTHLY;BYDAY=2TU;UNTIL=20090101",
+      "RRULE:FREQ=YEARLY;BYMONTH=11;BYDAY=1TU",
+  };
+
+  private static final String[] STARTS = {
+      "20070101", "20070131T090000", "20070310T020000", "20071104T013000",
+  };
+
+  private static final String[] ZONES = {
+      "UTC", "America/New_York", "Australia/Lord_Howe",
+  };
+
+  private static DateValue date(String s) throws Exception {
+    return IcalParseUtil.parseDateValue(s);
+  }
+
+  private static List<DateValue> iterate(RRule rrule, DateValue dtStart,
+      TimeZone tz, int max) {
+    List<DateValue> out = new ArrayList<DateValue>();
+    RecurrenceIterator it =
+        RecurrenceIteratorFactory.createRecurrenceIterator(rrule, dtStart, tz);
+    while (it.hasNext() && out.size() < max) {
+      out.add(it.next());
+    }
+    return out;
+  }
+
+  private static void assertMatchesIteration(String rule) throws Exception {
+    RRule rrule = new RRule(rule);
+    DateValue[] bounds = {
+        date("20000101"), date("20070101T090000"), date("20070311T070000"),
+        date("20071104T060000"), date("20080301"), date("20120101T000000"),
+    };
+    for (String s : STARTS) {
+      for (String z : ZONES) {
+        DateValue dtStart = date(s);
+        TimeZone tz = TimeZone.getTimeZone(z);
+        OccurrenceIndex index = OccurrenceIndex.forRule(rrule, dtStart, tz);
+        List<DateValue> all = iterate(rrule, dtStart, tz, 2000);
+        String where = rule + " " + s + " " + z;
+
+        for (int i = 0; i < 40; i++) {
+          DateValue expected = i < all.size() ? all.get(i) : null;
+          assertEquals(expected, index.nthOccurrence(i), where + " #" + i);
+        }
+        for (DateValue from : bounds) {
+          for (DateValue to : bounds) {
+            long expected = 0;
+            for (DateValue d : all) {
+              if (d.compareTo(from) >= 0 && d.compareTo(to) < 0) {
+                expected++;
+              }
+            }
+            assertEquals(expected, index.countOccurrences(from, to),
+                where + " [" + from + ", " + to + ")");
+          }
+        }
+        if (rrule.getCount() != 0 || rrule.getUntil() != null) {
+          assertEquals(all.isEmpty() ? null : all.get(all.size() - 1),
+              index.lastOccurrence(), where);
+        }
+      }
+    }
+  }
+
+  @Nested
+  @DisplayName("Closed Form Rules")
+  class ClosedFormTests {
+
+    @Test
+    @DisplayName("should use arithmetic for simple periodic rules")
+    void should_beClosedForm_when_ruleIsPeriodic() throws Exception {
+      for (String rule : CLOSED_FORM_RULES) {
+        OccurrenceIndex index = OccurrenceIndex.forRule(new RRule(rule),
+            date("20070131T090000"), TimeZone.getTimeZone("America/New_York"));
+        assertTrue(index.isClosedForm(), rule);
+      }
+    }
+
+    @Test
+    @DisplayName("should match iteration for simple periodic rules")
+    void should_matchIteration_when_ruleIsPeriodic() throws Exception {
+      for (String rule : CLOSED_FORM_RULES) {
+        assertMatchesIteration(rule);
+      }
+    }
+
+    @Test
+    @DisplayName("should index far into an unbounded series without iterating")
+    void should_indexFarAhead_when_seriesIsUnbounded() throws Exception {
+      OccurrenceIndex index = OccurrenceIndex.forRule(
+          new RRule("RRULE:FREQ=DAILY;INTERVAL=2"), date("20000101T100000"),
+          TimeZone.getTimeZone("UTC"));
+      assertEquals(date("20000101T100000"), index.nthOccurrence(0));
+      assertEquals(date("20050623T100000"),
+          index.nthOccurrence(1000));
+      assertEquals(1827, index.countOccurrences(date("20000101"),
+          date("20100101")));
+      assertNull(index.lastOccurrence());
+    }
+  }
+
+  @Nested
+  @DisplayName("Fallback Rules")
+  class FallbackTests {
+
+    @Test
+    @DisplayName("should iterate for rules without a fixed period")
+    void should_notBeClosedForm_when_ruleIsIrregular() throws Exception {
+      for (String rule : FALLBACK_RULES) {
+        OccurrenceIndex index = OccurrenceIndex.forRule(new RRule(rule),
+            date("20070131T090000"), TimeZone.getTimeZone("UTC"));
+        assertFalse(index.isClosedForm(), rule);
+      }
+    }
+
+    @Test
+    @DisplayName("should match iteration for irregular rules")
+    void should_matchIteration_when_ruleIsIrregular() throws Exception {
+      for (String rule : FALLBACK_RULES) {
+        assertMatchesIteration(rule);
+      }
+    }
+
+    @Test
+    @DisplayName("should give up on the last occurrence at a policy limit")
+    void should_giveUp_when_lastOccurrenceNeedsTooMuchIteration()
+        throws Exception {
+      OccurrenceIndex index = OccurrenceIndex.forRule(
+          new RRule("RRULE:FREQ=MONTHLY;BYDAY=2TU;COUNT=500"),
+          date("20070101T090000"), TimeZone.getTimeZone("UTC"));
+      assertNull(index.lastOccurrence(
+          ExpansionPolicy.UNLIMITED.withMaxInstances(100)));
+      assertEquals(index.lastOccurrence(), index.lastOccurrence(
+          ExpansionPolicy.UNLIMITED.withMaxInstances(1000)));
+      assertEquals(index.nthOccurrence(499), index.lastOccurrence());
+
+      // closed form rules are answered without iterating
+      index = OccurrenceIndex.forRule(
+          new RRule("RRULE:FREQ=DAILY;COUNT=1000000"),
+          date("20070101T090000"), TimeZone.getTimeZone("UTC"));
+      assertEquals(index.lastOccurrence(), index.lastOccurrence(
+          ExpansionPolicy.UNLIMITED.withMaxInstances(10)));
+      assertNotNull(index.lastOccurrence());
+    }
+  }
+
+  @Nested
+  @DisplayName("Rrule Convenience Methods")
+  class RruleTests {
+
+    @Test
+    @DisplayName("should report when a counted series ends")
+    void should_returnLastOccurrence_when_countSpecified() throws Exception {
+      Rrule rrule = new Rrule("RRULE:FREQ=WEEKLY;BYDAY=MO,WE,FR;COUNT=10",
+          Rrule.PARSE_STRICT);
+      Date start = new Date("DTSTART:20240101T090000");
+      Date last = rrule.lastOccurrence(start, "UTC");
+      assertNotNull(last);
+      assertEquals(2024, last.getYear());
+      assertEquals(1, last.getMonth());
+      assertEquals(22, last.getDay());
+      assertEquals(9, last.getHour());
+    }
+
+    @Test
+    @DisplayName("should count and index occurrences")
+    void should_countOccurrences_when_rangeGiven() throws Exception {
+      Rrule rrule = new Rrule("RRULE:FREQ=DAILY", Rrule.PARSE_STRICT);
+      Date start = new Date("DTSTART:20240101");
+      assertEquals(31, rrule.countOccurrences(start, "UTC",
+          new Date("DTSTART:20240101"), new Date("DTSTART:20240201")));
+      Date tenth = rrule.nthOccurrence(start, "UTC", 9);
+      assertEquals(10, tenth.getDay());
+      assertNull(rrule.lastOccurrence(start, "UTC"));
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package us.k5n.ical.recurrence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.google.ical.util.PackedDate;
+import com.google.ical.util.TimeUtils;
+import com.google.ical.values.DateTimeValueImpl;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.DateValueImpl;
+
+/**
+ * Tests for the packed long date representation used by the recurrence
+ * engine.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("Packed Dates")
+public class PackedDateTest {
+
+  @Nested
+  @DisplayName("Packing")
+  class PackingTests {
+
+    @Test
+    @DisplayName("should round trip dates and date-times")
+    void should_roundTrip_when_packedAndUnpacked() {
+      DateValue[] values = {
+          new DateValueImpl(2024, 2, 29),
+          new DateValueImpl(-1, 12, 31),
+          new DateTimeValueImpl(2007, 11, 4, 1, 30, 0),
+          new DateTimeValueImpl(1999, 12, 31, 23, 59, 59),
+          new DateTimeValueImpl(2000, 1, 1, 0, 0, 0),
+      };
+      for (DateValue dv : values) {
+        assertEquals(dv, PackedDate.toDateValue(PackedDate.pack(dv)),
+            dv.toString());
+      }
+      assertFalse(PackedDate.hasTime(PackedDate.pack(values[0])));
+      assertTrue(PackedDate.hasTime(PackedDate.pack(values[4])));
+    }
+
+    @Test
+    @DisplayName("should order packed values like DateValue.compareTo")
+    void should_orderLikeDateValue_when_compared() {
+      DateValue[] values = {
+          new DateValueImpl(2006, 12, 31),
+          new DateTimeValueImpl(2006, 12, 31, 23, 59, 59),
+          new DateValueImpl(2007, 1, 1),
+          new DateTimeValueImpl(2007, 1, 1, 0, 0, 0),
+          new DateTimeValueImpl(2007, 1, 1, 0, 0, 1),
+          new DateValueImpl(2007, 1, 2),
+      };
+      for (DateValue a : values) {
+        for (DateValue b : values) {
+          assertEquals(Integer.signum(a.compareTo(b)),
+              Long.signum(Long.compare(PackedDate.pack(a),
+                  PackedDate.pack(b))), a + " vs " + b);
+        }
+      }
+    }
+  }
+
+  @Nested
+  @DisplayName("Arithmetic")
+  class ArithmeticTests {
+
+    @Test
+    @DisplayName("should agree with fixedFromGregorian across many years")
+    void should_roundTripFixedDay_when_convertedBack() {
+      int start = TimeUtils.fixedFromGregorian(1890, 1, 1);
+      int end = TimeUtils.fixedFromGregorian(2110, 1, 1);
+      for (int fixed = start; fixed < end; fixed++) {
+        assertEquals(fixed, PackedDate.fixedDay(PackedDate.fromFixedDay(fixed)));
+      }
+    }
+
+    @Test
+    @DisplayName("should carry seconds across day, month and year boundaries")
+    void should_carry_when_secondsAdded() {
+      long packed = PackedDate.pack(2007, 12, 31, 23, 59, 30);
+      assertEquals(PackedDate.pack(2008, 1, 1, 0, 0, 15),
+          PackedDate.addSeconds(packed, 45));
+      assertEquals(PackedDate.pack(2007, 12, 30, 23, 59, 30),
+          PackedDate.addSeconds(packed, -24 * 60 * 60));
+    }
+
+    @Test
+    @DisplayName("should convert to and from UTC like the DateValue methods")
+    void should_matchDateValueConversion_when_zoneHasDst() {
+      TimeZone tz = TimeZone.getTimeZone("America/New_York");
+      DateValue[] values = {
+          new DateTimeValueImpl(2007, 3, 11, 2, 30, 0),
+          new DateTimeValueImpl(2007, 11, 4, 1, 30, 0),
+          new DateTimeValueImpl(2007, 7, 4, 12, 0, 0),
+          new DateValueImpl(2007, 7, 4),
+      };
+      for (DateValue dv : values) {
+        long packed = PackedDate.pack(dv);
+        assertEquals(TimeUtils.toUtc(dv, tz),
+            PackedDate.toDateValue(TimeUtils.toUtc(packed, tz)), dv.toString());
+        assertEquals(TimeUtils.fromUtc(dv, tz),
+            PackedDate.toDateValue(TimeUtils.fromUtc(packed, tz)), dv.toString());
+      }
+    }
+  }
+}
@@ -0,0 +1,186 @@
+package us.k5n.ical.recurrence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.google.ical.values.IcalParseUtil;
+import com.google.ical.values.RRule;
+import com.google.ical.values.RRuleTokenizer;
+import com.google.ical.values.Weekday;
+import com.google.ical.values.WeekdayNum;
+
+import us.k5n.ical.BogusDataException;
+import us.k5n.ical.ParseException;
+import us.k5n.ical.Rrule;
+
+/**
+ * Tests for the tokenizer used to parse the parts of recurrence rules, and
+ * for the RRULE parsers built on it.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("RRULE Tokenizer")
+public class RRuleTokenizerTest {
+
+  private static String parts(String s) {
+    RRuleTokenizer t = new RRuleTokenizer(s);
+    StringBuilder sb = new StringBuilder();
+    while (t.nextPart()) {
+      sb.append('[').append(t.name());
+      if (t.hasValue())
+        sb.append('=').append(t.value());
+      sb.append(']');
+    }
+    return sb.toString();
+  }
+
+  private static String items(String list) {
+    RRuleTokenizer t = RRuleTokenizer.forList(list);
+    StringBuilder sb = new StringBuilder();
+    while (t.nextItem())
+      sb.append('[').append(t.item()).append(']');
+    return sb.toString();
+  }
+
+  private static WeekdayNum weekday(String item) {
+    RRuleTokenizer t = RRuleTokenizer.forList(item);
+    assertTrue(t.nextItem());
+    return t.itemWeekdayNum(53);
+  }
+
+  @Nested
+  @DisplayName("Tokenizing")
+  class TokenizingTests {
+
+    @Test
+    @DisplayName("should split parts at semicolons and names at the first equals")
+    void should_splitParts_when_ruleGiven() {
+      assertEquals("[FREQ=weekly][BYDAY=MO,FR][X-A=b=c]",
+          parts("freq=weekly;BYDAY=MO,FR;x-a=b=c"));
+      assertEquals("[FREQ][COUNT=]", parts("FREQ;COUNT="));
+    }
+
+    @Test
+    @DisplayName("should report empty parts and items except at the end")
+    void should_reportEmptyTokens_when_notTrailing() {
+      for (String s : new String[] { "", ";", "A=1;;B=2", "A=1;;", ";A=1" }) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : s.split(";"))
+          sb.append('[').append(part).append(']');
+        assertEquals(sb.toString(), parts(s), s);
+      }
+      assertEquals("[1][][2]", items("1,,2,,"));
+      assertEquals("[]", items(""));
+      assertEquals("", items(",,"));
+    }
+
+    @Test
+    @DisplayName("should count items without moving")
+    void should_countItems_when_partHasList() {
+      RRuleTokenizer t = new RRuleTokenizer("BYMONTHDAY=1,-1,15;COUNT=3");
+      assertTrue(t.nextPart());
+      assertTrue(t.nextItem());
+      assertEquals(3, t.itemCount());
+      assertEquals(1, t.itemInt());
+      assertTrue(t.nextItem());
+      assertEquals(-1, t.itemInt());
+      assertTrue(t.nextPart());
+      assertTrue(t.nameIs("count"));
+      assertTrue(t.valueIs("3"));
+      assertFalse(t.nextPart());
+    }
+
+    @Test
+    @DisplayName("should parse weekdays with optional ordinals")
+    void should_parseWeekdays_when_itemsGiven() {
+      assertEquals(new WeekdayNum(0, Weekday.MO), weekday("mo"));
+      assertEquals(new WeekdayNum(-1, Weekday.FR), weekday("-1FR"));
+      assertEquals(new WeekdayNum(53, Weekday.SU), weekday("+53SU"));
+      assertNull(weekday("0MO"));
+      assertNull(weekday("54TU"));
+      assertNull(weekday("XX"));
+      assertNull(weekday("1-MO"));
+      assertNull(weekday("-MO"));
+    }
+  }
+
+  @Nested
+  @DisplayName("Parsing")
+  class ParsingTests {
+
+    @Test
+    @DisplayName("should parse a rule and round trip it")
+    void should_roundTrip_when_ruleParsed() throws Exception {
+      RRule rule = new RRule(
+          "RRULE:FREQ=MONTHLY;INTERVAL=2;BYDAY=1MO,-1FR;BYMONTHDAY=1,-1;"
+              + "X-FOO=bar;UNTIL=20251231");
+      assertEquals(2, rule.getInterval());
+      assertTrue(Arrays.equals(new int[] { 1, -1 }, rule.getByMonthDay()));
+      assertEquals(IcalParseUtil.parseDateValue("20251231"), rule.getUntil());
+      assertEquals("RRULE:FREQ=MONTHLY;UNTIL=20251231;INTERVAL=2;"
+          + "BYMONTHDAY=1,-1;BYDAY=1MO,-1FR", rule.toIcal());
+    }
+
+    @Test
+    @DisplayName("should reject malformed rules")
+    void should_reject_when_ruleMalformed() {
+      for (String s : new String[] { "RRULE:FREQ=DAILY;FREQ=WEEKLY",
+          "RRULE:COUNT=3", "RRULE:FREQ=DAILY;COUNT=3;UNTIL=20240101",
+          "RRULE:FREQ=DAILY;BYDAY=0MO", "RRULE:FREQ=DAILY;BOGUS=1",
+          "RRULE:FREQ=DAILY;COUNT", "RRULE:FREQ=DAILY;X-A=1;X-A=2" }) {
+        assertThrows(java.text.ParseException.class, () -> new RRule(s), s);
+      }
+    }
+
+    @Test
+    @DisplayName("should parse date values by hand")
+    void should_parseDateValues_when_wellFormed() throws Exception {
+      assertEquals("20240229T235959",
+          IcalParseUtil.parseDateValue("20240229T235959Z").toString());
+      for (String s : new String[] { "2024010", "20240101T2400000",
+          "20240101T240000", "20240101T126000", "20240101 ",
+          "20240101T120000z" }) {
+        assertThrows(java.text.ParseException.class,
+            () -> IcalParseUtil.parseDateValue(s), s);
+      }
+    }
+
+    @Test
+    @DisplayName("should unfold continuation lines")
+    void should_unfold_when_linesFolded() {
+      String s = "RRULE:FREQ=DAILY";
+      assertTrue(s == IcalParseUtil.unfoldIcal(s));
+      assertEquals("RRULE:FREQ=DAILY;COUNT=3",
+          IcalParseUtil.unfoldIcal("RRULE:FREQ=DA\r\n ILY;CO\n\tUNT=3"));
+    }
+
+    @Test
+    @DisplayName("should keep Rrule errors when parsed with the tokenizer")
+    void should_keepRruleErrors_when_ruleInvalid() throws Exception {
+      Rrule rrule = new Rrule("RRULE:freq=weekly;byday=mo,fr;bysetpos=-1",
+          Rrule.PARSE_STRICT);
+      assertEquals(Rrule.FREQ_WEEKLY, rrule.getFrequency());
+      assertTrue(rrule.toICalendar().contains("BYDAY=MO,FR"),
+          rrule.toICalendar());
+      assertEquals(-1, rrule.bysetpos[0]);
+      assertThrows(ParseException.class,
+          () -> new Rrule("RRULE:FREQ=DAILY;COUNT", Rrule.PARSE_LOOSE));
+      BogusDataException e = assertThrows(BogusDataException.class,
+          () -> new Rrule("RRULE:FREQ=DAILY;BYHOUR=1,24", Rrule.PARSE_LOOSE));
+      assertTrue(e.error.contains("BYHOUR"), e.error);
+      assertThrows(BogusDataException.class,
+          () -> new Rrule("RRULE:FREQ=DAILY;BYDAY=MO,XX", Rrule.PARSE_LOOSE));
+      assertThrows(BogusDataException.class,
+          () -> new Rrule("RRULE:FREQ=SOMETIMES", Rrule.PARSE_LOOSE));
+    }
+  }
+}
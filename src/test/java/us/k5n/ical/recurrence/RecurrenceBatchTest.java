@@ -0,0 +1,142 @@
+package us.k5n.ical.recurrence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.google.ical.iter.RecurrenceIterator;
+import com.google.ical.iter.RecurrenceIteratorFactory;
+import com.google.ical.util.PackedDate;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.IcalParseUtil;
+
+/**
+ * Tests for fetching recurrences in batches of packed dates.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("Batch Recurrence Iteration")
+public class RecurrenceBatchTest {
+
+  private static final String[] RULES = {
+      "RRULE:FREQ=DAILY;COUNT=100",
+      "RRULE:FREQ=WEEKLY;BYDAY=MO,WE,FR;UNTIL=20090101T000000Z",
+      "RRULE:FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1;COUNT=40",
+      "RDATE:20070203T120000Z,20070204T120000Z,20070501T000000Z",
+      "RRULE:FREQ=WEEKLY;BYDAY=MO;COUNT=60\n"
+          + "RDATE:20070203T120000Z,20070204T120000Z\n"
+          + "EXRULE:FREQ=MONTHLY;BYDAY=1MO",
+  };
+
+  private static DateValue date(String s) throws Exception {
+    return IcalParseUtil.parseDateValue(s);
+  }
+
+  private static RecurrenceIterator create(String rule) throws Exception {
+    return RecurrenceIteratorFactory.createRecurrenceIterator(rule,
+        date("20070101T070000"), TimeZone.getTimeZone("America/New_York"),
+        true);
+  }
+
+  private static List<DateValue> iterate(RecurrenceIterator it) {
+    List<DateValue> out = new ArrayList<DateValue>();
+    while (it.hasNext()) {
+      out.add(it.next());
+    }
+    return out;
+  }
+
+  private static List<DateValue> iterateInBatches(RecurrenceIterator it,
+      int batchSize) {
+    List<DateValue> out = new ArrayList<DateValue>();
+    long[] batch = new long[batchSize + 2];
+    int n;
+    while ((n = it.nextBatch(batch, 1, batchSize)) > 0) {
+      for (int i = 1; i <= n; i++) {
+        out.add(PackedDate.toDateValue(batch[i]));
+      }
+      if (n < batchSize) {
+        assertEquals(0, it.nextBatch(batch, 1, batchSize));
+        break;
+      }
+    }
+    return out;
+  }
+
+  @Nested
+  @DisplayName("nextBatch")
+  class NextBatchTests {
+
+    @Test
+    @DisplayName("should return the same dates as next for any batch size")
+    void should_matchNext_when_batchSizeVaries() throws Exception {
+      for (String rule : RULES) {
+        List<DateValue> expected = iterate(create(rule));
+        for (int batchSize : new int[] { 1, 3, 16, 1000 }) {
+          assertEquals(expected, iterateInBatches(create(rule), batchSize),
+              rule + " batch " + batchSize);
+        }
+      }
+    }
+
+    @Test
+    @DisplayName("should continue from next and advanceTo")
+    void should_continue_when_mixedWithNext() throws Exception {
+      for (String rule : RULES) {
+        List<DateValue> expected = iterate(create(rule));
+        RecurrenceIterator it = create(rule);
+        List<DateValue> actual = new ArrayList<DateValue>();
+        actual.add(it.next());
+        long[] batch = new long[2];
+        int n = it.nextBatch(batch, 0, 2);
+        for (int i = 0; i < n; i++) {
+          actual.add(PackedDate.toDateValue(batch[i]));
+        }
+        it.advanceTo(date("20070301"));
+        actual.addAll(iterate(it));
+
+        List<DateValue> skipped = new ArrayList<DateValue>();
+        for (DateValue dv : expected.subList(3, expected.size())) {
+          if (dv.compareTo(date("20070301")) < 0) {
+            skipped.add(dv);
+          }
+        }
+        expected.removeAll(skipped);
+        assertEquals(expected, actual, rule);
+      }
+    }
+  }
+
+  @Nested
+  @DisplayName("advanceTo")
+  class AdvanceToTests {
+
+    @Test
+    @DisplayName("should not skip the first set on or after the target")
+    void should_notSkipSet_when_ruleHasSetPos() throws Exception {
+      RecurrenceIterator it = RecurrenceIteratorFactory.createRecurrenceIterator(
+          "RRULE:FREQ=YEARLY;BYMONTH=1,2,3;BYDAY=MO;BYSETPOS=-3",
+          date("20070101"), TimeZone.getTimeZone("UTC"), true);
+      it.advanceTo(date("20090601T000000"));
+      assertEquals(date("20100315"), it.next());
+      it.advanceTo(date("20300101"));
+      assertEquals(date("20300311"), it.next());
+    }
+
+    @Test
+    @DisplayName("should keep an instance on the previous local day")
+    void should_keepInstance_when_localDayPrecedesTarget() throws Exception {
+      RecurrenceIterator it = RecurrenceIteratorFactory.createRecurrenceIterator(
+          "RRULE:FREQ=DAILY", date("20070101T233000"),
+          TimeZone.getTimeZone("America/New_York"), true);
+      it.advanceTo(date("20300101"));
+      assertEquals(date("20300101T043000"), it.next());
+    }
+  }
+}
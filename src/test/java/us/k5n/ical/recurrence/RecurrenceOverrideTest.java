@@ -0,0 +1,286 @@
+package us.k5n.ical.recurrence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.google.ical.util.PackedDate;
+
+import us.k5n.ical.AgendaIterator;
+import us.k5n.ical.DataStore;
+import us.k5n.ical.Date;
+import us.k5n.ical.Event;
+import us.k5n.ical.ICalendarParser;
+import us.k5n.ical.Occurrence;
+import us.k5n.ical.OccurrenceExpander;
+import us.k5n.ical.OccurrenceTable;
+
+/**
+ * Tests for expanding recurring events whose instances are overridden by other
+ * events with the same UID and a RECURRENCE-ID.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("Recurrence Overrides")
+public class RecurrenceOverrideTest {
+
+  private static final String WEEKLY = event("standup", "standup",
+      "DTSTART:20240101T090000Z", "DURATION:PT15M",
+      "RRULE:FREQ=WEEKLY;COUNT=6");
+
+  private static DataStore parse(String components) throws Exception {
+    ICalendarParser parser = new ICalendarParser(ICalendarParser.PARSE_LOOSE);
+    parser.parse(new StringReader("BEGIN:VCALENDAR\r\nVERSION:2.0\r\n"
+        + "PRODID:-//Test//Test//EN\r\n" + components + "END:VCALENDAR\r\n"));
+    return parser.getDataStoreAt(0);
+  }
+
+  private static String event(String uid, String summary, String... lines) {
+    StringBuilder sb = new StringBuilder("BEGIN:VEVENT\r\nUID:" + uid + "\r\n"
+        + "SUMMARY:" + summary + "\r\n");
+    for (String line : lines) {
+      sb.append(line).append("\r\n");
+    }
+    return sb.append("END:VEVENT\r\n").toString();
+  }
+
+  private static Date date(String value) throws Exception {
+    return new Date("DTSTART:" + value);
+  }
+
+  private static String summary(Object component) {
+    return ((Event) component).getSummary().getValue();
+  }
+
+  /**
+   * Expand the DataStore with both expand() and agenda(), check that they
+   * agree and return the occurrences as text.
+   */
+  private static String expand(DataStore ds, String from, String to)
+      throws Exception {
+    OccurrenceExpander expander = new OccurrenceExpander();
+    OccurrenceTable table = expander.expand(ds, date(from), date(to));
+    AgendaIterator it = expander.agenda(ds, date(from));
+    long end = PackedDate.timetSecs(PackedDate.pack(date(to).getYear(),
+        date(to).getMonth(), date(to).getDay())) * 1000;
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < table.size(); i++) {
+      Occurrence occurrence = it.next();
+      assertEquals(table.getStart(i), occurrence.getStart());
+      assertEquals(table.getEnd(i), occurrence.getEnd());
+      assertEquals(table.isDateOnly(i), occurrence.isDateOnly());
+      assertSame(table.getComponent(i), occurrence.getComponent());
+      sb.append(summary(table.getComponent(i))).append(' ')
+          .append(occurrence).append('\n');
+    }
+    assertTrue(!it.hasNext() || it.next().getStart() >= end);
+    return sb.toString();
+  }
+
+  @Nested
+  @DisplayName("Single instances")
+  class SingleInstanceTests {
+
+    @Test
+    @DisplayName("should replace an instance with its override")
+    void should_replaceInstance_when_overridden() throws Exception {
+      DataStore ds = parse(WEEKLY + event("standup", "moved",
+          "RECURRENCE-ID:20240115T090000Z", "DTSTART:20240116T100000Z",
+          "DURATION:PT30M"));
+      assertEquals("standup 20240108T090000/20240108T091500\n"
+          + "moved 20240116T100000/20240116T103000\n"
+          + "standup 20240122T090000/20240122T091500\n",
+          expand(ds, "20240108", "20240125"));
+    }
+
+    @Test
+    @DisplayName("should remove an instance whose override is cancelled")
+    void should_removeInstance_when_overrideCancelled() throws Exception {
+      DataStore ds = parse(WEEKLY + event("standup", "cancelled",
+          "RECURRENCE-ID:20240115T090000Z", "DTSTART:20240115T090000Z",
+          "STATUS:CANCELLED"));
+      assertEquals("standup 20240108T090000/20240108T091500\n"
+          + "standup 20240122T090000/20240122T091500\n",
+          expand(ds, "20240108", "20240125"));
+    }
+
+    @Test
+    @DisplayName("should keep start order when overrides move past instances")
+    void should_keepOrder_when_overridesMovePastInstances() throws Exception {
+      DataStore ds = parse(WEEKLY
+          + event("standup", "later", "RECURRENCE-ID:20240108T090000Z",
+              "DTSTART:20240124T090000Z")
+          + event("standup", "earlier", "RECURRENCE-ID:20240129T090000Z",
+              "DTSTART:20231231T090000Z"));
+      assertEquals("earlier 20231231T090000/20231231T090000\n"
+          + "standup 20240101T090000/20240101T091500\n"
+          + "standup 20240115T090000/20240115T091500\n"
+          + "standup 20240122T090000/20240122T091500\n"
+          + "later 20240124T090000/20240124T090000\n"
+          + "standup 20240205T090000/20240205T091500\n",
+          expand(ds, "20231201", "20240301"));
+    }
+
+    @Test
+    @DisplayName("should include an override moved into the window")
+    void should_includeOverride_when_movedIntoWindow() throws Exception {
+      DataStore ds = parse(WEEKLY + event("standup", "moved",
+          "RECURRENCE-ID:20240101T090000Z", "DTSTART:20240301T090000Z"));
+      assertEquals("moved 20240301T090000/20240301T090000\n",
+          expand(ds, "20240210", "20240310"));
+    }
+
+    @Test
+    @DisplayName("should use the override with the highest sequence")
+    void should_useHighestSequence_when_overridesRepeated() throws Exception {
+      DataStore ds = parse(WEEKLY
+          + event("standup", "second", "RECURRENCE-ID:20240108T090000Z",
+              "DTSTART:20240108T110000Z", "SEQUENCE:2")
+          + event("standup", "first", "RECURRENCE-ID:20240108T090000Z",
+              "DTSTART:20240108T100000Z", "SEQUENCE:1"));
+      assertEquals("second 20240108T110000/20240108T110000\n",
+          expand(ds, "20240108", "20240109"));
+    }
+
+    @Test
+    @DisplayName("should expand an override without a recurring event alone")
+    void should_expandAlone_when_noRecurringEvent() throws Exception {
+      DataStore ds = parse(WEEKLY + event("other", "orphan",
+          "RECURRENCE-ID:20240108T090000Z", "DTSTART:20240108T100000Z"));
+      assertEquals("standup 20240108T090000/20240108T091500\n"
+          + "orphan 20240108T100000/20240108T100000\n",
+          expand(ds, "20240108", "20240109"));
+    }
+  }
+
+  @Nested
+  @DisplayName("This and future instances")
+  class ThisAndFutureTests {
+
+    @Test
+    @DisplayName("should move this and future instances")
+    void should_moveLaterInstances_when_thisAndFuture() throws Exception {
+      DataStore ds = parse(WEEKLY + event("standup", "new time",
+          "RECURRENCE-ID;RANGE=THISANDFUTURE:20240115T090000Z",
+          "DTSTART:20240115T100000Z", "DURATION:PT30M"));
+      assertEquals("standup 20240101T090000/20240101T091500\n"
+          + "standup 20240108T090000/20240108T091500\n"
+          + "new time 20240115T100000/20240115T103000\n"
+          + "new time 20240122T100000/20240122T103000\n"
+          + "new time 20240129T100000/20240129T103000\n"
+          + "new time 20240205T100000/20240205T103000\n",
+          expand(ds, "20240101", "20240301"));
+    }
+
+    @Test
+    @DisplayName("should apply later overrides within a range")
+    void should_applyLaterOverrides_when_thisAndFuture() throws Exception {
+      DataStore ds = parse(WEEKLY
+          + event("standup", "cancelled", "RECURRENCE-ID:20240122T090000Z",
+              "STATUS:CANCELLED", "DTSTART:20240122T090000Z")
+          + event("standup", "tuesdays",
+              "RECURRENCE-ID;RANGE=THISANDFUTURE:20240108T090000Z",
+              "DTSTART:20240109T090000Z")
+          + event("standup", "gone",
+              "RECURRENCE-ID;RANGE=THISANDFUTURE:20240129T090000Z",
+              "DTSTART:20240129T090000Z", "STATUS:CANCELLED")
+          + event("standup", "one off", "RECURRENCE-ID:20240205T090000Z",
+              "DTSTART:20240206T120000Z"));
+      assertEquals("standup 20240101T090000/20240101T091500\n"
+          + "tuesdays 20240109T090000/20240109T090000\n"
+          + "tuesdays 20240116T090000/20240116T090000\n"
+          + "one off 20240206T120000/20240206T120000\n",
+          expand(ds, "20240101", "20240301"));
+    }
+
+    @Test
+    @DisplayName("should keep all-day instances on dates")
+    void should_keepDates_when_allDayMoved() throws Exception {
+      DataStore ds = parse(event("holiday", "holiday",
+          "DTSTART;VALUE=DATE:20240101", "RRULE:FREQ=MONTHLY;COUNT=4")
+          + event("holiday", "moved",
+              "RECURRENCE-ID;VALUE=DATE;RANGE=THISANDFUTURE:20240301",
+              "DTSTART;VALUE=DATE:20240302"));
+      assertEquals("holiday 20240201/20240202\n"
+          + "moved 20240302/20240303\n" + "moved 20240402/20240403\n",
+          expand(ds, "20240201", "20240501"));
+    }
+  }
+
+  @Nested
+  @DisplayName("Many overrides")
+  class ManyOverrideTests {
+
+    @Test
+    @DisplayName("should expand a series with thousands of overrides")
+    void should_expandQuickly_when_thousandsOfOverrides() throws Exception {
+      StringBuilder sb = new StringBuilder(event("daily", "daily",
+          "DTSTART:20200101T090000Z", "DURATION:PT15M", "RRULE:FREQ=DAILY"));
+      // move every other day to 10:00 and cancel every tenth
+      for (int day = 0; day < 3600; day += 2) {
+        String id = PackedDate.toString(PackedDate.fromFixedDay(PackedDate
+            .fixedDay(PackedDate.pack(2020, 1, 1)) + day)) + "T090000Z";
+        sb.append(event("daily", day % 10 == 0 ? "cancelled" : "moved",
+            "RECURRENCE-ID:" + id, "DTSTART:" + id.replace("T09", "T10"),
+            day % 10 == 0 ? "STATUS:CANCELLED" : "DURATION:PT15M"));
+      }
+      DataStore ds = parse(sb.toString());
+      OccurrenceExpander expander = new OccurrenceExpander();
+      OccurrenceTable table = expander.expand(ds, date("20200101"),
+          date("20300101"));
+      int moved = 0, daily = 0;
+      for (int i = 0; i < table.size(); i++) {
+        Object component = table.getComponent(i);
+        int hour = Instant.ofEpochMilli(table.getStart(i))
+            .atZone(ZoneOffset.UTC).getHour();
+        if (summary(component).equals("moved")) {
+          assertEquals(10, hour);
+          moved++;
+        } else {
+          assertEquals("daily", summary(component));
+          assertEquals(9, hour);
+          daily++;
+        }
+        if (i > 0)
+          assertTrue(table.getStart(i - 1) < table.getStart(i));
+      }
+      assertEquals(1440, moved);
+      int days = PackedDate.fixedDay(PackedDate.pack(2030, 1, 1))
+          - PackedDate.fixedDay(PackedDate.pack(2020, 1, 1));
+      assertEquals(days - 1800, daily);
+    }
+  }
+
+  @Nested
+  @DisplayName("RECURRENCE-ID")
+  class RecurrenceIdTests {
+
+    @Test
+    @DisplayName("should parse and write RECURRENCE-ID with a range")
+    void should_roundTrip_when_recurrenceIdHasRange() throws Exception {
+      DataStore ds = parse(WEEKLY + event("standup", "later",
+          "RECURRENCE-ID;RANGE=THISANDFUTURE:20240115T090000Z",
+          "DTSTART:20240115T100000Z"));
+      Event master = ds.getAllEvents().get(0);
+      Event override = ds.getAllEvents().get(1);
+      assertNull(master.getRecurrenceId());
+      assertFalse(master.isThisAndFuture());
+      assertEquals(2024, override.getRecurrenceId().getYear());
+      assertTrue(override.isThisAndFuture());
+      Event reparsed = parse(override.toICalendar()).getAllEvents().get(0);
+      assertTrue(reparsed.isThisAndFuture());
+      assertEquals(0, reparsed.getRecurrenceId().compareTo(
+          override.getRecurrenceId()));
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package us.k5n.ical.recurrence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.google.ical.iter.RecurrenceIterator;
+import com.google.ical.iter.RecurrenceIteratorFactory;
+import com.google.ical.values.IcalParseUtil;
+import com.google.ical.values.RRule;
+
+import us.k5n.ical.Date;
+import us.k5n.ical.Rrule;
+
+/**
+ * Tests for recurrence rules more frequent than daily.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("Sub-daily Recurrence")
+public class SubDailyRecurrenceTest {
+
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+  private static RecurrenceIterator create(String rule, String dtStart,
+      TimeZone tz) throws Exception {
+    return RecurrenceIteratorFactory.createRecurrenceIterator(new RRule(rule),
+        IcalParseUtil.parseDateValue(dtStart), tz);
+  }
+
+  private static String iterate(RecurrenceIterator it, int max) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < max && it.hasNext(); i++) {
+      if (i > 0)
+        sb.append(',');
+      sb.append(it.next());
+    }
+    return sb.toString();
+  }
+
+  @Nested
+  @DisplayName("Time slots")
+  class TimeSlotTests {
+
+    @Test
+    @DisplayName("should expand BYMINUTE within every other hour")
+    void should_expandMinutes_when_hourlyByMinute() throws Exception {
+      assertEquals("20240101T091500,20240101T094500,20240101T111500,"
+          + "20240101T114500,20240101T131500,20240101T134500,"
+          + "20240101T151500,20240101T154500,20240101T171500,"
+          + "20240101T174500",
+          iterate(create("RRULE:FREQ=HOURLY;INTERVAL=2;BYMINUTE=15,45;"
+              + "UNTIL=20240101T180000Z", "20240101T090000", UTC), 100));
+    }
+
+    @Test
+    @DisplayName("should only visit the allowed hours of each day")
+    void should_limitHours_when_minutelyByHour() throws Exception {
+      assertEquals("20240101T113000,20240101T114500,20240102T090000,"
+          + "20240102T091500,20240102T093000",
+          iterate(create("RRULE:FREQ=MINUTELY;INTERVAL=15;BYHOUR=9,11;"
+              + "COUNT=5", "20240101T113000", UTC), 100));
+    }
+
+    @Test
+    @DisplayName("should keep the interval across days it does not divide")
+    void should_keepInterval_when_intervalCrossesDays() throws Exception {
+      assertEquals("20240101T220000,20240102T030000,20240102T080000,"
+          + "20240102T130000,20240102T180000,20240102T230000,"
+          + "20240103T040000",
+          iterate(create("RRULE:FREQ=HOURLY;INTERVAL=5;COUNT=7",
+              "20240101T220000", UTC), 100));
+    }
+
+    @Test
+    @DisplayName("should limit seconds and minutes of a SECONDLY rule")
+    void should_limitFields_when_secondly() throws Exception {
+      assertEquals("20240101T120015,20240101T120045,20240101T120215,"
+          + "20240101T120245,20240101T130015",
+          iterate(create("RRULE:FREQ=SECONDLY;INTERVAL=30;BYHOUR=12,13;"
+              + "BYMINUTE=0,2", "20240101T120015", UTC), 5));
+    }
+
+    @Test
+    @DisplayName("should skip days that BYDAY and BYMONTH exclude")
+    void should_skipDays_when_dayFiltersGiven() throws Exception {
+      // 6 January 2024 is a Saturday
+      assertEquals("20240108T090000,20240108T093000,20240205T090000",
+          iterate(create("RRULE:FREQ=MINUTELY;INTERVAL=30;BYHOUR=9;BYDAY=MO;"
+              + "BYMONTHDAY=1,2,3,4,5,6,7,8", "20240106T080000", UTC), 3));
+    }
+  }
+
+  @Nested
+  @DisplayName("Iteration")
+  class IterationTests {
+
+    @Test
+    @DisplayName("should advance to the first slot on or after a date")
+    void should_advance_when_advanceToCalled() throws Exception {
+      RecurrenceIterator it = create(
+          "RRULE:FREQ=MINUTELY;INTERVAL=7;BYHOUR=8,9", "20240101T080000",
+          UTC);
+      it.advanceTo(IcalParseUtil.parseDateValue("20240315T090100"));
+      // 09:00 on 15 March is 106,620 minutes after dtStart, 3 minutes past
+      // a multiple of 7.
+      assertEquals("20240315T090400,20240315T091100",
+          iterate(it, 2));
+    }
+
+    @Test
+    @DisplayName("should not repeat a time skipped by daylight savings")
+    void should_notRepeat_when_daylightSavingsStarts() throws Exception {
+      // 02:00 does not exist on 10 March, so it falls on the same instant as
+      // 03:00 and is only counted once.
+      assertEquals("20240310T050000,20240310T060000,20240310T070000,"
+          + "20240310T080000,20240310T090000,20240310T100000",
+          iterate(create("RRULE:FREQ=HOURLY;COUNT=6", "20240310T000000",
+              TimeZone.getTimeZone("America/New_York")), 100));
+    }
+
+    @Test
+    @DisplayName("should reject a sub-daily rule from a date")
+    void should_reject_when_dtStartIsDate() {
+      assertThrows(IllegalArgumentException.class,
+          () -> create("RRULE:FREQ=HOURLY", "20240101", UTC));
+    }
+
+    @Test
+    @DisplayName("should keep other times on the start date in Rrule")
+    void should_keepStartDay_when_rruleGenerated() throws Exception {
+      Rrule rrule = new Rrule("RRULE:FREQ=HOURLY;INTERVAL=6;COUNT=4",
+          Rrule.PARSE_STRICT);
+      List<Date> dates = rrule.generateRecurrances(
+          new Date("DTSTART", 2024, 1, 1, 6, 0, 0), null);
+      assertEquals(3, dates.size());
+      assertEquals(1, dates.get(0).getDay());
+      assertEquals(12, dates.get(0).getHour());
+      assertEquals(2, dates.get(2).getDay());
+      assertEquals(0, dates.get(2).getHour());
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package us.k5n.ical.recurrence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.google.ical.compat.javatime.TemporalIterator;
+import com.google.ical.compat.javatime.TemporalIteratorFactory;
+import com.google.ical.compat.javautil.DateIterator;
+import com.google.ical.compat.javautil.DateIteratorFactory;
+import com.google.ical.iter.RecurrenceIteratorFactory;
+import com.google.ical.values.IcalParseUtil;
+import com.google.ical.values.RRule;
+
+/**
+ * Tests for the java.time compatibility layer over recurrence iterators.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("java.time Iterators")
+public class TemporalIteratorTest {
+
+  private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+  /** Weekly across the start of daylight savings time on 10 March 2024. */
+  private static final String RULE = "RRULE:FREQ=WEEKLY;BYDAY=SA;COUNT=4";
+
+  private static final ZonedDateTime START =
+      ZonedDateTime.of(2024, 3, 2, 9, 30, 0, 0, NEW_YORK);
+
+  private static <T> List<T> list(Iterator<T> it) {
+    List<T> out = new ArrayList<T>();
+    while (it.hasNext())
+      out.add(it.next());
+    return out;
+  }
+
+  @Nested
+  @DisplayName("Conversion")
+  class ConversionTests {
+
+    @Test
+    @DisplayName("should yield the same instants as the java.util.Date iterator")
+    void should_matchDates_when_instantsIterated() throws Exception {
+      // DateIteratorFactory takes the local start time in the UTC fields of
+      // a Date
+      DateIterator dates = DateIteratorFactory.createDateIterator(RULE,
+          Date.from(START.toLocalDateTime().toInstant(ZoneOffset.UTC)),
+          TimeZone.getTimeZone(NEW_YORK), true);
+      List<Instant> expected = new ArrayList<Instant>();
+      while (dates.hasNext())
+        expected.add(dates.next().toInstant());
+      assertEquals(expected, list(
+          TemporalIteratorFactory.createInstantIterator(RULE, START, true)));
+    }
+
+    @Test
+    @DisplayName("should keep local times across a daylight savings change")
+    void should_keepLocalTime_when_offsetChanges() throws Exception {
+      List<ZonedDateTime> zoned = list(TemporalIteratorFactory
+          .createZonedDateTimeIterator(RULE, START, true));
+      assertEquals(4, zoned.size());
+      assertEquals(START, zoned.get(0));
+      assertEquals(ZonedDateTime.of(2024, 3, 16, 9, 30, 0, 0, NEW_YORK),
+          zoned.get(2));
+      assertEquals(-4 * 3600, zoned.get(2).getOffset().getTotalSeconds());
+
+      List<LocalDateTime> local = list(TemporalIteratorFactory
+          .createLocalDateTimeIterator(RULE, START, true));
+      assertEquals(LocalDateTime.of(2024, 3, 23, 9, 30), local.get(3));
+    }
+
+    @Test
+    @DisplayName("should start date occurrences at the start of the day")
+    void should_startOfDay_when_occurrencesAreDates() throws Exception {
+      TemporalIterator<ZonedDateTime> it =
+          TemporalIteratorFactory.createZonedDateTimeIterator(
+              RecurrenceIteratorFactory.createRecurrenceIterator(
+                  new RRule("RRULE:FREQ=DAILY;COUNT=2"),
+                  IcalParseUtil.parseDateValue("20241103"),
+                  TimeZone.getTimeZone(NEW_YORK)),
+              NEW_YORK);
+      assertEquals(ZonedDateTime.of(2024, 11, 3, 0, 0, 0, 0, NEW_YORK),
+          it.next());
+      assertEquals(ZonedDateTime.of(2024, 11, 4, 0, 0, 0, 0, NEW_YORK),
+          it.next());
+      assertFalse(it.hasNext());
+      assertThrows(NoSuchElementException.class, () -> it.next());
+    }
+  }
+
+  @Nested
+  @DisplayName("Advancing")
+  class AdvanceTests {
+
+    @Test
+    @DisplayName("should advance to the first occurrence at or after an instant")
+    void should_advance_when_instantGiven() throws Exception {
+      TemporalIterator<ZonedDateTime> it = TemporalIteratorFactory
+          .createZonedDateTimeIterator(RULE, START, true);
+      Instant third = ZonedDateTime.of(2024, 3, 16, 9, 30, 0, 0, NEW_YORK)
+          .toInstant();
+      it.advanceTo(third.minusNanos(1));
+      assertEquals(third, it.next().toInstant());
+      it.advanceTo(third);
+      assertEquals(23, it.next().getDayOfMonth());
+      assertFalse(it.hasNext());
+    }
+
+    @Test
+    @DisplayName("should not skip a day that starts at the instant")
+    void should_keepDay_when_dayStartsAtInstant() throws Exception {
+      TemporalIterator<LocalDateTime> it = TemporalIteratorFactory
+          .createLocalDateTimeIterator(
+              RecurrenceIteratorFactory.createRecurrenceIterator(
+                  new RRule("RRULE:FREQ=DAILY"),
+                  IcalParseUtil.parseDateValue("20240101"),
+                  TimeZone.getTimeZone(NEW_YORK)),
+              NEW_YORK);
+      it.advanceTo(ZonedDateTime.of(2024, 6, 1, 0, 0, 0, 0, NEW_YORK)
+          .toInstant());
+      assertEquals(LocalDateTime.of(2024, 6, 1, 0, 0), it.next());
+      it.advanceTo(ZonedDateTime.of(2024, 7, 1, 0, 0, 1, 0, NEW_YORK)
+          .toInstant());
+      assertEquals(LocalDateTime.of(2024, 7, 2, 0, 0), it.next());
+    }
+  }
+}
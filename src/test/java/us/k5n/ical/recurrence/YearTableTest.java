@@ -0,0 +1,93 @@
+package us.k5n.ical.recurrence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.WeekFields;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.google.ical.util.TimeUtils;
+import com.google.ical.util.YearTable;
+import com.google.ical.values.Weekday;
+
+/**
+ * Tests for the per-year calendar tables used by the recurrence generators.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("Year Tables")
+public class YearTableTest {
+
+  @Nested
+  @DisplayName("Calendar facts")
+  class CalendarTests {
+
+    @Test
+    @DisplayName("should agree with java.time for every day of a year")
+    void should_matchJavaTime_when_daysLookedUp() {
+      for (int year : new int[] { 1900, 2000, 2023, 2024, 2100, 2400 }) {
+        YearTable table = YearTable.forYear(year);
+        assertEquals(LocalDate.of(year, 1, 1).isLeapYear(),
+            table.isLeapYear());
+        assertEquals(LocalDate.of(year, 1, 1).lengthOfYear(),
+            table.yearLength());
+        for (LocalDate d = LocalDate.of(year, 1, 1); d.getYear() == year;
+            d = d.plusDays(1)) {
+          int month = d.getMonthValue();
+          assertEquals(d.lengthOfMonth(), table.monthLength(month));
+          assertEquals(d.getDayOfYear() - 1,
+              table.dayOfYear(month, d.getDayOfMonth()));
+          assertEquals(TimeUtils.fixedFromGregorian(year, month,
+              d.getDayOfMonth()), table.fixedDay(month, d.getDayOfMonth()));
+          assertEquals(d.getDayOfWeek().getValue() % 7,
+              table.dayOfWeek(month, d.getDayOfMonth()).jsDayNum);
+        }
+      }
+    }
+
+    @Test
+    @DisplayName("should share tables for cached years only")
+    void should_share_when_yearCached() {
+      assertSame(YearTable.forYear(2024), YearTable.forYear(2024));
+      assertEquals(1582, YearTable.forYear(1582).year());
+      assertFalse(YearTable.forYear(1582) == YearTable.forYear(1582));
+    }
+  }
+
+  @Nested
+  @DisplayName("Week numbering")
+  class WeekTests {
+
+    @Test
+    @DisplayName("should find ISO week 1 when weeks start on Monday")
+    void should_matchIsoWeeks_when_wkstMonday() {
+      for (int year = 2015; year < 2035; ++year) {
+        YearTable table = YearTable.forYear(year);
+        LocalDate week1 = LocalDate.of(year, 1, 4)
+            .with(WeekFields.ISO.dayOfWeek(), 1);
+        assertEquals(DayOfWeek.MONDAY, week1.getDayOfWeek());
+        assertEquals(week1.toEpochDay() - LocalDate.of(year, 1, 1).toEpochDay(),
+            table.week1Start(Weekday.MO));
+      }
+    }
+
+    @Test
+    @DisplayName("should start week 1 in the previous year when needed")
+    void should_startEarly_when_jan1LateInWeek() {
+      // 1 January 2026 is a Thursday
+      YearTable table = YearTable.forYear(2026);
+      assertEquals(Weekday.TH, table.firstDayOfWeekInMonth(1));
+      assertEquals(-3, table.week1Start(Weekday.MO));
+      assertEquals(53, table.weeksInYear(Weekday.MO));
+      // but a week starting on Sunday has only three days in 2026
+      assertEquals(3, table.week1Start(Weekday.SU));
+      assertEquals(52, table.weeksInYear(Weekday.SU));
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package us.k5n.ical.recurrence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.SimpleTimeZone;
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.google.ical.util.PackedDate;
+import com.google.ical.util.TimeUtils;
+import com.google.ical.util.ZoneOffsetTable;
+
+/**
+ * Tests for the cached timezone transition tables used to convert between UTC
+ * and local time.
+ *
+ * @author Craig Knudsen, craig@k5n.us
+ */
+@DisplayName("Zone Offset Tables")
+public class ZoneOffsetTableTest {
+
+  private static final String[] ZONES = {
+      "America/New_York", "Europe/London", "Australia/Lord_Howe",
+      "Asia/Kolkata", "America/St_Johns", "Pacific/Apia", "America/Sao_Paulo",
+  };
+
+  /** local to UTC the way TimeUtils did before it had tables. */
+  private static long calendarToUtc(LocalDateTime local, TimeZone zone) {
+    Calendar cal = new GregorianCalendar(zone);
+    cal.clear();
+    cal.set(local.getYear(), local.getMonthValue() - 1, local.getDayOfMonth(),
+        local.getHour(), local.getMinute(), local.getSecond());
+    int offset = zone.getOffset(cal.getTimeInMillis()) / 1000;
+    return local.toEpochSecond(ZoneOffset.UTC) - offset;
+  }
+
+  private static long pack(LocalDateTime t) {
+    return PackedDate.pack(t.getYear(), t.getMonthValue(), t.getDayOfMonth(),
+        t.getHour(), t.getMinute(), t.getSecond());
+  }
+
+  private static LocalDateTime unpack(long packed) {
+    return LocalDateTime.of(PackedDate.year(packed), PackedDate.month(packed),
+        PackedDate.day(packed), PackedDate.hour(packed),
+        PackedDate.minute(packed), PackedDate.second(packed));
+  }
+
+  @Nested
+  @DisplayName("Conversion")
+  class ConversionTests {
+
+    @Test
+    @DisplayName("should match GregorianCalendar around every transition")
+    void should_matchCalendar_when_nearTransitions() {
+      for (String id : ZONES) {
+        TimeZone zone = TimeZone.getTimeZone(id);
+        ZoneRules rules = ZoneId.of(id).getRules();
+        ZoneOffsetTransition t = rules.nextTransition(
+            Instant.parse("1950-01-01T00:00:00Z"));
+        while (t != null && t.toEpochSecond() < 2114380800L) { // 2037
+          for (long d = -3 * 3600; d <= 3 * 3600; d += 1800) {
+            LocalDateTime local = LocalDateTime.ofEpochSecond(
+                t.toEpochSecond() + d, 0, ZoneOffset.UTC);
+            long expected = calendarToUtc(local, zone);
+            assertEquals(expected, unpack(TimeUtils.toUtc(pack(local), zone))
+                .toEpochSecond(ZoneOffset.UTC), id + " " + local);
+            // and the same value read as UTC
+            assertEquals(local.plusSeconds(zone.getOffset(
+                local.toEpochSecond(ZoneOffset.UTC) * 1000) / 1000),
+                unpack(TimeUtils.fromUtc(pack(local), zone)), id + " " + local);
+          }
+          t = rules.nextTransition(t.getInstant());
+        }
+      }
+    }
+
+    @Test
+    @DisplayName("should fall back to the calendar for custom zones")
+    void should_fallBack_when_zoneHasCustomRules() {
+      TimeZone custom = new SimpleTimeZone(-5 * 3600000, "America/New_York");
+      assertNull(ZoneOffsetTable.forZone(custom));
+      long packed = PackedDate.pack(2007, 7, 4, 12, 0, 0);
+      assertEquals(PackedDate.pack(2007, 7, 4, 17, 0, 0),
+          TimeUtils.toUtc(packed, custom));
+    }
+  }
+
+  @Nested
+  @DisplayName("Tables")
+  class TableTests {
+
+    @Test
+    @DisplayName("should share one table per zone")
+    void should_shareTable_when_zoneRequestedTwice() {
+      ZoneOffsetTable a = ZoneOffsetTable.forZone(
+          TimeZone.getTimeZone("Europe/Paris"));
+      assertNotNull(a);
+      assertSame(a, ZoneOffsetTable.forZone(
+          TimeZone.getTimeZone("Europe/Paris")));
+    }
+
+    @Test
+    @DisplayName("should look up offsets in a table built from arrays")
+    void should_lookUpOffsets_when_builtFromArrays() {
+      // one hour ahead from 1000 until 5000
+      ZoneOffsetTable table = new ZoneOffsetTable(new long[] { 1000, 5000 },
+          new int[] { 0, 3600, 0 });
+      assertEquals(0, table.offsetAtUtc(999));
+      assertEquals(3600, table.offsetAtUtc(1000));
+      assertEquals(0, table.offsetAtUtc(5000));
+      // skipped local times count as before the transition
+      assertEquals(0, table.offsetAtLocal(2000));
+      assertEquals(3600, table.offsetAtLocal(4600));
+      // repeated local times count as after the transition
+      assertEquals(0, table.offsetAtLocal(5000));
+      assertThrows(IllegalArgumentException.class,
+          () -> new ZoneOffsetTable(new long[] { 1 }, new int[] { 0 }));
+    }
+  }
+}